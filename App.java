@@ -3,30 +3,34 @@ package com.TobyMellor.TrainRouteFinder;
 import com.TobyMellor.TrainRouteFinder.gui.GUI;
 import com.TobyMellor.TrainRouteFinder.journeys.Journey;
 import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.persistence.MutationLog;
+import com.TobyMellor.TrainRouteFinder.persistence.NetworkSnapshot;
+import com.TobyMellor.TrainRouteFinder.persistence.SaveService;
+import com.TobyMellor.TrainRouteFinder.persistence.XMLDatasetLoader;
+import com.TobyMellor.TrainRouteFinder.planning.ContractionHierarchy;
+import com.TobyMellor.TrainRouteFinder.planning.ContractionHierarchyFile;
+import com.TobyMellor.TrainRouteFinder.planning.DurationMatrix;
+import com.TobyMellor.TrainRouteFinder.planning.StationBoards;
+import com.TobyMellor.TrainRouteFinder.planning.StationGraph;
+import com.TobyMellor.TrainRouteFinder.planning.Timetable;
 import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
 import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
 import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
 import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
 import com.TobyMellor.TrainRouteFinder.stations.StationManager;
-import com.TobyMellor.TrainRouteFinder.validation.exceptions.ValidationException;
-import com.TobyMellor.TrainRouteFinder.validation.validators.BasicRouteValidator;
-import com.TobyMellor.TrainRouteFinder.validation.validators.DestinationStationValidator;
-import com.TobyMellor.TrainRouteFinder.validation.validators.IntermediateStationValidator;
-import com.TobyMellor.TrainRouteFinder.validation.validators.JourneyValidator;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * The Main class which will load data from the XML files
@@ -36,15 +40,27 @@ import java.util.List;
  *
  * Manager Instances can be obtained statically from this class.
  *
+ * The managers are installed together as a <code>Dataset</code>, published with a single atomic write, so that a
+ * reload swaps every manager at once. Anything that needs the managers to match should read them through one
+ * <code>getDataset()</code>.
+ *
  * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
  *
- * @version $Revision: 1.0.0 $, $Date: 2017/03/27 19:18:00 $
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:45:00 $
  */
 
 public class App {
-    private static StationManager stationManager = null;
-    private static BasicRouteManager basicRouteManager = null;
-    private static JourneyManager journeyManager = null;
+    private static final AtomicReference<Dataset> dataset = new AtomicReference<Dataset>(new Dataset(null, null, null, null, null));
+
+    // each is rebuilt while its reference is locked, so only one is built and attached at a time, and read without a lock
+    private static final AtomicReference<Timetable> timetable = new AtomicReference<Timetable>();
+    private static final AtomicReference<DurationMatrix> durationMatrix = new AtomicReference<DurationMatrix>();
+    private static final AtomicReference<StationBoards> stationBoards = new AtomicReference<StationBoards>();
+    private static final AtomicReference<ContractionHierarchy> contractionHierarchy = new AtomicReference<ContractionHierarchy>();
+
+    private static final int CHECKPOINT_INTERVAL = 1000; // changes logged before saving starts a checkpoint
+
+    private static SaveService saveService = null;
 
     public static void main(String[] args) {
         try {
@@ -56,9 +72,7 @@ public class App {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (SAXException e) {
-            e.printStackTrace();
-        } catch (ParserConfigurationException e) {
+        } catch (XMLStreamException e) {
             e.printStackTrace();
         }
     }
@@ -68,146 +82,300 @@ public class App {
      * Populates <code>destinationStations</code>, <code>intermediateStations</code> and <code>basicRoutes</code>
      * with their respective objects.
      *
-     * Instantiates the three managers with the populated lists and stores them in public variables in this class.
+     * Instantiates the three managers with the populated lists and installs them in this class.
      *
      * Validates all of the populated lists before adding them to their managers.
      *
+     * The three files are parsed in parallel and validated in dependency order, so loading takes
+     * about as long as the largest file does.
+     *
+     * If the binary snapshot written by the last checkpoint is still current, it is loaded instead
+     * and the XML files are not parsed or validated at all. Otherwise a checkpoint is started in the background once
+     * the XML files have been loaded, so that the snapshot is current again. The <code>ContractionHierarchy</code> saved
+     * alongside them is read back too, if it is still current.
+     *
+     * Any changes logged in the <code>MutationLog</code> since the last checkpoint are then replayed over the loaded
+     * network, and the log is opened to record the changes made from now on.
+     *
+     * The new managers are only installed once they have been completely loaded, so the managers installed before
+     * carry on being read until then. Use <code>reloadXML()</code> to load them in the background instead.
+     *
      * @throws IOException if file stations.xml, basic_routes.xml or journeys.xml are not found or cannot be opened
-     * @throws SAXException if one of the XML files cannot be parsed
-     * @throws ParserConfigurationException if the document cannot be built
+     * @throws XMLStreamException if one of the XML files cannot be parsed
+     *
+     * @see XMLDatasetLoader
+     * @see NetworkSnapshot
+     * @see ContractionHierarchyFile
+     * @see MutationLog
      */
-    public static void loadXML() throws IOException, SAXException, ParserConfigurationException {
-        List<DestinationStation> destinationStations = new ArrayList<DestinationStation>();
-        List<IntermediateStation> intermediateStations = new ArrayList<IntermediateStation>();
-        List<BasicRoute> basicRoutes = new ArrayList<BasicRoute>();
-        List<Journey> journeys = new ArrayList<Journey>();
-
-        StationManager sm = new StationManager(destinationStations, intermediateStations);
-        BasicRouteManager brm = new BasicRouteManager(basicRoutes);
-        JourneyManager jm = new JourneyManager(journeys);
-
-        setStationManager(sm);
-        setBasicRouteManager(brm);
-        setJourneyManager(jm);
-
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document stationsXML = builder.parse("resources/xml/stations.xml");
+    public static void loadXML() throws IOException, XMLStreamException {
+        awaitCheckpoint(); // don't read the files while they are being written
 
-        NodeList destinationStationsXML = stationsXML.getElementsByTagName("destinationStation");
-        NodeList intermediateStationsXML = stationsXML.getElementsByTagName("intermediateStation");
-
-        for (int i = 0; i < destinationStationsXML.getLength(); i++) {
-            Node destinationStationXML = destinationStationsXML.item(i);
-
-            if (destinationStationXML.getNodeType() == Node.ELEMENT_NODE) {
-                Element element = (Element) destinationStationXML;
+        install(loadDataset());
+    }
 
-                String id = element.getAttribute("id"); // we're using String UUIDs instead of incrementing numerical IDs
-                String stationName = element.getElementsByTagName("name").item(0).getTextContent(); // there's only one element in the parent called "name"
+    /**
+     * Loads the XML files again, as <code>loadXML()</code> does, into a new <code>Dataset</code> on the save thread
+     * (so that no checkpoint is written while the files are read), and then installs it on the <code>installExecutor</code>
+     *
+     * The installed managers can still be read and changed while the new ones are loaded. The changes made meanwhile
+     * are logged, and are replayed over the new managers just before they are installed, so nothing is lost. The
+     * <code>installExecutor</code> should run on the thread that changes the managers (the JavaFX application thread),
+     * so that no change is made to the old managers once the new ones have replaced them.
+     *
+     * If the files cannot be loaded, the returned future completes exceptionally and the installed managers are kept.
+     *
+     * @param installExecutor runs the install once the new managers have been loaded
+     *
+     * @return CompletableFuture<Void> completed once the new managers have been installed
+     */
+    public static CompletableFuture<Void> reloadXML(final Executor installExecutor) {
+        final MutationLog installedLog = getMutationLog();
 
-                DestinationStation destinationStation = new DestinationStation(id, stationName);
+        if (installedLog != null) {
+            installedLog.holdSegments(); // the new managers replay them, checkpointed or not
+        }
 
+        CompletableFuture<Void> future = getSaveService().runBetweenCheckpoints(new Callable<Dataset>() {
+            @Override
+            public Dataset call() throws Exception {
+                return loadDataset();
+            }
+        }).thenAcceptAsync(new Consumer<Dataset>() {
+            @Override
+            public void accept(final Dataset loadedDataset) {
                 try {
-                    destinationStation.validate(new DestinationStationValidator());
-                    destinationStations.add(destinationStation); // push a new instance of DestinationStation to the list, provided it has been correctly validated
-                } catch (ValidationException e) {
-                    System.out.print(e.getMessage() + "\n");
-                    System.out.print(e.getValidationMessages() + "\n");
+                    install(loadedDataset);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
                 }
             }
+        }, installExecutor);
+
+        if (installedLog != null) {
+            future.whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(final Void result, final Throwable error) {
+                    try {
+                        installedLog.releaseSegments();
+                    } catch (IOException e) {
+                        e.printStackTrace(); // they will be deleted by the next checkpoint instead
+                    }
+                }
+            });
         }
 
-        for (int i = 0; i < intermediateStationsXML.getLength(); i++) {
-            Node intermediateStationXML = intermediateStationsXML.item(i);
+        return future;
+    }
 
-            if (intermediateStationXML.getNodeType() == Node.ELEMENT_NODE) {
-                Element element = (Element) intermediateStationXML;
+    /**
+     * Loads and validates a new <code>Dataset</code> from the snapshot or the XML files, and replays the
+     * <code>MutationLog</code> over it, without installing it
+     *
+     * @return Dataset
+     *
+     * @throws IOException if the files cannot be read
+     * @throws XMLStreamException if one of the XML files cannot be parsed
+     */
+    private static Dataset loadDataset() throws IOException, XMLStreamException {
+        StationManager sm = new StationManager(new ArrayList<DestinationStation>(), new ArrayList<IntermediateStation>());
+        BasicRouteManager brm = new BasicRouteManager(new ArrayList<BasicRoute>());
+        JourneyManager jm = new JourneyManager(new ArrayList<Journey>());
 
-                String id = element.getAttribute("id");
-                String stationName = element.getElementsByTagName("name").item(0).getTextContent();
+        boolean isSnapshotStale = !getSnapshot().load(sm, brm, jm);
 
-                IntermediateStation intermediateStation = new IntermediateStation(id, stationName);
+        if (isSnapshotStale) {
+            new XMLDatasetLoader(new File("resources/xml")).load(sm, brm, jm);
+        }
 
-                try {
-                    intermediateStation.validate(new IntermediateStationValidator());
-                    intermediateStations.add(intermediateStation);
-                } catch (ValidationException e) {
-                    System.out.print(e.getMessage() + "\n");
-                    System.out.print(e.getValidationMessages() + "\n");
+        ContractionHierarchy loadedContractionHierarchy = getContractionHierarchyFile().load(sm, brm, jm); // seen as stale if the log changes anything
+
+        MutationLog log = new MutationLog(new File("resources/xml"));
+        log.replay(sm, brm, jm);
+
+        return new Dataset(sm, brm, jm, log, loadedContractionHierarchy, isSnapshotStale);
+    }
+
+    /**
+     * Catches <code>loadedDataset</code> up with the changes logged since it was loaded, opens its log and publishes it
+     * in place of the installed <code>Dataset</code>
+     *
+     * The installed managers are locked meanwhile, so that no change is made to them between catching up and publishing.
+     * Anything reading the old managers carries on reading them until it next asks for the managers.
+     *
+     * If <code>loadedDataset</code> had to be loaded from the XML files, a checkpoint is then started in the background
+     * so that the snapshot is written again.
+     *
+     * @param loadedDataset the <code>Dataset</code> returned by <code>loadDataset()</code>
+     *
+     * @throws IOException if the log cannot be read or opened, in which case the installed <code>Dataset</code> is kept
+     */
+    private static synchronized void install(final Dataset loadedDataset) throws IOException {
+        Dataset installedDataset = dataset.get();
+
+        synchronized (getLock(installedDataset.getStationManager())) {
+            synchronized (getLock(installedDataset.getBasicRouteManager())) {
+                synchronized (getLock(installedDataset.getJourneyManager())) {
+                    MutationLog log = loadedDataset.getMutationLog();
+
+                    log.replay(loadedDataset.getStationManager(), loadedDataset.getBasicRouteManager(), loadedDataset.getJourneyManager()); // the changes made while it was loading
+                    log.open();
+
+                    dataset.set(loadedDataset);
+                    contractionHierarchy.set(loadedDataset.getContractionHierarchy());
+
+                    if (installedDataset.getMutationLog() != null) {
+                        try {
+                            installedDataset.getMutationLog().close();
+                        } catch (IOException e) {
+                            e.printStackTrace(); // its records have already been replayed into the new log's managers
+                        }
+                    }
                 }
             }
         }
 
-        NodeList basicRoutesXML = builder.parse("resources/xml/basic_routes.xml").getElementsByTagName("basicRoute");
+        if (loadedDataset.isSnapshotStale()) {
+            checkpoint(); // rewrites the snapshot in the background, so the XML files needn't be parsed again next time
+        }
+    }
 
-        for (int i = 0; i < basicRoutesXML.getLength(); i++) {
-            Node basicRouteXML = basicRoutesXML.item(i);
+    /**
+     * Returns the object a manager's changes are synchronized on, or this class if there isn't a manager installed yet
+     *
+     * @param manager the installed manager, or null
+     *
+     * @return Object
+     */
+    private static Object getLock(final Manager manager) {
+        return manager != null ? manager : App.class;
+    }
+
+    /**
+     * Saves every change made since the XML files were last written, by forcing the <code>MutationLog</code> to the disk,
+     * so saving takes the same time however large the network is
+     *
+     * Once enough changes have built up in the log, or if a change couldn't be logged, a checkpoint is started in the
+     * background as well, and the returned future completes once it has been written
+     *
+     * @return CompletableFuture<Void>
+     *
+     * @see MutationLog
+     * @see #checkpoint()
+     */
+    public static CompletableFuture<Void> saveXML() {
+        MutationLog mutationLog = getMutationLog();
 
-            if (basicRouteXML.getNodeType() == Node.ELEMENT_NODE) {
-                Element element = (Element) basicRouteXML;
+        if (mutationLog == null || mutationLog.hasUnloggedChanges()) {
+            return checkpoint(); // a change that couldn't be logged is only saved by a checkpoint
+        }
 
-                String id = element.getAttribute("id");
-                String departingStationId = element.getElementsByTagName("departingStationId").item(0).getTextContent();
-                String destinationStationId = element.getElementsByTagName("destinationStationId").item(0).getTextContent();
-                BigDecimal singlePrice = new BigDecimal(element.getElementsByTagName("singlePrice").item(0).getTextContent());
-                BigDecimal returnPrice = new BigDecimal(element.getElementsByTagName("returnPrice").item(0).getTextContent());
-                int duration = Integer.parseInt(element.getElementsByTagName("duration").item(0).getTextContent());
+        try {
+            mutationLog.sync();
+        } catch (IOException e) {
+            CompletableFuture<Void> future = new CompletableFuture<Void>();
 
-                BasicRoute basicRoute = new BasicRoute(id, departingStationId, destinationStationId, singlePrice, returnPrice, duration);
+            future.completeExceptionally(e);
 
-                try {
-                    basicRoute.validate(new BasicRouteValidator());
-                    basicRoutes.add(basicRoute);
-                } catch (ValidationException e) {
-                    System.out.print(e.getMessage() + "\n");
-                    System.out.print(e.getValidationMessages() + "\n");
-                }
-            }
+            return future;
         }
 
-        NodeList journeysXML = builder.parse("resources/xml/journeys.xml").getElementsByTagName("journey");
+        if (mutationLog.getPendingRecordCount() >= CHECKPOINT_INTERVAL) {
+            return checkpoint();
+        }
 
-        for (int i = 0; i < journeysXML.getLength(); i++) {
-            Node journeyXML = journeysXML.item(i);
+        return CompletableFuture.completedFuture(null);
+    }
 
-            if (journeyXML.getNodeType() == Node.ELEMENT_NODE) {
-                Element element = (Element) journeyXML;
+    /**
+     * Starts writing the XML files for each manager in the background, followed by the binary snapshot of all three
+     * and the <code>ContractionHierarchy</code> built from them, and then deletes the <code>MutationLog</code> segments
+     * they now include
+     *
+     * A snapshot of the managers is taken before returning, so they can carry on changing while the files are written
+     *
+     * @return CompletableFuture<Void> completed once the checkpoint has been written
+     *
+     * @see SaveService
+     */
+    public static synchronized CompletableFuture<Void> checkpoint() {
+        Dataset currentDataset = dataset.get();
+        ContractionHierarchy currentContractionHierarchy = contractionHierarchy.get();
 
-                String id = element.getAttribute("id");
-                String basicRouteId = element.getElementsByTagName("basicRouteId").item(0).getTextContent();
-                long timestamp = Long.parseLong(element.getElementsByTagName("timestamp").item(0).getTextContent());
+        if (currentContractionHierarchy != null && !currentContractionHierarchy.isCurrent(
+                currentDataset.getStationManager(), currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager())) {
+            currentContractionHierarchy = null;
+        }
 
-                NodeList intermediateStationIdsXML = element.getElementsByTagName("intermediateStationId");
-                List<String> intermediateStationIds = new ArrayList<String>();
+        return getSaveService().save(currentDataset.getStationManager(), currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager(),
+                currentContractionHierarchy, currentDataset.getMutationLog());
+    }
 
-                for (int j = 0; j < intermediateStationIdsXML.getLength(); j++) {
-                    intermediateStationIds.add(intermediateStationIdsXML.item(j).getTextContent());
-                }
+    /**
+     * Waits for every checkpoint being written in the background to finish
+     */
+    public static void awaitCheckpoint() {
+        getSaveService().awaitPendingSaves();
+    }
 
-                Journey journey = new Journey(id, basicRouteId, intermediateStationIds, timestamp);
+    /**
+     * Returns the <code>MutationLog</code> the managers record their changes in, or null if the network wasn't loaded
+     * by <code>loadXML()</code>
+     *
+     * @return MutationLog
+     */
+    public static MutationLog getMutationLog() {
+        return dataset.get().getMutationLog();
+    }
 
-                try {
-                    journey.validate(new JourneyValidator(true));
-                    journeys.add(journey);
-                } catch (ValidationException e) {
-                    System.out.print(e.getMessage() + "\n");
-                    System.out.print(e.getValidationMessages() + "\n");
-                }
-            }
+    /**
+     * Returns the <code>NetworkSnapshot</code> kept alongside the XML files
+     *
+     * @return NetworkSnapshot
+     */
+    private static NetworkSnapshot getSnapshot() {
+        return new NetworkSnapshot(
+                new File("resources/xml/network.snapshot"),
+                new File("resources/xml/stations.xml"),
+                new File("resources/xml/basic_routes.xml"),
+                new File("resources/xml/journeys.xml")
+        );
+    }
+
+    /**
+     * Returns the <code>ContractionHierarchyFile</code> kept alongside the XML files
+     *
+     * @return ContractionHierarchyFile
+     */
+    private static ContractionHierarchyFile getContractionHierarchyFile() {
+        return new ContractionHierarchyFile(
+                new File("resources/xml/network.ch"),
+                new File("resources/xml/stations.xml"),
+                new File("resources/xml/basic_routes.xml"),
+                new File("resources/xml/journeys.xml")
+        );
+    }
+
+    /**
+     * Returns the <code>SaveService</code> writing checkpoints of the managers in the background
+     *
+     * @return SaveService
+     */
+    private static synchronized SaveService getSaveService() {
+        if (saveService == null) {
+            saveService = new SaveService(getSnapshot(), getContractionHierarchyFile());
         }
+
+        return saveService;
     }
 
     /**
-     * Saves the XML files for each manager.
+     * Returns the installed <code>Dataset</code>, whose managers were all loaded together
      *
-     * @see Manager
+     * @return Dataset
      */
-    public static void saveXML() {
-        getStationManager().save();
-        getBasicRouteManager().save();
-        getJourneyManager().save();
+    public static Dataset getDataset() {
+        return dataset.get();
     }
 
     /**
@@ -216,16 +384,19 @@ public class App {
      * @return StationManager
      */
     public static StationManager getStationManager() {
-        return App.stationManager;
+        return dataset.get().getStationManager();
     }
 
     /**
-     * Sets an instance of <code>StationManager</code> to the public <code>stationManager</code> variable in this class
+     * Installs an instance of <code>StationManager</code> in place of the installed one, keeping the other managers
      *
      * @param stationManager the <code>StationManager</code> instance
      */
-    public static void setStationManager(final StationManager stationManager) {
-        App.stationManager = stationManager;
+    public static synchronized void setStationManager(final StationManager stationManager) {
+        Dataset currentDataset = dataset.get();
+
+        dataset.set(new Dataset(stationManager, currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager(),
+                currentDataset.getMutationLog(), currentDataset.getContractionHierarchy()));
     }
 
     /**
@@ -234,16 +405,19 @@ public class App {
      * @return BasicRouteManager
      */
     public static BasicRouteManager getBasicRouteManager() {
-        return App.basicRouteManager;
+        return dataset.get().getBasicRouteManager();
     }
 
     /**
-     * Sets an instance of <code>BasicRouteManager</code> to the public <code>basicRouteManager</code> variable in this class
+     * Installs an instance of <code>BasicRouteManager</code> in place of the installed one, keeping the other managers
      *
      * @param basicRouteManager the <code>BasicRouteManager</code> instance
      */
-    public static void setBasicRouteManager(final BasicRouteManager basicRouteManager) {
-        App.basicRouteManager = basicRouteManager;
+    public static synchronized void setBasicRouteManager(final BasicRouteManager basicRouteManager) {
+        Dataset currentDataset = dataset.get();
+
+        dataset.set(new Dataset(currentDataset.getStationManager(), basicRouteManager, currentDataset.getJourneyManager(),
+                currentDataset.getMutationLog(), currentDataset.getContractionHierarchy()));
     }
 
     /**
@@ -252,15 +426,133 @@ public class App {
      * @return JourneyManager
      */
     public static JourneyManager getJourneyManager() {
-        return App.journeyManager;
+        return dataset.get().getJourneyManager();
     }
 
     /**
-     * Sets an instance of <code>JourneyManager</code> to the public <code>journeyManager</code> variable in this class
+     * Installs an instance of <code>JourneyManager</code> in place of the installed one, keeping the other managers
      *
      * @param journeyManager the <code>JourneyManager</code> instance
      */
-    public static void setJourneyManager(final JourneyManager journeyManager) {
-        App.journeyManager = journeyManager;
+    public static synchronized void setJourneyManager(final JourneyManager journeyManager) {
+        Dataset currentDataset = dataset.get();
+
+        dataset.set(new Dataset(currentDataset.getStationManager(), currentDataset.getBasicRouteManager(), journeyManager,
+                currentDataset.getMutationLog(), currentDataset.getContractionHierarchy()));
+    }
+
+    /**
+     * Returns the <code>Timetable</code> the journey planners search, rebuilding it first if the
+     * <code>Journey</code>s or managers have changed since it was last built
+     *
+     * @return Timetable
+     */
+    public static Timetable getTimetable() {
+        Dataset currentDataset = dataset.get();
+        Timetable currentTimetable = timetable.get();
+
+        if (currentTimetable != null && currentTimetable.isCurrent(currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager())) {
+            return currentTimetable;
+        }
+
+        synchronized (timetable) {
+            currentTimetable = timetable.get();
+
+            if (currentTimetable == null || !currentTimetable.isCurrent(currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager())) {
+                currentTimetable = new Timetable(currentDataset.getStationManager(), currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager());
+                timetable.set(currentTimetable);
+            }
+
+            return currentTimetable;
+        }
+    }
+
+    /**
+     * Returns the <code>DurationMatrix</code> of minimum durations between <code>DestinationStation</code>s, rebuilding it
+     * first if the managers have been replaced or it couldn't keep itself up to date
+     *
+     * @return DurationMatrix
+     */
+    public static DurationMatrix getDurationMatrix() {
+        Dataset currentDataset = dataset.get();
+        DurationMatrix currentDurationMatrix = durationMatrix.get();
+
+        if (currentDurationMatrix != null && currentDurationMatrix.isCurrent(currentDataset.getStationManager(), currentDataset.getBasicRouteManager())) {
+            return currentDurationMatrix;
+        }
+
+        synchronized (durationMatrix) {
+            currentDurationMatrix = durationMatrix.get();
+
+            if (currentDurationMatrix == null || !currentDurationMatrix.isCurrent(currentDataset.getStationManager(), currentDataset.getBasicRouteManager())) {
+                if (currentDurationMatrix != null) {
+                    currentDurationMatrix.detach();
+                }
+
+                currentDurationMatrix = new DurationMatrix(currentDataset.getStationManager(), currentDataset.getBasicRouteManager());
+                durationMatrix.set(currentDurationMatrix);
+            }
+
+            return currentDurationMatrix;
+        }
+    }
+
+    /**
+     * Returns the <code>StationBoards</code> of departures and arrivals at every station, rebuilding them first if the
+     * managers have been replaced
+     *
+     * @return StationBoards
+     */
+    public static StationBoards getStationBoards() {
+        Dataset currentDataset = dataset.get();
+        StationBoards currentStationBoards = stationBoards.get();
+
+        if (currentStationBoards != null && currentStationBoards.isCurrent(currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager())) {
+            return currentStationBoards;
+        }
+
+        synchronized (stationBoards) {
+            currentStationBoards = stationBoards.get();
+
+            if (currentStationBoards == null || !currentStationBoards.isCurrent(currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager())) {
+                if (currentStationBoards != null) {
+                    currentStationBoards.detach();
+                }
+
+                currentStationBoards = new StationBoards(currentDataset.getBasicRouteManager(), currentDataset.getJourneyManager());
+                stationBoards.set(currentStationBoards);
+            }
+
+            return currentStationBoards;
+        }
+    }
+
+    /**
+     * Returns the <code>ContractionHierarchy</code> over every station, preprocessing it again first if the
+     * <code>BasicRoute</code>s, <code>Journey</code>s or managers have changed since it was built or loaded
+     *
+     * @return ContractionHierarchy
+     */
+    public static ContractionHierarchy getContractionHierarchy() {
+        Dataset currentDataset = dataset.get();
+        StationManager sm = currentDataset.getStationManager();
+        BasicRouteManager brm = currentDataset.getBasicRouteManager();
+        JourneyManager jm = currentDataset.getJourneyManager();
+        ContractionHierarchy currentContractionHierarchy = contractionHierarchy.get();
+
+        if (currentContractionHierarchy != null && currentContractionHierarchy.isCurrent(sm, brm, jm)) {
+            return currentContractionHierarchy;
+        }
+
+        synchronized (contractionHierarchy) {
+            currentContractionHierarchy = contractionHierarchy.get();
+
+            if (currentContractionHierarchy == null || !currentContractionHierarchy.isCurrent(sm, brm, jm)) {
+                currentContractionHierarchy = new ContractionHierarchy(new StationGraph(sm, brm, jm));
+                contractionHierarchy.set(currentContractionHierarchy);
+            }
+
+            return currentContractionHierarchy;
+        }
     }
 }
@@ -0,0 +1,82 @@
+package com.TobyMellor.TrainRouteFinder;
+
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.persistence.MutationLog;
+import com.TobyMellor.TrainRouteFinder.planning.ContractionHierarchy;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+/**
+ * The three managers loaded together from the XML files, with the <code>MutationLog</code> their changes are recorded in
+ * and the <code>ContractionHierarchy</code> saved alongside them, if it was still current
+ *
+ * <code>App</code> publishes the whole dataset at once, so anything reading the managers through one
+ * <code>Dataset</code> never sees the managers of two different loads mixed together.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 18:40:00 $
+ */
+
+public final class Dataset {
+    private final StationManager stationManager;
+    private final BasicRouteManager basicRouteManager;
+    private final JourneyManager journeyManager;
+    private final MutationLog mutationLog;
+    private final ContractionHierarchy contractionHierarchy;
+    private final boolean isSnapshotStale;
+
+    /**
+     * @param stationManager       the <code>StationManager</code>
+     * @param basicRouteManager    the <code>BasicRouteManager</code>
+     * @param journeyManager       the <code>JourneyManager</code>
+     * @param mutationLog          the <code>MutationLog</code> the managers' changes are recorded in, or null if there isn't one
+     * @param contractionHierarchy the <code>ContractionHierarchy</code> loaded with the managers, or null if there wasn't a current one
+     */
+    public Dataset(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager,
+                   final MutationLog mutationLog, final ContractionHierarchy contractionHierarchy) {
+        this(stationManager, basicRouteManager, journeyManager, mutationLog, contractionHierarchy, false);
+    }
+
+    /**
+     * @param stationManager       the <code>StationManager</code>
+     * @param basicRouteManager    the <code>BasicRouteManager</code>
+     * @param journeyManager       the <code>JourneyManager</code>
+     * @param mutationLog          the <code>MutationLog</code> the managers' changes are recorded in, or null if there isn't one
+     * @param contractionHierarchy the <code>ContractionHierarchy</code> loaded with the managers, or null if there wasn't a current one
+     * @param isSnapshotStale      whether the managers were loaded from the XML files because the snapshot was missing or stale
+     */
+    public Dataset(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager,
+                   final MutationLog mutationLog, final ContractionHierarchy contractionHierarchy, final boolean isSnapshotStale) {
+        this.stationManager = stationManager;
+        this.basicRouteManager = basicRouteManager;
+        this.journeyManager = journeyManager;
+        this.mutationLog = mutationLog;
+        this.contractionHierarchy = contractionHierarchy;
+        this.isSnapshotStale = isSnapshotStale;
+    }
+
+    public StationManager getStationManager() {
+        return stationManager;
+    }
+
+    public BasicRouteManager getBasicRouteManager() {
+        return basicRouteManager;
+    }
+
+    public JourneyManager getJourneyManager() {
+        return journeyManager;
+    }
+
+    public MutationLog getMutationLog() {
+        return mutationLog;
+    }
+
+    public ContractionHierarchy getContractionHierarchy() {
+        return contractionHierarchy;
+    }
+
+    public boolean isSnapshotStale() {
+        return isSnapshotStale;
+    }
+}
@@ -1,14 +1,15 @@
 package com.TobyMellor.TrainRouteFinder;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import com.TobyMellor.TrainRouteFinder.persistence.AtomicFiles;
 
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * Abstract <code>Manager</code> Class contains abstract methods and functions all
@@ -16,53 +17,77 @@ import java.io.File;
  *
  * Used for managing XML files
  *
+ * XML files are written with a streaming <code>XMLStreamWriter</code> through a buffered stream, so each record is
+ * emitted straight from the manager's collection rather than building a DOM tree of the whole file first
+ *
  * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
  *
  * @version $Revision: 1.0.0 $, $Date: 2017/03/27 19:32:00 $
  */
 
 abstract public class Manager {
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     /**
      * A required function by any manager that extends this class
+     *
+     * @throws IOException if the manager's XML file cannot be written, in which case the old file is left as it was
+     */
+    abstract public void save() throws IOException;
+
+    /**
+     * Writes the root element of the manager's XML file, and every record inside it
+     *
+     * @param writer the writer, positioned after the XML declaration
+     *
+     * @throws XMLStreamException if the XML cannot be written
      */
-    abstract public void save();
+    abstract protected void writeRecords(XMLStreamWriter writer) throws XMLStreamException;
 
     /**
-     * Creates an XML element with a name and content for a given document
+     * Writes an XML element with a name and text content
      *
-     * Function compacts the code needed to create an XML element
+     * Function compacts the code needed to write an XML element
      *
-     * @param document    the XML document
+     * @param writer      the writer to write the element to
      * @param elementName what the XML tagname will be
      * @param content     the text content contained within the element
      *
-     * @return Element
+     * @throws XMLStreamException if the element cannot be written
      */
-    protected Element createXMLElement(Document document, String elementName, String content) {
-        Element element = document.createElement(elementName);
-        element.setTextContent(content);
-
-        return element;
+    protected void writeXMLElement(XMLStreamWriter writer, String elementName, String content) throws XMLStreamException {
+        writer.writeStartElement(elementName);
+        writer.writeCharacters(content);
+        writer.writeEndElement();
     }
 
     /**
-     * Replaces a given file with a new XML document
+     * Replaces a given file with the manager's records, streamed out by <code>writeRecords()</code>
+     *
+     * The records are written to a temporary file which is then renamed over <code>file</code>, so the file is
+     * never left half-written
      *
-     * @param document the XML document
-     * @param file     an existing XML file that will be overridden
+     * @param file an existing XML file that will be overridden
+     *
+     * @throws IOException if the file cannot be written
      */
-    protected void writeXML(Document document, File file) {
-        try {
-            TransformerFactory factory = TransformerFactory.newInstance();
-            Transformer transformer = factory.newTransformer();
+    protected void writeXML(File file) throws IOException {
+        File temporaryFile = AtomicFiles.getTemporaryFile(file);
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temporaryFile), WRITE_BUFFER_SIZE);
 
-            DOMSource source = new DOMSource(document);
-
-            StreamResult result = new StreamResult(file);
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
 
-            transformer.transform(source, result);
-        } catch (TransformerException e) {
-            e.printStackTrace();
+            writer.writeStartDocument("UTF-8", "1.0");
+            writeRecords(writer);
+            writer.writeEndDocument();
+            writer.close(); // flushes the writer, but doesn't close the stream
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not write " + file.getPath(), e);
+        } finally {
+            outputStream.close();
         }
+
+        AtomicFiles.replace(temporaryFile, file);
     }
 }
@@ -0,0 +1,171 @@
+package com.TobyMellor.TrainRouteFinder.benchmarks;
+
+import com.TobyMellor.TrainRouteFinder.journeys.Journey;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.planning.ConnectionScanPlanner;
+import com.TobyMellor.TrainRouteFinder.planning.Itinerary;
+import com.TobyMellor.TrainRouteFinder.planning.Leg;
+import com.TobyMellor.TrainRouteFinder.planning.Timetable;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares <code>ConnectionScanPlanner</code> earliest arrival queries with a brute-force search of a
+ * <code>GeneratedNetwork</code>, which relaxes every <code>Journey</code> over and over until no station's earliest
+ * arrival improves
+ *
+ * Given a station count, a network of that many stations is generated instead of the default. The departure times
+ * queried are spread over the days the network runs for.
+ *
+ * Prints the time taken to build the <code>Timetable</code>, then for a number of random pairs of stations and departure
+ * times the average query time of each search, and checks that both searches found the same arrival time and that each
+ * <code>Itinerary</code> is a chain of legs from the departing station to the destination.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 21:00:00 $
+ */
+
+public class ConnectionScanPlannerBenchmark {
+    private static final int QUERY_COUNT = 300;
+    private static final int STATION_COUNT = 100;
+    private static final int DAY_COUNT = 2;
+
+    public static void main(String[] args) throws Exception {
+        GeneratedNetwork network = new GeneratedNetwork(args.length > 0 ? Integer.parseInt(args[0]) : STATION_COUNT, 0, DAY_COUNT, new Random(42));
+        StationManager stationManager = network.createStationManager();
+        BasicRouteManager basicRouteManager = network.createBasicRouteManager();
+        JourneyManager journeyManager = network.createJourneyManager();
+        List<DestinationStation> destinationStations = network.getDestinationStations();
+        List<Journey> journeys = journeyManager.getJourneys();
+
+        System.out.println(destinationStations.size() + " stations, " + journeys.size() + " journeys");
+
+        long start = System.nanoTime();
+        Timetable timetable = new Timetable(stationManager, basicRouteManager, journeyManager);
+
+        System.out.printf("Timetable: %.1f ms, %d connections%n", (System.nanoTime() - start) / 1e6, timetable.getConnectionCount());
+
+        ConnectionScanPlanner planner = new ConnectionScanPlanner(timetable);
+        Random random = new Random(7);
+        long bruteForceTime = 0;
+        long plannerTime = 0;
+        int queryCount = 0;
+        int foundCount = 0;
+        int mismatchCount = 0;
+
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String departingStationId = destinationStations.get(random.nextInt(destinationStations.size())).getId();
+            String destinationStationId = destinationStations.get(random.nextInt(destinationStations.size())).getId();
+            long departingAfter = network.getFirstDeparture() + (long) (random.nextDouble() * (network.getLastDeparture() - network.getFirstDeparture()));
+
+            if (departingStationId.equals(destinationStationId)) {
+                continue;
+            }
+
+            start = System.nanoTime();
+            Long expected = findEarliestArrivals(basicRouteManager, journeys, departingStationId, departingAfter).get(destinationStationId);
+            bruteForceTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Itinerary itinerary = planner.findEarliestArrival(departingStationId, destinationStationId, departingAfter);
+            plannerTime += System.nanoTime() - start;
+
+            queryCount++;
+
+            if (itinerary != null) {
+                foundCount++;
+            }
+
+            if (expected == null ? itinerary != null
+                    : itinerary == null || itinerary.getArrivalTime() != expected || !isChain(journeyManager, itinerary, departingStationId, destinationStationId, departingAfter)) {
+                mismatchCount++;
+            }
+        }
+
+        System.out.printf("Brute force:             %10.1f us per query%n", bruteForceTime / 1e3 / queryCount);
+        System.out.printf("Connection scan planner: %10.1f us per query%n", plannerTime / 1e3 / queryCount);
+        System.out.println(foundCount + " of " + queryCount + " queries had an itinerary");
+        System.out.println(mismatchCount == 0 ? "All arrivals match" : mismatchCount + " arrivals do not match");
+    }
+
+    /**
+     * Finds the earliest arrival at every station reachable from <code>departingStationId</code> by relaxing every
+     * <code>Journey</code> until none of them improves an arrival
+     *
+     * @param basicRouteManager  the <code>BasicRoute</code>s the <code>Journey</code>s run on
+     * @param journeys           every <code>Journey</code> in the network
+     * @param departingStationId the ID of the station to depart from
+     * @param departingAfter     the time (ms) to depart after
+     *
+     * @return Map<String, Long> the earliest arrival (ms) at each reachable station, by station ID
+     */
+    private static Map<String, Long> findEarliestArrivals(final BasicRouteManager basicRouteManager, final List<Journey> journeys,
+                                                          final String departingStationId, final long departingAfter) {
+        Map<String, Long> earliestArrivals = new HashMap<String, Long>();
+        boolean isImproved = true;
+
+        earliestArrivals.put(departingStationId, departingAfter);
+
+        while (isImproved) {
+            isImproved = false;
+
+            for (Journey journey : journeys) {
+                BasicRoute basicRoute = basicRouteManager.getBasicRoute(journey.getBasicRouteId());
+                Long reachedAt = earliestArrivals.get(basicRoute.getDepartingStationId());
+
+                if (reachedAt == null || journey.getTimestamp() <= departingAfter || reachedAt > journey.getTimestamp()) {
+                    continue;
+                }
+
+                long arrivalTime = journey.getTimestamp() + basicRoute.getDuration() * 60000L;
+                Long earliestArrival = earliestArrivals.get(basicRoute.getDestinationStationId());
+
+                if (earliestArrival == null || arrivalTime < earliestArrival) {
+                    earliestArrivals.put(basicRoute.getDestinationStationId(), arrivalTime);
+                    isImproved = true;
+                }
+            }
+        }
+
+        return earliestArrivals;
+    }
+
+    /**
+     * Returns whether each leg of <code>itinerary</code> departs from where the last one arrived, no earlier than it
+     * arrived, on the <code>Journey</code> it names, ending at <code>destinationStationId</code>
+     *
+     * @param journeyManager       the <code>Journey</code>s the itinerary was found among
+     * @param itinerary            the <code>Itinerary</code> to check
+     * @param departingStationId   the ID of the station it should depart from
+     * @param destinationStationId the ID of the station it should arrive at
+     * @param departingAfter       the time (ms) it should depart after
+     *
+     * @return boolean
+     */
+    private static boolean isChain(final JourneyManager journeyManager, final Itinerary itinerary, final String departingStationId,
+                                   final String destinationStationId, final long departingAfter) {
+        String stationId = departingStationId;
+        long time = departingAfter;
+
+        for (Leg leg : itinerary.getLegs()) {
+            Journey journey = journeyManager.getJourney(leg.getJourneyId());
+
+            if (!leg.getDepartingStationId().equals(stationId) || leg.getDepartureTime() < time || journey == null || journey.getTimestamp() != leg.getDepartureTime()) {
+                return false;
+            }
+
+            stationId = leg.getArrivingStationId();
+            time = leg.getArrivalTime();
+        }
+
+        return stationId.equals(destinationStationId);
+    }
+}
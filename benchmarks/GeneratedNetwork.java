@@ -0,0 +1,189 @@
+package com.TobyMellor.TrainRouteFinder.benchmarks;
+
+import com.TobyMellor.TrainRouteFinder.journeys.Journey;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * A random network built in memory for the benchmarks, so that they don't depend on the data in resources/xml
+ *
+ * The <code>DestinationStation</code>s are laid out as a grid of lines, each linked both ways to the next station along
+ * its line and the next line by a <code>BasicRoute</code>, and a few linked to a station a few lines away by a faster
+ * and dearer express route, so that the cheapest way somewhere is often not the quickest. Each route is run every 20 to
+ * 90 minutes, from a random time in the first hour, for <code>dayCount</code> days starting at midnight tonight, so that
+ * every <code>Journey</code> is still in the future.
+ *
+ * The <code>Journey</code>s don't call at the <code>IntermediateStation</code>s, so every way through the network is a
+ * chain of <code>BasicRoute</code>s. The same seed always gives the same stations and routes, and the same times on
+ * each day.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 21:00:00 $
+ */
+
+class GeneratedNetwork {
+    private static final int EXPRESS_REACH = 4; // how many lines away an express route can go
+
+    private final List<DestinationStation> destinationStations = new ArrayList<DestinationStation>();
+    private final List<IntermediateStation> intermediateStations = new ArrayList<IntermediateStation>();
+    private final List<BasicRoute> basicRoutes = new ArrayList<BasicRoute>();
+    private final List<Journey> journeys = new ArrayList<Journey>();
+    private final long firstDeparture;
+    private long lastDeparture;
+
+    /**
+     * @param stationCount             the number of <code>DestinationStation</code>s
+     * @param intermediateStationCount the number of <code>IntermediateStation</code>s
+     * @param dayCount                 the number of days each route is run for
+     * @param random                   the source of the layout, durations, fares and times
+     */
+    GeneratedNetwork(final int stationCount, final int intermediateStationCount, final int dayCount, final Random random) {
+        Calendar midnight = Calendar.getInstance();
+        int width = (int) Math.ceil(Math.sqrt(stationCount));
+
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.set(Calendar.SECOND, 0);
+        midnight.set(Calendar.MILLISECOND, 0);
+        midnight.add(Calendar.DAY_OF_MONTH, 1);
+
+        this.firstDeparture = midnight.getTimeInMillis();
+        this.lastDeparture = firstDeparture;
+
+        for (int station = 0; station < stationCount; station++) {
+            destinationStations.add(new DestinationStation(createId(random), "Station " + createName(station)));
+        }
+
+        for (int station = 0; station < intermediateStationCount; station++) {
+            intermediateStations.add(new IntermediateStation(createId(random), "Halt " + createName(station)));
+        }
+
+        for (int station = 0; station < stationCount; station++) {
+            if ((station + 1) % width != 0 && station + 1 < stationCount) {
+                addBothWays(station, station + 1, 10 + random.nextInt(50), 100 + random.nextInt(900), random);
+            }
+
+            if (station + width < stationCount) {
+                addBothWays(station, station + width, 10 + random.nextInt(50), 100 + random.nextInt(900), random);
+            }
+
+            if (random.nextInt(5) == 0) {
+                int column = Math.min(width - 1, Math.max(0, station % width + random.nextInt(2 * EXPRESS_REACH + 1) - EXPRESS_REACH));
+                int row = station / width + random.nextInt(2 * EXPRESS_REACH + 1) - EXPRESS_REACH;
+                int target = row * width + column;
+
+                int distance = Math.abs(column - station % width) + Math.abs(row - station / width);
+
+                if (target >= 0 && target < stationCount && distance > 1) { // neighbours are already linked
+                    addBothWays(station, target, distance * (8 + random.nextInt(10)), distance * (1000 + random.nextInt(1000)), random);
+                }
+            }
+        }
+
+        long lastDay = firstDeparture + dayCount * 86400000L;
+
+        for (BasicRoute basicRoute : basicRoutes) {
+            long headway = (20 + random.nextInt(71)) * 60000L;
+
+            for (long timestamp = firstDeparture + random.nextInt(60) * 60000L; timestamp < lastDay; timestamp += headway) {
+                journeys.add(new Journey(createId(random), basicRoute.getId(), Collections.<String>emptyList(), timestamp));
+                lastDeparture = Math.max(lastDeparture, timestamp);
+            }
+        }
+    }
+
+    public StationManager createStationManager() {
+        return new StationManager(destinationStations, intermediateStations);
+    }
+
+    public BasicRouteManager createBasicRouteManager() {
+        return new BasicRouteManager(basicRoutes);
+    }
+
+    public JourneyManager createJourneyManager() {
+        return new JourneyManager(journeys);
+    }
+
+    public List<DestinationStation> getDestinationStations() {
+        return destinationStations;
+    }
+
+    public int getJourneyCount() {
+        return journeys.size();
+    }
+
+    /**
+     * The time (ms) the network's first day starts at, no later than its first <code>Journey</code> departs
+     *
+     * @return long
+     */
+    public long getFirstDeparture() {
+        return firstDeparture;
+    }
+
+    /**
+     * The time (ms) the network's last <code>Journey</code> departs
+     *
+     * @return long
+     */
+    public long getLastDeparture() {
+        return lastDeparture;
+    }
+
+    /**
+     * Adds a <code>BasicRoute</code> each way between two stations, with the same duration and fare
+     *
+     * @param station      the index of one station
+     * @param otherStation the index of the other station
+     * @param duration     the duration in minutes
+     * @param singleFare   the single fare in pence
+     * @param random       the source of the IDs
+     */
+    private void addBothWays(final int station, final int otherStation, final int duration, final int singleFare, final Random random) {
+        BigDecimal singlePrice = BigDecimal.valueOf(singleFare, 2);
+        BigDecimal returnPrice = BigDecimal.valueOf(singleFare * 18 / 10, 2);
+        String stationId = destinationStations.get(station).getId();
+        String otherStationId = destinationStations.get(otherStation).getId();
+
+        basicRoutes.add(new BasicRoute(createId(random), stationId, otherStationId, singlePrice, returnPrice, duration));
+        basicRoutes.add(new BasicRoute(createId(random), otherStationId, stationId, singlePrice, returnPrice, duration));
+    }
+
+    private static String createId(final Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    /**
+     * Spells out <code>index</code> in letters (A, B, ..., Z, Ba, Bb, ...), since station names can't contain digits
+     *
+     * @param index the number to spell out
+     *
+     * @return String
+     */
+    private static String createName(final int index) {
+        StringBuilder name = new StringBuilder();
+        int remaining = index;
+
+        do {
+            name.insert(0, (char) ('a' + remaining % 26));
+            remaining /= 26;
+        } while (remaining > 0);
+
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+
+        return name.toString();
+    }
+}
@@ -0,0 +1,274 @@
+package com.TobyMellor.TrainRouteFinder.benchmarks;
+
+import com.TobyMellor.TrainRouteFinder.journeys.Journey;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.planning.DurationMatrix;
+import com.TobyMellor.TrainRouteFinder.planning.Itinerary;
+import com.TobyMellor.TrainRouteFinder.planning.Leg;
+import com.TobyMellor.TrainRouteFinder.planning.RaptorPlanner;
+import com.TobyMellor.TrainRouteFinder.planning.Timetable;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compares <code>RaptorPlanner</code> Pareto-optimal queries with a brute-force search of a <code>GeneratedNetwork</code>,
+ * which takes every <code>Journey</code> from every label of the previous round, one round per train, keeping every
+ * label at a station that no other label of the same round beats on both arrival time and fare
+ *
+ * The network's express routes are faster and dearer than the lines they cross, so a query can have more than one
+ * Pareto-optimal itinerary. It is kept small enough that most stations are within <code>DEFAULT_MAX_TRANSFERS</code>
+ * changes of each other. Given a station count, a network of that many stations is generated instead of the default.
+ * The departure times queried are spread over the days the network runs for.
+ *
+ * Each query is run sequentially, in parallel, and pruned by the <code>DurationMatrix</code>. Prints the average query
+ * time of each, and checks that they all found the same arrival times, changes and fares as the brute-force search,
+ * with no itinerary repeated, and that each <code>Itinerary</code> is a chain of legs to the destination.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 21:15:00 $
+ */
+
+public class RaptorPlannerBenchmark {
+    private static final int QUERY_COUNT = 150;
+    private static final int STATION_COUNT = 36;
+    private static final int DAY_COUNT = 2;
+
+    public static void main(String[] args) throws Exception {
+        GeneratedNetwork network = new GeneratedNetwork(args.length > 0 ? Integer.parseInt(args[0]) : STATION_COUNT, 0, DAY_COUNT, new Random(23));
+        StationManager stationManager = network.createStationManager();
+        BasicRouteManager basicRouteManager = network.createBasicRouteManager();
+        JourneyManager journeyManager = network.createJourneyManager();
+        List<DestinationStation> destinationStations = network.getDestinationStations();
+        List<Journey> journeys = journeyManager.getJourneys();
+        Timetable timetable = new Timetable(stationManager, basicRouteManager, journeyManager);
+        Map<String, Integer> fares = new HashMap<String, Integer>(); // the fare of each Journey, by its ID
+
+        for (int trip = 0; trip < timetable.getTripCount(); trip++) {
+            fares.put(timetable.getJourneyId(trip), timetable.getFare(trip));
+        }
+
+        RaptorPlanner[] planners = {
+                new RaptorPlanner(timetable),
+                new RaptorPlanner(timetable, true),
+                new RaptorPlanner(timetable, new DurationMatrix(stationManager, basicRouteManager), false)
+        };
+        String[] plannerNames = {"Sequential", "Parallel", "Duration matrix"};
+        long[] plannerTimes = new long[planners.length];
+
+        Random random = new Random(11);
+
+        System.out.println(destinationStations.size() + " stations, " + journeys.size() + " journeys");
+        long bruteForceTime = 0;
+        int queryCount = 0;
+        int itineraryCount = 0;
+        int mismatchCount = 0;
+
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String departingStationId = destinationStations.get(random.nextInt(destinationStations.size())).getId();
+            String destinationStationId = destinationStations.get(random.nextInt(destinationStations.size())).getId();
+            long departingAfter = network.getFirstDeparture() + (long) (random.nextDouble() * (network.getLastDeparture() - network.getFirstDeparture()));
+
+            if (departingStationId.equals(destinationStationId)) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            Set<String> expected = findParetoOptimal(basicRouteManager, journeys, fares, departingStationId, destinationStationId, departingAfter);
+            bruteForceTime += System.nanoTime() - start;
+
+            queryCount++;
+            itineraryCount += expected.size();
+
+            boolean isMatching = true;
+
+            for (int j = 0; j < planners.length; j++) {
+                start = System.nanoTime();
+                List<Itinerary> itineraries = planners[j].findParetoOptimal(departingStationId, destinationStationId, departingAfter);
+                plannerTimes[j] += System.nanoTime() - start;
+
+                Set<String> actual = new TreeSet<String>();
+
+                for (Itinerary itinerary : itineraries) {
+                    actual.add(describe(itinerary.getArrivalTime(), itinerary.getTransferCount(), itinerary.getFare()));
+
+                    if (!isChain(itinerary, departingStationId, destinationStationId, departingAfter)) {
+                        isMatching = false;
+                    }
+                }
+
+                if (!actual.equals(expected) || actual.size() != itineraries.size()) {
+                    isMatching = false;
+                }
+            }
+
+            if (!isMatching) {
+                mismatchCount++;
+            }
+        }
+
+        System.out.printf("Brute force:     %10.1f us per query%n", bruteForceTime / 1e3 / queryCount);
+
+        for (int j = 0; j < planners.length; j++) {
+            System.out.printf("%-16s %10.1f us per query%n", plannerNames[j] + ":", plannerTimes[j] / 1e3 / queryCount);
+        }
+
+        System.out.printf("%.2f Pareto-optimal itineraries per query%n", (double) itineraryCount / queryCount);
+        System.out.println(mismatchCount == 0 ? "All itineraries match" : mismatchCount + " queries do not match");
+    }
+
+    /**
+     * Finds the arrival time, changes and fare of every Pareto-optimal way from <code>departingStationId</code> to
+     * <code>destinationStationId</code>, taking at most <code>RaptorPlanner.DEFAULT_MAX_TRANSFERS</code> changes
+     *
+     * @param basicRouteManager    the <code>BasicRoute</code>s the <code>Journey</code>s run on
+     * @param journeys             every <code>Journey</code> in the network
+     * @param fares                the fare of each <code>Journey</code>, by its ID
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     * @param departingAfter       the time (ms) to depart after
+     *
+     * @return Set<String> as described by <code>describe()</code>
+     */
+    private static Set<String> findParetoOptimal(final BasicRouteManager basicRouteManager, final List<Journey> journeys, final Map<String, Integer> fares,
+                                                 final String departingStationId, final String destinationStationId, final long departingAfter) {
+        Map<String, List<long[]>> previousLabels = new HashMap<String, List<long[]>>(); // {ready at, fare} by station ID
+        List<long[]> results = new ArrayList<long[]>(); // {arrival time, changes, fare}
+
+        previousLabels.put(departingStationId, new ArrayList<long[]>(Arrays.asList(new long[] {departingAfter + 1, 0})));
+
+        for (int round = 1; round <= RaptorPlanner.DEFAULT_MAX_TRANSFERS + 1; round++) {
+            Map<String, List<long[]>> labels = new HashMap<String, List<long[]>>();
+
+            for (Journey journey : journeys) {
+                BasicRoute basicRoute = basicRouteManager.getBasicRoute(journey.getBasicRouteId());
+                List<long[]> departingLabels = previousLabels.get(basicRoute.getDepartingStationId());
+
+                if (departingLabels == null) {
+                    continue;
+                }
+
+                for (long[] label : departingLabels) {
+                    if (label[0] > journey.getTimestamp()) {
+                        continue;
+                    }
+
+                    List<long[]> arrivingLabels = labels.get(basicRoute.getDestinationStationId());
+
+                    if (arrivingLabels == null) {
+                        arrivingLabels = new ArrayList<long[]>();
+                        labels.put(basicRoute.getDestinationStationId(), arrivingLabels);
+                    }
+
+                    arrivingLabels.add(new long[] {journey.getTimestamp() + basicRoute.getDuration() * 60000L, label[1] + fares.get(journey.getId())});
+                }
+            }
+
+            for (Map.Entry<String, List<long[]>> entry : labels.entrySet()) {
+                entry.setValue(findParetoFront(entry.getValue()));
+            }
+
+            List<long[]> destinationLabels = labels.remove(destinationStationId); // never travelled on from
+
+            if (destinationLabels != null) {
+                for (long[] label : destinationLabels) {
+                    results.add(new long[] {label[0], round - 1, label[1]});
+                }
+            }
+
+            previousLabels = labels;
+        }
+
+        Set<String> paretoOptimal = new TreeSet<String>();
+
+        for (long[] result : findParetoFront(results)) {
+            paretoOptimal.add(describe(result[0], (int) result[1], result[2]));
+        }
+
+        return paretoOptimal;
+    }
+
+    /**
+     * Returns the labels that no other label beats on every value, without repeats
+     *
+     * @param labels the labels, each an array of values where lower is better
+     *
+     * @return List<long[]>
+     */
+    private static List<long[]> findParetoFront(final List<long[]> labels) {
+        List<long[]> front = new ArrayList<long[]>();
+
+        for (long[] label : labels) {
+            boolean isDominated = false;
+
+            for (long[] otherLabel : labels) {
+                boolean isNoWorse = true;
+                boolean isBetter = false;
+
+                for (int i = 0; i < label.length; i++) {
+                    isNoWorse &= otherLabel[i] <= label[i];
+                    isBetter |= otherLabel[i] < label[i];
+                }
+
+                if (isNoWorse && isBetter) {
+                    isDominated = true;
+                    break;
+                }
+            }
+
+            boolean isRepeated = false;
+
+            for (long[] frontLabel : front) {
+                isRepeated |= Arrays.equals(frontLabel, label);
+            }
+
+            if (!isDominated && !isRepeated) {
+                front.add(label);
+            }
+        }
+
+        return front;
+    }
+
+    private static String describe(final long arrivalTime, final int transferCount, final long fare) {
+        return arrivalTime + "/" + transferCount + "/" + fare;
+    }
+
+    /**
+     * Returns whether each leg of <code>itinerary</code> departs from where the last one arrived, no earlier than it
+     * arrived, ending at <code>destinationStationId</code>
+     *
+     * @param itinerary            the <code>Itinerary</code> to check
+     * @param departingStationId   the ID of the station it should depart from
+     * @param destinationStationId the ID of the station it should arrive at
+     * @param departingAfter       the time (ms) it should depart after
+     *
+     * @return boolean
+     */
+    private static boolean isChain(final Itinerary itinerary, final String departingStationId, final String destinationStationId, final long departingAfter) {
+        String stationId = departingStationId;
+        long time = departingAfter + 1;
+
+        for (Leg leg : itinerary.getLegs()) {
+            if (!leg.getDepartingStationId().equals(stationId) || leg.getDepartureTime() < time) {
+                return false;
+            }
+
+            stationId = leg.getArrivingStationId();
+            time = leg.getArrivalTime();
+        }
+
+        return stationId.equals(destinationStationId);
+    }
+}
@@ -0,0 +1,278 @@
+package com.TobyMellor.TrainRouteFinder.benchmarks;
+
+import com.TobyMellor.TrainRouteFinder.App;
+import com.TobyMellor.TrainRouteFinder.Dataset;
+import com.TobyMellor.TrainRouteFinder.journeys.Journey;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reloads a <code>GeneratedNetwork</code> with <code>App.reloadXML()</code> while it is being read and changed, and checks
+ * that no change is lost and that no reader sees a half-loaded network
+ *
+ * <code>App</code> reads and writes resources/xml relative to the working directory, so the benchmark runs itself again
+ * in a new JVM whose working directory is an empty temporary directory. There the network is generated and saved to
+ * resources/xml before being loaded, so the real network is never read, changed or checkpointed over. The temporary
+ * directory is deleted once the benchmark has finished.
+ *
+ * A few threads keep reading the installed <code>Dataset</code>, while a single writer thread (standing in for the
+ * JavaFX application thread, which also installs the new managers) keeps creating <code>Journey</code>s and
+ * requesting a checkpoint every so often. Given a number of milliseconds, the install is held back that long after the
+ * new managers have been loaded, so that more changes are made meanwhile and have to be replayed.
+ *
+ * Prints how long the reload took and how many reads and changes were made meanwhile, then checks that every
+ * <code>Journey</code> created is in the new managers and is still there once they have been saved and loaded again.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 21:30:00 $
+ */
+
+public class ReloadBenchmark {
+    private static final int READER_COUNT = 3;
+    private static final int CHECKPOINT_INTERVAL = 10; // the number of Journeys created between checkpoints
+    private static final int STATION_COUNT = 30;
+    private static final int INTERMEDIATE_STATION_COUNT = 10;
+    private static final int DAY_COUNT = 7;
+
+    public static void main(String[] args) throws Exception {
+        long installDelay = args.length > 0 ? Long.parseLong(args[0]) : 0;
+
+        if (args.length > 1) {
+            File workingDirectory = new File("").getAbsoluteFile();
+
+            if (!workingDirectory.equals(new File(args[1]).getAbsoluteFile())) {
+                throw new IllegalStateException("The benchmark only runs in the temporary directory it was given, not " + workingDirectory);
+            }
+
+            run(installDelay);
+
+            return;
+        }
+
+        Path temporaryDirectory = Files.createTempDirectory("reload-benchmark");
+        int exitCode;
+
+        try {
+            Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp", getAbsoluteClassPath(),
+                    ReloadBenchmark.class.getName(), String.valueOf(installDelay), temporaryDirectory.toString())
+                    .directory(temporaryDirectory.toFile())
+                    .inheritIO()
+                    .start();
+
+            exitCode = process.waitFor();
+        } finally {
+            deleteRecursively(temporaryDirectory);
+        }
+
+        System.exit(exitCode);
+    }
+
+    /**
+     * Generates a network into resources/xml, under the working directory, and reloads it while it is being read and changed
+     *
+     * @param installDelay how long (ms) to hold back installing the reloaded managers
+     *
+     * @throws Exception if the network cannot be saved or loaded
+     */
+    private static void run(final long installDelay) throws Exception {
+        GeneratedNetwork network = new GeneratedNetwork(STATION_COUNT, INTERMEDIATE_STATION_COUNT, DAY_COUNT, new Random(5));
+
+        if (!new File("resources/xml").mkdirs()) {
+            throw new IOException("resources/xml already exists in the temporary directory");
+        }
+
+        network.createStationManager().save();
+        network.createBasicRouteManager().save();
+        network.createJourneyManager().save();
+
+        App.loadXML();
+        App.awaitCheckpoint();
+
+        final int journeyCount = App.getJourneyManager().getJourneys().size();
+        final Journey template = App.getJourneyManager().getJourneys().get(0);
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final AtomicLong readCount = new AtomicLong();
+        final AtomicInteger halfLoadedCount = new AtomicInteger();
+        Thread[] readers = new Thread[READER_COUNT];
+
+        for (int i = 0; i < READER_COUNT; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (isRunning.get()) {
+                        Dataset dataset = App.getDataset();
+
+                        if (dataset.getStationManager().getIntermediateStations().isEmpty()
+                                || dataset.getBasicRouteManager().getBasicRoutes().isEmpty()
+                                || dataset.getJourneyManager().getJourneys().size() < journeyCount) {
+                            halfLoadedCount.incrementAndGet();
+                        }
+
+                        readCount.incrementAndGet();
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        final ExecutorService writer = Executors.newSingleThreadExecutor();
+        final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor();
+        final List<String> createdJourneyIds = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicBoolean isWriting = new AtomicBoolean(true);
+        final AtomicInteger failedWriteCount = new AtomicInteger();
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!isWriting.get()) {
+                    return;
+                }
+
+                try {
+                    Journey journey = App.getJourneyManager().createJourney(template.getBasicRouteId(), template.getIntermediateStationIds(),
+                            template.getStopTimes(), template.getTimestamp() + 60000L * createdJourneyIds.size());
+
+                    createdJourneyIds.add(journey.getId());
+
+                    if (createdJourneyIds.size() % CHECKPOINT_INTERVAL == 0) {
+                        App.checkpoint();
+                    }
+                } catch (Exception e) {
+                    failedWriteCount.incrementAndGet();
+                }
+
+                writer.execute(this); // queued behind the install, if it is waiting
+            }
+        });
+
+        long start = System.nanoTime();
+
+        App.reloadXML(new Executor() {
+            @Override
+            public void execute(final Runnable install) {
+                delayer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        writer.execute(install);
+                    }
+                }, installDelay, TimeUnit.MILLISECONDS);
+            }
+        }).get();
+
+        long reloadTime = System.nanoTime() - start;
+
+        Thread.sleep(200); // a few more changes to the new managers
+        isWriting.set(false);
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        writer.shutdown();
+        delayer.shutdown();
+        isRunning.set(false);
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        int missingCount = countMissing(createdJourneyIds);
+
+        System.out.printf("Reload: %.1f ms, %d reads and %d Journeys created meanwhile%n", reloadTime / 1e6, readCount.get(), createdJourneyIds.size());
+        System.out.println(halfLoadedCount.get() == 0 ? "No half-loaded reads" : halfLoadedCount.get() + " reads saw a half-loaded network");
+        System.out.println(failedWriteCount.get() == 0 ? "No failed changes" : failedWriteCount.get() + " changes failed");
+        System.out.println(missingCount == 0 ? "All changes kept" : missingCount + " changes lost");
+
+        App.saveXML().get();
+        App.loadXML();
+
+        missingCount = countMissing(createdJourneyIds);
+        System.out.println(missingCount == 0 ? "All changes kept after saving and loading" : missingCount + " changes lost after saving and loading");
+    }
+
+    /**
+     * Returns the class path of this JVM with every entry made absolute, so that it can be used from another working directory
+     *
+     * @return String
+     */
+    private static String getAbsoluteClassPath() {
+        StringBuilder classPath = new StringBuilder();
+
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparator);
+            }
+
+            classPath.append(new File(entry).getAbsolutePath());
+        }
+
+        return classPath.toString();
+    }
+
+    /**
+     * Deletes <code>directory</code> and everything in it
+     *
+     * @param directory the directory to delete
+     *
+     * @throws IOException if anything in it cannot be deleted
+     */
+    private static void deleteRecursively(final Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path directory, final IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+
+                Files.delete(directory);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Returns how many of the <code>Journey</code>s are missing from the installed <code>JourneyManager</code>
+     *
+     * @param journeyIds the IDs of the <code>Journey</code>s
+     *
+     * @return int
+     */
+    private static int countMissing(final List<String> journeyIds) {
+        int missingCount = 0;
+
+        for (String journeyId : journeyIds) {
+            if (App.getJourneyManager().getJourney(journeyId) == null) {
+                missingCount++;
+            }
+        }
+
+        return missingCount;
+    }
+}
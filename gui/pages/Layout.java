@@ -4,6 +4,7 @@ import com.TobyMellor.TrainRouteFinder.App;
 import com.TobyMellor.TrainRouteFinder.gui.GUI;
 import com.TobyMellor.TrainRouteFinder.gui.pages.admin.AdminMenuPage;
 import com.TobyMellor.TrainRouteFinder.gui.pages.journeys.FindJourneyPage;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -15,15 +16,16 @@ import javafx.scene.control.ChoiceBox;
 import javafx.scene.layout.*;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
 /**
  * The layout, extended by most pages
@@ -277,19 +279,37 @@ abstract public class Layout {
     }
 
     /**
-     * Loads the XML files again and replaces the managers
+     * Loads the XML files again in the background and replaces the managers once they have loaded,
+     * showing an alert to the user to say this has been completed, or has failed
+     *
+     * @return CompletableFuture<Void> completed once the managers have been replaced
      */
-    protected void reloadXML() {
-        try {
-            App.loadXML();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (SAXException e) {
-            e.printStackTrace();
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-        } finally {
-            ElementManager.showAlert(Alert.AlertType.INFORMATION, "Successfully reloaded data!", "Successfully reloaded data!", "Successfully reloaded all Destination Stations, Intermediate Stations, Journeys and Basic Routes!");
-        }
+    protected CompletableFuture<Void> reloadXML() {
+        CompletableFuture<Void> future = App.reloadXML(new Executor() {
+            @Override
+            public void execute(final Runnable runnable) {
+                Platform.runLater(runnable); // install the managers on the thread that changes them
+            }
+        });
+
+        future.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(final Void result, final Throwable error) {
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (error == null) {
+                            ElementManager.showAlert(Alert.AlertType.INFORMATION, "Successfully reloaded data!", "Successfully reloaded data!", "Successfully reloaded all Destination Stations, Intermediate Stations, Journeys and Basic Routes!");
+                        } else {
+                            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+
+                            ElementManager.showAlert(Alert.AlertType.ERROR, "Could not reload data!", "Could not reload data!", cause.getMessage());
+                        }
+                    }
+                });
+            }
+        });
+
+        return future;
     }
 }
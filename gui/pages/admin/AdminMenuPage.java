@@ -5,6 +5,7 @@ import com.TobyMellor.TrainRouteFinder.gui.GUI;
 import com.TobyMellor.TrainRouteFinder.gui.pages.ElementManager;
 import com.TobyMellor.TrainRouteFinder.gui.pages.Layout;
 import com.TobyMellor.TrainRouteFinder.gui.pages.MenuPage;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -15,6 +16,8 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
+import java.util.function.BiConsumer;
+
 /**
  * The Admin Page
  *
@@ -31,7 +34,7 @@ import javafx.stage.Stage;
  *
  * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
  *
- * @version $Revision: 1.0.0 $, $Date: 2017/03/27 00:53:00 $
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 21:45:00 $
  */
 
 public class AdminMenuPage extends Layout {
@@ -77,10 +80,10 @@ public class AdminMenuPage extends Layout {
             }
         });
 
-        Button saveButton = ElementManager.createButton("Save", 370, 0, 300, Pos.TOP_CENTER, "button-green", "button-large");
+        final Button saveButton = ElementManager.createButton("Save", 370, 0, 300, Pos.TOP_CENTER, "button-green", "button-large");
         saveButton.setOnAction(new EventHandler<ActionEvent>() {
             public void handle(ActionEvent event) {
-                save();
+                save(saveButton);
             }
         });
 
@@ -115,11 +118,34 @@ public class AdminMenuPage extends Layout {
      * Saves all the current session data and replaces the data found
      * in the XML files
      *
-     * Shows an alert to the user to say this has been completed
+     * The files are written in the background, while the <code>saveButton</code> shows that it is saving.
+     * Shows an alert to the user to say this has been completed, or has failed
+     *
+     * @param saveButton the button that was pressed
      */
-    private void save() {
-        App.saveXML();
+    private void save(final Button saveButton) {
+        saveButton.setDisable(true);
+        saveButton.setText("Saving...");
 
-        ElementManager.showAlert(Alert.AlertType.INFORMATION, "Successfully saved!", "Successfully saved!", "Your Journeys, Routes and Stations have been successfully saved!");
+        App.saveXML().whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(final Void result, final Throwable error) {
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        saveButton.setDisable(false);
+                        saveButton.setText("Save");
+
+                        if (error == null) {
+                            ElementManager.showAlert(Alert.AlertType.INFORMATION, "Successfully saved!", "Successfully saved!", "Your Journeys, Routes and Stations have been successfully saved!");
+                        } else {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error; // unwrapped from the CompletionException
+
+                            ElementManager.showAlert(Alert.AlertType.ERROR, "Could not save!", "Could not save!", cause.getMessage());
+                        }
+                    }
+                });
+            }
+        });
     }
 }
@@ -61,8 +61,12 @@ public class OverviewPage extends Layout {
         Button forceReloadButton = ElementManager.createButton("Force reload all from file", 0, 0, null, Pos.TOP_RIGHT, "button-green");
         forceReloadButton.setOnAction(new EventHandler<ActionEvent>() {
             public void handle(ActionEvent event) {
-                reloadXML(); // replace session data with the data in the XML files
-                new OverviewPage(getPrimaryStage()); // just restart the page to save calling multiple functions
+                reloadXML().thenRun(new Runnable() { // replace session data with the data in the XML files
+                    @Override
+                    public void run() {
+                        new OverviewPage(getPrimaryStage()); // just restart the page to save calling multiple functions
+                    }
+                });
             }
         });
 
@@ -8,8 +8,16 @@ import com.TobyMellor.TrainRouteFinder.gui.pages.Layout;
 import com.TobyMellor.TrainRouteFinder.gui.pages.tables.TableManager;
 import com.TobyMellor.TrainRouteFinder.journeys.Journey;
 import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.planning.ConnectionScanPlanner;
+import com.TobyMellor.TrainRouteFinder.planning.Itinerary;
+import com.TobyMellor.TrainRouteFinder.planning.Leg;
+import com.TobyMellor.TrainRouteFinder.planning.SegmentPlanner;
+import com.TobyMellor.TrainRouteFinder.planning.Timetable;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
 import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
 import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
@@ -35,6 +43,11 @@ import java.util.*;
  * Additional features:
  *     - The user can specify their time search type to 'Leaving after [time]', 'Arriving by [time]' or 'All routes, don't search'
  *     - There is an option to show all journeys
+ *     - Results can be filtered to the journeys calling at an <code>IntermediateStation</code>, or not calling at another
+ *     - Where no <code>BasicRoute</code> joins the two stations, the three earliest arriving alternatives with changes are
+ *       shown instead, passing through and avoiding the chosen stations
+ *     - <code>IntermediateStation</code>s can be departed from and arrived at too, in which case the journeys calling at both,
+ *       in that order, are shown
  *     - The time picker is automatically set to the next 15 minute interval e.g. 00:22 to 00:30, 00:46 to 01:00
  *
  * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
@@ -43,6 +56,10 @@ import java.util.*;
  */
 
 public class FindJourneyPage extends Layout {
+    private static final String ANY_STATION = "Any station";
+    private static final String NO_STATION = "No station";
+    private static final int ALTERNATIVE_COUNT = 3;
+
     ChoiceBox<String> departingStationPicker;
     ChoiceBox<String> destinationStationPicker;
 
@@ -57,6 +74,9 @@ public class FindJourneyPage extends Layout {
     ChoiceBox<String> dateDatePicker;
     ChoiceBox<Integer> yearDatePicker;
 
+    ChoiceBox<String> callingAtPicker;
+    ChoiceBox<String> avoidingPicker;
+
     TableView<JourneyTableRow> journeysTable;
     Text journeysTableTitle;
 
@@ -96,6 +116,10 @@ public class FindJourneyPage extends Layout {
             departingStationPicker.getItems().add(destinationStation.getName());
         }
 
+        for (IntermediateStation intermediateStation : App.getStationManager().getIntermediateStations()) {
+            departingStationPicker.getItems().add(intermediateStation.getName());
+        }
+
         TextFlow destinationStationLabel = ElementManager.createTextLabel("Choose the station to arrive at", 160, "h6");
 
         destinationStationPicker = new ChoiceBox<String>();
@@ -201,6 +225,34 @@ public class FindJourneyPage extends Layout {
             }
         });
 
+        Text callingAtPickerLabel = ElementManager.createText("Only show journeys calling at", 85, 0, Pos.TOP_RIGHT, "");
+
+        callingAtPicker = new ChoiceBox<String>();
+        StackPane.setMargin(callingAtPicker, new Insets(100, 0, 0, 0));
+        StackPane.setAlignment(callingAtPicker, Pos.TOP_RIGHT);
+        callingAtPicker.getItems().add(ANY_STATION);
+
+        for (IntermediateStation intermediateStation : App.getStationManager().getIntermediateStations()) {
+            callingAtPicker.getItems().add(intermediateStation.getName());
+        }
+
+        callingAtPicker.getSelectionModel().selectFirst();
+        callingAtPicker.setPrefWidth(281);
+
+        Text avoidingPickerLabel = ElementManager.createText("Only show journeys not calling at", 140, 0, Pos.TOP_RIGHT, "");
+
+        avoidingPicker = new ChoiceBox<String>();
+        StackPane.setMargin(avoidingPicker, new Insets(155, 0, 0, 0));
+        StackPane.setAlignment(avoidingPicker, Pos.TOP_RIGHT);
+        avoidingPicker.getItems().add(NO_STATION);
+
+        for (IntermediateStation intermediateStation : App.getStationManager().getIntermediateStations()) {
+            avoidingPicker.getItems().add(intermediateStation.getName());
+        }
+
+        avoidingPicker.getSelectionModel().selectFirst();
+        avoidingPicker.setPrefWidth(281);
+
         sortIntermediateStationsButton = ElementManager.createButton("Intermediate Stations by Station Name", 400, 0, null, Pos.TOP_RIGHT, "button-small");
         sortIntermediateStationsButton.setVisible(false);
         sortIntermediateStationsButton.setOnAction(new EventHandler<ActionEvent>() {
@@ -251,6 +303,10 @@ public class FindJourneyPage extends Layout {
                 findJourneysButton,
                 miscellaneousTitle,
                 allJourneysButton,
+                callingAtPickerLabel,
+                callingAtPicker,
+                avoidingPickerLabel,
+                avoidingPicker,
                 sortIntermediateStationsButton,
                 journeysTableTitle,
                 journeysTable
@@ -270,7 +326,23 @@ public class FindJourneyPage extends Layout {
         JourneyManager journeyManager = App.getJourneyManager();
 
         List<Journey> journeys = new ArrayList<Journey>();
-        String basicRouteId = basicRouteManager.getBasicRoute(departingStationPicker.getSelectionModel().getSelectedItem(), destinationStationPicker.getSelectionModel().getSelectedItem()).getId();
+
+        if (App.getStationManager().getDestinationStationByName(departingStationPicker.getSelectionModel().getSelectedItem()) == null
+                || App.getStationManager().getDestinationStationByName(destinationStationPicker.getSelectionModel().getSelectedItem()) == null) {
+            findSegmentResults(); // boarding or alighting part way along a journey
+
+            return;
+        }
+
+        BasicRoute basicRoute = basicRouteManager.getBasicRoute(departingStationPicker.getSelectionModel().getSelectedItem(), destinationStationPicker.getSelectionModel().getSelectedItem());
+
+        if (basicRoute == null) {
+            findChangingJourneyResults(); // no direct route, so look for a journey with changes
+
+            return;
+        }
+
+        String basicRouteId = basicRoute.getId();
 
         if (leavingAtArrivingByPicker.getSelectionModel().getSelectedItem().contains("search")) {
             journeys = journeyManager.getJourneys(basicRouteId);
@@ -278,18 +350,234 @@ public class FindJourneyPage extends Layout {
             journeys = journeyManager.getJourneys(basicRouteId, getDateFromChoiceBoxes(hourDatePicker, minuteDatePicker, dateDatePicker, yearDatePicker).getTime(), leavingAtArrivingByPicker.getSelectionModel().getSelectedItem().contains("after"));
         }
 
+        String callingAtStationId = getCallingAtStationId();
+        String avoidingStationId = getAvoidingStationId();
+
+        if (callingAtStationId != null || avoidingStationId != null) {
+            List<Journey> callingAtJourneys = new ArrayList<Journey>();
+
+            for (Journey journey : journeys) {
+                if ((callingAtStationId == null || journey.getIntermediateStationIds().contains(callingAtStationId))
+                        && (avoidingStationId == null || !journey.getIntermediateStationIds().contains(avoidingStationId))) {
+                    callingAtJourneys.add(journey);
+                }
+            }
+
+            journeys = callingAtJourneys;
+        }
+
+        journeysTableTitle.setText("Results");
+        loadJourneyResults(journeys);
+    }
+
+    /**
+     * Gets the <code>Journey</code>s calling at the station from the 'depart from' <code>ChoiceBox</code> and later at the station
+     * from the 'arrive at' <code>ChoiceBox</code>, where either is an <code>IntermediateStation</code>, sorted by the time they leave it
+     * If 'Leaving after' or 'Arriving by' options are selected, only the <code>Journey</code>s leaving the first station after,
+     * or reaching the second station by, the time in the date <code>ChoiceBox</code> are kept, and not those leaving in the past
+     *
+     * The <code>Journey</code>s are then filtered by the 'calling at' and 'not calling at' stations, and loaded into the table
+     */
+    private void findSegmentResults() {
+        StationManager stationManager = App.getStationManager();
+        JourneyManager journeyManager = App.getJourneyManager();
+        SegmentPlanner segmentPlanner = new SegmentPlanner(App.getTimetable());
+
+        String searchType = leavingAtArrivingByPicker.getSelectionModel().getSelectedItem();
+        long chosenTime = getDateFromChoiceBoxes(hourDatePicker, minuteDatePicker, dateDatePicker, yearDatePicker).getTime();
+        String departingStationName = departingStationPicker.getSelectionModel().getSelectedItem();
+        String destinationStationName = destinationStationPicker.getSelectionModel().getSelectedItem();
+        String departingStationId = getStationIdByName(stationManager, departingStationName);
+        String destinationStationId = getStationIdByName(stationManager, destinationStationName);
+        List<Leg> segments;
+
+        if (searchType.contains("search")) {
+            segments = segmentPlanner.findSegments(departingStationId, destinationStationId, Long.MIN_VALUE, Integer.MAX_VALUE);
+        } else if (searchType.contains("after")) {
+            segments = segmentPlanner.findSegments(departingStationId, destinationStationId, chosenTime, Integer.MAX_VALUE);
+        } else {
+            segments = segmentPlanner.findSegmentsArrivingBy(departingStationId, destinationStationId, chosenTime, System.currentTimeMillis(), Integer.MAX_VALUE); // don't show Journeys that leave in the past
+        }
+
+        String callingAtStationId = getCallingAtStationId();
+        String avoidingStationId = getAvoidingStationId();
+        List<Journey> journeys = new ArrayList<Journey>();
+
+        for (Leg segment : segments) {
+            Journey journey = journeyManager.getJourney(segment.getJourneyId());
+
+            if ((callingAtStationId == null || journey.getIntermediateStationIds().contains(callingAtStationId))
+                    && (avoidingStationId == null || !journey.getIntermediateStationIds().contains(avoidingStationId))) {
+                journeys.add(journey);
+            }
+        }
+
+        journeysTableTitle.setText("Results (part of each journey, from " + departingStationName + " to " + destinationStationName + ")");
+        loadJourneyResults(journeys);
+    }
+
+    /**
+     * Returns the ID of the <code>DestinationStation</code>, or else the <code>IntermediateStation</code>, with the <code>stationName</code>,
+     * or null if there is neither
+     *
+     * @param stationManager the <code>StationManager</code> holding the stations
+     * @param stationName    the name of the station
+     *
+     * @return String
+     */
+    private String getStationIdByName(final StationManager stationManager, final String stationName) {
+        DestinationStation destinationStation = stationManager.getDestinationStationByName(stationName);
+
+        if (destinationStation != null) {
+            return destinationStation.getId();
+        }
+
+        IntermediateStation intermediateStation = stationManager.getIntermediateStationByName(stationName);
+
+        return intermediateStation == null ? null : intermediateStation.getId();
+    }
+
+    /**
+     * Finds the earliest arriving alternative <code>Itinerary</code>s, or the latest departing one, between the stations from
+     * the 'depart from' and 'arrive at' <code>ChoiceBox</code>'s, changing trains where needed, and loads each of their
+     * <code>Journey</code>s into the table in order
+     *
+     * The alternatives leave after the time in the date <code>ChoiceBox</code> if 'Leaving after' is selected, or after now otherwise,
+     * and are found passing through the 'calling at' station and avoiding the 'not calling at' station.
+     * If 'Arriving by' is selected, the <code>Itinerary</code> leaving latest (but not in the past) that arrives by the chosen time
+     * is found instead, and only shown if it calls at and avoids the chosen stations.
+     */
+    private void findChangingJourneyResults() {
+        StationManager stationManager = App.getStationManager();
+        JourneyManager journeyManager = App.getJourneyManager();
+        Timetable timetable = App.getTimetable();
+
+        String searchType = leavingAtArrivingByPicker.getSelectionModel().getSelectedItem();
+        long chosenTime = getDateFromChoiceBoxes(hourDatePicker, minuteDatePicker, dateDatePicker, yearDatePicker).getTime();
+
+        ConnectionScanPlanner connectionScanPlanner = new ConnectionScanPlanner(timetable, App.getDurationMatrix());
+        String departingStationId = stationManager.getDestinationStationByName(departingStationPicker.getSelectionModel().getSelectedItem()).getId();
+        String destinationStationId = stationManager.getDestinationStationByName(destinationStationPicker.getSelectionModel().getSelectedItem()).getId();
+        String callingAtStationId = getCallingAtStationId();
+        String avoidingStationId = getAvoidingStationId();
+        List<Itinerary> itineraries = new ArrayList<Itinerary>();
+
+        if (searchType.contains("by")) {
+            Itinerary itinerary = connectionScanPlanner.findLatestDeparture(departingStationId, destinationStationId, chosenTime, System.currentTimeMillis()); // don't show Journeys that leave in the past
+
+            if (itinerary != null && isCallingAt(itinerary, callingAtStationId, true) && isCallingAt(itinerary, avoidingStationId, false)) {
+                itineraries.add(itinerary);
+            }
+        } else {
+            itineraries = connectionScanPlanner.findAlternatives(
+                    departingStationId,
+                    destinationStationId,
+                    searchType.contains("after") ? chosenTime : System.currentTimeMillis(),
+                    ALTERNATIVE_COUNT,
+                    callingAtStationId == null ? null : timetable.getStationSet(Collections.singleton(callingAtStationId)),
+                    avoidingStationId == null ? null : timetable.getStationSet(Collections.singleton(avoidingStationId))
+            );
+        }
+
+        List<Journey> journeys = new ArrayList<Journey>();
+        Set<String> changeStationNames = new LinkedHashSet<String>();
+
+        for (Itinerary itinerary : itineraries) {
+            for (Leg leg : itinerary.getLegs()) {
+                journeys.add(journeyManager.getJourney(leg.getJourneyId()));
+            }
+
+            for (String changeStationId : itinerary.getChangeStationIds()) {
+                changeStationNames.add(stationManager.getDestinationStation(changeStationId).getName());
+            }
+        }
+
+        if (journeys.isEmpty()) {
+            journeysTableTitle.setText("Results");
+            loadJourneyResults(journeys);
+
+            return;
+        }
+
+        String alternatives = itineraries.size() == 1 ? "" : itineraries.size() + " alternatives, ";
+
+        journeysTableTitle.setText("Results (no direct route, " + alternatives + "change at " + String.join(", ", changeStationNames) + ")");
         loadJourneyResults(journeys);
     }
 
     /**
-     * Gets all <code>Journey</code>s
+     * Checks whether any <code>Journey</code> of the <code>itinerary</code> calls at the <code>IntermediateStation</code>,
+     * and that this is what is wanted
+     *
+     * @param itinerary   the <code>Itinerary</code> to check
+     * @param stationId   the ID of the <code>IntermediateStation</code>, or null if any station is allowed
+     * @param isCallingAt true if the itinerary should call at the station, false if it shouldn't
+     *
+     * @return boolean
+     */
+    private boolean isCallingAt(final Itinerary itinerary, final String stationId, final boolean isCallingAt) {
+        if (stationId == null) {
+            return true;
+        }
+
+        for (Leg leg : itinerary.getLegs()) {
+            if (App.getJourneyManager().getJourney(leg.getJourneyId()).getIntermediateStationIds().contains(stationId)) {
+                return isCallingAt;
+            }
+        }
+
+        return !isCallingAt;
+    }
+
+    /**
+     * Gets all <code>Journey</code>s, or all of the <code>Journey</code>s calling at the station chosen in
+     * the 'calling at' <code>ChoiceBox</code>, sorted by departure
      *
      * The <code>Journey</code>s are then loaded into the table
      */
     private void findAllJourneysResults() {
         JourneyManager journeyManager = App.getJourneyManager();
+        String callingAtStationId = getCallingAtStationId();
+
+        journeysTableTitle.setText("Results");
+
+        if (callingAtStationId != null) {
+            loadJourneyResults(journeyManager.getJourneysCallingAt(callingAtStationId, Long.MIN_VALUE, Long.MAX_VALUE));
+        } else {
+            loadJourneyResults(journeyManager.getJourneysInDepartureOrder());
+        }
+    }
+
+    /**
+     * Returns the ID of the <code>IntermediateStation</code> chosen in the 'calling at' <code>ChoiceBox</code>,
+     * or null if any station is allowed
+     *
+     * @return String
+     */
+    private String getCallingAtStationId() {
+        if (callingAtPicker.getSelectionModel().getSelectedIndex() <= 0) { // 'Any station' is always first
+            return null;
+        }
+
+        IntermediateStation intermediateStation = App.getStationManager().getIntermediateStationByName(callingAtPicker.getSelectionModel().getSelectedItem());
+
+        return intermediateStation == null ? null : intermediateStation.getId();
+    }
+
+    /**
+     * Returns the ID of the <code>IntermediateStation</code> chosen in the 'not calling at' <code>ChoiceBox</code>,
+     * or null if no station is avoided
+     *
+     * @return String
+     */
+    private String getAvoidingStationId() {
+        if (avoidingPicker.getSelectionModel().getSelectedIndex() <= 0) { // 'No station' is always first
+            return null;
+        }
+
+        IntermediateStation intermediateStation = App.getStationManager().getIntermediateStationByName(avoidingPicker.getSelectionModel().getSelectedItem());
 
-        loadJourneyResults(journeyManager.getJourneys());
+        return intermediateStation == null ? null : intermediateStation.getId();
     }
 
     /**
@@ -299,8 +587,7 @@ public class FindJourneyPage extends Layout {
      * @param journeys a list of <code>Journey</code> objects to display on the table
      */
     private void loadJourneyResults(List<Journey> journeys) {
-        TableManager.populateJourneyTable(journeysTable, journeys, intermediateStationsAlphabeticalOrder);
-        journeysTable.getSortOrder().add(journeysTable.getColumns().get(8)); // sort based on departure timestamp on the hidden 8th column
+        TableManager.populateJourneyTable(journeysTable, journeys, intermediateStationsAlphabeticalOrder); // the JourneyManager returns Journeys already sorted by departure
 
         this.loadedJourneys = journeys;
 
@@ -311,12 +598,12 @@ public class FindJourneyPage extends Layout {
 
     /**
      * Clears the 'arrive at' <code>ChoiceBox</code> since we want stations not picked in the 'depart from' <code>ChoiceBox</code>
-     * Loops through all <code>DestinationStation</code>s and loads non-used stations to the <code>ChoiceBox</code>
+     * Loops through all <code>DestinationStation</code>s, then <code>IntermediateStation</code>s, and loads non-used stations to the <code>ChoiceBox</code>
      *
      * Sets the width of the picker to the same as all other elements, allows the user to select the <code>ChoiceBox</code> and
      * allow the user to search
      *
-     * @param selectedDepartureStation the <code>DestinationStation</code> name of the 'depart from' <code>ChoiceBox</code>
+     * @param selectedDepartureStation the station name of the 'depart from' <code>ChoiceBox</code>
      */
     private void loadDestinationStations(String selectedDepartureStation) {
         destinationStationPicker.getItems().clear();
@@ -327,6 +614,12 @@ public class FindJourneyPage extends Layout {
             }
         }
 
+        for (IntermediateStation intermediateStation : App.getStationManager().getIntermediateStations()) {
+            if (!intermediateStation.getName().equals(selectedDepartureStation)) {
+                destinationStationPicker.getItems().add(intermediateStation.getName());
+            }
+        }
+
         destinationStationPicker.setDisable(false);
         destinationStationPicker.setPrefWidth(281);
         findJourneysButton.setDisable(true);
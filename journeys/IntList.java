@@ -0,0 +1,100 @@
+package com.TobyMellor.TrainRouteFinder.journeys;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive <code>int</code>s, used by the <code>JourneyTable</code> and its indexes
+ * so that slots and ordinals don't have to be boxed into <code>Integer</code>s
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/06 19:12:00 $
+ */
+
+class IntList {
+    private int[] values;
+    private int size;
+
+    IntList() {
+        this(8);
+    }
+
+    IntList(final int capacity) {
+        this.values = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Copies <code>intList</code>, so that the copy can be changed without changing a list being read elsewhere
+     *
+     * @param intList the list to copy
+     */
+    IntList(final IntList intList) {
+        this.values = Arrays.copyOf(intList.values, intList.size + 1); // room for the slot usually inserted next
+        this.size = intList.size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(final int index) {
+        return values[index];
+    }
+
+    void set(final int index, final int value) {
+        values[index] = value;
+    }
+
+    void add(final int value) {
+        ensureCapacity(size + 1);
+
+        values[size++] = value;
+    }
+
+    /**
+     * Inserts <code>value</code> at <code>index</code>, shifting the values after it along by one
+     *
+     * @param index the index to insert at
+     * @param value the value to insert
+     */
+    void insert(final int index, final int value) {
+        ensureCapacity(size + 1);
+
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+    }
+
+    /**
+     * Removes the value at <code>index</code>, shifting the values after it back by one
+     *
+     * @param index the index to remove
+     */
+    void remove(final int index) {
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * The number of bytes held by the backing array, used for footprint estimates
+     *
+     * @return long
+     */
+    long getCapacityBytes() {
+        return 16 + 4L * values.length;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length + (values.length >> 1) + 1));
+        }
+    }
+}
@@ -10,6 +10,9 @@ import java.util.List;
  * Stores information about a particular <code>Journey</code> and can be used to
  * validate said information
  *
+ * <code>stopTimes</code> are the times the <code>Journey</code> calls at each of its <code>intermediateStationIds</code>,
+ * or null if they are spread evenly over the <code>BasicRoute</code>'s duration
+ *
  * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
  *
  * @version $Revision: 1.0.0 $, $Date: 2017/03/27 22:31:00 $
@@ -21,12 +24,18 @@ public class Journey implements Validatable {
     private String id;
     private String basicRouteId;
     private List<String> intermediateStationIds;
+    private StopTimes stopTimes;
     private Long timestamp;
 
     public Journey(final String id, final String basicRouteId, final List<String> intermediateStationIds, final Long timestamp) {
+        this(id, basicRouteId, intermediateStationIds, null, timestamp);
+    }
+
+    public Journey(final String id, final String basicRouteId, final List<String> intermediateStationIds, final StopTimes stopTimes, final Long timestamp) {
         setId(id);
         setBasicRouteId(basicRouteId);
         setIntermediateStationIds(intermediateStationIds);
+        setStopTimes(stopTimes);
         setTimestamp(timestamp);
     }
 
@@ -54,6 +63,14 @@ public class Journey implements Validatable {
         this.intermediateStationIds = intermediateStationIds;
     }
 
+    public StopTimes getStopTimes() {
+        return stopTimes;
+    }
+
+    public void setStopTimes(final StopTimes stopTimes) {
+        this.stopTimes = stopTimes;
+    }
+
     public Long getTimestamp() {
         return timestamp;
     }
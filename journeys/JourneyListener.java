@@ -0,0 +1,35 @@
+package com.TobyMellor.TrainRouteFinder.journeys;
+
+/**
+ * Implemented by classes that keep something derived from the <code>Journey</code>s up to date as they change,
+ * registered with <code>JourneyManager.addJourneyListener()</code>
+ *
+ * Journeys are passed by their slot in the <code>JourneyManager</code>'s <code>JourneyTable</code>, which stays valid
+ * until <code>journeysReset()</code> is called.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/14 11:05:00 $
+ */
+
+public interface JourneyListener {
+    /**
+     * Called after the <code>Journey</code> in <code>slot</code> has been added
+     *
+     * @param slot the slot of the <code>Journey</code> that was added
+     */
+    void journeyAdded(int slot);
+
+    /**
+     * Called after the <code>Journey</code> in <code>slot</code> has been deleted, while the slot can still be read
+     *
+     * @param slot the slot of the <code>Journey</code> that was deleted
+     */
+    void journeyDeleted(int slot);
+
+    /**
+     * Called after the whole collection of <code>Journey</code>s has been replaced, after many of them have changed at once,
+     * or after the slots have been renumbered
+     */
+    void journeysReset();
+}
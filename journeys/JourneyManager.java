@@ -2,60 +2,131 @@ package com.TobyMellor.TrainRouteFinder.journeys;
 
 import com.TobyMellor.TrainRouteFinder.App;
 import com.TobyMellor.TrainRouteFinder.Manager;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
 import com.TobyMellor.TrainRouteFinder.validation.exceptions.ValidationException;
 import com.TobyMellor.TrainRouteFinder.validation.validators.JourneyValidator;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manager containing Lists containing the <code>journeys</code>
  * Used to perform operations on the whole collection of objects
  *
+ * The <code>journeys</code> are held in a columnar <code>JourneyTable</code> rather than as <code>Journey</code> objects,
+ * which are only materialised when they are asked for. Each journey is identified internally by its slot in the table.
+ * The <code>intermediateStationIds</code> of each journey, and the <code>StopTimes</code> it calls at them, are interned as a
+ * shared stop pattern (see <code>StopPatternRegistry</code>), and journeys.xml stores each pattern once, ahead of the journeys
+ * referencing it by its <code>stopPatternId</code>.
+ *
+ * Slots are also bucketed by <code>basicRouteId</code>, and by each <code>intermediateStationId</code> they call at, with each
+ * bucket kept sorted by departure <code>timestamp</code>, so that searching a route or a station is a binary search rather than
+ * a scan of every <code>Journey</code>
+ *
+ * Every change bumps the <code>version</code> and is passed on to the registered <code>JourneyListener</code>s,
+ * so anything derived from the journeys can tell it is stale or update itself
+ *
+ * The table, the buckets and the <code>version</code> are published together as an immutable <code>Snapshot</code>, so
+ * reading never takes a lock: each read takes the current snapshot once and reads only from it, however many changes are
+ * made meanwhile. Changes are serialized on the manager; each one builds the next snapshot from a copy of the table and
+ * of only the buckets it touches (see <code>JourneyTable(JourneyTable)</code>), publishes it, and then tells the listeners.
+ *
  * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
  *
- * @version $Revision: 1.0.0 $, $Date: 2017/03/27 21:44:00 $
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:30:00 $
  */
 
 public class JourneyManager extends Manager {
-    private List<Journey> journeys;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(new Snapshot(new JourneyTable(), new ArrayList<IntList>(), new ArrayList<IntList>(), 0));
+
+    private final List<JourneyListener> journeyListeners = new CopyOnWriteArrayList<JourneyListener>();
 
     public JourneyManager(List<Journey> journeys) {
         setJourneys(journeys);
     }
 
+    private JourneyManager(final Snapshot snapshot) {
+        this.snapshot.set(snapshot);
+    }
+
     /**
-     * Retrieves the whole collection of loaded <code>Journey</code>s
+     * Returns a manager holding the <code>Journey</code>s as they are now, sharing the current snapshot rather than copying it
+     * Changes made to either manager afterwards aren't seen by the other, and the listeners aren't carried over
+     *
+     * @return JourneyManager
+     */
+    public JourneyManager snapshot() {
+        return new JourneyManager(snapshot.get());
+    }
+
+    /**
+     * Retrieves the whole collection of loaded <code>Journey</code>s, in the order they were added
+     * The <code>Journey</code>s are copies, use <code>addJourney()</code> or <code>createJourney()</code> to make changes
      *
      * @return List<Journey>
      */
     public List<Journey> getJourneys() {
+        JourneyTable journeyTable = snapshot.get().journeyTable;
+        List<Journey> journeys = new ArrayList<Journey>(journeyTable.getJourneyCount());
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                journeys.add(journeyTable.getJourney(slot));
+            }
+        }
+
         return journeys;
     }
 
     /**
-     * Retrieves the <code>Journey</code>s with the <code>basicRouteId</code>
+     * Retrieves the whole collection of loaded <code>Journey</code>s, sorted by departure <code>timestamp</code>
      *
      * @return List<Journey>
      */
-    public List<Journey> getJourneys(final String basicRouteId) {
-        final List<Journey> queriedJourneys = new ArrayList<Journey>();
+    public List<Journey> getJourneysInDepartureOrder() {
+        JourneyTable journeyTable = snapshot.get().journeyTable;
+        IntList slots = new IntList(journeyTable.getJourneyCount());
 
-        for (Journey journey : getJourneys()) {
-            if (journey.getBasicRouteId().equals(basicRouteId)) {
-                queriedJourneys.add(journey);
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                slots.add(slot);
             }
         }
 
-        return queriedJourneys;
+        List<Journey> journeys = new ArrayList<Journey>(slots.size());
+
+        for (int slot : sortByDeparture(journeyTable, slots.toArray())) {
+            journeys.add(journeyTable.getJourney(slot));
+        }
+
+        return journeys;
+    }
+
+    /**
+     * Retrieves the <code>Journey</code>s with the <code>basicRouteId</code>, sorted by departure <code>timestamp</code>
+     *
+     * @param basicRouteId the ID of the BasicRoute
+     *
+     * @return List<Journey>
+     */
+    public List<Journey> getJourneys(final String basicRouteId) {
+        final Snapshot snapshot = this.snapshot.get();
+        final IntList basicRouteSlots = getBucket(snapshot, basicRouteId);
+
+        if (basicRouteSlots == null) {
+            return new ArrayList<Journey>();
+        }
+
+        return getJourneys(snapshot.journeyTable, basicRouteSlots, 0, basicRouteSlots.size());
     }
 
     /**
@@ -64,6 +135,9 @@ public class JourneyManager extends Manager {
      *     - train is departing after <code>timestamp</code> or
      *     - train is arriving before <code>timestamp</code> but not departing in the past
      *
+     * Both searches are a range of the route's bucket, found by binary search, so the <code>Journey</code>s
+     * are returned sorted by departure <code>timestamp</code>
+     *
      * @param basicRouteId the ID of the BasicRoute
      * @param timestamp the time at which the train departs
      * @param isLeavingAfter whether or not to search for trains leaving after the provided timestamp
@@ -71,37 +145,149 @@ public class JourneyManager extends Manager {
      * @return List<Journey>
      */
     public List<Journey> getJourneys(final String basicRouteId, final long timestamp, final Boolean isLeavingAfter) {
-        final List<Journey> queriedJourneys = new ArrayList<Journey>();
-        Date dateFromChoiceBoxes = new Date(timestamp);
+        final Snapshot snapshot = this.snapshot.get();
+        final JourneyTable journeyTable = snapshot.journeyTable;
+        final IntList basicRouteSlots = getBucket(snapshot, basicRouteId);
 
-        for (Journey journey : getJourneys(basicRouteId)) {
-            Date departureDate = new Date(journey.getTimestamp());
+        if (basicRouteSlots == null) {
+            return new ArrayList<Journey>();
+        }
 
-            if (!isLeavingAfter) {
-                Date arrivalDate = new Date(journey.getTimestamp() + (App.getBasicRouteManager().getBasicRoute(journey.getBasicRouteId()).getDuration() * 60000)); // the Journey departure time, plus the duration of the Journey in millis
+        if (isLeavingAfter) {
+            return getJourneys(journeyTable, basicRouteSlots, indexOfFirstDepartureAfter(journeyTable, basicRouteSlots, timestamp), basicRouteSlots.size());
+        }
 
-                if (departureDate.after(new Date()) && !arrivalDate.after(dateFromChoiceBoxes)) { // don't show Journeys that leave in the past but show Journeys that arrive before the given date
-                    queriedJourneys.add(journey);
-                }
-            } else {
-                if (departureDate.after(dateFromChoiceBoxes)) {
-                    queriedJourneys.add(journey);
-                }
-            }
+        BasicRoute basicRoute = App.getBasicRouteManager().getBasicRoute(basicRouteId);
+
+        if (basicRoute == null) {
+            return new ArrayList<Journey>();
         }
 
-        return queriedJourneys;
+        long latestDeparture = timestamp - (basicRoute.getDuration() * 60000L); // arriving by the given time means departing by the given time, minus the duration of the BasicRoute in millis
+        int fromIndex = indexOfFirstDepartureAfter(journeyTable, basicRouteSlots, System.currentTimeMillis()); // don't show Journeys that leave in the past
+        int toIndex = indexOfFirstDepartureAfter(journeyTable, basicRouteSlots, latestDeparture);
+
+        return getJourneys(journeyTable, basicRouteSlots, fromIndex, toIndex);
     }
 
     /**
-     * Sets the whole collection of <code>Journey</code>s
+     * Retrieves the <code>Journey</code>s calling at the <code>IntermediateStation</code> with the <code>intermediateStationId</code>
+     * and departing between <code>earliestDeparture</code> and <code>latestDeparture</code> (inclusive), sorted by departure <code>timestamp</code>
      *
-     * @param journeys the collection of <code>Journey</code>s
+     * The range is found by binary search of the station's bucket, so only the matching <code>Journey</code>s are visited
+     *
+     * @param intermediateStationId the ID of the IntermediateStation
+     * @param earliestDeparture     the earliest time at which the train departs
+     * @param latestDeparture       the latest time at which the train departs
      *
      * @return List<Journey>
      */
-    public void setJourneys(final List<Journey> journeys) {
-        this.journeys = journeys;
+    public List<Journey> getJourneysCallingAt(final String intermediateStationId, final long earliestDeparture, final long latestDeparture) {
+        Snapshot snapshot = this.snapshot.get();
+        JourneyTable journeyTable = snapshot.journeyTable;
+        int intermediateStationOrdinal = journeyTable.getStopPatternRegistry().getIntermediateStationOrdinal(intermediateStationId);
+
+        if (intermediateStationOrdinal == -1 || intermediateStationOrdinal >= snapshot.slotsByIntermediateStationOrdinal.size()) {
+            return new ArrayList<Journey>();
+        }
+
+        IntList intermediateStationSlots = snapshot.slotsByIntermediateStationOrdinal.get(intermediateStationOrdinal);
+        int fromIndex = earliestDeparture == Long.MIN_VALUE ? 0 : indexOfFirstDepartureAfter(journeyTable, intermediateStationSlots, earliestDeparture - 1);
+        int toIndex = indexOfFirstDepartureAfter(journeyTable, intermediateStationSlots, latestDeparture);
+
+        return getJourneys(journeyTable, intermediateStationSlots, fromIndex, toIndex);
+    }
+
+    /**
+     * Sets the whole collection of <code>Journey</code>s and rebuilds the buckets
+     *
+     * Each bucket is sorted once, so this should be preferred over <code>addJourney()</code> when loading many <code>Journey</code>s
+     *
+     * @param journeys the collection of <code>Journey</code>s
+     */
+    public synchronized void setJourneys(final List<Journey> journeys) {
+        JourneyTable journeyTable = new JourneyTable();
+
+        for (Journey journey : journeys) {
+            journeyTable.add(journey.getId(), journey.getBasicRouteId(), journey.getIntermediateStationIds(), journey.getStopTimes(), journey.getTimestamp());
+        }
+
+        setJourneyTable(journeyTable);
+    }
+
+    /**
+     * Starts replacing the whole collection of <code>Journey</code>s with ones added through the returned <code>Loader</code>
+     *
+     * Each <code>Journey</code> is copied into the table as it is added, so the caller doesn't have to hold every one of
+     * them at once, and nothing is published until <code>finish()</code> is called
+     *
+     * @return Loader
+     */
+    public Loader startLoading() {
+        return new Loader();
+    }
+
+    /**
+     * Replaces the table, rebuilding every bucket once, and tells the listeners
+     *
+     * @param journeyTable the new <code>JourneyTable</code>
+     */
+    private synchronized void setJourneyTable(final JourneyTable journeyTable) {
+        snapshot.set(createSnapshot(journeyTable, snapshot.get().version + 1));
+
+        for (JourneyListener journeyListener : journeyListeners) {
+            journeyListener.journeysReset();
+        }
+    }
+
+    /**
+     * Adds an already validated <code>Journey</code> to the collection, and into its place in its route's bucket
+     *
+     * @param journey the <code>Journey</code> to add
+     */
+    public synchronized void addJourney(final Journey journey) {
+        add(journey);
+    }
+
+    public void addJourneyListener(final JourneyListener journeyListener) {
+        journeyListeners.add(journeyListener);
+    }
+
+    public void removeJourneyListener(final JourneyListener journeyListener) {
+        journeyListeners.remove(journeyListener);
+    }
+
+    /**
+     * Adds a <code>Journey</code> to the <code>JourneyTable</code> and its route's bucket, returning its slot
+     *
+     * @param journey the <code>Journey</code> to add
+     *
+     * @return int
+     */
+    private int add(final Journey journey) {
+        Snapshot previousSnapshot = snapshot.get();
+        JourneyTable journeyTable = new JourneyTable(previousSnapshot.journeyTable);
+
+        int slot = journeyTable.add(journey.getId(), journey.getBasicRouteId(), journey.getIntermediateStationIds(), journey.getStopTimes(), journey.getTimestamp());
+        StopPatternRegistry stopPatternRegistry = journeyTable.getStopPatternRegistry();
+        int stopPatternId = journeyTable.getStopPatternId(slot);
+
+        List<IntList> slotsByBasicRouteOrdinal = new ArrayList<IntList>(previousSnapshot.slotsByBasicRouteOrdinal);
+        List<IntList> slotsByIntermediateStationOrdinal = new ArrayList<IntList>(previousSnapshot.slotsByIntermediateStationOrdinal);
+
+        insertSlot(journeyTable, copyBucket(slotsByBasicRouteOrdinal, journeyTable.getBasicRouteOrdinal(slot)), slot);
+
+        for (int i = 0; i < stopPatternRegistry.getStopCount(stopPatternId); i++) {
+            insertSlot(journeyTable, copyBucket(slotsByIntermediateStationOrdinal, stopPatternRegistry.getStop(stopPatternId, i)), slot);
+        }
+
+        snapshot.set(new Snapshot(journeyTable, slotsByBasicRouteOrdinal, slotsByIntermediateStationOrdinal, previousSnapshot.version + 1));
+
+        for (JourneyListener journeyListener : journeyListeners) {
+            journeyListener.journeyAdded(slot);
+        }
+
+        return slot;
     }
 
     /**
@@ -114,13 +300,10 @@ public class JourneyManager extends Manager {
      * @return Journey
      */
     public Journey getJourney(final String journeyId) {
-        for (Journey journey : getJourneys()) {
-            if (journey.getId().equals(journeyId)) {
-                return journey;
-            }
-        }
+        JourneyTable journeyTable = snapshot.get().journeyTable;
+        int slot = journeyTable.findSlot(journeyId);
 
-        return null;
+        return slot == -1 ? null : journeyTable.getJourney(slot);
     }
 
     /**
@@ -138,31 +321,340 @@ public class JourneyManager extends Manager {
      * @see JourneyValidator
      */
     public Journey createJourney(final String basicRouteId, final List<String> intermediateStationIds, final Long timestamp) throws ValidationException {
+        return createJourney(basicRouteId, intermediateStationIds, null, timestamp);
+    }
+
+    /**
+     * Validates and creates a new <code>Journey</code> calling at its <code>intermediateStationIds</code> at the <code>stopTimes</code>.
+     * Returns the <code>Journey</code> that has just been created
+     *
+     * @param basicRouteId           the <code>id</code> of the linked <code>BasicRoute</code>
+     * @param intermediateStationIds a list of <code>IntermediateStation</code> ids
+     * @param stopTimes              the times each station is called at, or null to spread them evenly over the route's duration
+     * @param timestamp              the time at which the <code>Journey</code> departs
+     *
+     * @return Journey
+     *
+     * @throws ValidationException if the validator fails
+     *
+     * @see JourneyValidator
+     */
+    public synchronized Journey createJourney(final String basicRouteId, final List<String> intermediateStationIds, final StopTimes stopTimes, final Long timestamp) throws ValidationException {
         final String journeyId = UUID.randomUUID().toString();
-        final Journey journey = new Journey(journeyId, basicRouteId, new ArrayList<String>(intermediateStationIds), timestamp);
+        final Journey journey = new Journey(journeyId, basicRouteId, intermediateStationIds, stopTimes, timestamp);
 
         journey.validate(new JourneyValidator(false)); // throws ValidationException up the calling chain
 
-        journeys.add(journey);
-        return journey;
+        if (App.getMutationLog() != null) {
+            App.getMutationLog().journeyCreated(journey);
+        }
+
+        int slot = add(journey);
+
+        return snapshot.get().journeyTable.getJourney(slot); // the stop pattern is interned rather than copying intermediateStationIds
     }
 
     /**
-     * Deletes the <code>Journey</code> where the <code>id</code> is <code>journeyId</code>
+     * Deletes the <code>Journey</code> where the <code>id</code> is <code>journeyId</code>, recording it in the <code>MutationLog</code>
      *
      * @param journeyId id of the <code>Journey</code>
+     *
+     * @see #removeJourney(String)
      */
-    public void deleteJourney(final String journeyId) {
-        final List<Journey> journeys = getJourneys();
+    public synchronized void deleteJourney(final String journeyId) {
+        if (snapshot.get().journeyTable.findSlot(journeyId) == -1) {
+            return;
+        }
 
-        for (Journey journey : journeys) {
-            if (journey.getId().equals(journeyId)) {
-                journeys.remove(journey);
-                setJourneys(journeys);
+        if (App.getMutationLog() != null) {
+            App.getMutationLog().journeyDeleted(journeyId);
+        }
+
+        removeJourney(journeyId);
+    }
+
+    /**
+     * Removes the <code>Journey</code> where the <code>id</code> is <code>journeyId</code>, without recording it in the
+     * <code>MutationLog</code>, for when the change is already logged
+     *
+     * The slot is found through the id index and marked as deleted, so nothing is searched or shifted.
+     * Once over half of the slots are deleted, the table is compacted and the buckets are rebuilt without them,
+     * which is published as a further snapshot.
+     *
+     * @param journeyId id of the <code>Journey</code>
+     */
+    public synchronized void removeJourney(final String journeyId) {
+        final Snapshot previousSnapshot = snapshot.get();
+        final int slot = previousSnapshot.journeyTable.findSlot(journeyId);
+
+        if (slot == -1) {
+            return;
+        }
+
+        JourneyTable journeyTable = new JourneyTable(previousSnapshot.journeyTable);
+        journeyTable.delete(slot); // the slot stays in its buckets as a tombstone, skipped when they are read, until the table is compacted
+
+        snapshot.set(new Snapshot(journeyTable, previousSnapshot.slotsByBasicRouteOrdinal, previousSnapshot.slotsByIntermediateStationOrdinal, previousSnapshot.version + 1));
+
+        for (JourneyListener journeyListener : journeyListeners) {
+            journeyListener.journeyDeleted(slot);
+        }
+
+        if (journeyTable.needsCompacting()) {
+            JourneyTable compactedJourneyTable = new JourneyTable(journeyTable);
+            compactedJourneyTable.compact();
+
+            snapshot.set(createSnapshot(compactedJourneyTable, snapshot.get().version + 1));
+
+            for (JourneyListener journeyListener : journeyListeners) {
+                journeyListener.journeysReset(); // the slots have been renumbered
+            }
+        }
+    }
+
+    /**
+     * Retrieves the <code>JourneyTable</code> holding the <code>Journey</code>s, for the journey planners to read from
+     * The table can't be changed from outside of the manager, and is never changed once it has been returned; a change
+     * publishes a new table instead, so its slots only match the manager's until <code>getVersion()</code> changes
+     *
+     * @return JourneyTable
+     */
+    public JourneyTable getJourneyTable() {
+        return snapshot.get().journeyTable;
+    }
+
+    /**
+     * A number that changes whenever a <code>Journey</code> is added, deleted or changed
+     *
+     * @return int
+     */
+    public int getVersion() {
+        return snapshot.get().version;
+    }
+
+    /**
+     * The number of bytes held by the <code>JourneyTable</code> and the buckets
+     *
+     * @return long
+     */
+    public long getFootprintBytes() {
+        Snapshot snapshot = this.snapshot.get();
+        long footprintBytes = snapshot.journeyTable.getFootprintBytes();
+
+        for (IntList basicRouteSlots : snapshot.slotsByBasicRouteOrdinal) {
+            footprintBytes += basicRouteSlots.getCapacityBytes();
+        }
+
+        for (IntList intermediateStationSlots : snapshot.slotsByIntermediateStationOrdinal) {
+            footprintBytes += intermediateStationSlots.getCapacityBytes();
+        }
+
+        return footprintBytes;
+    }
+
+    /**
+     * Estimates the bytes the same <code>Journey</code>s would take as a list of <code>Journey</code> objects,
+     * as they were held before the <code>JourneyTable</code>, to compare against <code>getFootprintBytes()</code>
+     *
+     * @return long
+     */
+    public long getObjectLayoutFootprintBytes() {
+        JourneyTable journeyTable = snapshot.get().journeyTable;
+
+        return JourneyTable.estimateObjectLayoutBytes(journeyTable.getJourneyCount(), journeyTable.getStopCount());
+    }
+
+    /**
+     * Materialises the <code>Journey</code>s in <code>slots</code> between <code>fromIndex</code> (inclusive) and <code>toIndex</code> (exclusive),
+     * skipping deleted slots
+     *
+     * @param journeyTable the table the slots are in
+     * @param slots        the slots to materialise
+     * @param fromIndex    the first index
+     * @param toIndex      the index after the last
+     *
+     * @return List<Journey>
+     */
+    private static List<Journey> getJourneys(final JourneyTable journeyTable, final IntList slots, final int fromIndex, final int toIndex) {
+        List<Journey> journeys = new ArrayList<Journey>(Math.max(toIndex - fromIndex, 0));
 
-                break;
+        for (int i = fromIndex; i < toIndex; i++) {
+            if (!journeyTable.isDeleted(slots.get(i))) {
+                journeys.add(journeyTable.getJourney(slots.get(i)));
             }
         }
+
+        return journeys;
+    }
+
+    /**
+     * Returns the bucket of slots for <code>basicRouteId</code> in the <code>snapshot</code>, or null if no <code>Journey</code> has used it
+     *
+     * @param snapshot     the snapshot to read
+     * @param basicRouteId the ID of the BasicRoute
+     *
+     * @return IntList
+     */
+    private static IntList getBucket(final Snapshot snapshot, final String basicRouteId) {
+        int basicRouteOrdinal = snapshot.journeyTable.getBasicRouteOrdinal(basicRouteId);
+
+        if (basicRouteOrdinal == -1 || basicRouteOrdinal >= snapshot.slotsByBasicRouteOrdinal.size()) {
+            return null;
+        }
+
+        return snapshot.slotsByBasicRouteOrdinal.get(basicRouteOrdinal);
+    }
+
+    /**
+     * Builds every bucket from the <code>journeyTable</code>, sorting each one once, into a new snapshot
+     *
+     * @param journeyTable the table to bucket
+     * @param version      the version of the snapshot
+     *
+     * @return Snapshot
+     */
+    private static Snapshot createSnapshot(final JourneyTable journeyTable, final int version) {
+        StopPatternRegistry stopPatternRegistry = journeyTable.getStopPatternRegistry();
+        List<IntList> slotsByBasicRouteOrdinal = new ArrayList<IntList>();
+        List<IntList> slotsByIntermediateStationOrdinal = new ArrayList<IntList>();
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                int stopPatternId = journeyTable.getStopPatternId(slot);
+
+                getBucket(slotsByBasicRouteOrdinal, journeyTable.getBasicRouteOrdinal(slot)).add(slot);
+
+                for (int i = 0; i < stopPatternRegistry.getStopCount(stopPatternId); i++) {
+                    getBucket(slotsByIntermediateStationOrdinal, stopPatternRegistry.getStop(stopPatternId, i)).add(slot);
+                }
+            }
+        }
+
+        sortBuckets(journeyTable, slotsByBasicRouteOrdinal);
+        sortBuckets(journeyTable, slotsByIntermediateStationOrdinal);
+
+        return new Snapshot(journeyTable, slotsByBasicRouteOrdinal, slotsByIntermediateStationOrdinal, version);
+    }
+
+    private static void sortBuckets(final JourneyTable journeyTable, final List<IntList> buckets) {
+        for (IntList bucket : buckets) {
+            int[] sortedSlots = sortByDeparture(journeyTable, bucket.toArray());
+
+            bucket.clear();
+
+            for (int slot : sortedSlots) {
+                bucket.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Returns the bucket at <code>ordinal</code>, adding empty buckets up to it if they don't exist yet
+     *
+     * @param buckets the buckets, indexed by ordinal
+     * @param ordinal the route or station ordinal
+     *
+     * @return IntList
+     */
+    private static IntList getBucket(final List<IntList> buckets, final int ordinal) {
+        while (buckets.size() <= ordinal) {
+            buckets.add(new IntList());
+        }
+
+        return buckets.get(ordinal);
+    }
+
+    /**
+     * Replaces the bucket at <code>ordinal</code> with a copy that can be changed, returning the copy, or with a new
+     * empty bucket if it doesn't exist yet
+     * The bucket being replaced may still be read through an older snapshot, so it is never changed itself
+     *
+     * @param buckets a copy of the buckets, indexed by ordinal
+     * @param ordinal the route or station ordinal
+     *
+     * @return IntList
+     */
+    private static IntList copyBucket(final List<IntList> buckets, final int ordinal) {
+        IntList bucket = new IntList(getBucket(buckets, ordinal));
+
+        buckets.set(ordinal, bucket);
+
+        return bucket;
+    }
+
+    /**
+     * Inserts <code>slot</code> into its place in a bucket, after any slot departing at the same time
+     *
+     * @param journeyTable the table the slots are in
+     * @param bucket       a bucket, sorted by departure <code>timestamp</code>
+     * @param slot         the slot to insert
+     */
+    private static void insertSlot(final JourneyTable journeyTable, final IntList bucket, final int slot) {
+        bucket.insert(indexOfFirstDepartureAfter(journeyTable, bucket, journeyTable.getTimestamp(slot)), slot);
+    }
+
+    /**
+     * Sorts <code>slots</code> by departure <code>timestamp</code> with a merge sort, returning the sorted array
+     * The sort is stable, so <code>Journey</code>s departing at the same time stay in the order they were added
+     *
+     * @param journeyTable the table the slots are in
+     * @param slots        the slots to sort
+     *
+     * @return int[]
+     */
+    private static int[] sortByDeparture(final JourneyTable journeyTable, final int[] slots) {
+        int[] source = slots;
+        int[] target = new int[slots.length];
+
+        for (int width = 1; width < slots.length; width *= 2) {
+            for (int low = 0; low < slots.length; low += 2 * width) {
+                int middle = Math.min(low + width, slots.length);
+                int high = Math.min(low + 2 * width, slots.length);
+                int left = low;
+                int right = middle;
+
+                for (int i = low; i < high; i++) {
+                    if (left < middle && (right >= high || journeyTable.getTimestamp(source[left]) <= journeyTable.getTimestamp(source[right]))) {
+                        target[i] = source[left++];
+                    } else {
+                        target[i] = source[right++];
+                    }
+                }
+            }
+
+            int[] sorted = target;
+            target = source;
+            source = sorted;
+        }
+
+        return source;
+    }
+
+    /**
+     * Binary searches a bucket for the index of the first slot departing strictly after <code>timestamp</code>
+     * Returns the size of the bucket if every slot departs at or before <code>timestamp</code>
+     *
+     * @param journeyTable    the table the slots are in
+     * @param basicRouteSlots a bucket, sorted by departure <code>timestamp</code>
+     * @param timestamp       the time to search from
+     *
+     * @return int
+     */
+    private static int indexOfFirstDepartureAfter(final JourneyTable journeyTable, final IntList basicRouteSlots, final long timestamp) {
+        int low = 0;
+        int high = basicRouteSlots.size();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (journeyTable.getTimestamp(basicRouteSlots.get(middle)) <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
     }
 
     /**
@@ -170,22 +662,31 @@ public class JourneyManager extends Manager {
      * where the <code>intermediateStationId</code> is <code>intermediateStationId</code>
      *
      * Prevents <code>Journey</code>s trying to load information about a station that doesn't exist
+     * Only the stop patterns calling at the station are rewritten, rather than every <code>Journey</code>
      *
      * @param intermediateStationId id of the <code>IntermediateStation</code> to remove from all <code>Journey</code>s
      */
-    public void removeIntermediateStationIdFromJourneys(final String intermediateStationId) {
-        List<Journey> journeys = getJourneys();
+    public synchronized void removeIntermediateStationIdFromJourneys(final String intermediateStationId) {
+        Snapshot previousSnapshot = snapshot.get();
+        int intermediateStationOrdinal = previousSnapshot.journeyTable.getStopPatternRegistry().getIntermediateStationOrdinal(intermediateStationId);
 
-        for (Journey journey : journeys) {
-            for (String journeyIntermediateStationId : journey.getIntermediateStationIds()) {
-                if (journeyIntermediateStationId.equals(intermediateStationId)) {
-                    List<String> intermediateStationIds = journey.getIntermediateStationIds(); // the intermediateStationIds for the current Journey
+        if (intermediateStationOrdinal == -1) {
+            return;
+        }
 
-                    intermediateStationIds.remove(journeyIntermediateStationId); // remove the intermediateStationId from the current Journey's intermediateStationIds
+        JourneyTable journeyTable = new JourneyTable(previousSnapshot.journeyTable);
+        journeyTable.removeIntermediateStation(intermediateStationId);
 
-                    break;
-                }
-            }
+        List<IntList> slotsByIntermediateStationOrdinal = new ArrayList<IntList>(previousSnapshot.slotsByIntermediateStationOrdinal);
+
+        if (intermediateStationOrdinal < slotsByIntermediateStationOrdinal.size()) {
+            slotsByIntermediateStationOrdinal.set(intermediateStationOrdinal, new IntList()); // none of the journeys call at it any more
+        }
+
+        snapshot.set(new Snapshot(journeyTable, previousSnapshot.slotsByBasicRouteOrdinal, slotsByIntermediateStationOrdinal, previousSnapshot.version + 1));
+
+        for (JourneyListener journeyListener : journeyListeners) {
+            journeyListener.journeysReset();
         }
     }
 
@@ -193,40 +694,176 @@ public class JourneyManager extends Manager {
      * Converts the collection of <code>Journey</code>s
      * into XML and writes it to the corresponding XML file
      *
-     * Any errors are thrown and caught at the lower level
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        writeXML(new File("resources/xml/journeys.xml"));
+    }
+
+    /**
+     * Streams the stop patterns and journeys straight out of the <code>JourneyTable</code>, without materialising any
+     * <code>Journey</code>s
+     *
+     * Each distinct stop pattern in use is numbered in the order it is first used, so the table is only scanned twice:
+     * once to write the patterns, and once to write the journeys referencing them
+     *
+     * @param writer the writer, positioned after the XML declaration
+     *
+     * @throws XMLStreamException if the XML cannot be written
      */
-    public void save() {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    @Override
+    protected void writeRecords(final XMLStreamWriter writer) throws XMLStreamException {
+        JourneyTable journeyTable = snapshot.get().journeyTable; // the journeys as they were when the save started, however they change meanwhile
+        StopPatternRegistry stopPatternRegistry = journeyTable.getStopPatternRegistry();
+        int[] stopPatternIds = new int[stopPatternRegistry.size()]; // canonical pattern ID -> stopPatternId in the file
+        int stopPatternCount = 0;
+
+        Arrays.fill(stopPatternIds, -1);
+
+        writer.writeStartElement("journeys");
+        writer.writeStartElement("stopPatterns"); // written before the journeys, so that they can be resolved as the journeys are read
 
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.newDocument();
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            int patternId = stopPatternRegistry.getCanonicalPatternId(journeyTable.getStopPatternId(slot));
 
-            Element rootElement = document.createElement("journeys");
+            if (journeyTable.isDeleted(slot) || stopPatternIds[patternId] != -1) {
+                continue;
+            }
+
+            stopPatternIds[patternId] = stopPatternCount++;
 
-            for (Journey journey : getJourneys()) {
-                Element journeyElement = document.createElement("journey");
-                journeyElement.setAttribute("id", journey.getId());
+            List<String> intermediateStationIds = stopPatternRegistry.getIntermediateStationIds(patternId);
+            StopTimes stopTimes = stopPatternRegistry.getStopTimes(patternId);
 
-                journeyElement.appendChild(createXMLElement(document, "basicRouteId", journey.getBasicRouteId()));
+            writer.writeStartElement("stopPattern");
+            writer.writeAttribute("id", String.valueOf(stopPatternIds[patternId]));
 
-                Element intermediateStationIdsElement = document.createElement("intermediateStationIds");
+            for (int i = 0; i < intermediateStationIds.size(); i++) {
+                writer.writeStartElement("intermediateStationId");
 
-                for (String intermediateStationId : journey.getIntermediateStationIds()) {
-                    intermediateStationIdsElement.appendChild(createXMLElement(document, "intermediateStationId", intermediateStationId));
+                if (stopTimes != null) { // minutes after the journey departs
+                    writer.writeAttribute("arrival", String.valueOf(stopTimes.getArrivalOffset(i)));
+                    writer.writeAttribute("departure", String.valueOf(stopTimes.getDepartureOffset(i)));
                 }
 
-                journeyElement.appendChild(intermediateStationIdsElement);
-                journeyElement.appendChild(createXMLElement(document, "timestamp", String.valueOf(journey.getTimestamp())));
+                writer.writeCharacters(intermediateStationIds.get(i));
+                writer.writeEndElement();
+            }
+
+            writer.writeEndElement();
+        }
 
-                rootElement.appendChild(journeyElement);
+        writer.writeEndElement();
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (journeyTable.isDeleted(slot)) {
+                continue;
             }
 
-            document.appendChild(rootElement);
+            writer.writeStartElement("journey");
+            writer.writeAttribute("id", journeyTable.getId(slot));
+
+            writeXMLElement(writer, "basicRouteId", journeyTable.getBasicRouteId(slot));
+            writeXMLElement(writer, "stopPatternId", String.valueOf(stopPatternIds[stopPatternRegistry.getCanonicalPatternId(journeyTable.getStopPatternId(slot))]));
+            writeXMLElement(writer, "timestamp", String.valueOf(journeyTable.getTimestamp(slot)));
+
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+    }
+
+    /**
+     * Builds the <code>JourneyTable</code> that replaces every <code>Journey</code> in the manager, from one thread,
+     * without publishing anything until it is finished
+     */
+    public class Loader {
+        private final JourneyTable journeyTable = new JourneyTable();
 
-            writeXML(document, new File("resources/xml/journeys.xml"));
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
+        private Loader() {
+        }
+
+        /**
+         * Adds an already validated <code>Journey</code>, unless one with the same ID has already been added
+         *
+         * @param journey the <code>Journey</code> to add
+         *
+         * @return boolean whether it was added
+         */
+        public boolean add(final Journey journey) {
+            if (journeyTable.findSlot(journey.getId()) != -1) {
+                return false;
+            }
+
+            journeyTable.add(journey.getId(), journey.getBasicRouteId(), journey.getIntermediateStationIds(), journey.getStopTimes(), journey.getTimestamp());
+
+            return true;
+        }
+
+        /**
+         * Returns the ordinal the journeys added with <code>addColumns()</code> refer to <code>basicRouteId</code> by
+         *
+         * @param basicRouteId the ID of the BasicRoute
+         *
+         * @return int
+         */
+        public int addBasicRoute(final String basicRouteId) {
+            return journeyTable.internBasicRoute(basicRouteId);
+        }
+
+        /**
+         * Returns the ID the journeys added with <code>addColumns()</code> refer to a stop pattern by
+         *
+         * @param intermediateStationIds the ordered list of <code>IntermediateStation</code> ids
+         * @param stopTimes              the times each station is called at, or null if they are spread evenly
+         *
+         * @return int
+         */
+        public int addStopPattern(final List<String> intermediateStationIds, final StopTimes stopTimes) {
+            return journeyTable.internStopPattern(intermediateStationIds, stopTimes);
+        }
+
+        /**
+         * Adds already validated journeys held as columns, such as those read back from a <code>NetworkSnapshot</code>,
+         * without creating a <code>Journey</code> for any of them. Their IDs are not checked for duplicates.
+         *
+         * @param idMostSignificantBits  the first half of each journey's <code>UUID</code>
+         * @param idLeastSignificantBits the second half of each journey's <code>UUID</code>
+         * @param nonUuidIds             the ID of each journey whose ID isn't a <code>UUID</code>, by its row in the columns
+         * @param basicRouteOrdinals     the ordinal returned by <code>addBasicRoute()</code> for each journey's route
+         * @param stopPatternIds         the ID returned by <code>addStopPattern()</code> for each journey's stop pattern
+         * @param timestamps             the time each journey departs
+         * @param count                  the number of journeys in the columns
+         */
+        public void addColumns(final long[] idMostSignificantBits, final long[] idLeastSignificantBits, final Map<Integer, String> nonUuidIds,
+                               final int[] basicRouteOrdinals, final int[] stopPatternIds, final long[] timestamps, final int count) {
+            journeyTable.addColumns(idMostSignificantBits, idLeastSignificantBits, nonUuidIds, basicRouteOrdinals, stopPatternIds, timestamps, count);
+        }
+
+        /**
+         * Replaces the manager's <code>Journey</code>s with the ones added, sorting each bucket once
+         */
+        public void finish() {
+            setJourneyTable(journeyTable);
+        }
+    }
+
+    /**
+     * The table and the buckets indexing it, as they were at one <code>version</code>
+     * Nothing in a snapshot is changed once it has been published, so it can be read without a lock
+     */
+    private static final class Snapshot {
+        private final JourneyTable journeyTable;
+        private final List<IntList> slotsByBasicRouteOrdinal; // each bucket is sorted by departure timestamp
+        private final List<IntList> slotsByIntermediateStationOrdinal; // journeys calling at each station, sorted by departure timestamp
+        private final int version; // incremented whenever the journeys change, so that anything derived from them knows to rebuild
+
+        private Snapshot(final JourneyTable journeyTable, final List<IntList> slotsByBasicRouteOrdinal,
+                         final List<IntList> slotsByIntermediateStationOrdinal, final int version) {
+            this.journeyTable = journeyTable;
+            this.slotsByBasicRouteOrdinal = slotsByBasicRouteOrdinal;
+            this.slotsByIntermediateStationOrdinal = slotsByIntermediateStationOrdinal;
+            this.version = version;
         }
     }
 }
@@ -0,0 +1,633 @@
+package com.TobyMellor.TrainRouteFinder.journeys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The storage engine behind the <code>JourneyManager</code>
+ *
+ * Rather than holding a <code>Journey</code> object per journey, each field is held in a parallel primitive array
+ * (a column) indexed by the journey's <code>slot</code>:
+ *     - <code>id</code>s are held as the two halves of their <code>UUID</code> (any ID that isn't a UUID is kept as a <code>String</code> on the side)
+ *     - departure <code>timestamp</code>s are held as <code>long</code>s
+ *     - <code>basicRouteId</code>s are interned to an <code>int</code> ordinal
+ *     - <code>intermediateStationIds</code> and their <code>StopTimes</code> are interned as a stop pattern in the table's
+ *       <code>StopPatternRegistry</code>, and each slot holds the <code>int</code> ID of its pattern
+ *
+ * <code>Journey</code> objects are only materialised on demand, for example when the GUI shows them in a table.
+ *
+ * Journeys are found by <code>id</code> through an open-addressing hash index of slots, keyed on the two halves of
+ * the <code>UUID</code>, so lookups don't box or compare <code>String</code>s.
+ *
+ * Deleting a journey only marks its slot as deleted; the table is compacted once over half of its slots are deleted,
+ * which renumbers the slots.
+ *
+ * The <code>JourneyManager</code> never changes a table that has been published to readers: it changes a copy made with
+ * <code>JourneyTable(JourneyTable)</code> and publishes that instead. Slots are only ever appended at or after
+ * <code>size()</code>, where the original never reads, so the first copy of a table shares its columns and id index rather
+ * than copying them; only the deleted slots and, once they need changing, the interned IDs and stop patterns are copied.
+ * Compacting allocates new columns, so it never moves a row out from under a reader either.
+ *
+ * Per journey, the list-of-objects layout costs roughly 404 bytes plus 116 bytes per intermediate station
+ * (the <code>Journey</code>, three <code>String</code>s parsed separately from the XML, a boxed <code>Long</code>, an
+ * <code>ArrayList</code> and the <code>JourneyValidator</code> kept by the <code>Journey</code>), where this table costs
+ * 32 bytes whatever the number of intermediate stations, plus each distinct stop pattern once. For a million journeys with up to four intermediate stations each,
+ * that measured 281MB of heap as objects (without their validators) against 51MB in this table. See <code>estimateObjectLayoutBytes()</code> and <code>getFootprintBytes()</code>.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:30:00 $
+ */
+
+public class JourneyTable {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int EMPTY = -1;
+
+    private long[] idMostSignificantBits = new long[INITIAL_CAPACITY];
+    private long[] idLeastSignificantBits = new long[INITIAL_CAPACITY];
+    private Map<Integer, String> nonUuidIds = new HashMap<Integer, String>(); // slot -> id, for the rare ID that isn't a UUID
+    private Map<String, Integer> nonUuidSlotsById = new HashMap<String, Integer>();
+    private int[] slotsByIdHash = createIdIndex(INITIAL_CAPACITY * 2); // open addressing with linear probing, EMPTY where unused
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] basicRouteOrdinals = new int[INITIAL_CAPACITY];
+    private int[] stopPatternIds = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private BitSet deleted = new BitSet();
+    private int deletedCount = 0;
+
+    private List<String> basicRouteIds = new ArrayList<String>();
+    private Map<String, Integer> basicRouteOrdinalsById = new HashMap<String, Integer>();
+    private boolean isBasicRouteIdsShared = false; // copied before a new ID is interned, if still shared with the original table
+    private StopPatternRegistry stopPatternRegistry = new StopPatternRegistry();
+    private boolean isStopPatternRegistryShared = false; // copied before it is changed, if still shared with the original table
+
+    private final AtomicBoolean hasColumnsCopy = new AtomicBoolean(false); // whether a copy has already been given the columns to append to
+
+    JourneyTable() {
+    }
+
+    /**
+     * Copies <code>journeyTable</code>, so that the copy can be changed while the original is still being read
+     *
+     * The first copy of a table shares its columns and id index, since it only appends after the original's <code>size</code>.
+     * Any later copy of the same table would append to the same slots, so it copies them instead.
+     *
+     * @param journeyTable the table to copy
+     */
+    JourneyTable(final JourneyTable journeyTable) {
+        boolean isSharingColumns = journeyTable.hasColumnsCopy.compareAndSet(false, true);
+
+        idMostSignificantBits = isSharingColumns ? journeyTable.idMostSignificantBits : journeyTable.idMostSignificantBits.clone();
+        idLeastSignificantBits = isSharingColumns ? journeyTable.idLeastSignificantBits : journeyTable.idLeastSignificantBits.clone();
+        slotsByIdHash = isSharingColumns ? journeyTable.slotsByIdHash : journeyTable.slotsByIdHash.clone();
+        timestamps = isSharingColumns ? journeyTable.timestamps : journeyTable.timestamps.clone();
+        basicRouteOrdinals = isSharingColumns ? journeyTable.basicRouteOrdinals : journeyTable.basicRouteOrdinals.clone();
+        stopPatternIds = isSharingColumns ? journeyTable.stopPatternIds : journeyTable.stopPatternIds.clone();
+        size = journeyTable.size;
+
+        nonUuidIds = new HashMap<Integer, String>(journeyTable.nonUuidIds);
+        nonUuidSlotsById = new HashMap<String, Integer>(journeyTable.nonUuidSlotsById);
+        deleted = (BitSet) journeyTable.deleted.clone();
+        deletedCount = journeyTable.deletedCount;
+
+        basicRouteIds = journeyTable.basicRouteIds;
+        basicRouteOrdinalsById = journeyTable.basicRouteOrdinalsById;
+        isBasicRouteIdsShared = true;
+        stopPatternRegistry = journeyTable.stopPatternRegistry;
+        isStopPatternRegistryShared = true;
+    }
+
+    /**
+     * Appends a journey to the table, returning its slot
+     *
+     * @param id                     the <code>Journey</code> id
+     * @param basicRouteId           the <code>id</code> of the linked <code>BasicRoute</code>
+     * @param intermediateStationIds the ordered list of <code>IntermediateStation</code> ids
+     * @param stopTimes              the times each station is called at, or null if they are spread evenly
+     * @param timestamp              the time at which the <code>Journey</code> departs
+     *
+     * @return int
+     */
+    int add(final String id, final String basicRouteId, final List<String> intermediateStationIds, final StopTimes stopTimes, final long timestamp) {
+        ensureCapacity(size + 1);
+
+        int slot = size++;
+        UUID uuid = parseUuid(id);
+
+        if (uuid != null) {
+            idMostSignificantBits[slot] = uuid.getMostSignificantBits();
+            idLeastSignificantBits[slot] = uuid.getLeastSignificantBits();
+
+            indexId(slot);
+        } else {
+            nonUuidIds.put(slot, id);
+            nonUuidSlotsById.put(id, slot);
+        }
+
+        timestamps[slot] = timestamp;
+        basicRouteOrdinals[slot] = internBasicRoute(basicRouteId);
+        stopPatternIds[slot] = internStopPattern(intermediateStationIds, stopTimes);
+
+        return slot;
+    }
+
+    /**
+     * Returns the ordinal of <code>basicRouteId</code>, interning it if no journey has used it yet
+     *
+     * @param basicRouteId the ID of the BasicRoute
+     *
+     * @return int
+     */
+    int internBasicRoute(final String basicRouteId) {
+        if (isBasicRouteIdsShared && !basicRouteOrdinalsById.containsKey(basicRouteId)) {
+            basicRouteIds = new ArrayList<String>(basicRouteIds);
+            basicRouteOrdinalsById = new HashMap<String, Integer>(basicRouteOrdinalsById);
+            isBasicRouteIdsShared = false;
+        }
+
+        return intern(basicRouteId, basicRouteIds, basicRouteOrdinalsById);
+    }
+
+    /**
+     * Returns the ID of the stop pattern calling at <code>intermediateStationIds</code> at the <code>stopTimes</code>,
+     * interning it if no journey has used it yet
+     *
+     * @param intermediateStationIds the ordered list of <code>IntermediateStation</code> ids
+     * @param stopTimes              the times each station is called at, or null if they are spread evenly
+     *
+     * @return int
+     */
+    int internStopPattern(final List<String> intermediateStationIds, final StopTimes stopTimes) {
+        if (isStopPatternRegistryShared && !stopPatternRegistry.contains(intermediateStationIds, stopTimes)) {
+            copyStopPatternRegistry();
+        }
+
+        return stopPatternRegistry.intern(intermediateStationIds, stopTimes);
+    }
+
+    /**
+     * Appends <code>count</code> journeys held as columns, as they are read back from a snapshot, building the id index
+     * once at the end rather than as each one is added
+     *
+     * The columns are copied straight into the table, so the ordinals and stop pattern IDs must already have been
+     * interned in this table with <code>internBasicRoute()</code> and <code>internStopPattern()</code>
+     *
+     * @param mostSignificantBits  the first half of each journey's <code>UUID</code>
+     * @param leastSignificantBits the second half of each journey's <code>UUID</code>
+     * @param rowNonUuidIds        the ID of each journey whose ID isn't a <code>UUID</code>, by its row in the columns
+     * @param rowBasicRouteOrdinals the ordinal of each journey's <code>BasicRoute</code>
+     * @param rowStopPatternIds    the ID of each journey's stop pattern
+     * @param rowTimestamps        the time each journey departs
+     * @param count                the number of journeys in the columns
+     */
+    void addColumns(final long[] mostSignificantBits, final long[] leastSignificantBits, final Map<Integer, String> rowNonUuidIds,
+                    final int[] rowBasicRouteOrdinals, final int[] rowStopPatternIds, final long[] rowTimestamps, final int count) {
+        ensureCapacity(size + count);
+
+        System.arraycopy(mostSignificantBits, 0, idMostSignificantBits, size, count);
+        System.arraycopy(leastSignificantBits, 0, idLeastSignificantBits, size, count);
+        System.arraycopy(rowBasicRouteOrdinals, 0, basicRouteOrdinals, size, count);
+        System.arraycopy(rowStopPatternIds, 0, stopPatternIds, size, count);
+        System.arraycopy(rowTimestamps, 0, timestamps, size, count);
+
+        for (Map.Entry<Integer, String> rowNonUuidId : rowNonUuidIds.entrySet()) {
+            nonUuidIds.put(size + rowNonUuidId.getKey(), rowNonUuidId.getValue());
+            nonUuidSlotsById.put(rowNonUuidId.getValue(), size + rowNonUuidId.getKey());
+        }
+
+        size += count;
+
+        int capacity = slotsByIdHash.length;
+
+        while ((size - nonUuidIds.size()) * 2 > capacity) {
+            capacity *= 2;
+        }
+
+        rebuildIdIndex(capacity);
+    }
+
+    /**
+     * The number of slots in the table, including deleted slots
+     *
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of journeys in the table, excluding deleted slots
+     *
+     * @return int
+     */
+    public int getJourneyCount() {
+        return size - deletedCount;
+    }
+
+    public boolean isDeleted(final int slot) {
+        return deleted.get(slot);
+    }
+
+    /**
+     * Marks <code>slot</code> as deleted. Its entry in the id index is left in place, and skipped by <code>findSlot()</code>,
+     * until the table is compacted
+     *
+     * @param slot the slot to delete
+     */
+    void delete(final int slot) {
+        if (!deleted.get(slot)) {
+            deleted.set(slot);
+            deletedCount++;
+
+            if (nonUuidIds.containsKey(slot)) {
+                nonUuidSlotsById.remove(nonUuidIds.get(slot));
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of the journey with the <code>id</code>, or -1 if there isn't one
+     * The id index may hold slots appended by a newer copy of the table, which are skipped
+     *
+     * @param id the id of the journey
+     *
+     * @return int
+     */
+    public int findSlot(final String id) {
+        UUID uuid = parseUuid(id);
+
+        if (uuid == null) {
+            Integer slot = nonUuidSlotsById.get(id);
+
+            return slot == null ? -1 : slot;
+        }
+
+        long mostSignificantBits = uuid.getMostSignificantBits();
+        long leastSignificantBits = uuid.getLeastSignificantBits();
+        int mask = slotsByIdHash.length - 1;
+
+        for (int i = hash(mostSignificantBits, leastSignificantBits) & mask; slotsByIdHash[i] != EMPTY; i = (i + 1) & mask) {
+            int slot = slotsByIdHash[i];
+
+            if (slot < size && idMostSignificantBits[slot] == mostSignificantBits && idLeastSignificantBits[slot] == leastSignificantBits && !deleted.get(slot)) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks if enough slots have been deleted that <code>compact()</code> should be called
+     *
+     * @return boolean
+     */
+    boolean needsCompacting() {
+        return deletedCount > INITIAL_CAPACITY && deletedCount > size / 2;
+    }
+
+    public String getId(final int slot) {
+        if (!nonUuidIds.isEmpty() && nonUuidIds.containsKey(slot)) {
+            return nonUuidIds.get(slot);
+        }
+
+        return new UUID(idMostSignificantBits[slot], idLeastSignificantBits[slot]).toString();
+    }
+
+    /**
+     * Checks if the ID of the journey in <code>slot</code> is held as the two halves of a <code>UUID</code>
+     *
+     * @param slot the slot
+     *
+     * @return boolean
+     */
+    public boolean hasUuidId(final int slot) {
+        return nonUuidIds.isEmpty() || !nonUuidIds.containsKey(slot);
+    }
+
+    public long getIdMostSignificantBits(final int slot) {
+        return idMostSignificantBits[slot];
+    }
+
+    public long getIdLeastSignificantBits(final int slot) {
+        return idLeastSignificantBits[slot];
+    }
+
+    public long getTimestamp(final int slot) {
+        return timestamps[slot];
+    }
+
+    public int getBasicRouteOrdinal(final int slot) {
+        return basicRouteOrdinals[slot];
+    }
+
+    public String getBasicRouteId(final int slot) {
+        return basicRouteIds.get(basicRouteOrdinals[slot]);
+    }
+
+    /**
+     * Returns the ordinal <code>basicRouteId</code> has been interned to, or -1 if no journey has used it
+     *
+     * @param basicRouteId the ID of the BasicRoute
+     *
+     * @return int
+     */
+    public int getBasicRouteOrdinal(final String basicRouteId) {
+        Integer ordinal = basicRouteOrdinalsById.get(basicRouteId);
+
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Returns the <code>basicRouteId</code> that was interned to <code>ordinal</code>
+     *
+     * @param ordinal the ordinal of the BasicRoute
+     *
+     * @return String
+     */
+    public String getBasicRouteIdByOrdinal(final int ordinal) {
+        return basicRouteIds.get(ordinal);
+    }
+
+    /**
+     * The number of distinct <code>basicRouteId</code>s that have been interned
+     *
+     * @return int
+     */
+    public int getBasicRouteOrdinalCount() {
+        return basicRouteIds.size();
+    }
+
+    public int getStopPatternId(final int slot) {
+        return stopPatternIds[slot];
+    }
+
+    public StopPatternRegistry getStopPatternRegistry() {
+        return stopPatternRegistry;
+    }
+
+    /**
+     * Retrieves the <code>intermediateStationIds</code> of the journey in <code>slot</code>
+     * The list is shared with every journey with the same stop pattern, so it cannot be modified
+     *
+     * @param slot the slot
+     *
+     * @return List<String>
+     */
+    public List<String> getIntermediateStationIds(final int slot) {
+        return stopPatternRegistry.getIntermediateStationIds(stopPatternIds[slot]);
+    }
+
+    /**
+     * Retrieves the <code>StopTimes</code> of the journey in <code>slot</code>, shared with every journey with the same stop pattern,
+     * or null if it calls at its intermediate stations at times spread evenly over its <code>BasicRoute</code>'s duration
+     *
+     * @param slot the slot
+     *
+     * @return StopTimes
+     */
+    public StopTimes getStopTimes(final int slot) {
+        return stopPatternRegistry.getStopTimes(stopPatternIds[slot]);
+    }
+
+    /**
+     * Materialises the journey in <code>slot</code> as a <code>Journey</code> object
+     *
+     * @param slot the slot to materialise
+     *
+     * @return Journey
+     */
+    public Journey getJourney(final int slot) {
+        return new Journey(getId(slot), getBasicRouteId(slot), getIntermediateStationIds(slot), getStopTimes(slot), timestamps[slot]);
+    }
+
+    /**
+     * Removes <code>intermediateStationId</code> from the stops of every journey calling at it
+     * Only the stop patterns are rewritten, so no slot is touched
+     *
+     * @param intermediateStationId id of the <code>IntermediateStation</code> to remove
+     */
+    void removeIntermediateStation(final String intermediateStationId) {
+        if (isStopPatternRegistryShared) {
+            copyStopPatternRegistry();
+        }
+
+        stopPatternRegistry.removeIntermediateStation(intermediateStationId);
+    }
+
+    /**
+     * Removes the deleted slots from the table, moving every remaining journey down into the gap
+     * Returns an array mapping each old slot to its new slot, or -1 where the old slot was deleted
+     *
+     * The journeys are moved into new columns, so that any table sharing the old columns can still read them
+     *
+     * @return int[]
+     */
+    int[] compact() {
+        int[] newSlots = new int[size];
+        int newSize = 0;
+        int capacity = timestamps.length;
+        Map<Integer, String> movedNonUuidIds = new HashMap<Integer, String>();
+
+        long[] compactedIdMostSignificantBits = new long[capacity];
+        long[] compactedIdLeastSignificantBits = new long[capacity];
+        long[] compactedTimestamps = new long[capacity];
+        int[] compactedBasicRouteOrdinals = new int[capacity];
+        int[] compactedStopPatternIds = new int[capacity];
+
+        for (int slot = 0; slot < size; slot++) {
+            if (deleted.get(slot)) {
+                newSlots[slot] = -1;
+
+                continue;
+            }
+
+            compactedIdMostSignificantBits[newSize] = idMostSignificantBits[slot];
+            compactedIdLeastSignificantBits[newSize] = idLeastSignificantBits[slot];
+            compactedTimestamps[newSize] = timestamps[slot];
+            compactedBasicRouteOrdinals[newSize] = basicRouteOrdinals[slot];
+            compactedStopPatternIds[newSize] = stopPatternIds[slot];
+
+            if (nonUuidIds.containsKey(slot)) {
+                movedNonUuidIds.put(newSize, nonUuidIds.get(slot));
+            }
+
+            newSlots[slot] = newSize++;
+        }
+
+        idMostSignificantBits = compactedIdMostSignificantBits;
+        idLeastSignificantBits = compactedIdLeastSignificantBits;
+        timestamps = compactedTimestamps;
+        basicRouteOrdinals = compactedBasicRouteOrdinals;
+        stopPatternIds = compactedStopPatternIds;
+
+        nonUuidIds = movedNonUuidIds;
+        deleted = new BitSet();
+        deletedCount = 0;
+        size = newSize;
+
+        nonUuidSlotsById = new HashMap<String, Integer>();
+
+        for (Map.Entry<Integer, String> nonUuidId : nonUuidIds.entrySet()) {
+            nonUuidSlotsById.put(nonUuidId.getValue(), nonUuidId.getKey());
+        }
+
+        rebuildIdIndex(slotsByIdHash.length);
+
+        return newSlots;
+    }
+
+    /**
+     * The number of bytes held by the table's arrays, including their unused capacity
+     * Interned IDs, stop patterns and the rare non-UUID ID are not counted, since they are shared between journeys
+     *
+     * @return long
+     */
+    public long getFootprintBytes() {
+        return 6 * 16L // array headers
+                + 8L * (idMostSignificantBits.length + idLeastSignificantBits.length + timestamps.length)
+                + 4L * (basicRouteOrdinals.length + stopPatternIds.length + slotsByIdHash.length)
+                + deleted.size() / 8;
+    }
+
+    /**
+     * Estimates the bytes the same journeys would take as a <code>List<Journey></code>, as they were held before this table,
+     * on a 64-bit Java 8 JVM with compressed references, where each <code>String</code> is a separate 36 character UUID parsed from the XML:
+     *     - <code>Journey</code> (32), <code>id</code> and <code>basicRouteId</code> (112 each), <code>Long</code> (16),
+     *       <code>ArrayList</code> with its default capacity of 10 (80), <code>JourneyValidator</code> with its messages list (48)
+     *       and the reference in the list (4)
+     *     - per intermediate station, a <code>String</code> (112) and its reference (4)
+     *
+     * @param journeyCount the number of journeys
+     * @param stopCount    the total number of intermediate stations called at, over all journeys
+     *
+     * @return long
+     */
+    public static long estimateObjectLayoutBytes(final long journeyCount, final long stopCount) {
+        return journeyCount * (32 + 112 + 112 + 16 + 80 + 48 + 4) + stopCount * (112 + 4);
+    }
+
+    /**
+     * The total number of intermediate stations called at, over all of the journeys
+     *
+     * @return long
+     */
+    public long getStopCount() {
+        long stopCount = 0;
+
+        for (int slot = 0; slot < size; slot++) {
+            if (!deleted.get(slot)) {
+                stopCount += stopPatternRegistry.getStopCount(stopPatternIds[slot]);
+            }
+        }
+
+        return stopCount;
+    }
+
+    /**
+     * Parses <code>id</code> as a <code>UUID</code>, returning null if it isn't one or wouldn't be written back out identically
+     *
+     * @param id the id to parse
+     *
+     * @return UUID
+     */
+    public static UUID parseUuid(final String id) {
+        if (id.length() != 36) {
+            return null;
+        }
+
+        try {
+            UUID uuid = UUID.fromString(id);
+
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void copyStopPatternRegistry() {
+        stopPatternRegistry = new StopPatternRegistry(stopPatternRegistry);
+        isStopPatternRegistryShared = false;
+    }
+
+    private static int intern(final String id, final List<String> ids, final Map<String, Integer> ordinalsById) {
+        Integer ordinal = ordinalsById.get(id);
+
+        if (ordinal == null) {
+            ordinal = ids.size();
+
+            ids.add(id);
+            ordinalsById.put(id, ordinal);
+        }
+
+        return ordinal;
+    }
+
+    /**
+     * Adds <code>slot</code> to the id index, doubling the index first if it would become over half full
+     * Deleted slots stay in the index until compaction, so they count towards how full it is
+     *
+     * @param slot the slot to add
+     */
+    private void indexId(final int slot) {
+        if ((size - nonUuidIds.size()) * 2 > slotsByIdHash.length) {
+            rebuildIdIndex(slotsByIdHash.length * 2);
+        } else {
+            insertIntoIdIndex(slot);
+        }
+    }
+
+    private void rebuildIdIndex(final int capacity) {
+        slotsByIdHash = createIdIndex(capacity);
+
+        for (int slot = 0; slot < size; slot++) {
+            if (!deleted.get(slot) && !nonUuidIds.containsKey(slot)) {
+                insertIntoIdIndex(slot);
+            }
+        }
+    }
+
+    private void insertIntoIdIndex(final int slot) {
+        int mask = slotsByIdHash.length - 1;
+        int i = hash(idMostSignificantBits[slot], idLeastSignificantBits[slot]) & mask;
+
+        while (slotsByIdHash[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+
+        slotsByIdHash[i] = slot;
+    }
+
+    private static int[] createIdIndex(final int capacity) {
+        int[] index = new int[capacity]; // always a power of two, so that it can be masked rather than divided
+        Arrays.fill(index, EMPTY);
+
+        return index;
+    }
+
+    private static int hash(final long mostSignificantBits, final long leastSignificantBits) {
+        long bits = mostSignificantBits ^ leastSignificantBits;
+        int hash = (int) (bits ^ (bits >>> 32));
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > timestamps.length) {
+            int newCapacity = Math.max(capacity, timestamps.length + (timestamps.length >> 1));
+
+            idMostSignificantBits = Arrays.copyOf(idMostSignificantBits, newCapacity);
+            idLeastSignificantBits = Arrays.copyOf(idLeastSignificantBits, newCapacity);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            basicRouteOrdinals = Arrays.copyOf(basicRouteOrdinals, newCapacity);
+            stopPatternIds = Arrays.copyOf(stopPatternIds, newCapacity);
+        }
+    }
+}
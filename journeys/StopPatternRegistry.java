@@ -0,0 +1,306 @@
+package com.TobyMellor.TrainRouteFinder.journeys;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the distinct ordered lists of <code>intermediateStationIds</code> (stop patterns) that journeys call at,
+ * together with the <code>StopTimes</code> they call at them, if they have any
+ *
+ * Most journeys on a <code>BasicRoute</code> call at the same stations at the same times, so rather than each journey
+ * holding its own list and times, every distinct pair is interned here once and journeys hold its <code>int</code> pattern ID instead.
+ * Patterns are immutable as far as the journeys are concerned; only <code>removeIntermediateStation()</code> rewrites
+ * them, which changes every journey using the pattern at once.
+ *
+ * Each pattern is held both as an unmodifiable list of IDs, shared by every materialised <code>Journey</code>, and as
+ * an array of intermediate station ordinals for the searches that don't need the IDs.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:30:00 $
+ */
+
+public class StopPatternRegistry {
+    private final List<StopPattern> stopPatterns;
+    private final List<int[]> stopsByPattern;
+    private final Map<StopPattern, Integer> patternIdsByStopPattern;
+    private final List<IntList> patternIdsByIntermediateStationOrdinal;
+
+    private final List<String> intermediateStationIds;
+    private final Map<String, Integer> intermediateStationOrdinalsById;
+
+    StopPatternRegistry() {
+        stopPatterns = new ArrayList<StopPattern>();
+        stopsByPattern = new ArrayList<int[]>();
+        patternIdsByStopPattern = new HashMap<StopPattern, Integer>();
+        patternIdsByIntermediateStationOrdinal = new ArrayList<IntList>();
+        intermediateStationIds = new ArrayList<String>();
+        intermediateStationOrdinalsById = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Copies <code>stopPatternRegistry</code>, so that patterns can be interned or rewritten in the copy while the
+     * original is still being read. The patterns and their stops are never changed in place, so they are shared.
+     *
+     * @param stopPatternRegistry the registry to copy
+     */
+    StopPatternRegistry(final StopPatternRegistry stopPatternRegistry) {
+        stopPatterns = new ArrayList<StopPattern>(stopPatternRegistry.stopPatterns);
+        stopsByPattern = new ArrayList<int[]>(stopPatternRegistry.stopsByPattern);
+        patternIdsByStopPattern = new HashMap<StopPattern, Integer>(stopPatternRegistry.patternIdsByStopPattern);
+        patternIdsByIntermediateStationOrdinal = new ArrayList<IntList>(stopPatternRegistry.patternIdsByIntermediateStationOrdinal.size());
+        intermediateStationIds = new ArrayList<String>(stopPatternRegistry.intermediateStationIds);
+        intermediateStationOrdinalsById = new HashMap<String, Integer>(stopPatternRegistry.intermediateStationOrdinalsById);
+
+        for (IntList patternIds : stopPatternRegistry.patternIdsByIntermediateStationOrdinal) {
+            patternIdsByIntermediateStationOrdinal.add(new IntList(patternIds));
+        }
+    }
+
+    /**
+     * Returns the ID of the pattern calling at <code>intermediateStationIds</code> at the <code>stopTimes</code>,
+     * registering it if it hasn't been seen before
+     *
+     * @param intermediateStationIds the ordered list of <code>IntermediateStation</code> ids
+     * @param stopTimes              the times each station is called at, or null if they are spread evenly
+     *
+     * @return int
+     */
+    int intern(final List<String> intermediateStationIds, final StopTimes stopTimes) {
+        StopTimes patternStopTimes = intermediateStationIds.isEmpty() ? null : stopTimes; // a pattern without stations has no times
+        Integer patternId = patternIdsByStopPattern.get(new StopPattern(intermediateStationIds, patternStopTimes));
+
+        if (patternId != null) {
+            return patternId;
+        }
+
+        StopPattern pattern = new StopPattern(Collections.unmodifiableList(new ArrayList<String>(intermediateStationIds)), patternStopTimes);
+        int[] stops = new int[intermediateStationIds.size()];
+
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = internIntermediateStation(intermediateStationIds.get(i));
+        }
+
+        patternId = stopPatterns.size();
+
+        stopPatterns.add(pattern);
+        stopsByPattern.add(stops);
+        patternIdsByStopPattern.put(pattern, patternId);
+
+        for (int stop : stops) {
+            patternIdsByIntermediateStationOrdinal.get(stop).add(patternId);
+        }
+
+        return patternId;
+    }
+
+    /**
+     * Checks if the pattern calling at <code>intermediateStationIds</code> at the <code>stopTimes</code> has already been
+     * registered, in which case <code>intern()</code> won't change the registry
+     *
+     * @param intermediateStationIds the ordered list of <code>IntermediateStation</code> ids
+     * @param stopTimes              the times each station is called at, or null if they are spread evenly
+     *
+     * @return boolean
+     */
+    boolean contains(final List<String> intermediateStationIds, final StopTimes stopTimes) {
+        return patternIdsByStopPattern.containsKey(new StopPattern(intermediateStationIds, intermediateStationIds.isEmpty() ? null : stopTimes));
+    }
+
+    /**
+     * The number of patterns that have been registered
+     *
+     * @return int
+     */
+    public int size() {
+        return stopPatterns.size();
+    }
+
+    /**
+     * Retrieves the <code>intermediateStationIds</code> of the pattern, which cannot be modified
+     *
+     * @param patternId the ID of the pattern
+     *
+     * @return List<String>
+     */
+    public List<String> getIntermediateStationIds(final int patternId) {
+        return stopPatterns.get(patternId).getIntermediateStationIds();
+    }
+
+    /**
+     * Retrieves the <code>StopTimes</code> of the pattern, or null if its stations are reached at times spread evenly
+     * over the <code>BasicRoute</code>'s duration
+     *
+     * @param patternId the ID of the pattern
+     *
+     * @return StopTimes
+     */
+    public StopTimes getStopTimes(final int patternId) {
+        return stopPatterns.get(patternId).getStopTimes();
+    }
+
+    public int getStopCount(final int patternId) {
+        return stopsByPattern.get(patternId).length;
+    }
+
+    /**
+     * Returns the ordinal of the intermediate station at <code>index</code> in the pattern
+     *
+     * @param patternId the ID of the pattern
+     * @param index     the position of the stop within the pattern
+     *
+     * @return int
+     */
+    public int getStop(final int patternId, final int index) {
+        return stopsByPattern.get(patternId)[index];
+    }
+
+    /**
+     * Returns the ordinal <code>intermediateStationId</code> has been interned to, or -1 if no pattern has used it
+     *
+     * @param intermediateStationId the ID of the IntermediateStation
+     *
+     * @return int
+     */
+    public int getIntermediateStationOrdinal(final String intermediateStationId) {
+        Integer ordinal = intermediateStationOrdinalsById.get(intermediateStationId);
+
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public String getIntermediateStationId(final int ordinal) {
+        return intermediateStationIds.get(ordinal);
+    }
+
+    /**
+     * Returns the ID of the first pattern calling at the same stations at the same times as <code>patternId</code>
+     *
+     * Patterns are only ever duplicated once <code>removeIntermediateStation()</code> has made two of them identical,
+     * in which case the journeys using either pattern are equivalent
+     *
+     * @param patternId the ID of the pattern
+     *
+     * @return int
+     */
+    public int getCanonicalPatternId(final int patternId) {
+        return patternIdsByStopPattern.get(stopPatterns.get(patternId));
+    }
+
+    /**
+     * Removes <code>intermediateStationId</code>, and its <code>StopTimes</code>, from every pattern calling at it
+     *
+     * Patterns are rewritten in place, so each pattern is rewritten once however many journeys use it, and the journeys
+     * don't have to be touched. A rewritten pattern that matches another pattern is kept as a duplicate of it.
+     * Only the patterns calling at the station are visited.
+     *
+     * @param intermediateStationId id of the <code>IntermediateStation</code> to remove
+     */
+    void removeIntermediateStation(final String intermediateStationId) {
+        int ordinal = getIntermediateStationOrdinal(intermediateStationId);
+
+        if (ordinal == -1) {
+            return;
+        }
+
+        IntList patternIds = patternIdsByIntermediateStationOrdinal.get(ordinal);
+
+        for (int i = 0; i < patternIds.size(); i++) {
+            int patternId = patternIds.get(i);
+            int[] stops = stopsByPattern.get(patternId);
+            int index = indexOf(stops, ordinal);
+
+            StopPattern pattern = stopPatterns.get(patternId);
+            List<String> rewrittenIntermediateStationIds = new ArrayList<String>(pattern.getIntermediateStationIds());
+            rewrittenIntermediateStationIds.remove(index);
+
+            int[] rewrittenStops = new int[stops.length - 1];
+            System.arraycopy(stops, 0, rewrittenStops, 0, index);
+            System.arraycopy(stops, index + 1, rewrittenStops, index, stops.length - index - 1);
+
+            Integer canonicalPatternId = patternIdsByStopPattern.get(pattern);
+
+            if (canonicalPatternId != null && canonicalPatternId == patternId) {
+                patternIdsByStopPattern.remove(pattern);
+            }
+
+            StopPattern rewrittenPattern = new StopPattern(
+                    Collections.unmodifiableList(rewrittenIntermediateStationIds),
+                    pattern.getStopTimes() == null || stops.length == 1 ? null : pattern.getStopTimes().withoutStop(index)
+            );
+
+            stopPatterns.set(patternId, rewrittenPattern);
+            stopsByPattern.set(patternId, rewrittenStops);
+
+            if (!patternIdsByStopPattern.containsKey(rewrittenPattern)) {
+                patternIdsByStopPattern.put(rewrittenPattern, patternId);
+            }
+        }
+
+        patternIds.clear();
+    }
+
+    private int internIntermediateStation(final String intermediateStationId) {
+        Integer ordinal = intermediateStationOrdinalsById.get(intermediateStationId);
+
+        if (ordinal == null) {
+            ordinal = intermediateStationIds.size();
+
+            intermediateStationIds.add(intermediateStationId);
+            intermediateStationOrdinalsById.put(intermediateStationId, ordinal);
+            patternIdsByIntermediateStationOrdinal.add(new IntList());
+        }
+
+        return ordinal;
+    }
+
+    private static int indexOf(final int[] stops, final int ordinal) {
+        for (int i = 0; i < stops.length; i++) {
+            if (stops[i] == ordinal) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * The stations of a stop pattern and the times they are called at, as the key it is interned and saved under
+     */
+    public static final class StopPattern {
+        private final List<String> intermediateStationIds;
+        private final StopTimes stopTimes;
+
+        public StopPattern(final List<String> intermediateStationIds, final StopTimes stopTimes) {
+            this.intermediateStationIds = intermediateStationIds;
+            this.stopTimes = stopTimes;
+        }
+
+        public List<String> getIntermediateStationIds() {
+            return intermediateStationIds;
+        }
+
+        public StopTimes getStopTimes() {
+            return stopTimes;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof StopPattern)) {
+                return false;
+            }
+
+            StopPattern stopPattern = (StopPattern) other;
+
+            return intermediateStationIds.equals(stopPattern.intermediateStationIds)
+                    && (stopTimes == null ? stopPattern.stopTimes == null : stopTimes.equals(stopPattern.stopTimes));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * intermediateStationIds.hashCode() + (stopTimes == null ? 0 : stopTimes.hashCode());
+        }
+    }
+}
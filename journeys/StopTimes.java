@@ -0,0 +1,85 @@
+package com.TobyMellor.TrainRouteFinder.journeys;
+
+import java.util.Arrays;
+
+/**
+ * The times a <code>Journey</code> arrives at and departs from each of its <code>intermediateStationIds</code>,
+ * in minutes after the <code>Journey</code> departs, in the same order as the stations
+ *
+ * A <code>Journey</code> without <code>StopTimes</code> reaches its intermediate stations at times spread evenly over
+ * its <code>BasicRoute</code>'s duration. <code>StopTimes</code> are immutable, and interned with the stations as part of
+ * a stop pattern (see <code>StopPatternRegistry</code>), so every <code>Journey</code> keeping the same times shares them.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/13 10:15:00 $
+ */
+
+public final class StopTimes {
+    private final int[] arrivalOffsets;
+    private final int[] departureOffsets;
+
+    /**
+     * @param arrivalOffsets   the minutes after departing that each intermediate station is arrived at
+     * @param departureOffsets the minutes after departing that each intermediate station is left, at or after its arrival
+     */
+    public StopTimes(final int[] arrivalOffsets, final int[] departureOffsets) {
+        if (arrivalOffsets.length != departureOffsets.length) {
+            throw new IllegalArgumentException("Every stop needs both an arrival and a departure time");
+        }
+
+        this.arrivalOffsets = arrivalOffsets.clone();
+        this.departureOffsets = departureOffsets.clone();
+    }
+
+    public int getStopCount() {
+        return arrivalOffsets.length;
+    }
+
+    public int getArrivalOffset(final int index) {
+        return arrivalOffsets[index];
+    }
+
+    public int getDepartureOffset(final int index) {
+        return departureOffsets[index];
+    }
+
+    /**
+     * Returns the same times without the stop at <code>index</code>, for when its station is removed from a stop pattern
+     *
+     * @param index the position of the stop to remove
+     *
+     * @return StopTimes
+     */
+    StopTimes withoutStop(final int index) {
+        int[] rewrittenArrivalOffsets = new int[arrivalOffsets.length - 1];
+        int[] rewrittenDepartureOffsets = new int[departureOffsets.length - 1];
+
+        System.arraycopy(arrivalOffsets, 0, rewrittenArrivalOffsets, 0, index);
+        System.arraycopy(arrivalOffsets, index + 1, rewrittenArrivalOffsets, index, arrivalOffsets.length - index - 1);
+        System.arraycopy(departureOffsets, 0, rewrittenDepartureOffsets, 0, index);
+        System.arraycopy(departureOffsets, index + 1, rewrittenDepartureOffsets, index, departureOffsets.length - index - 1);
+
+        return new StopTimes(rewrittenArrivalOffsets, rewrittenDepartureOffsets);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof StopTimes)) {
+            return false;
+        }
+
+        StopTimes stopTimes = (StopTimes) other;
+
+        return Arrays.equals(arrivalOffsets, stopTimes.arrivalOffsets) && Arrays.equals(departureOffsets, stopTimes.departureOffsets);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(arrivalOffsets) + Arrays.hashCode(departureOffsets);
+    }
+}
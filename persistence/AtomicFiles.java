@@ -0,0 +1,90 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces files with a fully written temporary copy in a single rename, so that a crash part way through saving
+ * leaves either the old file or the new one, and never a truncated one
+ *
+ * The temporary copy is forced to the disk before it is renamed, and the directory after, so that once
+ * <code>replace()</code> returns the new file survives a power cut too. Otherwise the rename could reach the disk
+ * before the data did, leaving an empty file in place of both copies.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 19:55:00 $
+ */
+
+public final class AtomicFiles {
+    private AtomicFiles() {}
+
+    /**
+     * Returns the temporary file to write a new copy of <code>file</code> to, in the same directory so that it can be renamed
+     *
+     * @param file the file that will be replaced
+     *
+     * @return File
+     */
+    public static File getTemporaryFile(final File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Forces <code>temporaryFile</code> to the disk, moves it over <code>file</code> atomically (falling back to a plain
+     * replacing move on file systems that can't rename atomically), then forces the directory so the rename is kept
+     *
+     * @param temporaryFile the fully written and closed new copy
+     * @param file          the file to replace
+     *
+     * @throws IOException if the file cannot be replaced
+     */
+    public static void replace(final File temporaryFile, final File file) throws IOException {
+        FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.WRITE);
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+
+        try {
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Forces the entries of <code>directory</code> (the files created, renamed and deleted in it) to the disk
+     *
+     * Some platforms, such as Windows, can't open a directory to force it, and keep its entries durable by themselves,
+     * so it is skipped there
+     *
+     * @param directory the directory to force
+     *
+     * @throws IOException if the directory was opened but could not be forced
+     */
+    public static void syncDirectory(final File directory) throws IOException {
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
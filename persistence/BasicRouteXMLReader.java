@@ -0,0 +1,71 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Streams <code>BasicRoute</code>s out of the file written by <code>BasicRouteManager.save()</code>
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/02 14:25:00 $
+ *
+ * @see com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager
+ */
+
+public class BasicRouteXMLReader extends XMLRecordReader<BasicRoute> {
+    public BasicRouteXMLReader(final File file) throws IOException, XMLStreamException {
+        super(file);
+    }
+
+    @Override
+    protected boolean isRecordElement(final String elementName) {
+        return elementName.equals("basicRoute");
+    }
+
+    /**
+     * Reads a <code>basicRoute</code> element into a <code>BasicRoute</code>
+     *
+     * @param elementName the local name of the record element
+     *
+     * @return BasicRoute
+     *
+     * @throws XMLStreamException if one of the fields of the route is missing
+     */
+    @Override
+    protected BasicRoute readRecord(final String elementName) throws XMLStreamException {
+        String id = readIdAttribute();
+        String departingStationId = null;
+        String destinationStationId = null;
+        String singlePrice = null;
+        String returnPrice = null;
+        String duration = null;
+        String childElementName;
+
+        while ((childElementName = nextChildElement(elementName)) != null) {
+            if (childElementName.equals("departingStationId")) {
+                departingStationId = readElementText();
+            } else if (childElementName.equals("destinationStationId")) {
+                destinationStationId = readElementText();
+            } else if (childElementName.equals("singlePrice")) {
+                singlePrice = readElementText();
+            } else if (childElementName.equals("returnPrice")) {
+                returnPrice = readElementText();
+            } else if (childElementName.equals("duration")) {
+                duration = readElementText();
+            }
+        }
+
+        requireElement(departingStationId, "departingStationId", elementName);
+        requireElement(destinationStationId, "destinationStationId", elementName);
+        requireElement(singlePrice, "singlePrice", elementName);
+        requireElement(returnPrice, "returnPrice", elementName);
+        requireElement(duration, "duration", elementName);
+
+        return new BasicRoute(id, departingStationId, destinationStationId, new BigDecimal(singlePrice), new BigDecimal(returnPrice), Integer.parseInt(duration));
+    }
+}
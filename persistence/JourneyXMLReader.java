@@ -0,0 +1,177 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import com.TobyMellor.TrainRouteFinder.journeys.Journey;
+import com.TobyMellor.TrainRouteFinder.journeys.StopPatternRegistry.StopPattern;
+import com.TobyMellor.TrainRouteFinder.journeys.StopTimes;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams <code>Journey</code>s out of the file written by <code>JourneyManager.save()</code>
+ *
+ * Two layouts are accepted:
+ *     - each <code>journey</code> references a <code>stopPattern</code> by its <code>stopPatternId</code>, where the
+ *       <code>stopPattern</code>s are listed once ahead of the journeys
+ *     - each <code>journey</code> lists its own <code>intermediateStationId</code>s, as files were saved before stop patterns
+ *
+ * Each <code>intermediateStationId</code> may have <code>arrival</code> and <code>departure</code> attributes, the minutes after
+ * the journey departs that it calls there, which become the journey's <code>StopTimes</code>. Either every station of a
+ * pattern has them or none do.
+ *
+ * Every <code>Journey</code> referencing the same <code>stopPattern</code> shares one list of <code>intermediateStationIds</code>
+ * and one <code>StopTimes</code>
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/02 14:25:00 $
+ *
+ * @see com.TobyMellor.TrainRouteFinder.journeys.JourneyManager
+ */
+
+public class JourneyXMLReader extends XMLRecordReader<Journey> {
+    private final Map<String, StopPattern> stopPatterns = new HashMap<String, StopPattern>();
+
+    public JourneyXMLReader(final File file) throws IOException, XMLStreamException {
+        super(file);
+    }
+
+    @Override
+    protected boolean isRecordElement(final String elementName) {
+        return elementName.equals("journey") || elementName.equals("stopPattern");
+    }
+
+    /**
+     * Reads a <code>journey</code> element into a <code>Journey</code>, or remembers a <code>stopPattern</code>
+     * element for the journeys that follow it and returns null
+     *
+     * The <code>intermediateStationId</code>s are kept in the order they appear in the file
+     *
+     * @param elementName the local name of the record element
+     *
+     * @return Journey
+     *
+     * @throws XMLStreamException if the <code>basicRouteId</code> or <code>timestamp</code> is missing, the <code>stopPatternId</code> is unknown,
+     *                             or the times of the <code>intermediateStationId</code>s are incomplete
+     */
+    @Override
+    protected Journey readRecord(final String elementName) throws XMLStreamException {
+        if (elementName.equals("stopPattern")) {
+            String stopPatternId = readIdAttribute();
+            StopList stopList = new StopList();
+            String childElementName;
+
+            while ((childElementName = nextChildElement(elementName)) != null) {
+                if (childElementName.equals("intermediateStationId")) {
+                    readStop(stopList);
+                }
+            }
+
+            stopPatterns.put(stopPatternId, stopList.toStopPattern(elementName));
+
+            return null;
+        }
+
+        String id = readIdAttribute();
+        String basicRouteId = null;
+        String timestamp = null;
+        StopList stopList = new StopList();
+        StopPattern stopPattern = null;
+        String childElementName;
+
+        while ((childElementName = nextChildElement(elementName)) != null) {
+            if (childElementName.equals("basicRouteId")) {
+                basicRouteId = readElementText();
+            } else if (childElementName.equals("intermediateStationId")) {
+                readStop(stopList);
+            } else if (childElementName.equals("stopPatternId")) {
+                String stopPatternId = readElementText();
+
+                stopPattern = stopPatterns.get(stopPatternId);
+                requireElement(stopPattern, "stopPattern id=\"" + stopPatternId + "\"", "journeys");
+            } else if (childElementName.equals("timestamp")) {
+                timestamp = readElementText();
+            }
+        }
+
+        requireElement(basicRouteId, "basicRouteId", elementName);
+        requireElement(timestamp, "timestamp", elementName);
+
+        if (stopPattern == null) {
+            stopPattern = stopList.toStopPattern(elementName);
+        }
+
+        return new Journey(id, basicRouteId, stopPattern.getIntermediateStationIds(), stopPattern.getStopTimes(), Long.parseLong(timestamp));
+    }
+
+    /**
+     * Adds the <code>intermediateStationId</code> element the reader is positioned on, and its times if it has them, to <code>stopList</code>
+     *
+     * @param stopList the stops read so far
+     *
+     * @throws XMLStreamException if a time is not a whole number of minutes
+     */
+    private void readStop(final StopList stopList) throws XMLStreamException {
+        String arrival = readAttribute("arrival");
+        String departure = readAttribute("departure");
+
+        try {
+            stopList.arrivalOffsets.add(arrival == null ? (departure == null ? null : Integer.valueOf(departure)) : Integer.valueOf(arrival));
+            stopList.departureOffsets.add(departure == null ? (arrival == null ? null : Integer.valueOf(arrival)) : Integer.valueOf(departure)); // given one time, the train leaves as it arrives
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("An <intermediateStationId> has a time that isn't a number of minutes");
+        }
+
+        stopList.intermediateStationIds.add(readElementText());
+    }
+
+    /**
+     * The <code>intermediateStationId</code>s of a stop pattern or journey as they are read, with their times, or null where they have none
+     */
+    private static class StopList {
+        private final List<String> intermediateStationIds = new ArrayList<String>();
+        private final List<Integer> arrivalOffsets = new ArrayList<Integer>();
+        private final List<Integer> departureOffsets = new ArrayList<Integer>();
+
+        /**
+         * @param elementName the element the stops were read from, for the error message
+         *
+         * @return StopPattern
+         *
+         * @throws XMLStreamException if only some of the stops have times
+         */
+        private StopPattern toStopPattern(final String elementName) throws XMLStreamException {
+            int timedStopCount = 0;
+
+            for (Integer arrivalOffset : arrivalOffsets) {
+                if (arrivalOffset != null) {
+                    timedStopCount++;
+                }
+            }
+
+            if (timedStopCount == 0) {
+                return new StopPattern(Collections.unmodifiableList(intermediateStationIds), null);
+            }
+
+            if (timedStopCount != arrivalOffsets.size()) {
+                throw new XMLStreamException("A <" + elementName + "> has times for some of its <intermediateStationId>s but not all of them");
+            }
+
+            int[] arrivals = new int[arrivalOffsets.size()];
+            int[] departures = new int[departureOffsets.size()];
+
+            for (int i = 0; i < arrivals.length; i++) {
+                arrivals[i] = arrivalOffsets.get(i);
+                departures[i] = departureOffsets.get(i);
+            }
+
+            return new StopPattern(Collections.unmodifiableList(intermediateStationIds), new StopTimes(arrivals, departures));
+        }
+    }
+}
@@ -0,0 +1,613 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import com.TobyMellor.TrainRouteFinder.journeys.Journey;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.journeys.StopTimes;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to the network since the XML files were last written (checkpointed)
+ *
+ * Every <code>createJourney()</code>, <code>deleteJourney()</code>, <code>createIntermediateStation()</code>,
+ * <code>deleteIntermediateStation()</code> and <code>setBasicRouteDuration()</code> is appended as a small binary record
+ * before it is applied, so saving only has to make sure the records have reached the disk, however large the network is.
+ *
+ * The log is split into numbered segment files, mutations-1.log, mutations-2.log and so on. A checkpoint starts a new
+ * segment with <code>rotate()</code>, writes the XML files from a copy of the managers taken at that moment, and then
+ * deletes every segment up to the one it rotated away from with <code>deleteSegmentsThrough()</code>.
+ *
+ * Each segment contains
+ *     - a header of a magic number and version
+ *     - records of a length, a CRC32 checksum and a payload, the first byte of which is the type of change
+ *
+ * Records are written straight to the file, so they survive the application crashing, and forced to the disk in batches
+ * every <code>SYNC_INTERVAL_MILLIS</code> or whenever <code>sync()</code> is called. If a record can't be written, the
+ * change is still applied, and <code>hasUnloggedChanges()</code> tells the next save to start a checkpoint instead.
+ *
+ * On startup every segment left behind is replayed over the loaded network by <code>replay()</code>. Replaying is
+ * idempotent (creating something that already exists, or deleting something that doesn't, does nothing), so records
+ * already included in the XML files by a checkpoint that didn't get to delete its segments are harmless. A record left
+ * half-written by a crash fails its checksum, and it and anything after it in the segment are discarded.
+ *
+ * Replaying carries on from where the last call to <code>replay()</code> stopped, so a network can be loaded in the
+ * background while the log it is replacing is still being appended to, and then caught up with the records logged
+ * meanwhile just before it is installed. The last segment may still be being appended to, so it is never deleted or
+ * truncated by a replay, and the log being replaced holds on to its segments with <code>holdSegments()</code> until then,
+ * so that a checkpoint doesn't delete records that haven't been caught up with yet.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:45:00 $
+ */
+
+public class MutationLog implements Closeable {
+    private static final int MAGIC = 0x5452464C; // "TRFL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final long SYNC_INTERVAL_MILLIS = 100;
+
+    private static final String SEGMENT_PREFIX = "mutations-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte JOURNEY_CREATED = 1;
+    private static final byte JOURNEY_DELETED = 2;
+    private static final byte INTERMEDIATE_STATION_CREATED = 3;
+    private static final byte INTERMEDIATE_STATION_DELETED = 4;
+    private static final byte BASIC_ROUTE_DURATION_CHANGED = 5;
+
+    private final File directory;
+
+    private ScheduledExecutorService syncExecutor = null;
+    private FileChannel channel = null; // the segment being appended to
+    private int segmentNumber;
+    private int replayedSegmentNumber = 0; // the segment the last replay stopped in
+    private int replayedLength = HEADER_BYTES; // the bytes of that segment already applied
+    private int pendingRecordCount = 0; // records not yet covered by a checkpoint
+    private int holdCount = 0; // the calls to holdSegments() not yet released
+    private int heldSegmentNumber = 0; // the last segment a checkpoint asked to delete while they were held
+    private boolean isDirty = false; // records have been written since the last sync
+    private int unloggedSegmentNumber = 0; // the last segment a record couldn't be written to, until a checkpoint includes it
+
+    /**
+     * @param directory the directory the segment files are kept in, alongside the XML files
+     */
+    public MutationLog(final File directory) {
+        this.directory = directory;
+        this.segmentNumber = getLastSegmentNumber();
+    }
+
+    /**
+     * Applies every record in the segments left behind to the managers, in the order they were made
+     *
+     * The records were validated before they were logged, so they are not validated again. They are applied without
+     * being logged again, so the managers don't need to be the ones installed in <code>App</code>, but the log must not
+     * be opened yet. Each call only applies the records added since the last one.
+     *
+     * @param stationManager    the <code>StationManager</code> to apply the station changes to
+     * @param basicRouteManager the <code>BasicRouteManager</code> to apply the route changes to
+     * @param journeyManager    the <code>JourneyManager</code> to apply the journey changes to
+     *
+     * @return int the number of records applied
+     *
+     * @throws IOException if a segment cannot be read
+     */
+    public int replay(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) throws IOException {
+        int recordCount = 0;
+        List<Integer> numbers = getSegmentNumbers();
+
+        for (int number : numbers) {
+            if (number < replayedSegmentNumber) {
+                continue; // already applied
+            }
+
+            File segmentFile = getSegmentFile(number);
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentFile.toPath()));
+            boolean isLastSegment = number == numbers.get(numbers.size() - 1);
+
+            if (number > replayedSegmentNumber) {
+                replayedSegmentNumber = number;
+                replayedLength = HEADER_BYTES;
+            }
+
+            if (buffer.remaining() <= HEADER_BYTES) {
+                if (!isLastSegment) {
+                    Files.delete(segmentFile.toPath()); // nothing was logged to it before the application closed
+                }
+
+                continue;
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                continue; // written by an incompatible version
+            }
+
+            buffer.position(replayedLength);
+
+            while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                int position = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+
+                if (length < 1 || length > buffer.remaining() || checksum(buffer.array(), buffer.position(), length) != checksum) {
+                    if (!isLastSegment) {
+                        truncate(segmentFile, position); // torn by a crash part way through the write
+                    }
+
+                    buffer.position(position); // the last segment's tail may still be being written, so it is read again next time
+
+                    break;
+                }
+
+                apply(new DataInputStream(new ByteArrayInputStream(buffer.array(), buffer.position(), length)), stationManager, basicRouteManager, journeyManager);
+
+                buffer.position(buffer.position() + length);
+                recordCount++;
+            }
+
+            replayedLength = buffer.position();
+        }
+
+        pendingRecordCount += recordCount;
+
+        return recordCount;
+    }
+
+    /**
+     * Starts a new segment to append to, and starts forcing records to the disk in the background
+     *
+     * @throws IOException if the segment cannot be created
+     */
+    public synchronized void open() throws IOException {
+        segmentNumber = Math.max(segmentNumber, getLastSegmentNumber()); // another log may have started segments since this one was created
+        startSegment();
+
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "mutation-log-sync");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        syncExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Logs a validated <code>Journey</code> that is about to be added
+     *
+     * @param journey the new <code>Journey</code>
+     */
+    public void journeyCreated(final Journey journey) {
+        List<String> intermediateStationIds = journey.getIntermediateStationIds();
+        StopTimes stopTimes = journey.getStopTimes();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(JOURNEY_CREATED);
+            out.writeUTF(journey.getId());
+            out.writeUTF(journey.getBasicRouteId());
+            out.writeLong(journey.getTimestamp());
+            out.writeInt(intermediateStationIds.size());
+
+            for (String intermediateStationId : intermediateStationIds) {
+                out.writeUTF(intermediateStationId);
+            }
+
+            out.writeBoolean(stopTimes != null);
+
+            for (int i = 0; stopTimes != null && i < stopTimes.getStopCount(); i++) {
+                out.writeInt(stopTimes.getArrivalOffset(i));
+                out.writeInt(stopTimes.getDepartureOffset(i));
+            }
+
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            appendFailed(e);
+        }
+    }
+
+    /**
+     * Logs that the <code>Journey</code> with the <code>journeyId</code> is about to be deleted
+     *
+     * @param journeyId id of the <code>Journey</code>
+     */
+    public void journeyDeleted(final String journeyId) {
+        appendStrings(JOURNEY_DELETED, journeyId);
+    }
+
+    /**
+     * Logs a validated <code>IntermediateStation</code> that is about to be added
+     *
+     * @param intermediateStation the new <code>IntermediateStation</code>
+     */
+    public void intermediateStationCreated(final IntermediateStation intermediateStation) {
+        appendStrings(INTERMEDIATE_STATION_CREATED, intermediateStation.getId(), intermediateStation.getName());
+    }
+
+    /**
+     * Logs that the <code>IntermediateStation</code> with the <code>intermediateStationId</code> is about to be deleted
+     *
+     * @param intermediateStationId id of the <code>IntermediateStation</code>
+     */
+    public void intermediateStationDeleted(final String intermediateStationId) {
+        appendStrings(INTERMEDIATE_STATION_DELETED, intermediateStationId);
+    }
+
+    /**
+     * Logs that the <code>duration</code> of the <code>BasicRoute</code> with the <code>basicRouteId</code> is about to be changed
+     *
+     * @param basicRouteId id of the <code>BasicRoute</code>
+     * @param duration     the new duration in minutes
+     */
+    public void basicRouteDurationChanged(final String basicRouteId, final int duration) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(BASIC_ROUTE_DURATION_CHANGED);
+            out.writeUTF(basicRouteId);
+            out.writeInt(duration);
+
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            appendFailed(e);
+        }
+    }
+
+    /**
+     * Forces every record written so far to the disk, if there are any that haven't been
+     *
+     * @throws IOException if the segment cannot be forced
+     */
+    public synchronized void sync() throws IOException {
+        if (isDirty && channel != null) {
+            channel.force(false);
+            isDirty = false;
+        }
+    }
+
+    /**
+     * Whether a change couldn't be logged since the last checkpoint, in which case only a checkpoint will save it
+     *
+     * @return boolean
+     */
+    public synchronized boolean hasUnloggedChanges() {
+        return unloggedSegmentNumber != 0;
+    }
+
+    /**
+     * The number of records logged or replayed since the last checkpoint started, so that the caller can decide when
+     * another one is due
+     *
+     * @return int
+     */
+    public synchronized int getPendingRecordCount() {
+        return pendingRecordCount;
+    }
+
+    /**
+     * Finishes the current segment and starts a new one, for a checkpoint of the network as it is now
+     *
+     * Returns the number of the finished segment, which can be deleted with <code>deleteSegmentsThrough()</code> once
+     * the checkpoint has been written
+     *
+     * @return int
+     *
+     * @throws IOException if the new segment cannot be created
+     */
+    public synchronized int rotate() throws IOException {
+        int finishedSegmentNumber = segmentNumber;
+
+        try {
+            sync();
+            channel.close();
+        } catch (IOException e) {
+            appendFailed(e); // the checkpoint includes the finished segment's changes either way
+        }
+
+        startSegment();
+        pendingRecordCount = 0;
+
+        return finishedSegmentNumber;
+    }
+
+    /**
+     * Deletes every segment up to and including <code>lastSegmentNumber</code>, once a checkpoint includes their records
+     *
+     * @param lastSegmentNumber the number returned by <code>rotate()</code>
+     *
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void deleteSegmentsThrough(final int lastSegmentNumber) throws IOException {
+        synchronized (this) {
+            if (unloggedSegmentNumber <= lastSegmentNumber) {
+                unloggedSegmentNumber = 0; // the checkpoint includes the changes that couldn't be logged
+            }
+
+            if (holdCount > 0) {
+                heldSegmentNumber = Math.max(heldSegmentNumber, lastSegmentNumber); // deleted once they are released
+
+                return;
+            }
+        }
+
+        for (int number : getSegmentNumbers()) {
+            if (number <= lastSegmentNumber) {
+                Files.deleteIfExists(getSegmentFile(number).toPath());
+            }
+        }
+    }
+
+    /**
+     * Keeps every segment on the disk until <code>releaseSegments()</code> is called, even once a checkpoint includes it,
+     * so that another <code>MutationLog</code> reading the same directory can carry on replaying them
+     */
+    public synchronized void holdSegments() {
+        holdCount++;
+    }
+
+    /**
+     * Releases a call to <code>holdSegments()</code>, deleting the segments checkpoints have included meanwhile once
+     * every call has been released
+     *
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void releaseSegments() throws IOException {
+        int lastSegmentNumber;
+
+        synchronized (this) {
+            if (--holdCount > 0 || heldSegmentNumber == 0) {
+                return;
+            }
+
+            lastSegmentNumber = heldSegmentNumber;
+            heldSegmentNumber = 0;
+        }
+
+        deleteSegmentsThrough(lastSegmentNumber);
+    }
+
+    /**
+     * Syncs and closes the segment being appended to, and stops syncing in the background
+     *
+     * @throws IOException if the segment cannot be synced or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+            syncExecutor = null;
+        }
+
+        if (channel != null) {
+            sync();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void appendStrings(final byte type, final String... values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(type);
+
+            for (String value : values) {
+                out.writeUTF(value);
+            }
+
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            appendFailed(e);
+        }
+    }
+
+    /**
+     * Records that a change couldn't be logged, so that <code>hasUnloggedChanges()</code> is true until a checkpoint
+     * including the current segment has been written
+     *
+     * The rest of the segment can't be relied on either, as a record left part-written stops it being replayed any further.
+     *
+     * @param e the reason the record couldn't be written
+     */
+    private synchronized void appendFailed(final IOException e) {
+        e.printStackTrace();
+
+        unloggedSegmentNumber = segmentNumber;
+    }
+
+    /**
+     * Writes a record with the <code>payload</code> to the end of the current segment
+     *
+     * The change has already been validated and is about to be applied in memory, so a record that can't be written
+     * doesn't stop it. Does nothing if the log hasn't been opened.
+     *
+     * @param payload the type of change followed by its details
+     *
+     * @throws IOException if the record cannot be written
+     */
+    private synchronized void append(final byte[] payload) throws IOException {
+        if (channel == null) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+
+        buffer.putInt(payload.length);
+        buffer.putInt(checksum(payload, 0, payload.length));
+        buffer.put(payload);
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        isDirty = true;
+        pendingRecordCount++;
+    }
+
+    private void apply(final DataInputStream in, final StationManager stationManager, final BasicRouteManager basicRouteManager,
+                       final JourneyManager journeyManager) throws IOException {
+        byte type = in.readByte();
+
+        if (type == JOURNEY_CREATED) {
+            String journeyId = in.readUTF();
+            String basicRouteId = in.readUTF();
+            long timestamp = in.readLong();
+            List<String> intermediateStationIds = new ArrayList<String>();
+
+            for (int i = in.readInt(); i > 0; i--) {
+                intermediateStationIds.add(in.readUTF());
+            }
+
+            StopTimes stopTimes = null;
+
+            if (in.readBoolean()) {
+                int[] arrivalOffsets = new int[intermediateStationIds.size()];
+                int[] departureOffsets = new int[intermediateStationIds.size()];
+
+                for (int i = 0; i < arrivalOffsets.length; i++) {
+                    arrivalOffsets[i] = in.readInt();
+                    departureOffsets[i] = in.readInt();
+                }
+
+                stopTimes = new StopTimes(arrivalOffsets, departureOffsets);
+            }
+
+            if (journeyManager.getJourney(journeyId) == null) {
+                journeyManager.addJourney(new Journey(journeyId, basicRouteId, intermediateStationIds, stopTimes, timestamp));
+            }
+        } else if (type == JOURNEY_DELETED) {
+            journeyManager.removeJourney(in.readUTF());
+        } else if (type == INTERMEDIATE_STATION_CREATED) {
+            String intermediateStationId = in.readUTF();
+            String name = in.readUTF();
+
+            if (stationManager.getIntermediateStation(intermediateStationId) == null) {
+                stationManager.addIntermediateStation(new IntermediateStation(intermediateStationId, name));
+            }
+        } else if (type == INTERMEDIATE_STATION_DELETED) {
+            String intermediateStationId = in.readUTF();
+
+            stationManager.removeIntermediateStation(intermediateStationId);
+            journeyManager.removeIntermediateStationIdFromJourneys(intermediateStationId);
+        } else if (type == BASIC_ROUTE_DURATION_CHANGED) {
+            String basicRouteId = in.readUTF();
+
+            basicRouteManager.changeBasicRouteDuration(basicRouteId, in.readInt());
+        } else {
+            throw new IOException("Unknown mutation log record type " + type);
+        }
+    }
+
+    private void startSegment() throws IOException {
+        segmentNumber++;
+
+        FileOutputStream outputStream = new FileOutputStream(getSegmentFile(segmentNumber));
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+
+        channel = outputStream.getChannel();
+
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+
+        AtomicFiles.syncDirectory(getSegmentFile(segmentNumber).getAbsoluteFile().getParentFile()); // or forcing its records could leave them in a file that's lost
+
+        isDirty = true;
+    }
+
+    private File getSegmentFile(final int number) {
+        return new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Lists the numbers of the segment files in the directory, in ascending order
+     *
+     * @return List<Integer>
+     */
+    private List<Integer> getSegmentNumbers() {
+        List<Integer> numbers = new ArrayList<Integer>();
+        String[] fileNames = directory.list();
+
+        for (int i = 0; fileNames != null && i < fileNames.length; i++) {
+            String fileName = fileNames[i];
+
+            if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    numbers.add(Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+
+        Collections.sort(numbers);
+
+        return numbers;
+    }
+
+    private int getLastSegmentNumber() {
+        List<Integer> numbers = getSegmentNumbers();
+
+        return numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1);
+    }
+
+    private static void truncate(final File segmentFile, final long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static int checksum(final byte[] bytes, final int offset, final int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+
+        return (int) crc.getValue();
+    }
+}
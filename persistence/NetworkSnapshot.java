@@ -0,0 +1,502 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyTable;
+import com.TobyMellor.TrainRouteFinder.journeys.StopPatternRegistry;
+import com.TobyMellor.TrainRouteFinder.journeys.StopTimes;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary copy of the whole network, written alongside the XML files whenever they are saved
+ *
+ * The snapshot contains
+ *     - a header recording the length and modification time of each XML file it was written with
+ *     - the station table (<code>DestinationStation</code>s, then <code>IntermediateStation</code>s)
+ *     - the route table, where stations are referenced by their index in the station table
+ *     - the stop pattern table, listing each distinct ordered list of <code>IntermediateStation</code>s and their
+ *       <code>StopTimes</code> once, referenced by their index in the station table
+ *     - the routes the journeys run on, each referenced by its index in the route table
+ *     - the journey table, written column by column as the <code>JourneyTable</code> holds it: the two halves of each
+ *       <code>UUID</code>, the route and stop pattern as indexes into the two tables above, and the departure time,
+ *       followed by the rare ID that isn't a <code>UUID</code>
+ *
+ * On startup the snapshot is memory-mapped and read straight into the managers. Everything in it was validated
+ * before it was saved, so the validators are not run again. The journey columns are copied straight between the
+ * snapshot and a <code>JourneyTable</code> in both directions, so no <code>Journey</code> object or ID string is created
+ * for them. If any XML file has changed since the snapshot was written, or the snapshot is missing or unreadable,
+ * <code>load()</code> returns false and the XML should be loaded instead.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:30:00 $
+ */
+
+public class NetworkSnapshot {
+    private static final int MAGIC = 0x54524653; // "TRFS"
+    private static final int VERSION = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File snapshotFile;
+    private final File[] sourceFiles;
+
+    /**
+     * @param snapshotFile the file the snapshot is written to and read from
+     * @param sourceFiles  the XML files the snapshot must be kept in step with
+     */
+    public NetworkSnapshot(final File snapshotFile, final File... sourceFiles) {
+        this.snapshotFile = snapshotFile;
+        this.sourceFiles = sourceFiles;
+    }
+
+    /**
+     * Writes the contents of the three managers to the snapshot file
+     *
+     * This should be called straight after the XML files have been saved, so that the
+     * snapshot records their new lengths and modification times
+     *
+     * @param stationManager    the <code>StationManager</code> to write
+     * @param basicRouteManager the <code>BasicRouteManager</code> to write
+     * @param journeyManager    the <code>JourneyManager</code> to write
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void write(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) throws IOException {
+        File temporaryFile = AtomicFiles.getTemporaryFile(snapshotFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 64 * 1024));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sourceFiles.length);
+
+            for (File sourceFile : sourceFiles) {
+                out.writeLong(sourceFile.length());
+                out.writeLong(sourceFile.lastModified());
+            }
+
+            List<DestinationStation> destinationStations = stationManager.getDestinationStations();
+            List<IntermediateStation> intermediateStations = stationManager.getIntermediateStations();
+            Map<String, Integer> destinationStationIndexes = new HashMap<String, Integer>();
+            Map<String, Integer> intermediateStationIndexes = new HashMap<String, Integer>();
+
+            out.writeInt(destinationStations.size());
+
+            for (DestinationStation destinationStation : destinationStations) {
+                destinationStationIndexes.put(destinationStation.getId(), destinationStationIndexes.size());
+
+                writeString(out, destinationStation.getId());
+                writeString(out, destinationStation.getName());
+            }
+
+            out.writeInt(intermediateStations.size());
+
+            for (IntermediateStation intermediateStation : intermediateStations) {
+                intermediateStationIndexes.put(intermediateStation.getId(), intermediateStationIndexes.size());
+
+                writeString(out, intermediateStation.getId());
+                writeString(out, intermediateStation.getName());
+            }
+
+            List<BasicRoute> basicRoutes = basicRouteManager.getBasicRoutes();
+            Map<String, Integer> basicRouteIndexes = new HashMap<String, Integer>();
+
+            out.writeInt(basicRoutes.size());
+
+            for (BasicRoute basicRoute : basicRoutes) {
+                basicRouteIndexes.put(basicRoute.getId(), basicRouteIndexes.size());
+
+                writeString(out, basicRoute.getId());
+                out.writeInt(indexOf(destinationStationIndexes, basicRoute.getDepartingStationId()));
+                out.writeInt(indexOf(destinationStationIndexes, basicRoute.getDestinationStationId()));
+                writeString(out, basicRoute.getSinglePrice().toString());
+                writeString(out, basicRoute.getReturnPrice().toString());
+                out.writeInt(basicRoute.getDuration());
+            }
+
+            writeJourneyTable(out, journeyManager.getJourneyTable(), basicRouteIndexes, intermediateStationIndexes);
+        } finally {
+            out.close();
+        }
+
+        AtomicFiles.replace(temporaryFile, snapshotFile);
+    }
+
+    /**
+     * Memory-maps the snapshot and adds its contents to the managers, without validating them again
+     *
+     * The managers are only populated once the whole snapshot has been read successfully,
+     * so they are left untouched when false is returned
+     *
+     * @param stationManager    the (empty) <code>StationManager</code> to populate
+     * @param basicRouteManager the (empty) <code>BasicRouteManager</code> to populate
+     * @param journeyManager    the (empty) <code>JourneyManager</code> to populate
+     *
+     * @return boolean true if the snapshot was loaded, false if it is missing, stale or unreadable
+     */
+    public boolean load(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        if (!snapshotFile.isFile()) {
+            return false;
+        }
+
+        try {
+            MappedByteBuffer buffer = map();
+
+            if (!readHeader(buffer)) {
+                return false;
+            }
+
+            DestinationStation[] destinationStations = new DestinationStation[buffer.getInt()];
+
+            for (int i = 0; i < destinationStations.length; i++) {
+                destinationStations[i] = new DestinationStation(readString(buffer), readString(buffer));
+            }
+
+            IntermediateStation[] intermediateStations = new IntermediateStation[buffer.getInt()];
+
+            for (int i = 0; i < intermediateStations.length; i++) {
+                intermediateStations[i] = new IntermediateStation(readString(buffer), readString(buffer));
+            }
+
+            BasicRoute[] basicRoutes = new BasicRoute[buffer.getInt()];
+
+            for (int i = 0; i < basicRoutes.length; i++) {
+                String id = readString(buffer);
+                String departingStationId = destinationStations[buffer.getInt()].getId();
+                String destinationStationId = destinationStations[buffer.getInt()].getId();
+                BigDecimal singlePrice = new BigDecimal(readString(buffer));
+                BigDecimal returnPrice = new BigDecimal(readString(buffer));
+
+                basicRoutes[i] = new BasicRoute(id, departingStationId, destinationStationId, singlePrice, returnPrice, buffer.getInt());
+            }
+
+            JourneyManager.Loader journeyLoader = readJourneyTable(buffer, journeyManager, basicRoutes, intermediateStations);
+
+            stationManager.setDestinationStations(Arrays.asList(destinationStations));
+            stationManager.setIntermediateStations(Arrays.asList(intermediateStations));
+            basicRouteManager.setBasicRoutes(Arrays.asList(basicRoutes));
+
+            journeyLoader.finish();
+
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (BufferUnderflowException e) {
+            return false; // truncated
+        } catch (IndexOutOfBoundsException e) {
+            return false; // references a station or route that isn't in the snapshot, so it's corrupt
+        } catch (NegativeArraySizeException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false; // an unreadable price
+        }
+    }
+
+    /**
+     * Writes the live journeys of <code>journeyTable</code> as its columns, without materialising any <code>Journey</code>s
+     *
+     * The stop patterns and routes in use are renumbered in the order they are first used, so that deleted journeys
+     * and duplicated patterns aren't carried over, and each is written once before the columns referencing them
+     *
+     * @param out                        the snapshot being written
+     * @param journeyTable               the table to write
+     * @param basicRouteIndexes          the index of each <code>BasicRoute</code> in the route table, by its ID
+     * @param intermediateStationIndexes the index of each <code>IntermediateStation</code> in the station table, by its ID
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    private static void writeJourneyTable(final DataOutputStream out, final JourneyTable journeyTable, final Map<String, Integer> basicRouteIndexes,
+                                          final Map<String, Integer> intermediateStationIndexes) throws IOException {
+        StopPatternRegistry stopPatternRegistry = journeyTable.getStopPatternRegistry();
+        int[] stopPatternIndexes = new int[stopPatternRegistry.size()]; // canonical pattern ID -> index in the snapshot
+        int[] basicRouteOrdinalIndexes = new int[journeyTable.getBasicRouteOrdinalCount()]; // table ordinal -> ordinal in the snapshot
+        List<Integer> stopPatternIds = new ArrayList<Integer>();
+        List<Integer> basicRouteOrdinals = new ArrayList<Integer>();
+        int journeyCount = 0;
+
+        Arrays.fill(stopPatternIndexes, -1);
+        Arrays.fill(basicRouteOrdinalIndexes, -1);
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (journeyTable.isDeleted(slot)) {
+                continue;
+            }
+
+            int stopPatternId = stopPatternRegistry.getCanonicalPatternId(journeyTable.getStopPatternId(slot));
+            int basicRouteOrdinal = journeyTable.getBasicRouteOrdinal(slot);
+
+            if (stopPatternIndexes[stopPatternId] == -1) {
+                stopPatternIndexes[stopPatternId] = stopPatternIds.size();
+                stopPatternIds.add(stopPatternId);
+            }
+
+            if (basicRouteOrdinalIndexes[basicRouteOrdinal] == -1) {
+                basicRouteOrdinalIndexes[basicRouteOrdinal] = basicRouteOrdinals.size();
+                basicRouteOrdinals.add(basicRouteOrdinal);
+            }
+
+            journeyCount++;
+        }
+
+        out.writeInt(stopPatternIds.size());
+
+        for (int stopPatternId : stopPatternIds) {
+            List<String> intermediateStationIds = stopPatternRegistry.getIntermediateStationIds(stopPatternId);
+            StopTimes stopTimes = stopPatternRegistry.getStopTimes(stopPatternId);
+
+            out.writeInt(intermediateStationIds.size());
+
+            for (String intermediateStationId : intermediateStationIds) {
+                out.writeInt(indexOf(intermediateStationIndexes, intermediateStationId));
+            }
+
+            out.writeBoolean(stopTimes != null);
+
+            for (int i = 0; stopTimes != null && i < stopTimes.getStopCount(); i++) {
+                out.writeInt(stopTimes.getArrivalOffset(i));
+                out.writeInt(stopTimes.getDepartureOffset(i));
+            }
+        }
+
+        out.writeInt(basicRouteOrdinals.size());
+
+        for (int basicRouteOrdinal : basicRouteOrdinals) {
+            out.writeInt(indexOf(basicRouteIndexes, journeyTable.getBasicRouteIdByOrdinal(basicRouteOrdinal)));
+        }
+
+        out.writeInt(journeyCount);
+
+        List<Integer> nonUuidRows = new ArrayList<Integer>();
+        int row = 0;
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                if (!journeyTable.hasUuidId(slot)) {
+                    nonUuidRows.add(row);
+                }
+
+                out.writeLong(journeyTable.getIdMostSignificantBits(slot));
+                row++;
+            }
+        }
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                out.writeLong(journeyTable.getIdLeastSignificantBits(slot));
+            }
+        }
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                out.writeInt(basicRouteOrdinalIndexes[journeyTable.getBasicRouteOrdinal(slot)]);
+            }
+        }
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                out.writeInt(stopPatternIndexes[stopPatternRegistry.getCanonicalPatternId(journeyTable.getStopPatternId(slot))]);
+            }
+        }
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                out.writeLong(journeyTable.getTimestamp(slot));
+            }
+        }
+
+        out.writeInt(nonUuidRows.size());
+        row = 0;
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (journeyTable.isDeleted(slot)) {
+                continue;
+            }
+
+            if (!journeyTable.hasUuidId(slot)) {
+                out.writeInt(row);
+                writeString(out, journeyTable.getId(slot));
+            }
+
+            row++;
+        }
+    }
+
+    /**
+     * Reads the journey columns written by <code>writeJourneyTable()</code> into a new table for <code>journeyManager</code>,
+     * without creating a <code>Journey</code> for any of them
+     *
+     * Nothing is published until <code>finish()</code> is called on the returned <code>Loader</code>
+     *
+     * @param buffer               the mapped snapshot, positioned on the stop pattern table
+     * @param journeyManager       the <code>JourneyManager</code> the table is for
+     * @param basicRoutes          the route table
+     * @param intermediateStations the intermediate stations of the station table
+     *
+     * @return JourneyManager.Loader
+     *
+     * @throws IOException if a journey references a route or stop pattern that isn't in the snapshot
+     */
+    private static JourneyManager.Loader readJourneyTable(final MappedByteBuffer buffer, final JourneyManager journeyManager, final BasicRoute[] basicRoutes,
+                                                          final IntermediateStation[] intermediateStations) throws IOException {
+        JourneyManager.Loader loader = journeyManager.startLoading();
+        int[] stopPatternIds = new int[buffer.getInt()];
+
+        for (int i = 0; i < stopPatternIds.length; i++) {
+            int intermediateStationCount = buffer.getInt();
+            List<String> intermediateStationIds = new ArrayList<String>(intermediateStationCount);
+
+            for (int j = 0; j < intermediateStationCount; j++) {
+                intermediateStationIds.add(intermediateStations[buffer.getInt()].getId());
+            }
+
+            StopTimes stopTimes = null;
+
+            if (buffer.get() != 0) {
+                int[] arrivalOffsets = new int[intermediateStationCount];
+                int[] departureOffsets = new int[intermediateStationCount];
+
+                for (int j = 0; j < intermediateStationCount; j++) {
+                    arrivalOffsets[j] = buffer.getInt();
+                    departureOffsets[j] = buffer.getInt();
+                }
+
+                stopTimes = new StopTimes(arrivalOffsets, departureOffsets);
+            }
+
+            stopPatternIds[i] = loader.addStopPattern(intermediateStationIds, stopTimes);
+        }
+
+        int[] basicRouteOrdinals = new int[buffer.getInt()];
+
+        for (int i = 0; i < basicRouteOrdinals.length; i++) {
+            basicRouteOrdinals[i] = loader.addBasicRoute(basicRoutes[buffer.getInt()].getId());
+        }
+
+        int journeyCount = buffer.getInt();
+        long[] idMostSignificantBits = readLongs(buffer, journeyCount);
+        long[] idLeastSignificantBits = readLongs(buffer, journeyCount);
+        int[] journeyBasicRouteOrdinals = readInts(buffer, journeyCount);
+        int[] journeyStopPatternIds = readInts(buffer, journeyCount);
+        long[] timestamps = readLongs(buffer, journeyCount);
+
+        for (int i = 0; i < journeyCount; i++) { // from the snapshot's numbering to the table's
+            journeyBasicRouteOrdinals[i] = basicRouteOrdinals[journeyBasicRouteOrdinals[i]];
+            journeyStopPatternIds[i] = stopPatternIds[journeyStopPatternIds[i]];
+        }
+
+        Map<Integer, String> nonUuidIds = new HashMap<Integer, String>();
+
+        for (int i = buffer.getInt(); i > 0; i--) {
+            int row = buffer.getInt();
+
+            if (row < 0 || row >= journeyCount) {
+                throw new IOException("A journey ID references a row that isn't in the snapshot");
+            }
+
+            nonUuidIds.put(row, readString(buffer));
+        }
+
+        loader.addColumns(idMostSignificantBits, idLeastSignificantBits, nonUuidIds, journeyBasicRouteOrdinals, journeyStopPatternIds, timestamps, journeyCount);
+
+        return loader;
+    }
+
+    private static long[] readLongs(final MappedByteBuffer buffer, final int count) {
+        long[] values = new long[count];
+
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+
+        return values;
+    }
+
+    private static int[] readInts(final MappedByteBuffer buffer, final int count) {
+        int[] values = new int[count];
+
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+
+        return values;
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()); // the mapping stays valid once the file is closed
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads the header from the start of <code>buffer</code>, leaving the buffer positioned on the station table
+     * Returns false if the snapshot isn't one of ours, or if any XML file has changed since it was written
+     *
+     * @param buffer the mapped snapshot
+     *
+     * @return boolean
+     */
+    private boolean readHeader(final MappedByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != sourceFiles.length) {
+            return false;
+        }
+
+        boolean isCurrent = true;
+
+        for (File sourceFile : sourceFiles) {
+            long length = buffer.getLong();
+            long lastModified = buffer.getLong();
+
+            if (!sourceFile.isFile() || sourceFile.length() != length || sourceFile.lastModified() != lastModified) {
+                isCurrent = false;
+            }
+        }
+
+        return isCurrent;
+    }
+
+    private static int indexOf(final Map<String, Integer> indexes, final String id) throws IOException {
+        Integer index = indexes.get(id);
+
+        if (index == null) {
+            throw new IOException("'" + id + "' is referenced but has not been written to the snapshot");
+        }
+
+        return index;
+    }
+
+    private static void writeString(final DataOutputStream out, final String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final MappedByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,277 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import com.TobyMellor.TrainRouteFinder.Manager;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.planning.ContractionHierarchy;
+import com.TobyMellor.TrainRouteFinder.planning.ContractionHierarchyFile;
+import com.TobyMellor.TrainRouteFinder.planning.StationGraph;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes checkpoints of the network in the background: the XML file of each manager, followed by the
+ * <code>NetworkSnapshot</code> and <code>ContractionHierarchyFile</code>, after which the <code>MutationLog</code>
+ * segments they include are deleted
+ *
+ * <code>save()</code> takes a snapshot of each manager on the calling thread, with all three locked so that they match the
+ * log segment it rotates away from, and returns straight away with a future completed once the checkpoint is on the disk,
+ * so the GUI is never blocked while the files are written.
+ *
+ * Only one checkpoint is written at a time. Requests made while one is being written are coalesced: each replaces the
+ * snapshot waiting to be written with a newer one, and all of them share the future of the single checkpoint written next.
+ *
+ * The three XML files are written in parallel. Every file is written to a temporary file and renamed over the old one
+ * (see <code>AtomicFiles</code>), so a crash or power cut part way through leaves the previous checkpoint intact, with the
+ * log still holding every change since.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 19:55:00 $
+ */
+
+public class SaveService {
+    private final NetworkSnapshot snapshot;
+    private final ContractionHierarchyFile contractionHierarchyFile;
+
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(createThreadFactory("save"));
+    private final ExecutorService fileExecutor = Executors.newFixedThreadPool(3, createThreadFactory("save-file"));
+
+    private Checkpoint pendingCheckpoint = null; // the newest snapshot waiting to be written
+    private CompletableFuture<Void> pendingFuture = null;
+    private CompletableFuture<Void> latestFuture = CompletableFuture.completedFuture(null);
+    private boolean isSaving = false;
+
+    /**
+     * @param snapshot                 the <code>NetworkSnapshot</code> to write after the XML files
+     * @param contractionHierarchyFile the <code>ContractionHierarchyFile</code> to write after the snapshot
+     */
+    public SaveService(final NetworkSnapshot snapshot, final ContractionHierarchyFile contractionHierarchyFile) {
+        this.snapshot = snapshot;
+        this.contractionHierarchyFile = contractionHierarchyFile;
+    }
+
+    /**
+     * Starts a checkpoint of the managers as they are now, returning a future completed once it has been written,
+     * or completed exceptionally if the XML files could not be written
+     *
+     * @param stationManager       the <code>StationManager</code> to save
+     * @param basicRouteManager    the <code>BasicRouteManager</code> to save
+     * @param journeyManager       the <code>JourneyManager</code> to save
+     * @param contractionHierarchy the <code>ContractionHierarchy</code> built from the managers, or null to build it in the background
+     * @param mutationLog          the <code>MutationLog</code> the managers' changes are recorded in, or null if there isn't one
+     *
+     * @return CompletableFuture<Void>
+     */
+    public synchronized CompletableFuture<Void> save(final StationManager stationManager, final BasicRouteManager basicRouteManager,
+                                                     final JourneyManager journeyManager, final ContractionHierarchy contractionHierarchy,
+                                                     final MutationLog mutationLog) {
+        // every change is logged and applied while its manager is locked, so with all three locked (in the same order as
+        // App.install()) no change can be in the segment being rotated away from but missing from the copies, and the
+        // copies are all of the same moment
+        synchronized (stationManager) {
+            synchronized (basicRouteManager) {
+                synchronized (journeyManager) {
+                    int lastSegmentNumber = 0;
+
+                    if (mutationLog != null) {
+                        try {
+                            lastSegmentNumber = mutationLog.rotate();
+                        } catch (IOException e) {
+                            CompletableFuture<Void> future = new CompletableFuture<Void>(); // the changes are still in the old segment
+
+                            future.completeExceptionally(e);
+
+                            return future;
+                        }
+                    }
+
+                    pendingCheckpoint = new Checkpoint(stationManager.snapshot(), basicRouteManager.snapshot(), journeyManager.snapshot(), // shared rather than copied
+                            contractionHierarchy, mutationLog, lastSegmentNumber);
+                }
+            }
+        }
+
+        if (pendingFuture == null) {
+            pendingFuture = new CompletableFuture<Void>();
+            latestFuture = pendingFuture;
+        }
+
+        if (!isSaving) {
+            isSaving = true;
+
+            scheduleWrite();
+        }
+
+        return pendingFuture;
+    }
+
+    /**
+     * Waits until every checkpoint requested so far has been written or has failed
+     */
+    public void awaitPendingSaves() {
+        CompletableFuture<Void> future;
+
+        synchronized (this) {
+            future = latestFuture;
+        }
+
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            // reported to whoever requested the checkpoint
+        }
+    }
+
+    /**
+     * Runs <code>task</code> on the save thread once the checkpoints already started have been written, so that
+     * no checkpoint writes the files while it runs (checkpoints requested meanwhile are written afterwards)
+     *
+     * @param task the task to run, such as reading the files back
+     * @param <T>  the type returned by <code>task</code>
+     *
+     * @return CompletableFuture<T> completed with what <code>task</code> returns, or exceptionally with what it throws
+     */
+    public <T> CompletableFuture<T> runBetweenCheckpoints(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        saveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Queues the pending checkpoint to be written on the save thread
+     */
+    private void scheduleWrite() {
+        saveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writePendingCheckpoint();
+            }
+        });
+    }
+
+    /**
+     * Writes the pending checkpoint on the save thread, then queues the next one if another has been requested meanwhile
+     *
+     * The next one is queued behind whatever was given to <code>runBetweenCheckpoints()</code> while this one was written,
+     * rather than written straight away, so that a steady stream of checkpoints can't hold those tasks up forever
+     */
+    private void writePendingCheckpoint() {
+        Checkpoint checkpoint;
+        CompletableFuture<Void> future;
+
+        synchronized (this) {
+            checkpoint = pendingCheckpoint;
+            future = pendingFuture;
+            pendingCheckpoint = null;
+            pendingFuture = null;
+        }
+
+        try {
+            write(checkpoint);
+            future.complete(null);
+        } catch (Throwable e) {
+            future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+        }
+
+        synchronized (this) {
+            if (pendingCheckpoint != null) {
+                scheduleWrite();
+            } else {
+                isSaving = false;
+            }
+        }
+    }
+
+    private void write(final Checkpoint checkpoint) throws IOException {
+        CompletableFuture.allOf(
+                saveAsync(checkpoint.stationManager),
+                saveAsync(checkpoint.basicRouteManager),
+                saveAsync(checkpoint.journeyManager)
+        ).join(); // throws if any of them failed, leaving the log to cover the changes
+
+        try {
+            snapshot.write(checkpoint.stationManager, checkpoint.basicRouteManager, checkpoint.journeyManager);
+        } catch (IOException e) {
+            e.printStackTrace(); // the XML has still been saved, the snapshot will just be seen as stale next time
+        }
+
+        try {
+            contractionHierarchyFile.write(checkpoint.contractionHierarchy != null
+                    ? checkpoint.contractionHierarchy
+                    : new ContractionHierarchy(new StationGraph(checkpoint.stationManager, checkpoint.basicRouteManager, checkpoint.journeyManager)));
+        } catch (IOException e) {
+            e.printStackTrace(); // the hierarchy will just be built again next time
+        }
+
+        if (checkpoint.mutationLog != null) {
+            // AtomicFiles.replace() has forced each XML file and its directory to the disk, so the segments aren't needed
+            checkpoint.mutationLog.deleteSegmentsThrough(checkpoint.lastSegmentNumber);
+        }
+    }
+
+    private CompletableFuture<Void> saveAsync(final Manager manager) {
+        return CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    manager.save();
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, fileExecutor);
+    }
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true); // a checkpoint cut short leaves the previous one, and the log, intact
+
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * A snapshot of the managers waiting to be written, and the log segments it includes
+     */
+    private static class Checkpoint {
+        private final StationManager stationManager;
+        private final BasicRouteManager basicRouteManager;
+        private final JourneyManager journeyManager;
+        private final ContractionHierarchy contractionHierarchy;
+        private final MutationLog mutationLog;
+        private final int lastSegmentNumber;
+
+        private Checkpoint(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager,
+                           final ContractionHierarchy contractionHierarchy, final MutationLog mutationLog, final int lastSegmentNumber) {
+            this.stationManager = stationManager;
+            this.basicRouteManager = basicRouteManager;
+            this.journeyManager = journeyManager;
+            this.contractionHierarchy = contractionHierarchy;
+            this.mutationLog = mutationLog;
+            this.lastSegmentNumber = lastSegmentNumber;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.Station;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Streams <code>DestinationStation</code>s and <code>IntermediateStation</code>s out of the file
+ * written by <code>StationManager.save()</code>
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/02 14:25:00 $
+ *
+ * @see com.TobyMellor.TrainRouteFinder.stations.StationManager
+ */
+
+public class StationXMLReader extends XMLRecordReader<Station> {
+    public StationXMLReader(final File file) throws IOException, XMLStreamException {
+        super(file);
+    }
+
+    @Override
+    protected boolean isRecordElement(final String elementName) {
+        return elementName.equals("destinationStation") || elementName.equals("intermediateStation");
+    }
+
+    /**
+     * Reads a <code>destinationStation</code> or <code>intermediateStation</code> element into
+     * the corresponding <code>Station</code>
+     *
+     * @param elementName the local name of the record element
+     *
+     * @return Station
+     *
+     * @throws XMLStreamException if the station has no name
+     */
+    @Override
+    protected Station readRecord(final String elementName) throws XMLStreamException {
+        String id = readIdAttribute(); // we're using String UUIDs instead of incrementing numerical IDs
+        String stationName = null;
+        String childElementName;
+
+        while ((childElementName = nextChildElement(elementName)) != null) {
+            if (childElementName.equals("name")) {
+                stationName = readElementText();
+            }
+        }
+
+        requireElement(stationName, "name", elementName);
+
+        if (elementName.equals("destinationStation")) {
+            return new DestinationStation(id, stationName);
+        }
+
+        return new IntermediateStation(id, stationName);
+    }
+}
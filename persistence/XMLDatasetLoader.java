@@ -0,0 +1,413 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import com.TobyMellor.TrainRouteFinder.journeys.Journey;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.Station;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+import com.TobyMellor.TrainRouteFinder.validation.exceptions.ValidationException;
+import com.TobyMellor.TrainRouteFinder.validation.validators.BasicRouteValidator;
+import com.TobyMellor.TrainRouteFinder.validation.validators.DestinationStationValidator;
+import com.TobyMellor.TrainRouteFinder.validation.validators.IntermediateStationValidator;
+import com.TobyMellor.TrainRouteFinder.validation.validators.JourneyValidator;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads stations.xml, basic_routes.xml and journeys.xml into the managers
+ *
+ * All three files are parsed at the same time on their own threads, but are validated in dependency order:
+ *     - stations are validated as soon as they are parsed
+ *     - <code>BasicRoute</code>s are validated once the stations have been added, since they reference their IDs
+ *     - <code>Journey</code>s are validated last, a chunk at a time across the <code>ForkJoinPool</code>, and merged
+ *       into the <code>JourneyManager</code> in file order
+ *
+ * Each file is parsed in chunks of <code>CHUNK_SIZE</code> records, handed over through a queue holding at most
+ * <code>QUEUED_CHUNKS</code> of them, so a parser waits rather than running further ahead of the validation than that.
+ * Each chunk of <code>Journey</code>s is handed to the pool as soon as it is taken from the queue, and is released once it
+ * has been merged into the <code>JourneyManager</code>'s table, so only a few chunks of records are held at once
+ * however large the files are. Parsing a file is still done on its one thread, since a stream can't be split.
+ *
+ * Stations and <code>BasicRoute</code>s are validated in file order on the calling thread, since whichever record
+ * comes first wins when a name or ID is duplicated. Like the <code>Journey</code>s, they are collected by each manager's
+ * <code>Loader</code> and published once the whole file has been validated.
+ *
+ * Every record is validated against the managers being populated rather than the ones installed in <code>App</code>,
+ * so a network can be loaded in the background while the installed one is still in use
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:10:00 $
+ */
+
+public class XMLDatasetLoader {
+    private static final int CHUNK_SIZE = 4096;
+    private static final int QUEUED_CHUNKS = 4; // the most chunks of each file parsed ahead of the validation
+
+    private final File stationsFile;
+    private final File basicRoutesFile;
+    private final File journeysFile;
+
+    public XMLDatasetLoader(final File directory) {
+        this.stationsFile = new File(directory, "stations.xml");
+        this.basicRoutesFile = new File(directory, "basic_routes.xml");
+        this.journeysFile = new File(directory, "journeys.xml");
+    }
+
+    /**
+     * Parses the three XML files concurrently, then validates and adds each record to its manager
+     * Records which fail validation are skipped, and their validation messages are printed
+     *
+     * @param stationManager    the (empty) <code>StationManager</code> to populate
+     * @param basicRouteManager the (empty) <code>BasicRouteManager</code> to populate
+     * @param journeyManager    the (empty) <code>JourneyManager</code> to populate
+     *
+     * @throws IOException if one of the files is not found or cannot be opened
+     * @throws XMLStreamException if one of the files cannot be parsed
+     */
+    public void load(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) throws IOException, XMLStreamException {
+        ExecutorService parsers = Executors.newFixedThreadPool(3, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "xml-parser");
+                thread.setDaemon(true); // never hold up the JVM exiting if the GUI is closed mid-load
+
+                return thread;
+            }
+        });
+
+        try {
+            ChunkStream<Station> stations = new ChunkStream<Station>(parsers, new Callable<XMLRecordReader<Station>>() {
+                public XMLRecordReader<Station> call() throws Exception {
+                    return new StationXMLReader(stationsFile);
+                }
+            });
+
+            ChunkStream<BasicRoute> basicRoutes = new ChunkStream<BasicRoute>(parsers, new Callable<XMLRecordReader<BasicRoute>>() {
+                public XMLRecordReader<BasicRoute> call() throws Exception {
+                    return new BasicRouteXMLReader(basicRoutesFile);
+                }
+            });
+
+            ChunkStream<Journey> journeys = new ChunkStream<Journey>(parsers, new Callable<XMLRecordReader<Journey>>() {
+                public XMLRecordReader<Journey> call() throws Exception {
+                    return new JourneyXMLReader(journeysFile);
+                }
+            });
+
+            addStations(stationManager, stations);
+            addBasicRoutes(stationManager, basicRouteManager, basicRoutes);
+            addJourneys(stationManager, basicRouteManager, journeyManager, journeys);
+        } finally {
+            parsers.shutdownNow(); // stops any parser still waiting to hand over a chunk
+        }
+    }
+
+    /**
+     * Validates the stations in file order and adds the valid ones to the <code>StationManager</code>
+     *
+     * @param stationManager the <code>StationManager</code> to populate
+     * @param stations       the stations being parsed
+     *
+     * @throws IOException if the file cannot be read
+     * @throws XMLStreamException if the file cannot be parsed
+     */
+    private void addStations(final StationManager stationManager, final ChunkStream<Station> stations) throws IOException, XMLStreamException {
+        StationManager.Loader loader = stationManager.startLoading();
+        List<Station> chunk;
+
+        while ((chunk = stations.next()) != null) {
+            for (Station station : chunk) {
+                try {
+                    if (station instanceof DestinationStation) {
+                        DestinationStation destinationStation = (DestinationStation) station;
+
+                        destinationStation.validate(new DestinationStationValidator(loader.getStationManager()));
+                        loader.addDestinationStation(destinationStation); // push a new instance of DestinationStation to the list, provided it has been correctly validated
+                    } else {
+                        IntermediateStation intermediateStation = (IntermediateStation) station;
+
+                        intermediateStation.validate(new IntermediateStationValidator(loader.getStationManager()));
+                        loader.addIntermediateStation(intermediateStation);
+                    }
+                } catch (ValidationException e) {
+                    printValidationException(e);
+                }
+            }
+        }
+
+        loader.finish(); // publishes every station at once, rather than copying the stations so far for each one
+    }
+
+    /**
+     * Validates the <code>BasicRoute</code>s in file order and adds the valid ones to the <code>BasicRouteManager</code>
+     *
+     * @param stationManager    the <code>StationManager</code> the routes' stations are validated against
+     * @param basicRouteManager the <code>BasicRouteManager</code> to populate
+     * @param basicRoutes       the <code>BasicRoute</code>s being parsed
+     *
+     * @throws IOException if the file cannot be read
+     * @throws XMLStreamException if the file cannot be parsed
+     */
+    private void addBasicRoutes(final StationManager stationManager, final BasicRouteManager basicRouteManager, final ChunkStream<BasicRoute> basicRoutes) throws IOException, XMLStreamException {
+        BasicRouteManager.Loader loader = basicRouteManager.startLoading();
+        List<BasicRoute> chunk;
+
+        while ((chunk = basicRoutes.next()) != null) {
+            for (BasicRoute basicRoute : chunk) {
+                try {
+                    basicRoute.validate(new BasicRouteValidator(stationManager, loader.getBasicRouteManager()));
+                    loader.addBasicRoute(basicRoute);
+                } catch (ValidationException e) {
+                    printValidationException(e);
+                }
+            }
+        }
+
+        loader.finish();
+    }
+
+    /**
+     * Validates each chunk of <code>Journey</code>s on the <code>ForkJoinPool</code> as soon as it has been parsed, and
+     * merges the valid ones into the <code>JourneyManager</code> in file order
+     *
+     * At most one chunk per thread of the pool is validated ahead of the merge, and each chunk is dropped once it has
+     * been merged, so the <code>Journey</code> objects are never all held at once.
+     *
+     * The <code>JourneyManager</code> is empty while the chunks are validated, so IDs that are duplicated within
+     * the file are caught during the merge instead; the first <code>Journey</code> with a given ID wins,
+     * as it would if each <code>Journey</code> had been validated and added one at a time
+     *
+     * @param stationManager    the <code>StationManager</code> the <code>Journey</code>s' stations are validated against
+     * @param basicRouteManager the <code>BasicRouteManager</code> the <code>Journey</code>s' routes are validated against
+     * @param journeyManager    the <code>JourneyManager</code> to populate
+     * @param journeys          the <code>Journey</code>s being parsed
+     *
+     * @throws IOException if the file cannot be read
+     * @throws XMLStreamException if the file cannot be parsed
+     */
+    private void addJourneys(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager,
+                             final ChunkStream<Journey> journeys) throws IOException, XMLStreamException {
+        JourneyManager.Loader loader = journeyManager.startLoading();
+        Deque<ForkJoinTask<ValidatedChunk>> validations = new ArrayDeque<ForkJoinTask<ValidatedChunk>>();
+        int maximumValidations = ForkJoinPool.commonPool().getParallelism() + 1;
+        List<Journey> chunk;
+
+        while ((chunk = journeys.next()) != null) {
+            final List<Journey> parsedChunk = chunk;
+
+            validations.addLast(ForkJoinPool.commonPool().submit(new Callable<ValidatedChunk>() {
+                public ValidatedChunk call() {
+                    return new ValidatedChunk(parsedChunk, validate(parsedChunk, stationManager, basicRouteManager, journeyManager));
+                }
+            }));
+
+            if (validations.size() >= maximumValidations) {
+                merge(loader, validations.removeFirst().join());
+            }
+        }
+
+        while (!validations.isEmpty()) {
+            merge(loader, validations.removeFirst().join());
+        }
+
+        loader.finish(); // sorts each route's bucket once, rather than inserting one Journey at a time
+    }
+
+    /**
+     * Validates a chunk of <code>Journey</code>s, returning the exception of each one that failed, or null for the ones that passed
+     *
+     * @param chunk             the <code>Journey</code>s to validate
+     * @param stationManager    the <code>StationManager</code> the <code>Journey</code>s' stations are validated against
+     * @param basicRouteManager the <code>BasicRouteManager</code> the <code>Journey</code>s' routes are validated against
+     * @param journeyManager    the <code>JourneyManager</code> being populated
+     *
+     * @return ValidationException[]
+     */
+    private static ValidationException[] validate(final List<Journey> chunk, final StationManager stationManager, final BasicRouteManager basicRouteManager,
+                                                  final JourneyManager journeyManager) {
+        ValidationException[] failures = new ValidationException[chunk.size()];
+
+        for (int i = 0; i < chunk.size(); i++) {
+            try {
+                chunk.get(i).validate(new JourneyValidator(true, stationManager, basicRouteManager, journeyManager));
+            } catch (ValidationException e) {
+                failures[i] = e;
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * Adds the valid <code>Journey</code>s of a validated chunk to the <code>loader</code>, printing the failures
+     *
+     * @param loader         the <code>Loader</code> of the <code>JourneyManager</code> being populated
+     * @param validatedChunk the chunk and its failures
+     */
+    private static void merge(final JourneyManager.Loader loader, final ValidatedChunk validatedChunk) {
+        for (int i = 0; i < validatedChunk.journeys.size(); i++) {
+            if (validatedChunk.failures[i] != null) {
+                printValidationException(validatedChunk.failures[i]);
+            } else if (!loader.add(validatedChunk.journeys.get(i))) {
+                printValidationException(new ValidationException("A ValidationException occurred when validating a Journey!", Arrays.asList("A Journey with that ID already exists!")));
+            }
+        }
+    }
+
+    private static void printValidationException(final ValidationException e) {
+        System.out.print(e.getMessage() + "\n");
+        System.out.print(e.getValidationMessages() + "\n");
+    }
+
+    /**
+     * A chunk of parsed <code>Journey</code>s, and the exception of each one that failed validation
+     */
+    private static class ValidatedChunk {
+        private final List<Journey> journeys;
+        private final ValidationException[] failures;
+
+        private ValidatedChunk(final List<Journey> journeys, final ValidationException[] failures) {
+            this.journeys = journeys;
+            this.failures = failures;
+        }
+    }
+
+    /**
+     * The records of one file, parsed in chunks on a parser thread and handed over in file order through a bounded queue
+     *
+     * The end of the file is marked by an empty chunk, which is queued even if the file fails to parse,
+     * so that <code>next()</code> never waits forever.
+     */
+    private static class ChunkStream<T> {
+        private final BlockingQueue<List<T>> chunks = new ArrayBlockingQueue<List<T>>(QUEUED_CHUNKS);
+        private final Future<Void> parser;
+
+        /**
+         * Starts parsing the file on one of the <code>parsers</code>
+         *
+         * @param parsers      the threads the files are parsed on
+         * @param readerOpener opens the reader of the file, on the parser thread
+         */
+        private ChunkStream(final ExecutorService parsers, final Callable<XMLRecordReader<T>> readerOpener) {
+            parser = parsers.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    boolean isAbandoned = false;
+
+                    try {
+                        XMLRecordReader<T> reader = readerOpener.call();
+
+                        try {
+                            List<T> chunk = new ArrayList<T>(CHUNK_SIZE);
+                            T record;
+
+                            while ((record = reader.next()) != null) {
+                                chunk.add(record);
+
+                                if (chunk.size() == CHUNK_SIZE) {
+                                    chunks.put(chunk);
+                                    chunk = new ArrayList<T>(CHUNK_SIZE);
+                                }
+                            }
+
+                            if (chunk.size() > 0) {
+                                chunks.put(chunk);
+                            }
+                        } finally {
+                            reader.close();
+                        }
+                    } catch (InterruptedException e) {
+                        isAbandoned = true; // the load has failed and nothing is taking the chunks any more
+
+                        throw e;
+                    } finally {
+                        if (!isAbandoned) {
+                            chunks.put(new ArrayList<T>()); // the end of the file, or of what could be parsed of it
+                        }
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Waits for the next chunk of records, returning null at the end of the file
+         *
+         * @return List<T>
+         *
+         * @throws IOException if the file cannot be read
+         * @throws XMLStreamException if the file cannot be parsed
+         */
+        private List<T> next() throws IOException, XMLStreamException {
+            List<T> chunk;
+
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new IOException("Interrupted while loading the XML files", e);
+            }
+
+            if (!chunk.isEmpty()) {
+                return chunk;
+            }
+
+            getResult(parser); // throws whatever stopped the file being parsed
+
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a parsing task to finish, rethrowing whatever caused it to fail
+     *
+     * @param future the parsing task
+     *
+     * @return T
+     *
+     * @throws IOException if the file cannot be read
+     * @throws XMLStreamException if the file cannot be parsed
+     */
+    private static <T> T getResult(final Future<T> future) throws IOException, XMLStreamException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Interrupted while loading the XML files", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof XMLStreamException) {
+                throw (XMLStreamException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+}
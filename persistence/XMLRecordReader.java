@@ -0,0 +1,171 @@
+package com.TobyMellor.TrainRouteFinder.persistence;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Abstract streaming reader extended by the readers of each XML file written by the managers
+ *
+ * Records are pulled from the file one at a time using <code>next()</code>, so only the record currently
+ * being read is held in memory rather than a DOM tree of the whole file
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/02 14:10:00 $
+ */
+
+abstract public class XMLRecordReader<T> implements Closeable {
+    private final InputStream inputStream;
+    private final XMLStreamReader reader;
+
+    public XMLRecordReader(final File file) throws IOException, XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false); // the managers never write a DTD, so don't resolve one
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        this.inputStream = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        this.reader = factory.createXMLStreamReader(inputStream);
+    }
+
+    /**
+     * Checks if an element with the name <code>elementName</code> is the start of a record
+     *
+     * @param elementName the local name of the element
+     *
+     * @return boolean
+     */
+    abstract protected boolean isRecordElement(String elementName);
+
+    /**
+     * Reads the record the reader is currently positioned on. The reader is positioned on the
+     * record's start element, and must be left on the record's end element.
+     *
+     * Null may be returned for elements that are only needed to read later records (e.g. a lookup table),
+     * in which case <code>next()</code> moves on to the following record.
+     *
+     * @param elementName the local name of the record element
+     *
+     * @return T
+     *
+     * @throws XMLStreamException if the record is malformed
+     */
+    abstract protected T readRecord(String elementName) throws XMLStreamException;
+
+    /**
+     * Advances through the file to the next record and returns it.
+     * Returns null once the end of the file has been reached.
+     *
+     * @return T
+     *
+     * @throws XMLStreamException if the file cannot be parsed
+     */
+    public T next() throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && isRecordElement(reader.getLocalName())) {
+                T record = readRecord(reader.getLocalName());
+
+                if (record != null) {
+                    return record;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Moves the reader onto the next child element of the current record, returning its local name.
+     * Returns null once the end element of the record has been reached.
+     *
+     * Wrapper elements (e.g. <code>intermediateStationIds</code>) are returned too, and their children follow on
+     * the next call, so fields are found at any depth in the same way <code>getElementsByTagName()</code> finds them
+     *
+     * @param recordElementName the local name of the record element
+     *
+     * @return String
+     *
+     * @throws XMLStreamException if the record is malformed
+     */
+    protected String nextChildElement(final String recordElementName) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return reader.getLocalName();
+            } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(recordElementName)) {
+                return null;
+            }
+        }
+
+        throw new XMLStreamException("Unexpected end of file inside <" + recordElementName + ">");
+    }
+
+    /**
+     * Returns the text content of the element the reader is currently positioned on,
+     * leaving the reader on that element's end element
+     *
+     * @return String
+     *
+     * @throws XMLStreamException if the element contains child elements
+     */
+    protected String readElementText() throws XMLStreamException {
+        return reader.getElementText();
+    }
+
+    /**
+     * Returns the value of the <code>id</code> attribute of the current element
+     * An empty string is returned where the attribute is missing, in the same way <code>Element.getAttribute()</code> would
+     *
+     * @return String
+     */
+    protected String readIdAttribute() {
+        String id = reader.getAttributeValue(null, "id");
+
+        return id == null ? "" : id;
+    }
+
+    /**
+     * Returns the value of the <code>name</code> attribute of the current element, or null if it is missing
+     *
+     * @param name the local name of the attribute
+     *
+     * @return String
+     */
+    protected String readAttribute(final String name) {
+        return reader.getAttributeValue(null, name);
+    }
+
+    /**
+     * Throws an <code>XMLStreamException</code> if a required field of a record was not found
+     *
+     * @param value       the value read from the record, or null if it was missing
+     * @param elementName the name of the missing element
+     * @param recordName  the name of the record containing the element
+     *
+     * @throws XMLStreamException if <code>value</code> is null
+     */
+    protected void requireElement(final Object value, final String elementName, final String recordName) throws XMLStreamException {
+        if (value == null) {
+            throw new XMLStreamException("A <" + recordName + "> is missing its <" + elementName + "> element", reader.getLocation());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
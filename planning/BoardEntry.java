@@ -0,0 +1,58 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+
+/**
+ * One line of a station's departure or arrival board: a <code>Journey</code> calling at the station, and when
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/14 11:05:00 $
+ */
+
+public class BoardEntry {
+    private final String journeyId;
+    private final BasicRoute basicRoute;
+    private final String stationId;
+    private final int stopIndex;
+    private final long time;
+
+    public BoardEntry(final String journeyId, final BasicRoute basicRoute, final String stationId, final int stopIndex, final long time) {
+        this.journeyId = journeyId;
+        this.basicRoute = basicRoute;
+        this.stationId = stationId;
+        this.stopIndex = stopIndex;
+        this.time = time;
+    }
+
+    public String getJourneyId() {
+        return journeyId;
+    }
+
+    public BasicRoute getBasicRoute() {
+        return basicRoute;
+    }
+
+    public String getStationId() {
+        return stationId;
+    }
+
+    /**
+     * The position of the station among the stops of the <code>Journey</code>, where 0 is the <code>BasicRoute</code>'s
+     * departing station, followed by each of its intermediate stations, and then its destination station
+     *
+     * @return int
+     */
+    public int getStopIndex() {
+        return stopIndex;
+    }
+
+    /**
+     * The time the <code>Journey</code> leaves the station, on a departure board, or reaches it, on an arrival board
+     *
+     * @return long
+     */
+    public long getTime() {
+        return time;
+    }
+}
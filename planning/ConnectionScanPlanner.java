@@ -0,0 +1,852 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Plans the earliest arriving <code>Itinerary</code> between two stations, changing trains where needed,
+ * using the Connection Scan Algorithm
+ *
+ * The <code>Timetable</code>'s connections are sorted by departure, so a query is a single pass over them from the
+ * first connection departing after the requested time. A connection can be taken if its trip has already been boarded,
+ * or if the station it departs from has been reached by the time it departs. The pass stops as soon as connections
+ * depart after the best arrival found at the destination.
+ *
+ * The same scan also runs backwards, over the connections sorted by arrival from a deadline, to find the latest time
+ * every station can be left and still reach one destination in time.
+ *
+ * The forward scan can also be constrained to pass through one of a set of stations and avoid another, and repeated to
+ * find a number of alternatives leaving one after another.
+ *
+ * Without a destination, the forward scan finds the earliest arrival at every station at once, from one departing
+ * station or from many in parallel, for questions like where can be reached within an hour.
+ *
+ * Scanning backwards in departure order instead builds a profile of every station, the departures from it that no
+ * later departure arrives before, which answers a whole window of departure times in one pass.
+ *
+ * Given a <code>DurationMatrix</code>, the forward scan also skips connections to stations from which the destination
+ * can't be reached before the best arrival found so far.
+ *
+ * Changing trains takes no time, so a passenger can board any train departing at or after the time they arrive.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 18:55:00 $
+ */
+
+public class ConnectionScanPlanner {
+    public static final long UNREACHABLE = Long.MAX_VALUE; // the earliest arrival at a station that can't be reached
+
+    private static final int DEPARTURES_PER_TASK = 4; // the fewest departing stations worth giving to another thread
+
+    private final Timetable timetable;
+    private final DurationMatrix durationMatrix;
+
+    public ConnectionScanPlanner(final Timetable timetable) {
+        this(timetable, null);
+    }
+
+    /**
+     * @param timetable      the <code>Timetable</code> to search
+     * @param durationMatrix the minimum durations between stations, used to skip connections that can't arrive
+     *                       at the destination before the best arrival found so far, or null to skip none
+     */
+    public ConnectionScanPlanner(final Timetable timetable, final DurationMatrix durationMatrix) {
+        this.timetable = timetable;
+        this.durationMatrix = durationMatrix;
+    }
+
+    /**
+     * Finds the <code>Itinerary</code> from the <code>departingStationId</code> that arrives at the
+     * <code>destinationStationId</code> earliest, leaving strictly after <code>departingAfter</code>
+     *
+     * Returns null if either station is unknown, or the destination can't be reached
+     *
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     * @param departingAfter       the time to leave after
+     *
+     * @return Itinerary
+     */
+    public Itinerary findEarliestArrival(final String departingStationId, final String destinationStationId, final long departingAfter) {
+        int departingStation = timetable.getStationOrdinal(departingStationId);
+        int destinationStation = timetable.getStationOrdinal(destinationStationId);
+
+        if (departingStation == -1 || destinationStation == -1 || departingStation == destinationStation) {
+            return null;
+        }
+
+        long[] earliestArrivals = new long[timetable.getStationCount()];
+        int[] arrivalConnections = new int[timetable.getStationCount()]; // the connection each station was reached by earliest
+        int[] boardConnections = new int[timetable.getTripCount()]; // the connection each trip was first boarded on, or -1
+
+        Arrays.fill(earliestArrivals, Long.MAX_VALUE);
+        Arrays.fill(arrivalConnections, -1);
+        Arrays.fill(boardConnections, -1);
+
+        earliestArrivals[departingStation] = departingAfter;
+
+        long[] lowerBounds = null; // the least time left to the destination from each station
+
+        if (durationMatrix != null) {
+            lowerBounds = new long[timetable.getStationCount()];
+            durationMatrix.fillLowerBounds(timetable, destinationStation, lowerBounds);
+
+            if (lowerBounds[departingStation] == Long.MAX_VALUE) {
+                return null; // no route leads there
+            }
+        }
+
+        int[] connectionTrips = timetable.connectionTrips;
+        int[] connectionDepartureStations = timetable.connectionDepartureStations;
+        int[] connectionArrivalStations = timetable.connectionArrivalStations;
+        long[] connectionDepartures = timetable.connectionDepartures;
+        long[] connectionArrivals = timetable.connectionArrivals;
+
+        for (int connection = timetable.indexOfFirstConnectionAfter(departingAfter); connection < connectionTrips.length; connection++) {
+            if (connectionDepartures[connection] >= earliestArrivals[destinationStation]) {
+                break; // nothing departing from here on can arrive any earlier
+            }
+
+            int trip = connectionTrips[connection];
+
+            if (boardConnections[trip] == -1) {
+                if (earliestArrivals[connectionDepartureStations[connection]] > connectionDepartures[connection]) {
+                    continue; // the station hasn't been reached in time to board
+                }
+
+                boardConnections[trip] = connection;
+            }
+
+            int arrivalStation = connectionArrivalStations[connection];
+
+            if (lowerBounds != null && lowerBounds[arrivalStation] >= earliestArrivals[destinationStation] - connectionArrivals[connection]) {
+                continue; // can't reach the destination any earlier from here
+            }
+
+            if (connectionArrivals[connection] < earliestArrivals[arrivalStation]) {
+                earliestArrivals[arrivalStation] = connectionArrivals[connection];
+                arrivalConnections[arrivalStation] = connection;
+            }
+        }
+
+        if (arrivalConnections[destinationStation] == -1) {
+            return null;
+        }
+
+        return buildItinerary(departingStation, destinationStation, arrivalConnections, boardConnections);
+    }
+
+    /**
+     * Finds up to <code>count</code> alternative <code>Itinerary</code>s from the <code>departingStationId</code> to the
+     * <code>destinationStationId</code>, leaving strictly after <code>departingAfter</code>, that pass through at least one
+     * of the <code>viaStations</code> and none of the <code>avoidedStations</code>
+     *
+     * The first alternative is the earliest arriving, and each one after it is the earliest arriving of those leaving
+     * strictly after the one before, so they are sorted by departure and none leaves earlier and arrives later than another.
+     *
+     * The stations are sets of ordinals (see <code>Timetable.getStationSet()</code>) and may include
+     * <code>IntermediateStation</code>s, which count as passed through by any trip calling at them. They are checked
+     * during the scan: connections to, from or through an avoided station are never taken, and each station is reached
+     * both before and after passing a via station, only the latter counting at the destination.
+     *
+     * Returns an empty list if either station is unknown or avoided
+     *
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     * @param departingAfter       the time to leave after
+     * @param count                the most alternatives to find
+     * @param viaStations          the stations to pass through one of, or null for any route
+     * @param avoidedStations      the stations not to pass through, or null to avoid none
+     *
+     * @return List<Itinerary>
+     */
+    public List<Itinerary> findAlternatives(final String departingStationId, final String destinationStationId, final long departingAfter, final int count, final BitSet viaStations, final BitSet avoidedStations) {
+        int departingStation = timetable.getStationOrdinal(departingStationId);
+        int destinationStation = timetable.getStationOrdinal(destinationStationId);
+
+        List<Itinerary> itineraries = new ArrayList<Itinerary>();
+
+        if (departingStation == -1 || destinationStation == -1 || departingStation == destinationStation) {
+            return itineraries;
+        }
+
+        if (avoidedStations != null && (avoidedStations.get(departingStation) || avoidedStations.get(destinationStation))) {
+            return itineraries;
+        }
+
+        long[] lowerBounds = null;
+
+        if (durationMatrix != null) {
+            lowerBounds = new long[timetable.getStationCount()];
+            durationMatrix.fillLowerBounds(timetable, destinationStation, lowerBounds);
+
+            if (lowerBounds[departingStation] == Long.MAX_VALUE) {
+                return itineraries;
+            }
+        }
+
+        BitSet via = viaStations == null || viaStations.isEmpty() ? null : viaStations;
+        BitSet avoided = avoidedStations == null || avoidedStations.isEmpty() ? null : avoidedStations;
+        ConstrainedSearch search = new ConstrainedSearch(timetable.getStationCount(), timetable.getTripCount());
+        long after = departingAfter;
+
+        while (itineraries.size() < count) {
+            Itinerary itinerary = findConstrainedEarliestArrival(departingStation, destinationStation, after, via, avoided, lowerBounds, search);
+
+            if (itinerary == null) {
+                break;
+            }
+
+            itineraries.add(itinerary);
+            after = itinerary.getDepartureTime();
+        }
+
+        return itineraries;
+    }
+
+    /**
+     * Runs the forward scan with each station reached in two layers: before passing a via station (0) and after (1)
+     *
+     * Without via stations every station starts in layer 1, so layer 0 is never used.
+     *
+     * @param departingStation   the ordinal of the station to depart from
+     * @param destinationStation the ordinal of the station to arrive at
+     * @param departingAfter     the time to leave after
+     * @param viaStations        the stations to pass through one of, or null
+     * @param avoidedStations    the stations not to pass through, or null
+     * @param lowerBounds        the least time left to the destination from each station, or null
+     * @param search             the scratch space to use
+     *
+     * @return Itinerary the earliest arriving itinerary, or null if there isn't one
+     */
+    private Itinerary findConstrainedEarliestArrival(final int departingStation, final int destinationStation, final long departingAfter, final BitSet viaStations, final BitSet avoidedStations, final long[] lowerBounds, final ConstrainedSearch search) {
+        search.clear();
+
+        int startLayer = viaStations == null || viaStations.get(departingStation) ? 1 : 0;
+        long[][] earliestArrivals = search.earliestArrivals;
+        int[][] tripBoardConnections = search.tripBoardConnections;
+        int[][] tripBoardLayers = search.tripBoardLayers;
+
+        earliestArrivals[startLayer][departingStation] = departingAfter;
+
+        int[] connectionTrips = timetable.connectionTrips;
+        int[] connectionStopIndexes = timetable.connectionStopIndexes;
+        int[] connectionDepartureStations = timetable.connectionDepartureStations;
+        int[] connectionArrivalStations = timetable.connectionArrivalStations;
+        long[] connectionDepartures = timetable.connectionDepartures;
+        long[] connectionArrivals = timetable.connectionArrivals;
+
+        for (int connection = timetable.indexOfFirstConnectionAfter(departingAfter); connection < connectionTrips.length; connection++) {
+            if (connectionDepartures[connection] >= earliestArrivals[1][destinationStation]) {
+                break;
+            }
+
+            int trip = connectionTrips[connection];
+            int departureStation = connectionDepartureStations[connection];
+            int arrivalStation = connectionArrivalStations[connection];
+
+            if (avoidedStations != null && (avoidedStations.get(departureStation) || avoidedStations.get(arrivalStation)
+                    || timetable.passesThrough(trip, connectionStopIndexes[connection], avoidedStations))) {
+                tripBoardConnections[0][trip] = -1; // the trip has to be left before this connection
+                tripBoardConnections[1][trip] = -1;
+
+                continue;
+            }
+
+            for (int layer = startLayer; layer <= 1; layer++) {
+                if (tripBoardConnections[layer][trip] == -1 && earliestArrivals[layer][departureStation] <= connectionDepartures[connection]) {
+                    tripBoardConnections[layer][trip] = connection;
+                    tripBoardLayers[layer][trip] = layer;
+                }
+            }
+
+            if (viaStations != null && tripBoardConnections[0][trip] != -1 && tripBoardConnections[1][trip] == -1
+                    && (viaStations.get(arrivalStation) || timetable.passesThrough(trip, connectionStopIndexes[connection], viaStations))) {
+                tripBoardConnections[1][trip] = tripBoardConnections[0][trip]; // staying on the trip passes a via station
+                tripBoardLayers[1][trip] = 0;
+            }
+
+            if (lowerBounds != null && lowerBounds[arrivalStation] >= earliestArrivals[1][destinationStation] - connectionArrivals[connection]) {
+                continue;
+            }
+
+            for (int layer = startLayer; layer <= 1; layer++) {
+                if (tripBoardConnections[layer][trip] != -1 && connectionArrivals[connection] < earliestArrivals[layer][arrivalStation]) {
+                    earliestArrivals[layer][arrivalStation] = connectionArrivals[connection];
+                    search.arrivalConnections[layer][arrivalStation] = connection;
+                    search.arrivalBoardConnections[layer][arrivalStation] = tripBoardConnections[layer][trip];
+                    search.arrivalBoardLayers[layer][arrivalStation] = tripBoardLayers[layer][trip];
+                }
+            }
+        }
+
+        if (search.arrivalConnections[1][destinationStation] == -1) {
+            return null;
+        }
+
+        List<Leg> legs = new ArrayList<Leg>();
+        int station = destinationStation;
+        int layer = 1;
+
+        while (station != departingStation || layer != startLayer) {
+            int boardConnection = search.arrivalBoardConnections[layer][station];
+
+            legs.add(timetable.createLeg(boardConnection, search.arrivalConnections[layer][station]));
+            layer = search.arrivalBoardLayers[layer][station];
+            station = connectionDepartureStations[boardConnection];
+        }
+
+        Collections.reverse(legs);
+
+        return new Itinerary(legs);
+    }
+
+    /**
+     * Finds the latest time the passenger can leave every station and still arrive at the <code>destinationStationId</code>
+     * by <code>arrivingBy</code> (inclusive), without leaving before <code>departingAfter</code>, in a single backward scan
+     *
+     * A connection can be taken if its trip has already been taken, or if the station it arrives at can still be left
+     * in time once it arrives. The scan stops at the first connection arriving before <code>departingAfter</code>.
+     *
+     * Returns null if the destination is unknown
+     *
+     * @param destinationStationId the ID of the station to arrive at
+     * @param arrivingBy           the time to arrive by
+     * @param departingAfter       the earliest time to leave, such as now to hide trains that have already left
+     *
+     * @return LatestDepartures
+     */
+    public LatestDepartures findLatestDepartures(final String destinationStationId, final long arrivingBy, final long departingAfter) {
+        int destinationStation = timetable.getStationOrdinal(destinationStationId);
+
+        if (destinationStation == -1) {
+            return null;
+        }
+
+        long[] latestDepartures = new long[timetable.getStationCount()];
+        int[] departureConnections = new int[timetable.getStationCount()]; // the connection each station is left on latest
+        int[] alightConnections = new int[timetable.getTripCount()]; // the connection each trip is last left after, or -1
+
+        Arrays.fill(latestDepartures, LatestDepartures.UNREACHABLE);
+        Arrays.fill(departureConnections, -1);
+        Arrays.fill(alightConnections, -1);
+
+        latestDepartures[destinationStation] = arrivingBy;
+
+        int[] connectionsByArrival = timetable.connectionsByArrival;
+        int[] connectionTrips = timetable.connectionTrips;
+        int[] connectionDepartureStations = timetable.connectionDepartureStations;
+        int[] connectionArrivalStations = timetable.connectionArrivalStations;
+        long[] connectionDepartures = timetable.connectionDepartures;
+        long[] connectionArrivals = timetable.connectionArrivals;
+
+        for (int i = timetable.countConnectionsArrivingBy(arrivingBy) - 1; i >= 0; i--) {
+            int connection = connectionsByArrival[i];
+
+            if (connectionArrivals[connection] < departingAfter) {
+                break; // nothing arriving from here on can have left in time
+            }
+
+            int trip = connectionTrips[connection];
+
+            if (alightConnections[trip] == -1) {
+                if (latestDepartures[connectionArrivalStations[connection]] < connectionArrivals[connection]) {
+                    continue; // the station it arrives at can't be left in time
+                }
+
+                alightConnections[trip] = connection;
+            }
+
+            int departureStation = connectionDepartureStations[connection];
+
+            if (connectionDepartures[connection] >= departingAfter && connectionDepartures[connection] > latestDepartures[departureStation]) {
+                latestDepartures[departureStation] = connectionDepartures[connection];
+                departureConnections[departureStation] = connection;
+            }
+        }
+
+        return new LatestDepartures(timetable, destinationStation, latestDepartures, departureConnections, alightConnections);
+    }
+
+    /**
+     * Finds the <code>Itinerary</code> from the <code>departingStationId</code> that leaves latest and still arrives at the
+     * <code>destinationStationId</code> by <code>arrivingBy</code>, leaving no earlier than <code>departingAfter</code>
+     *
+     * Returns null if either station is unknown, or the destination can't be reached in time
+     *
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     * @param arrivingBy           the time to arrive by
+     * @param departingAfter       the earliest time to leave
+     *
+     * @return Itinerary
+     */
+    public Itinerary findLatestDeparture(final String departingStationId, final String destinationStationId, final long arrivingBy, final long departingAfter) {
+        LatestDepartures latestDepartures = findLatestDepartures(destinationStationId, arrivingBy, departingAfter);
+
+        return latestDepartures == null ? null : latestDepartures.getItinerary(departingStationId);
+    }
+
+    /**
+     * Finds every <code>Itinerary</code> from the <code>departingStationId</code> to the <code>destinationStationId</code>
+     * leaving between <code>earliestDeparture</code> and <code>latestDeparture</code> (inclusive) that no itinerary
+     * leaving later arrives as early as, direct or changing trains, sorted by departure
+     *
+     * A single backward scan over the connections keeps, for each station, the departures that can still reach the
+     * destination with the earliest arrival for each of them; a connection's best arrival is the earliest of arriving at the
+     * destination, staying on its trip, or changing onto the station's profile. The scan starts from the earliest arrival
+     * of the trains leaving after the window, as nothing arriving later could be optimal.
+     *
+     * Returns an empty list if either station is unknown
+     *
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     * @param earliestDeparture    the start of the window
+     * @param latestDeparture      the end of the window
+     *
+     * @return List<Itinerary>
+     */
+    public List<Itinerary> findProfile(final String departingStationId, final String destinationStationId, final long earliestDeparture, final long latestDeparture) {
+        int departingStation = timetable.getStationOrdinal(departingStationId);
+        int destinationStation = timetable.getStationOrdinal(destinationStationId);
+
+        List<Itinerary> itineraries = new ArrayList<Itinerary>();
+
+        if (departingStation == -1 || destinationStation == -1 || departingStation == destinationStation) {
+            return itineraries;
+        }
+
+        Itinerary afterWindow = findEarliestArrival(departingStationId, destinationStationId, latestDeparture);
+        long latestArrival = afterWindow == null ? Long.MAX_VALUE : afterWindow.getArrivalTime();
+
+        Profile[] profiles = new Profile[timetable.getStationCount()];
+        long[] tripArrivals = new long[timetable.getTripCount()]; // the earliest arrival at the destination once on each trip
+        int[] tripAlightConnections = new int[timetable.getTripCount()]; // the connection the trip is left after for that arrival
+
+        Arrays.fill(tripArrivals, Long.MAX_VALUE);
+
+        int[] connectionTrips = timetable.connectionTrips;
+        int[] connectionDepartureStations = timetable.connectionDepartureStations;
+        int[] connectionArrivalStations = timetable.connectionArrivalStations;
+        long[] connectionDepartures = timetable.connectionDepartures;
+        long[] connectionArrivals = timetable.connectionArrivals;
+
+        for (int connection = timetable.indexOfFirstConnectionAfter(latestArrival) - 1; connection >= 0; connection--) {
+            if (connectionDepartures[connection] < earliestDeparture) {
+                break;
+            }
+
+            if (connectionArrivals[connection] > latestArrival) {
+                continue;
+            }
+
+            int trip = connectionTrips[connection];
+            int arrivalStation = connectionArrivalStations[connection];
+            long arrival = tripArrivals[trip]; // staying on the trip
+            int alightConnection = tripAlightConnections[trip];
+
+            if (arrivalStation == destinationStation) {
+                if (connectionArrivals[connection] < arrival) {
+                    arrival = connectionArrivals[connection];
+                    alightConnection = connection;
+                }
+            } else if (profiles[arrivalStation] != null) {
+                int index = profiles[arrivalStation].indexOfFirstDepartureFrom(connectionArrivals[connection]);
+
+                if (index != -1 && profiles[arrivalStation].arrivals[index] < arrival) {
+                    arrival = profiles[arrivalStation].arrivals[index];
+                    alightConnection = connection;
+                }
+            }
+
+            if (arrival == Long.MAX_VALUE) {
+                continue;
+            }
+
+            tripArrivals[trip] = arrival;
+            tripAlightConnections[trip] = alightConnection;
+
+            int departureStation = connectionDepartureStations[connection];
+
+            if (departureStation == destinationStation) {
+                continue;
+            }
+
+            if (profiles[departureStation] == null) {
+                profiles[departureStation] = new Profile();
+            }
+
+            profiles[departureStation].add(connectionDepartures[connection], arrival, connection, alightConnection);
+        }
+
+        Profile profile = profiles[departingStation];
+
+        if (profile == null) {
+            return itineraries;
+        }
+
+        for (int i = profile.size - 1; i >= 0; i--) { // the profile is held latest departure first
+            if (profile.departures[i] <= latestDeparture) {
+                itineraries.add(buildProfileItinerary(profile, i, destinationStation, profiles));
+            }
+        }
+
+        return itineraries;
+    }
+
+    /**
+     * Finds the earliest time every station can be reached from the <code>departingStationId</code>, leaving strictly
+     * after <code>departingAfter</code>, in a single forward scan
+     *
+     * The result is indexed by station ordinal (see <code>Timetable.getStationOrdinal()</code>), holding
+     * <code>departingAfter</code> for the departing station and <code>UNREACHABLE</code> for every station that can't be
+     * reached by <code>arrivingBy</code> (inclusive). The scan stops at the first connection departing after
+     * <code>arrivingBy</code>, so a tighter deadline makes it quicker.
+     *
+     * <code>IntermediateStation</code>s are only reached by passing through them, so they are left
+     * <code>UNREACHABLE</code> unless <code>isIncludingIntermediateStations</code> is true.
+     *
+     * Returns null if the departing station is unknown
+     *
+     * @param departingStationId              the ID of the station to depart from
+     * @param departingAfter                  the time to leave after
+     * @param arrivingBy                      the latest arrival to report, or <code>Long.MAX_VALUE</code>
+     * @param isIncludingIntermediateStations whether to report the intermediate stations passed through
+     *
+     * @return long[]
+     */
+    public long[] findEarliestArrivals(final String departingStationId, final long departingAfter, final long arrivingBy, final boolean isIncludingIntermediateStations) {
+        int departingStation = timetable.getStationOrdinal(departingStationId);
+
+        if (departingStation == -1) {
+            return null;
+        }
+
+        long[] earliestArrivals = new long[timetable.getStationCount()];
+        boolean[] isBoarded = new boolean[timetable.getTripCount()];
+
+        findEarliestArrivals(departingStation, departingAfter, arrivingBy, isIncludingIntermediateStations, earliestArrivals, isBoarded);
+
+        return earliestArrivals;
+    }
+
+    /**
+     * Runs <code>findEarliestArrivals()</code> from each of the <code>departingStationIds</code>, in parallel on the
+     * <code>ForkJoinPool.commonPool()</code>
+     *
+     * The row for a departing station that is unknown is null
+     *
+     * @param departingStationIds             the IDs of the stations to depart from
+     * @param departingAfter                  the time to leave after
+     * @param arrivingBy                      the latest arrival to report, or <code>Long.MAX_VALUE</code>
+     * @param isIncludingIntermediateStations whether to report the intermediate stations passed through
+     *
+     * @return long[][] the earliest arrivals from each departing station, in the same order
+     */
+    public long[][] findEarliestArrivals(final String[] departingStationIds, final long departingAfter, final long arrivingBy, final boolean isIncludingIntermediateStations) {
+        long[][] earliestArrivals = new long[departingStationIds.length][];
+
+        if (departingStationIds.length > 0) {
+            ForkJoinPool.commonPool().invoke(new EarliestArrivalsTask(
+                    departingStationIds, departingAfter, arrivingBy, isIncludingIntermediateStations, earliestArrivals, 0, departingStationIds.length
+            ));
+        }
+
+        return earliestArrivals;
+    }
+
+    /**
+     * Lists the IDs of every station that can be reached from the <code>departingStationId</code> within
+     * <code>minutes</code> of <code>departingAfter</code>, such as everywhere within 90 minutes leaving at 08:00
+     *
+     * Returns an empty list if the departing station is unknown
+     *
+     * @param departingStationId              the ID of the station to depart from
+     * @param departingAfter                  the time to leave after
+     * @param minutes                         the longest time to travel for
+     * @param isIncludingIntermediateStations whether to list the intermediate stations passed through
+     *
+     * @return List<String>
+     */
+    public List<String> findStationsReachableWithin(final String departingStationId, final long departingAfter, final int minutes, final boolean isIncludingIntermediateStations) {
+        long[] earliestArrivals = findEarliestArrivals(departingStationId, departingAfter, departingAfter + minutes * 60000L, isIncludingIntermediateStations);
+        List<String> stationIds = new ArrayList<String>();
+
+        if (earliestArrivals == null) {
+            return stationIds;
+        }
+
+        for (int station = 0; station < earliestArrivals.length; station++) {
+            if (earliestArrivals[station] != UNREACHABLE && !timetable.getStationId(station).equals(departingStationId)) {
+                stationIds.add(timetable.getStationId(station));
+            }
+        }
+
+        return stationIds;
+    }
+
+    /**
+     * Fills <code>earliestArrivals</code> with the one-to-all scan from <code>departingStation</code>
+     *
+     * @param departingStation                the ordinal of the station to depart from
+     * @param departingAfter                  the time to leave after
+     * @param arrivingBy                      the latest arrival to report
+     * @param isIncludingIntermediateStations whether to report the intermediate stations passed through
+     * @param earliestArrivals                the earliest arrival at each station, filled in
+     * @param isBoarded                       scratch space for whether each trip has been boarded, all false
+     */
+    private void findEarliestArrivals(final int departingStation, final long departingAfter, final long arrivingBy, final boolean isIncludingIntermediateStations, final long[] earliestArrivals, final boolean[] isBoarded) {
+        Arrays.fill(earliestArrivals, UNREACHABLE);
+        earliestArrivals[departingStation] = departingAfter;
+
+        int[] connectionTrips = timetable.connectionTrips;
+        int[] connectionDepartureStations = timetable.connectionDepartureStations;
+        int[] connectionArrivalStations = timetable.connectionArrivalStations;
+        long[] connectionDepartures = timetable.connectionDepartures;
+        long[] connectionArrivals = timetable.connectionArrivals;
+
+        for (int connection = timetable.indexOfFirstConnectionAfter(departingAfter); connection < connectionTrips.length; connection++) {
+            if (connectionDepartures[connection] > arrivingBy) {
+                break; // nothing departing from here on can arrive in time
+            }
+
+            int trip = connectionTrips[connection];
+
+            if (!isBoarded[trip]) {
+                if (earliestArrivals[connectionDepartureStations[connection]] > connectionDepartures[connection]) {
+                    continue;
+                }
+
+                isBoarded[trip] = true;
+
+                if (isIncludingIntermediateStations) {
+                    int callingPattern = timetable.tripCallingPatterns[trip];
+
+                    for (int i = timetable.callingPatternStopOffsets[callingPattern] + 1; i < timetable.callingPatternStopOffsets[callingPattern + 1] - 1; i++) {
+                        long arrival = timetable.tripDepartures[trip] + timetable.callingPatternStopArrivalOffsets[i];
+
+                        if (arrival <= arrivingBy && arrival < earliestArrivals[timetable.callingPatternStops[i]]) {
+                            earliestArrivals[timetable.callingPatternStops[i]] = arrival;
+                        }
+                    }
+                }
+            }
+
+            int arrivalStation = connectionArrivalStations[connection];
+
+            if (connectionArrivals[connection] <= arrivingBy && connectionArrivals[connection] < earliestArrivals[arrivalStation]) {
+                earliestArrivals[arrivalStation] = connectionArrivals[connection];
+            }
+        }
+    }
+
+    /**
+     * Follows a profile entry to the destination, changing onto the first departure in the next station's profile each time
+     *
+     * @param profile            the profile of the station departed from
+     * @param index              the entry of the profile to leave on
+     * @param destinationStation the ordinal of the station arrived at
+     * @param profiles           the profile of every station
+     *
+     * @return Itinerary
+     */
+    private Itinerary buildProfileItinerary(final Profile profile, final int index, final int destinationStation, final Profile[] profiles) {
+        List<Leg> legs = new ArrayList<Leg>();
+        Profile currentProfile = profile;
+        int currentIndex = index;
+
+        while (true) {
+            int alightConnection = currentProfile.alightConnections[currentIndex];
+            int station = timetable.connectionArrivalStations[alightConnection];
+
+            legs.add(timetable.createLeg(currentProfile.boardConnections[currentIndex], alightConnection));
+
+            if (station == destinationStation) {
+                return new Itinerary(legs);
+            }
+
+            currentProfile = profiles[station];
+            currentIndex = currentProfile.indexOfFirstDepartureFrom(timetable.connectionArrivals[alightConnection]);
+        }
+    }
+
+    /**
+     * Walks back from the destination to the departing station through the connections each station was reached by
+     *
+     * @param departingStation   the ordinal of the station departed from
+     * @param destinationStation the ordinal of the station arrived at
+     * @param arrivalConnections the connection each station was reached by earliest
+     * @param boardConnections   the connection each trip was first boarded on
+     *
+     * @return Itinerary
+     */
+    private Itinerary buildItinerary(final int departingStation, final int destinationStation, final int[] arrivalConnections, final int[] boardConnections) {
+        List<Leg> legs = new ArrayList<Leg>();
+        int station = destinationStation;
+
+        while (station != departingStation) {
+            int alightConnection = arrivalConnections[station];
+            int boardConnection = boardConnections[timetable.connectionTrips[alightConnection]];
+
+            legs.add(timetable.createLeg(boardConnection, alightConnection));
+            station = timetable.connectionDepartureStations[boardConnection];
+        }
+
+        Collections.reverse(legs);
+
+        return new Itinerary(legs);
+    }
+
+    /**
+     * The scratch space of the layered scan, indexed by layer then by station or trip, reused for each alternative
+     */
+    private static class ConstrainedSearch {
+        private final long[][] earliestArrivals;
+        private final int[][] arrivalConnections; // the connection each station was reached by earliest
+        private final int[][] arrivalBoardConnections; // the connection the trip reaching it was boarded on
+        private final int[][] arrivalBoardLayers; // the layer the trip was boarded in
+        private final int[][] tripBoardConnections; // the connection each trip was boarded on in the layer, or -1
+        private final int[][] tripBoardLayers;
+
+        ConstrainedSearch(final int stationCount, final int tripCount) {
+            earliestArrivals = new long[2][stationCount];
+            arrivalConnections = new int[2][stationCount];
+            arrivalBoardConnections = new int[2][stationCount];
+            arrivalBoardLayers = new int[2][stationCount];
+            tripBoardConnections = new int[2][tripCount];
+            tripBoardLayers = new int[2][tripCount];
+        }
+
+        void clear() {
+            for (int layer = 0; layer <= 1; layer++) {
+                Arrays.fill(earliestArrivals[layer], Long.MAX_VALUE);
+                Arrays.fill(arrivalConnections[layer], -1);
+                Arrays.fill(tripBoardConnections[layer], -1);
+            }
+        }
+    }
+
+    /**
+     * Runs the one-to-all scans from a range of departing stations, splitting the range in two until it is small enough
+     */
+    private class EarliestArrivalsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] departingStationIds;
+        private final long departingAfter;
+        private final long arrivingBy;
+        private final boolean isIncludingIntermediateStations;
+        private final long[][] earliestArrivals;
+        private final int from;
+        private final int to;
+
+        EarliestArrivalsTask(final String[] departingStationIds, final long departingAfter, final long arrivingBy, final boolean isIncludingIntermediateStations, final long[][] earliestArrivals, final int from, final int to) {
+            this.departingStationIds = departingStationIds;
+            this.departingAfter = departingAfter;
+            this.arrivingBy = arrivingBy;
+            this.isIncludingIntermediateStations = isIncludingIntermediateStations;
+            this.earliestArrivals = earliestArrivals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > DEPARTURES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+
+                invokeAll(
+                        new EarliestArrivalsTask(departingStationIds, departingAfter, arrivingBy, isIncludingIntermediateStations, earliestArrivals, from, middle),
+                        new EarliestArrivalsTask(departingStationIds, departingAfter, arrivingBy, isIncludingIntermediateStations, earliestArrivals, middle, to)
+                );
+
+                return;
+            }
+
+            boolean[] isBoarded = new boolean[timetable.getTripCount()];
+
+            for (int i = from; i < to; i++) {
+                int departingStation = timetable.getStationOrdinal(departingStationIds[i]);
+
+                if (departingStation != -1) {
+                    earliestArrivals[i] = new long[timetable.getStationCount()];
+                    Arrays.fill(isBoarded, false);
+
+                    findEarliestArrivals(departingStation, departingAfter, arrivingBy, isIncludingIntermediateStations, earliestArrivals[i], isBoarded);
+                }
+            }
+        }
+    }
+
+    /**
+     * The departures from one station that can still reach the destination, each arriving before any departure after it,
+     * held in the order the backward scan finds them, latest departure first
+     */
+    private static class Profile {
+        private long[] departures = new long[8];
+        private long[] arrivals = new long[8];
+        private int[] boardConnections = new int[8];
+        private int[] alightConnections = new int[8];
+        private int size;
+
+        /**
+         * Adds a departure no later than any already held, unless a later one arrives as early
+         *
+         * @param departure        the time the station is left
+         * @param arrival          the time the destination is reached
+         * @param boardConnection  the connection the station is left on
+         * @param alightConnection the connection its trip is left after
+         */
+        void add(final long departure, final long arrival, final int boardConnection, final int alightConnection) {
+            if (size > 0 && arrivals[size - 1] <= arrival) {
+                return;
+            }
+
+            if (size > 0 && departures[size - 1] == departure) {
+                size--; // arrives earlier for the same departure
+            }
+
+            if (size == departures.length) {
+                departures = Arrays.copyOf(departures, size * 2);
+                arrivals = Arrays.copyOf(arrivals, size * 2);
+                boardConnections = Arrays.copyOf(boardConnections, size * 2);
+                alightConnections = Arrays.copyOf(alightConnections, size * 2);
+            }
+
+            departures[size] = departure;
+            arrivals[size] = arrival;
+            boardConnections[size] = boardConnection;
+            alightConnections[size++] = alightConnection;
+        }
+
+        /**
+         * Binary searches for the entry with the earliest departure at or after <code>timestamp</code>, or -1 if there isn't one
+         *
+         * @param timestamp the time the station is reached
+         *
+         * @return int
+         */
+        int indexOfFirstDepartureFrom(final long timestamp) {
+            int low = 0;
+            int high = size;
+
+            while (low < high) { // departures are decreasing, so find the first entry departing before timestamp
+                int middle = (low + high) >>> 1;
+
+                if (departures[middle] >= timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low - 1;
+        }
+    }
+}
@@ -0,0 +1,985 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A contraction hierarchy over a <code>StationGraph</code>, answering shortest travel time queries between any two
+ * stations without an all-pairs matrix
+ *
+ * Preprocessing ranks the stations and contracts them from the lowest rank up. Contracting a station removes it from
+ * the graph, adding a shortcut between each pair of its neighbours whose shortest path went through it. A query is
+ * then a bidirectional Dijkstra search that only follows edges to higher ranked stations, from both ends, so it
+ * settles a small part of the graph.
+ *
+ * Stations are contracted in rounds of independent sets: every station whose priority (the shortcuts contracting it
+ * would add, less the edges it would remove, plus its contracted neighbours and its level) is lower than all of its
+ * neighbours'. Within a round the witness searches deciding which shortcuts are needed run in parallel on the
+ * <code>ForkJoinPool.commonPool()</code>, treating the whole round as already contracted, and the priorities of the
+ * affected neighbours are then recomputed in parallel.
+ *
+ * The result is held in compressed rows: the upward edges leaving each station, and the downward edges arriving at it
+ * (followed backwards by the reverse search). Each edge records the station a shortcut skips, or -1, so that paths can
+ * be unpacked. <code>ContractionHierarchyFile</code> writes it alongside the XML files.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 18:55:00 $
+ */
+
+public class ContractionHierarchy {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int WITNESS_SETTLE_LIMIT = 100; // a shortcut is added if no witness is found within this many stations
+    private static final int ESTIMATE_SETTLE_LIMIT = 50; // the same, when only estimating the shortcuts for a priority
+    private static final int STATIONS_PER_TASK = 256;
+
+    private final BasicRouteManager basicRouteManager; // the managers the hierarchy was built from, or null
+    private final JourneyManager journeyManager;
+    private final int basicRouteManagerVersion;
+    private final int journeyManagerVersion;
+
+    final String[] stationIds;
+    private final Map<String, Integer> stationOrdinalsById = new HashMap<String, Integer>();
+    final int[] ranks;
+
+    final int[] upOffsets;
+    final int[] upTargets;
+    final int[] upDurations; // seconds
+    final int[] upMiddles; // the station a shortcut skips, or -1
+
+    final int[] downOffsets;
+    final int[] downSources;
+    final int[] downDurations;
+    final int[] downMiddles;
+
+    private long[] forwardDurations; // query scratch space, only valid where the stamps match searchStamp
+    private long[] backwardDurations;
+    private int[] forwardStamps;
+    private int[] backwardStamps;
+    private int[] forwardParentEdges;
+    private int[] backwardParentEdges;
+    private int searchStamp;
+    private IndexedMinHeap forwardHeap;
+    private IndexedMinHeap backwardHeap;
+    private int lastSettledCount;
+
+    /**
+     * Contracts every station of the <code>graph</code>
+     *
+     * @param graph the <code>StationGraph</code> to preprocess
+     */
+    public ContractionHierarchy(final StationGraph graph) {
+        this(new Contraction(graph));
+    }
+
+    private ContractionHierarchy(final Contraction contraction) {
+        this(contraction, contraction.contract());
+    }
+
+    private ContractionHierarchy(final Contraction contraction, final int[] ranks) {
+        this(
+                contraction.graph.basicRouteManager, contraction.graph.journeyManager,
+                contraction.graph.basicRouteManagerVersion, contraction.graph.journeyManagerVersion,
+                contraction.graph.stationIds, ranks, contraction.buildRows()
+        );
+    }
+
+    /**
+     * Holds an already contracted hierarchy, such as one read by <code>ContractionHierarchyFile</code>
+     *
+     * The <code>rows</code> are the up offsets, targets, durations and middles, then the same for the down edges
+     */
+    ContractionHierarchy(final BasicRouteManager basicRouteManager, final JourneyManager journeyManager, final int basicRouteManagerVersion, final int journeyManagerVersion, final String[] stationIds, final int[] ranks, final int[][] rows) {
+        this.basicRouteManager = basicRouteManager;
+        this.journeyManager = journeyManager;
+        this.basicRouteManagerVersion = basicRouteManagerVersion;
+        this.journeyManagerVersion = journeyManagerVersion;
+        this.stationIds = stationIds;
+        this.ranks = ranks;
+
+        for (int i = 0; i < stationIds.length; i++) {
+            stationOrdinalsById.put(stationIds[i], i);
+        }
+
+        upOffsets = rows[0];
+        upTargets = rows[1];
+        upDurations = rows[2];
+        upMiddles = rows[3];
+        downOffsets = rows[4];
+        downSources = rows[5];
+        downDurations = rows[6];
+        downMiddles = rows[7];
+    }
+
+    /**
+     * Checks if the hierarchy was built from these managers, and the <code>BasicRoute</code>s, <code>Journey</code>s and
+     * stations haven't changed since
+     *
+     * @param stationManager    the current <code>StationManager</code>
+     * @param basicRouteManager the current <code>BasicRouteManager</code>
+     * @param journeyManager    the current <code>JourneyManager</code>
+     *
+     * @return boolean
+     */
+    public boolean isCurrent(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        return this.basicRouteManager == basicRouteManager && basicRouteManager.getVersion() == basicRouteManagerVersion
+                && this.journeyManager == journeyManager && journeyManager.getVersion() == journeyManagerVersion
+                && stationManager.getDestinationStations().size() + stationManager.getIntermediateStations().size() == stationIds.length;
+    }
+
+    public int getStationCount() {
+        return stationIds.length;
+    }
+
+    /**
+     * Returns the ordinal of the station with the <code>stationId</code>, or -1 if there isn't one
+     *
+     * @param stationId the ID of a DestinationStation or IntermediateStation
+     *
+     * @return int
+     */
+    public int getStationOrdinal(final String stationId) {
+        Integer ordinal = stationOrdinalsById.get(stationId);
+
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public String getStationId(final int ordinal) {
+        return stationIds[ordinal];
+    }
+
+    /**
+     * The number of edges in the hierarchy, including shortcuts
+     *
+     * @return int
+     */
+    public int getEdgeCount() {
+        return upTargets.length + downSources.length;
+    }
+
+    /**
+     * The number of stations the last query settled, in both directions
+     *
+     * @return int
+     */
+    public int getLastSettledCount() {
+        return lastSettledCount;
+    }
+
+    /**
+     * Returns the shortest travel time in seconds from the <code>departingStationId</code> to the <code>destinationStationId</code>,
+     * or <code>UNREACHABLE</code> if either station is unknown or there is no path between them
+     *
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     *
+     * @return int
+     */
+    public int findDuration(final String departingStationId, final String destinationStationId) {
+        int from = getStationOrdinal(departingStationId);
+        int to = getStationOrdinal(destinationStationId);
+
+        if (from == -1 || to == -1) {
+            return UNREACHABLE;
+        }
+
+        return findDuration(from, to);
+    }
+
+    /**
+     * Returns the shortest travel time in seconds from <code>from</code> to <code>to</code>, or <code>UNREACHABLE</code>
+     *
+     * @param from the ordinal of the station to depart from
+     * @param to   the ordinal of the station to arrive at
+     *
+     * @return int
+     */
+    public synchronized int findDuration(final int from, final int to) {
+        int meetingStation = search(from, to);
+
+        return meetingStation == -1 ? UNREACHABLE : (int) (forwardDurations[meetingStation] + backwardDurations[meetingStation]);
+    }
+
+    /**
+     * Returns the IDs of the stations on the fastest path from the <code>departingStationId</code> to the
+     * <code>destinationStationId</code>, including both ends, with every shortcut unpacked
+     *
+     * Returns an empty list if either station is unknown or there is no path between them
+     *
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     *
+     * @return List<String>
+     */
+    public synchronized List<String> findPath(final String departingStationId, final String destinationStationId) {
+        int from = getStationOrdinal(departingStationId);
+        int to = getStationOrdinal(destinationStationId);
+        List<String> path = new ArrayList<String>();
+
+        if (from == -1 || to == -1) {
+            return path;
+        }
+
+        int meetingStation = search(from, to);
+
+        if (meetingStation == -1) {
+            return path;
+        }
+
+        List<Integer> upwardStations = new ArrayList<Integer>();
+
+        for (int station = meetingStation; station != from; ) {
+            int edge = forwardParentEdges[station];
+            int source = getUpEdgeSource(edge);
+
+            List<Integer> unpacked = new ArrayList<Integer>();
+            unpack(source, station, upMiddles[edge], unpacked);
+            Collections.reverse(unpacked);
+            upwardStations.addAll(unpacked);
+
+            station = source;
+        }
+
+        Collections.reverse(upwardStations);
+        path.add(stationIds[from]);
+
+        for (int station : upwardStations) {
+            path.add(stationIds[station]);
+        }
+
+        for (int station = meetingStation; station != to; ) {
+            int edge = backwardParentEdges[station];
+            int target = getDownEdgeTarget(edge);
+            List<Integer> unpacked = new ArrayList<Integer>();
+
+            unpack(station, target, downMiddles[edge], unpacked);
+
+            for (int unpackedStation : unpacked) {
+                path.add(stationIds[unpackedStation]);
+            }
+
+            station = target;
+        }
+
+        return path;
+    }
+
+    /**
+     * Runs the bidirectional upward search, returning the station where the fastest path meets or -1 if there isn't one
+     *
+     * @param from the ordinal of the station to depart from
+     * @param to   the ordinal of the station to arrive at
+     *
+     * @return int
+     */
+    private int search(final int from, final int to) {
+        if (forwardHeap == null) {
+            forwardDurations = new long[stationIds.length];
+            backwardDurations = new long[stationIds.length];
+            forwardStamps = new int[stationIds.length];
+            backwardStamps = new int[stationIds.length];
+            forwardParentEdges = new int[stationIds.length];
+            backwardParentEdges = new int[stationIds.length];
+            forwardHeap = new IndexedMinHeap(stationIds.length);
+            backwardHeap = new IndexedMinHeap(stationIds.length);
+        }
+
+        searchStamp++;
+        forwardHeap.clear();
+        backwardHeap.clear();
+        lastSettledCount = 0;
+
+        forwardDurations[from] = 0;
+        forwardStamps[from] = searchStamp;
+        forwardHeap.push(from, 0);
+        backwardDurations[to] = 0;
+        backwardStamps[to] = searchStamp;
+        backwardHeap.push(to, 0);
+
+        long bestDuration = Long.MAX_VALUE;
+        int meetingStation = -1;
+
+        while (!forwardHeap.isEmpty() || !backwardHeap.isEmpty()) {
+            long forwardKey = forwardHeap.isEmpty() ? Long.MAX_VALUE : forwardHeap.peekKey();
+            long backwardKey = backwardHeap.isEmpty() ? Long.MAX_VALUE : backwardHeap.peekKey();
+
+            if (Math.min(forwardKey, backwardKey) >= bestDuration) {
+                break; // neither search can find anything faster
+            }
+
+            lastSettledCount++;
+
+            if (forwardKey <= backwardKey) {
+                int station = forwardHeap.pop();
+
+                if (backwardStamps[station] == searchStamp && forwardDurations[station] + backwardDurations[station] < bestDuration) {
+                    bestDuration = forwardDurations[station] + backwardDurations[station];
+                    meetingStation = station;
+                }
+
+                for (int edge = upOffsets[station]; edge < upOffsets[station + 1]; edge++) {
+                    int target = upTargets[edge];
+                    long duration = forwardDurations[station] + upDurations[edge];
+
+                    if (forwardStamps[target] != searchStamp || duration < forwardDurations[target]) {
+                        forwardDurations[target] = duration;
+                        forwardStamps[target] = searchStamp;
+                        forwardParentEdges[target] = edge;
+                        forwardHeap.push(target, duration);
+                    }
+                }
+            } else {
+                int station = backwardHeap.pop();
+
+                if (forwardStamps[station] == searchStamp && forwardDurations[station] + backwardDurations[station] < bestDuration) {
+                    bestDuration = forwardDurations[station] + backwardDurations[station];
+                    meetingStation = station;
+                }
+
+                for (int edge = downOffsets[station]; edge < downOffsets[station + 1]; edge++) {
+                    int source = downSources[edge];
+                    long duration = backwardDurations[station] + downDurations[edge];
+
+                    if (backwardStamps[source] != searchStamp || duration < backwardDurations[source]) {
+                        backwardDurations[source] = duration;
+                        backwardStamps[source] = searchStamp;
+                        backwardParentEdges[source] = edge;
+                        backwardHeap.push(source, duration);
+                    }
+                }
+            }
+        }
+
+        return meetingStation;
+    }
+
+    /**
+     * Adds the stations after <code>source</code> on the edge to <code>target</code> to <code>stations</code>, in order,
+     * expanding the shortcut through <code>middle</code> if there is one
+     *
+     * The middle station was contracted before both ends, so the edge into it is a downward edge
+     * and the edge out of it is an upward edge
+     *
+     * @param source   the station the edge leaves
+     * @param target   the station the edge arrives at
+     * @param middle   the station the edge skips, or -1
+     * @param stations the stations to add to
+     */
+    private void unpack(final int source, final int target, final int middle, final List<Integer> stations) {
+        if (middle == -1) {
+            stations.add(target);
+
+            return;
+        }
+
+        for (int edge = downOffsets[middle]; edge < downOffsets[middle + 1]; edge++) {
+            if (downSources[edge] == source) {
+                unpack(source, middle, downMiddles[edge], stations);
+                break;
+            }
+        }
+
+        for (int edge = upOffsets[middle]; edge < upOffsets[middle + 1]; edge++) {
+            if (upTargets[edge] == target) {
+                unpack(middle, target, upMiddles[edge], stations);
+                break;
+            }
+        }
+    }
+
+    private int getUpEdgeSource(final int edge) {
+        int low = 0;
+        int high = stationIds.length;
+
+        while (low < high) { // the last station whose row starts at or before the edge
+            int middle = (low + high + 1) >>> 1;
+
+            if (upOffsets[middle] <= edge) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private int getDownEdgeTarget(final int edge) {
+        int low = 0;
+        int high = stationIds.length;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (downOffsets[middle] <= edge) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * The state of the graph while it is being contracted
+     */
+    private static class Contraction {
+        private final StationGraph graph;
+        private final int stationCount;
+
+        private final int[][] outTargets; // the edges between stations that haven't been contracted yet
+        private final int[][] outDurations;
+        private final int[][] outMiddles;
+        private final int[] outCounts;
+        private final int[][] inSources;
+        private final int[][] inDurations;
+        private final int[][] inMiddles;
+        private final int[] inCounts;
+
+        private final int[][] upEdges; // the edges of each station when it was contracted, as station, duration, middle triples
+        private final int[][] downEdges;
+
+        private final boolean[] isContracted;
+        private final int[] priorities;
+        private final int[] contractedNeighbourCounts;
+        private final int[] levels; // one more than the highest level of any contracted neighbour
+        private final int[] ranks;
+        private final int[][] shortcuts; // the shortcuts found for each station of the round, as source, target, duration triples
+
+        private final ThreadLocal<WitnessSearch> witnessSearches = new ThreadLocal<WitnessSearch>() {
+            @Override
+            protected WitnessSearch initialValue() {
+                return new WitnessSearch(stationCount);
+            }
+        };
+
+        Contraction(final StationGraph graph) {
+            this.graph = graph;
+            this.stationCount = graph.getStationCount();
+
+            outTargets = new int[stationCount][];
+            outDurations = new int[stationCount][];
+            outMiddles = new int[stationCount][];
+            outCounts = new int[stationCount];
+            inSources = new int[stationCount][];
+            inDurations = new int[stationCount][];
+            inMiddles = new int[stationCount][];
+            inCounts = new int[stationCount];
+
+            upEdges = new int[stationCount][];
+            downEdges = new int[stationCount][];
+
+            isContracted = new boolean[stationCount];
+            priorities = new int[stationCount];
+            contractedNeighbourCounts = new int[stationCount];
+            levels = new int[stationCount];
+            ranks = new int[stationCount];
+            shortcuts = new int[stationCount][];
+
+            for (int station = 0; station < stationCount; station++) {
+                outTargets[station] = new int[4];
+                outDurations[station] = new int[4];
+                outMiddles[station] = new int[4];
+                inSources[station] = new int[4];
+                inDurations[station] = new int[4];
+                inMiddles[station] = new int[4];
+            }
+
+            for (int station = 0; station < stationCount; station++) {
+                for (int edge = graph.edgeOffsets[station]; edge < graph.edgeOffsets[station + 1]; edge++) {
+                    if (graph.edgeTargets[edge] != station) {
+                        addEdge(station, graph.edgeTargets[edge], graph.edgeDurations[edge], -1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Contracts every station, returning the rank each was given
+         *
+         * @return int[]
+         */
+        int[] contract() {
+            int[] remaining = new int[stationCount];
+            int remainingCount = stationCount;
+
+            for (int station = 0; station < stationCount; station++) {
+                remaining[station] = station;
+            }
+
+            updatePriorities(remaining, remainingCount);
+
+            int rank = 0;
+            final boolean[] isSelected = new boolean[stationCount];
+            int[] round = new int[stationCount];
+            int[] neighbours = new int[stationCount];
+            boolean[] isNeighbour = new boolean[stationCount];
+
+            while (remainingCount > 0) {
+                final int[] candidates = remaining;
+
+                new ParallelLoop() {
+                    @Override
+                    void run(final int index) {
+                        int station = candidates[index];
+
+                        isSelected[station] = isLocalMinimum(station);
+                    }
+                }.invoke(remainingCount);
+
+                int roundSize = 0;
+
+                for (int i = 0; i < remainingCount; i++) {
+                    if (isSelected[remaining[i]]) {
+                        round[roundSize++] = remaining[i];
+                        isContracted[remaining[i]] = true; // witness searches skip the whole round
+                    }
+                }
+
+                final int[] roundStations = round;
+
+                new ParallelLoop() {
+                    @Override
+                    void run(final int index) {
+                        int station = roundStations[index];
+
+                        shortcuts[station] = findShortcuts(station, -1, false);
+                    }
+                }.invoke(roundSize);
+
+                int neighbourCount = 0;
+
+                for (int i = 0; i < roundSize; i++) {
+                    int station = round[i];
+
+                    ranks[station] = rank++;
+                    isSelected[station] = false;
+
+                    for (int j = 0; j < outCounts[station]; j++) {
+                        neighbourCount = addNeighbour(station, outTargets[station][j], neighbours, neighbourCount, isNeighbour);
+                    }
+
+                    for (int j = 0; j < inCounts[station]; j++) {
+                        neighbourCount = addNeighbour(station, inSources[station][j], neighbours, neighbourCount, isNeighbour);
+                    }
+
+                    removeStation(station);
+
+                    int[] stationShortcuts = shortcuts[station];
+
+                    for (int j = 1; j < stationShortcuts[0]; j += 3) {
+                        addEdge(stationShortcuts[j], stationShortcuts[j + 1], stationShortcuts[j + 2], station);
+                    }
+
+                    shortcuts[station] = null;
+                }
+
+                for (int i = 0; i < neighbourCount; i++) {
+                    isNeighbour[neighbours[i]] = false;
+                }
+
+                updatePriorities(neighbours, neighbourCount);
+
+                int nextCount = 0;
+
+                for (int i = 0; i < remainingCount; i++) {
+                    if (!isContracted[remaining[i]]) {
+                        remaining[nextCount++] = remaining[i];
+                    }
+                }
+
+                remainingCount = nextCount;
+            }
+
+            return ranks;
+        }
+
+        private int addNeighbour(final int station, final int neighbour, final int[] neighbours, final int neighbourCount, final boolean[] isNeighbour) {
+            contractedNeighbourCounts[neighbour]++;
+            levels[neighbour] = Math.max(levels[neighbour], levels[station] + 1);
+
+            if (isNeighbour[neighbour]) {
+                return neighbourCount;
+            }
+
+            isNeighbour[neighbour] = true;
+            neighbours[neighbourCount] = neighbour;
+
+            return neighbourCount + 1;
+        }
+
+        private void updatePriorities(final int[] stations, final int count) {
+            new ParallelLoop() {
+                @Override
+                void run(final int index) {
+                    int station = stations[index];
+
+                    priorities[station] = findShortcuts(station, station, true)[0] - outCounts[station] - inCounts[station] + contractedNeighbourCounts[station] + levels[station];
+                }
+            }.invoke(count);
+        }
+
+        /**
+         * Checks if <code>station</code> has a lower priority than every neighbour, breaking ties by ordinal
+         * so that neighbours are never both chosen
+         *
+         * @param station the station to check
+         *
+         * @return boolean
+         */
+        private boolean isLocalMinimum(final int station) {
+            for (int j = 0; j < outCounts[station]; j++) {
+                if (!isBefore(station, outTargets[station][j])) {
+                    return false;
+                }
+            }
+
+            for (int j = 0; j < inCounts[station]; j++) {
+                if (!isBefore(station, inSources[station][j])) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean isBefore(final int station, final int neighbour) {
+            return priorities[station] < priorities[neighbour] || (priorities[station] == priorities[neighbour] && station < neighbour);
+        }
+
+        /**
+         * Finds the shortcuts contracting <code>station</code> needs: one between each pair of neighbours with no path
+         * between them, avoiding contracted stations, at least as fast as the path through it
+         *
+         * @param station    the station being contracted
+         * @param excluded   another station to avoid, when <code>station</code> hasn't been marked as contracted
+         * @param isCounting whether to only count the shortcuts
+         *
+         * @return int[] the number of values used (or shortcuts, if counting) followed by source, target, duration triples
+         */
+        private int[] findShortcuts(final int station, final int excluded, final boolean isCounting) {
+            WitnessSearch witnessSearch = witnessSearches.get();
+            int[] found = isCounting ? new int[1] : new int[1 + 3 * 4];
+            int size = 1;
+            int shortcutCount = 0;
+            int longestOut = 0;
+
+            for (int j = 0; j < outCounts[station]; j++) {
+                longestOut = Math.max(longestOut, outDurations[station][j]);
+            }
+
+            for (int i = 0; i < inCounts[station]; i++) {
+                int source = inSources[station][i];
+                int inDuration = inDurations[station][i];
+
+                witnessSearch.search(this, source, station, excluded, (long) inDuration + longestOut, isCounting ? ESTIMATE_SETTLE_LIMIT : WITNESS_SETTLE_LIMIT);
+
+                for (int j = 0; j < outCounts[station]; j++) {
+                    int target = outTargets[station][j];
+
+                    if (target == source) {
+                        continue;
+                    }
+
+                    long duration = (long) inDuration + outDurations[station][j];
+
+                    if (witnessSearch.getDuration(target) <= duration) {
+                        continue; // a path avoiding the station is as fast
+                    }
+
+                    shortcutCount++;
+
+                    if (!isCounting) {
+                        if (size + 3 > found.length) {
+                            found = Arrays.copyOf(found, found.length * 2);
+                        }
+
+                        found[size++] = source;
+                        found[size++] = target;
+                        found[size++] = (int) duration;
+                    }
+                }
+            }
+
+            found[0] = isCounting ? shortcutCount : size;
+
+            return found;
+        }
+
+        /**
+         * Adds an edge, or lowers the duration of the edge already between the two stations
+         *
+         * @param source   the station the edge leaves
+         * @param target   the station the edge arrives at
+         * @param duration the duration in seconds
+         * @param middle   the station a shortcut skips, or -1
+         */
+        private void addEdge(final int source, final int target, final int duration, final int middle) {
+            for (int j = 0; j < outCounts[source]; j++) {
+                if (outTargets[source][j] == target) {
+                    if (duration < outDurations[source][j]) {
+                        outDurations[source][j] = duration;
+                        outMiddles[source][j] = middle;
+
+                        for (int k = 0; k < inCounts[target]; k++) {
+                            if (inSources[target][k] == source) {
+                                inDurations[target][k] = duration;
+                                inMiddles[target][k] = middle;
+                            }
+                        }
+                    }
+
+                    return;
+                }
+            }
+
+            if (outCounts[source] == outTargets[source].length) {
+                outTargets[source] = Arrays.copyOf(outTargets[source], outCounts[source] * 2);
+                outDurations[source] = Arrays.copyOf(outDurations[source], outCounts[source] * 2);
+                outMiddles[source] = Arrays.copyOf(outMiddles[source], outCounts[source] * 2);
+            }
+
+            if (inCounts[target] == inSources[target].length) {
+                inSources[target] = Arrays.copyOf(inSources[target], inCounts[target] * 2);
+                inDurations[target] = Arrays.copyOf(inDurations[target], inCounts[target] * 2);
+                inMiddles[target] = Arrays.copyOf(inMiddles[target], inCounts[target] * 2);
+            }
+
+            outTargets[source][outCounts[source]] = target;
+            outDurations[source][outCounts[source]] = duration;
+            outMiddles[source][outCounts[source]++] = middle;
+            inSources[target][inCounts[target]] = source;
+            inDurations[target][inCounts[target]] = duration;
+            inMiddles[target][inCounts[target]++] = middle;
+        }
+
+        /**
+         * Keeps the edges of a contracted <code>station</code> as its upward and downward edges, since every station
+         * still connected to it will be given a higher rank, then removes them from the graph
+         *
+         * @param station the station that has been contracted
+         */
+        private void removeStation(final int station) {
+            upEdges[station] = new int[3 * outCounts[station]];
+            downEdges[station] = new int[3 * inCounts[station]];
+
+            for (int j = 0; j < outCounts[station]; j++) {
+                int target = outTargets[station][j];
+
+                upEdges[station][3 * j] = target;
+                upEdges[station][3 * j + 1] = outDurations[station][j];
+                upEdges[station][3 * j + 2] = outMiddles[station][j];
+
+                for (int k = 0; k < inCounts[target]; k++) {
+                    if (inSources[target][k] == station) {
+                        int last = --inCounts[target];
+
+                        inSources[target][k] = inSources[target][last];
+                        inDurations[target][k] = inDurations[target][last];
+                        inMiddles[target][k] = inMiddles[target][last];
+                        break;
+                    }
+                }
+            }
+
+            for (int j = 0; j < inCounts[station]; j++) {
+                int source = inSources[station][j];
+
+                downEdges[station][3 * j] = source;
+                downEdges[station][3 * j + 1] = inDurations[station][j];
+                downEdges[station][3 * j + 2] = inMiddles[station][j];
+
+                for (int k = 0; k < outCounts[source]; k++) {
+                    if (outTargets[source][k] == station) {
+                        int last = --outCounts[source];
+
+                        outTargets[source][k] = outTargets[source][last];
+                        outDurations[source][k] = outDurations[source][last];
+                        outMiddles[source][k] = outMiddles[source][last];
+                        break;
+                    }
+                }
+            }
+
+            outTargets[station] = outDurations[station] = outMiddles[station] = null;
+            inSources[station] = inDurations[station] = inMiddles[station] = null;
+            outCounts[station] = inCounts[station] = 0;
+        }
+
+        /**
+         * Lays out the upward and downward edges kept for each station in compressed rows
+         *
+         * @return int[][]
+         */
+        int[][] buildRows() {
+            int[][] upRows = buildRows(upEdges);
+            int[][] downRows = buildRows(downEdges);
+
+            return new int[][] {upRows[0], upRows[1], upRows[2], upRows[3], downRows[0], downRows[1], downRows[2], downRows[3]};
+        }
+
+        private int[][] buildRows(final int[][] edges) {
+            int[] offsets = new int[stationCount + 1];
+
+            for (int station = 0; station < stationCount; station++) {
+                offsets[station + 1] = offsets[station] + edges[station].length / 3;
+            }
+
+            int[] stations = new int[offsets[stationCount]];
+            int[] durations = new int[stations.length];
+            int[] middles = new int[stations.length];
+
+            for (int station = 0; station < stationCount; station++) {
+                for (int j = 0, edge = offsets[station]; j < edges[station].length; j += 3, edge++) {
+                    stations[edge] = edges[station][j];
+                    durations[edge] = edges[station][j + 1];
+                    middles[edge] = edges[station][j + 2];
+                }
+            }
+
+            return new int[][] {offsets, stations, durations, middles};
+        }
+    }
+
+    /**
+     * A Dijkstra search from one station over the stations that haven't been contracted, limited in distance and size,
+     * with scratch space kept for each thread
+     */
+    private static class WitnessSearch {
+        private final long[] durations;
+        private final int[] stamps;
+        private final int[] targetStamps; // marks the stations being looked for
+        private final IndexedMinHeap heap;
+        private int stamp;
+
+        WitnessSearch(final int stationCount) {
+            durations = new long[stationCount];
+            stamps = new int[stationCount];
+            targetStamps = new int[stationCount];
+            heap = new IndexedMinHeap(stationCount);
+        }
+
+        /**
+         * Searches from <code>source</code> until every station <code>via</code> has an edge to is settled, or
+         * the search has gone further than <code>maxDuration</code> or settled <code>settleLimit</code> stations
+         *
+         * @param contraction the graph being contracted
+         * @param source      the station to search from
+         * @param via         the station being contracted, whose neighbours are looked for
+         * @param excluded    another station to avoid, or -1
+         * @param maxDuration the duration of the longest path through <code>via</code>
+         * @param settleLimit the most stations to settle
+         */
+        void search(final Contraction contraction, final int source, final int via, final int excluded, final long maxDuration, final int settleLimit) {
+            stamp++;
+            heap.clear();
+
+            int unsettledTargetCount = 0;
+
+            for (int j = 0; j < contraction.outCounts[via]; j++) {
+                if (contraction.outTargets[via][j] != source) {
+                    targetStamps[contraction.outTargets[via][j]] = stamp;
+                    unsettledTargetCount++;
+                }
+            }
+
+            durations[source] = 0;
+            stamps[source] = stamp;
+            heap.push(source, 0);
+
+            int settledCount = 0;
+
+            while (!heap.isEmpty() && unsettledTargetCount > 0 && settledCount++ < settleLimit) {
+                int station = heap.pop();
+
+                if (durations[station] > maxDuration) {
+                    break;
+                }
+
+                if (targetStamps[station] == stamp) {
+                    unsettledTargetCount--;
+                }
+
+                for (int j = 0; j < contraction.outCounts[station]; j++) {
+                    int target = contraction.outTargets[station][j];
+
+                    if (contraction.isContracted[target] || target == excluded) {
+                        continue;
+                    }
+
+                    long duration = durations[station] + contraction.outDurations[station][j];
+
+                    if (stamps[target] != stamp || duration < durations[target]) {
+                        durations[target] = duration;
+                        stamps[target] = stamp;
+                        heap.push(target, duration);
+                    }
+                }
+            }
+        }
+
+        /**
+         * The duration of the fastest path found to <code>station</code>, which may not be the fastest there is
+         *
+         * @param station the station
+         *
+         * @return long
+         */
+        long getDuration(final int station) {
+            return stamps[station] == stamp ? durations[station] : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Runs <code>run()</code> for every index below a count on the <code>ForkJoinPool.commonPool()</code>,
+     * splitting the indexes in two until there are few enough for one task
+     */
+    private abstract static class ParallelLoop {
+        abstract void run(int index);
+
+        void invoke(final int count) {
+            if (count > 0) {
+                ForkJoinPool.commonPool().invoke(new Task(0, count));
+            }
+        }
+
+        private class Task extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int from;
+            private final int to;
+
+            Task(final int from, final int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > STATIONS_PER_TASK) {
+                    int middle = (from + to) >>> 1;
+
+                    invokeAll(new Task(from, middle), new Task(middle, to));
+
+                    return;
+                }
+
+                for (int index = from; index < to; index++) {
+                    run(index);
+                }
+            }
+        }
+    }
+}
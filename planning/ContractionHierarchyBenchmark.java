@@ -0,0 +1,126 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.App;
+
+import java.util.Random;
+
+/**
+ * Compares <code>ContractionHierarchy</code> queries with a plain Dijkstra search of the same <code>StationGraph</code>
+ *
+ * With no arguments the network in resources/xml is used. Given a station count, a random network of that many
+ * stations is generated instead: a grid of lines, each station linked to its neighbours and some to a station a few lines
+ * away, which is about as well connected as a rail network is.
+ *
+ * Prints the preprocessing time, then for a number of random pairs the average query time and number of stations
+ * settled by each search, and checks that both searches found the same duration.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/12 09:40:00 $
+ */
+
+public class ContractionHierarchyBenchmark {
+    private static final int QUERY_COUNT = 1000;
+    private static final int EXPRESS_REACH = 8; // how many lines away an express service can go
+
+    public static void main(String[] args) throws Exception {
+        StationGraph graph;
+
+        if (args.length > 0) {
+            graph = createRandomGraph(Integer.parseInt(args[0]), new Random(42));
+        } else {
+            App.loadXML();
+            graph = new StationGraph(App.getStationManager(), App.getBasicRouteManager(), App.getJourneyManager());
+        }
+
+        System.out.println(graph.getStationCount() + " stations, " + graph.getEdgeCount() + " edges");
+
+        long start = System.nanoTime();
+        ContractionHierarchy contractionHierarchy = new ContractionHierarchy(graph);
+
+        System.out.printf("Preprocessing: %.1f ms, %d edges including shortcuts%n", (System.nanoTime() - start) / 1e6, contractionHierarchy.getEdgeCount());
+
+        Random random = new Random(7);
+        int[] froms = new int[QUERY_COUNT];
+        int[] tos = new int[QUERY_COUNT];
+
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            froms[i] = random.nextInt(graph.getStationCount());
+            tos[i] = random.nextInt(graph.getStationCount());
+        }
+
+        long dijkstraTime = 0;
+        long hierarchyTime = 0;
+        long dijkstraSettled = 0;
+        long hierarchySettled = 0;
+        int mismatchCount = 0;
+
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            start = System.nanoTime();
+            int expected = graph.findDuration(froms[i], tos[i]);
+            dijkstraTime += System.nanoTime() - start;
+            dijkstraSettled += graph.getLastSettledCount();
+
+            start = System.nanoTime();
+            int actual = contractionHierarchy.findDuration(froms[i], tos[i]);
+            hierarchyTime += System.nanoTime() - start;
+            hierarchySettled += contractionHierarchy.getLastSettledCount();
+
+            if (expected != actual) {
+                mismatchCount++;
+            }
+        }
+
+        System.out.printf("Dijkstra:               %8.1f us, %8.1f stations settled per query%n", dijkstraTime / 1e3 / QUERY_COUNT, (double) dijkstraSettled / QUERY_COUNT);
+        System.out.printf("Contraction hierarchy:  %8.1f us, %8.1f stations settled per query%n", hierarchyTime / 1e3 / QUERY_COUNT, (double) hierarchySettled / QUERY_COUNT);
+        System.out.println(mismatchCount == 0 ? "All durations match" : mismatchCount + " durations do not match");
+    }
+
+    /**
+     * Generates a network of lines laid out in a square, where each station is linked both ways to the next station
+     * along its line and the next line, and a few are linked to a station a few lines away like an express service
+     *
+     * @param stationCount the number of stations
+     * @param random       the source of travel times
+     *
+     * @return StationGraph
+     */
+    private static StationGraph createRandomGraph(final int stationCount, final Random random) {
+        String[] stationIds = new String[stationCount];
+        StationGraph.EdgeList edgeList = new StationGraph.EdgeList();
+        int width = (int) Math.ceil(Math.sqrt(stationCount));
+
+        for (int station = 0; station < stationCount; station++) {
+            stationIds[station] = "S" + station;
+        }
+
+        for (int station = 0; station < stationCount; station++) {
+            if ((station + 1) % width != 0 && station + 1 < stationCount) {
+                addBothWays(edgeList, station, station + 1, 60 + random.nextInt(600));
+            }
+
+            if (station + width < stationCount) {
+                addBothWays(edgeList, station, station + width, 60 + random.nextInt(600));
+            }
+
+            if (random.nextInt(10) == 0) {
+                int column = Math.min(width - 1, Math.max(0, station % width + random.nextInt(2 * EXPRESS_REACH + 1) - EXPRESS_REACH));
+                int row = station / width + random.nextInt(2 * EXPRESS_REACH + 1) - EXPRESS_REACH;
+                int target = row * width + column;
+
+                if (target >= 0 && target < stationCount && target != station) {
+                    int distance = Math.abs(column - station % width) + Math.abs(row - station / width);
+
+                    addBothWays(edgeList, station, target, distance * (200 + random.nextInt(100)));
+                }
+            }
+        }
+
+        return new StationGraph(stationIds, edgeList);
+    }
+
+    private static void addBothWays(final StationGraph.EdgeList edgeList, final int station, final int otherStation, final int duration) {
+        edgeList.add(station, otherStation, duration);
+        edgeList.add(otherStation, station, duration);
+    }
+}
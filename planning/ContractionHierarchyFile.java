@@ -0,0 +1,242 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.persistence.AtomicFiles;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A binary copy of a <code>ContractionHierarchy</code>, written alongside the XML files so that it doesn't have to be
+ * preprocessed again on every start
+ *
+ * The file contains
+ *     - a header recording the length and modification time of each XML file it was written with,
+ *       in the same way as the <code>NetworkSnapshot</code>
+ *     - the ID and rank of each station, in ordinal order
+ *     - the upward edge rows, then the downward edge rows
+ *
+ * <code>load()</code> memory-maps the file and returns null if it is missing, unreadable or stale, or if its stations
+ * aren't the stations the managers now hold, in which case the hierarchy should be built again.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/12 09:40:00 $
+ */
+
+public class ContractionHierarchyFile {
+    private static final int MAGIC = 0x54524348; // "TRCH"
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File hierarchyFile;
+    private final File[] sourceFiles;
+
+    /**
+     * @param hierarchyFile the file the hierarchy is written to and read from
+     * @param sourceFiles   the XML files the hierarchy must be kept in step with
+     */
+    public ContractionHierarchyFile(final File hierarchyFile, final File... sourceFiles) {
+        this.hierarchyFile = hierarchyFile;
+        this.sourceFiles = sourceFiles;
+    }
+
+    /**
+     * Writes the <code>contractionHierarchy</code> to the file
+     *
+     * This should be called straight after the XML files have been saved, so that the
+     * file records their new lengths and modification times
+     *
+     * @param contractionHierarchy the <code>ContractionHierarchy</code> to write
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void write(final ContractionHierarchy contractionHierarchy) throws IOException {
+        File temporaryFile = AtomicFiles.getTemporaryFile(hierarchyFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 64 * 1024));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sourceFiles.length);
+
+            for (File sourceFile : sourceFiles) {
+                out.writeLong(sourceFile.length());
+                out.writeLong(sourceFile.lastModified());
+            }
+
+            out.writeInt(contractionHierarchy.stationIds.length);
+
+            for (int i = 0; i < contractionHierarchy.stationIds.length; i++) {
+                byte[] bytes = contractionHierarchy.stationIds[i].getBytes(UTF_8);
+
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeInt(contractionHierarchy.ranks[i]);
+            }
+
+            writeRows(out, contractionHierarchy.upOffsets, contractionHierarchy.upTargets, contractionHierarchy.upDurations, contractionHierarchy.upMiddles);
+            writeRows(out, contractionHierarchy.downOffsets, contractionHierarchy.downSources, contractionHierarchy.downDurations, contractionHierarchy.downMiddles);
+        } finally {
+            out.close();
+        }
+
+        AtomicFiles.replace(temporaryFile, hierarchyFile);
+    }
+
+    /**
+     * Reads the hierarchy back for the current contents of the managers
+     *
+     * @param stationManager    the <code>StationManager</code> the hierarchy's stations must match
+     * @param basicRouteManager the <code>BasicRouteManager</code> the hierarchy will be kept in step with
+     * @param journeyManager    the <code>JourneyManager</code> the hierarchy will be kept in step with
+     *
+     * @return ContractionHierarchy the hierarchy, or null if it is missing, stale or unreadable
+     */
+    public ContractionHierarchy load(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        if (!hierarchyFile.isFile()) {
+            return null;
+        }
+
+        try {
+            MappedByteBuffer buffer = map();
+
+            if (!readHeader(buffer)) {
+                return null;
+            }
+
+            String[] expectedStationIds = StationGraph.getStationIds(stationManager);
+
+            if (buffer.getInt() != expectedStationIds.length) {
+                return null;
+            }
+
+            String[] stationIds = new String[expectedStationIds.length];
+            int[] ranks = new int[stationIds.length];
+
+            for (int i = 0; i < stationIds.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+
+                stationIds[i] = new String(bytes, UTF_8);
+                ranks[i] = buffer.getInt();
+
+                if (!stationIds[i].equals(expectedStationIds[i])) {
+                    return null; // the stations have been renumbered
+                }
+            }
+
+            int[][] upRows = readRows(buffer, stationIds.length);
+            int[][] downRows = readRows(buffer, stationIds.length);
+
+            return new ContractionHierarchy(
+                    basicRouteManager, journeyManager, basicRouteManager.getVersion(), journeyManager.getVersion(), stationIds, ranks,
+                    new int[][] {upRows[0], upRows[1], upRows[2], upRows[3], downRows[0], downRows[1], downRows[2], downRows[3]}
+            );
+        } catch (IOException e) {
+            return null;
+        } catch (BufferUnderflowException e) {
+            return null; // truncated
+        } catch (NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(hierarchyFile, "r");
+
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()); // the mapping stays valid once the file is closed
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads the header from the start of <code>buffer</code>, leaving the buffer positioned on the stations
+     * Returns false if the file isn't one of ours, or if any XML file has changed since it was written
+     *
+     * @param buffer the mapped file
+     *
+     * @return boolean
+     */
+    private boolean readHeader(final MappedByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != sourceFiles.length) {
+            return false;
+        }
+
+        boolean isCurrent = true;
+
+        for (File sourceFile : sourceFiles) {
+            long length = buffer.getLong();
+            long lastModified = buffer.getLong();
+
+            if (!sourceFile.isFile() || sourceFile.length() != length || sourceFile.lastModified() != lastModified) {
+                isCurrent = false;
+            }
+        }
+
+        return isCurrent;
+    }
+
+    private static void writeRows(final DataOutputStream out, final int[] offsets, final int[] stations, final int[] durations, final int[] middles) throws IOException {
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+
+        for (int i = 0; i < stations.length; i++) {
+            out.writeInt(stations[i]);
+            out.writeInt(durations[i]);
+            out.writeInt(middles[i]);
+        }
+    }
+
+    /**
+     * Reads rows written by <code>writeRows()</code>, checking that they only reference stations that exist
+     *
+     * @param buffer       the mapped file
+     * @param stationCount the number of stations
+     *
+     * @return int[][] the offsets, stations, durations and middles
+     *
+     * @throws IOException if the rows are corrupt
+     */
+    private static int[][] readRows(final MappedByteBuffer buffer, final int stationCount) throws IOException {
+        int[] offsets = new int[stationCount + 1];
+
+        for (int i = 0; i <= stationCount; i++) {
+            offsets[i] = buffer.getInt();
+
+            if (i == 0 ? offsets[i] != 0 : offsets[i] < offsets[i - 1]) {
+                throw new IOException("The edge rows are out of order");
+            }
+        }
+
+        int edgeCount = offsets[stationCount];
+        int[] stations = new int[edgeCount];
+        int[] durations = new int[edgeCount];
+        int[] middles = new int[edgeCount];
+
+        for (int i = 0; i < edgeCount; i++) {
+            stations[i] = buffer.getInt();
+            durations[i] = buffer.getInt();
+            middles[i] = buffer.getInt();
+
+            if (stations[i] < 0 || stations[i] >= stationCount || middles[i] < -1 || middles[i] >= stationCount) {
+                throw new IOException("An edge references a station that doesn't exist");
+            }
+        }
+
+        return new int[][] {offsets, stations, durations, middles};
+    }
+}
@@ -0,0 +1,515 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteListener;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The minimum duration in minutes between every pair of <code>DestinationStation</code>s, travelling on
+ * <code>BasicRoute</code>s without waiting between them
+ *
+ * The matrix is held in a single <code>int</code> array, <code>durations[from * stationCount + to]</code>, with stations
+ * numbered in the order the <code>StationManager</code> holds them (the same as a <code>Timetable</code>'s ordinals).
+ * It is filled by one Dijkstra search per departing station, run in parallel on the <code>ForkJoinPool.commonPool()</code>.
+ *
+ * No trip can be faster than the routes it travels on, so the matrix gives the planners an O(1) lower bound on the time
+ * left to reach the destination, which they use to prune.
+ *
+ * The matrix listens to the <code>BasicRouteManager</code> and is updated as routes change:
+ *     - a new or faster route can only shorten paths through it, so every pair is relaxed through it in O(n^2)
+ *     - a slower route can only lengthen the paths from the departing stations whose shortest path used it, so only
+ *       their searches are run again
+ * Replacing every route, or adding a route to a station that isn't in the matrix, makes it stale instead
+ * (see <code>isCurrent()</code>).
+ *
+ * The listeners run on the writer's thread, holding the <code>BasicRouteManager</code>'s lock. Each change relaxes or
+ * searches a copy of the durations and then publishes it, so a planner reading the matrix on another thread never sees
+ * a row part way through being searched again.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 18:55:00 $
+ */
+
+public class DurationMatrix implements BasicRouteListener {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int SOURCES_PER_TASK = 8; // the departing stations searched by each task before it is split no further
+
+    private final StationManager stationManager;
+    private final BasicRouteManager basicRouteManager;
+
+    private final String[] stationIds;
+    private final Map<String, Integer> stationIndexesById = new HashMap<String, Integer>();
+    private final AtomicReference<int[]> durations = new AtomicReference<int[]>(); // never changed once published
+
+    private int[] edgeOffsets; // the routes leaving each station are edgeTargets[edgeOffsets[station]] up to edgeTargets[edgeOffsets[station + 1]]
+    private int[] edgeTargets;
+    private int[] edgeDurations;
+
+    private volatile boolean isStale = false;
+
+    /**
+     * Builds the matrix and starts listening for changes to the <code>BasicRoute</code>s
+     *
+     * The <code>BasicRouteManager</code> is locked meanwhile, so that no change is made between building and listening.
+     *
+     * @param stationManager    the <code>StationManager</code> holding the <code>DestinationStation</code>s
+     * @param basicRouteManager the <code>BasicRouteManager</code> holding the <code>BasicRoute</code>s
+     */
+    public DurationMatrix(final StationManager stationManager, final BasicRouteManager basicRouteManager) {
+        this.stationManager = stationManager;
+        this.basicRouteManager = basicRouteManager;
+
+        List<DestinationStation> destinationStations = stationManager.getDestinationStations();
+
+        stationIds = new String[destinationStations.size()];
+
+        for (int i = 0; i < stationIds.length; i++) {
+            stationIds[i] = destinationStations.get(i).getId();
+            stationIndexesById.put(stationIds[i], i);
+        }
+
+        synchronized (basicRouteManager) {
+            int[] builtDurations = new int[stationIds.length * stationIds.length];
+            int[] sources = new int[stationIds.length];
+
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = i;
+            }
+
+            buildEdges();
+            search(builtDurations, sources, sources.length);
+
+            durations.set(builtDurations);
+            basicRouteManager.addBasicRouteListener(this);
+        }
+    }
+
+    /**
+     * Checks if the matrix was built from these managers, and is still up to date with them
+     *
+     * @param stationManager    the current <code>StationManager</code>
+     * @param basicRouteManager the current <code>BasicRouteManager</code>
+     *
+     * @return boolean
+     */
+    public boolean isCurrent(final StationManager stationManager, final BasicRouteManager basicRouteManager) {
+        return !isStale && this.stationManager == stationManager && this.basicRouteManager == basicRouteManager
+                && stationManager.getDestinationStations().size() == stationIds.length;
+    }
+
+    /**
+     * Stops listening for changes to the <code>BasicRoute</code>s, once the matrix has been replaced
+     */
+    public void detach() {
+        basicRouteManager.removeBasicRouteListener(this);
+    }
+
+    public int getStationCount() {
+        return stationIds.length;
+    }
+
+    /**
+     * Returns the index of the <code>DestinationStation</code> with the <code>stationId</code>, or -1 if it isn't in the matrix
+     *
+     * @param stationId the ID of the DestinationStation
+     *
+     * @return int
+     */
+    public int getStationIndex(final String stationId) {
+        Integer index = stationIndexesById.get(stationId);
+
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the minimum duration in minutes from the station at index <code>from</code> to the station at index <code>to</code>,
+     * or <code>UNREACHABLE</code>
+     *
+     * @param from the index of the station to depart from
+     * @param to   the index of the station to arrive at
+     *
+     * @return int
+     */
+    public int getMinimumDuration(final int from, final int to) {
+        return durations.get()[from * stationIds.length + to];
+    }
+
+    /**
+     * Returns the minimum duration in minutes from the <code>departingStationId</code> to the <code>destinationStationId</code>,
+     * or <code>UNREACHABLE</code> if either station is unknown or there is no path between them
+     *
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     *
+     * @return int
+     */
+    public int getMinimumDuration(final String departingStationId, final String destinationStationId) {
+        int from = getStationIndex(departingStationId);
+        int to = getStationIndex(destinationStationId);
+
+        if (from == -1 || to == -1) {
+            return UNREACHABLE;
+        }
+
+        return getMinimumDuration(from, to);
+    }
+
+    /**
+     * Fills <code>lowerBounds</code> with the least time in millis it can take to reach <code>destinationStation</code>
+     * from each station of the <code>timetable</code>, or <code>Long.MAX_VALUE</code> if it can't be reached at all
+     *
+     * Stations that aren't in the matrix, such as <code>IntermediateStation</code>s, are given a bound of 0
+     *
+     * @param timetable          the <code>Timetable</code> whose station ordinals to use
+     * @param destinationStation the ordinal of the station being planned to
+     * @param lowerBounds        filled with the bound of each station
+     */
+    void fillLowerBounds(final Timetable timetable, final int destinationStation, final long[] lowerBounds) {
+        Arrays.fill(lowerBounds, 0, timetable.getStationCount(), 0);
+
+        int to = getStationIndex(timetable.getStationId(destinationStation));
+
+        if (to == -1) {
+            return;
+        }
+
+        int[] currentDurations = durations.get(); // every bound from the same version of the matrix
+
+        for (int station = 0; station < timetable.destinationStationCount; station++) {
+            int from = getStationIndex(timetable.getStationId(station));
+
+            if (from != -1) {
+                int duration = currentDurations[from * stationIds.length + to];
+
+                lowerBounds[station] = duration == UNREACHABLE ? Long.MAX_VALUE : duration * 60000L;
+            }
+        }
+    }
+
+    @Override
+    public void basicRouteAdded(final BasicRoute basicRoute) {
+        int from = getStationIndex(basicRoute.getDepartingStationId());
+        int to = getStationIndex(basicRoute.getDestinationStationId());
+
+        if (from == -1 || to == -1) {
+            isStale = true;
+
+            return;
+        }
+
+        buildEdges();
+        durations.set(relax(from, to, basicRoute.getDuration()));
+    }
+
+    @Override
+    public void basicRouteDurationChanged(final BasicRoute basicRoute, final int previousDuration) {
+        int from = getStationIndex(basicRoute.getDepartingStationId());
+        int to = getStationIndex(basicRoute.getDestinationStationId());
+
+        if (from == -1 || to == -1) {
+            return; // the route was never part of the matrix
+        }
+
+        int previousEdgeDuration = getEdgeDuration(from, to, basicRoute, previousDuration);
+
+        buildEdges();
+
+        int edgeDuration = getEdgeDuration(from, to, basicRoute, basicRoute.getDuration());
+
+        if (edgeDuration < previousEdgeDuration) {
+            durations.set(relax(from, to, edgeDuration));
+        } else if (edgeDuration > previousEdgeDuration) {
+            durations.set(searchAffectedSources(from, to, previousEdgeDuration));
+        }
+    }
+
+    @Override
+    public void basicRoutesReset() {
+        isStale = true;
+    }
+
+    /**
+     * Returns a copy of the durations with every path that is faster through the route from <code>from</code> to
+     * <code>to</code> shortened
+     *
+     * @param from     the index of the station the route departs from
+     * @param to       the index of the station the route arrives at
+     * @param duration the duration of the route
+     *
+     * @return int[]
+     */
+    private int[] relax(final int from, final int to, final int duration) {
+        int stationCount = stationIds.length;
+        int[] durations = this.durations.get().clone();
+
+        for (int source = 0; source < stationCount; source++) {
+            int toFrom = durations[source * stationCount + from];
+
+            if (toFrom == UNREACHABLE) {
+                continue;
+            }
+
+            long toTo = (long) toFrom + duration;
+
+            for (int target = 0; target < stationCount; target++) {
+                int fromTo = durations[to * stationCount + target];
+
+                if (fromTo != UNREACHABLE && toTo + fromTo < durations[source * stationCount + target]) {
+                    durations[source * stationCount + target] = (int) (toTo + fromTo);
+                }
+            }
+        }
+
+        return durations;
+    }
+
+    /**
+     * Returns a copy of the durations with the searches run again from every station whose shortest path to
+     * <code>to</code> used the route from <code>from</code> before it got slower
+     *
+     * @param from                 the index of the station the route departs from
+     * @param to                   the index of the station the route arrives at
+     * @param previousEdgeDuration the fastest duration between the two stations before the change
+     *
+     * @return int[]
+     */
+    private int[] searchAffectedSources(final int from, final int to, final int previousEdgeDuration) {
+        int stationCount = stationIds.length;
+        int[] durations = this.durations.get().clone();
+        int[] sources = new int[stationCount];
+        int sourceCount = 0;
+
+        for (int source = 0; source < stationCount; source++) {
+            int toFrom = durations[source * stationCount + from];
+
+            if (toFrom != UNREACHABLE && (long) toFrom + previousEdgeDuration == durations[source * stationCount + to]) {
+                sources[sourceCount++] = source;
+            }
+        }
+
+        search(durations, sources, sourceCount);
+
+        return durations;
+    }
+
+    private void search(final int[] durations, final int[] sources, final int sourceCount) {
+        if (sourceCount > 0) {
+            ForkJoinPool.commonPool().invoke(new SearchTask(durations, sources, 0, sourceCount));
+        }
+    }
+
+    /**
+     * Returns the fastest route from <code>from</code> to <code>to</code>, taking <code>basicRoute</code> to have <code>duration</code>
+     *
+     * @param from       the index of the station departed from
+     * @param to         the index of the station arrived at
+     * @param basicRoute the route whose duration is changing
+     * @param duration   the duration to give it
+     *
+     * @return int
+     */
+    private int getEdgeDuration(final int from, final int to, final BasicRoute basicRoute, final int duration) {
+        int edgeDuration = UNREACHABLE;
+
+        for (BasicRoute otherBasicRoute : basicRouteManager.getBasicRoutes()) {
+            if (otherBasicRoute.getDepartingStationId().equals(stationIds[from]) && otherBasicRoute.getDestinationStationId().equals(stationIds[to])) {
+                edgeDuration = Math.min(edgeDuration, otherBasicRoute == basicRoute ? duration : otherBasicRoute.getDuration());
+            }
+        }
+
+        return edgeDuration;
+    }
+
+    private void buildEdges() {
+        List<BasicRoute> basicRoutes = basicRouteManager.getBasicRoutes();
+        int[] edgeSources = new int[basicRoutes.size()];
+        int edgeCount = 0;
+
+        for (BasicRoute basicRoute : basicRoutes) {
+            int from = getStationIndex(basicRoute.getDepartingStationId());
+
+            if (from != -1 && getStationIndex(basicRoute.getDestinationStationId()) != -1) {
+                edgeSources[edgeCount++] = from;
+            }
+        }
+
+        edgeOffsets = new int[stationIds.length + 1];
+        edgeTargets = new int[edgeCount];
+        edgeDurations = new int[edgeCount];
+
+        int[] grouped = new int[edgeCount];
+        Timetable.groupByKey(Arrays.copyOf(edgeSources, edgeCount), stationIds.length, edgeOffsets, grouped);
+
+        int[] targets = new int[edgeCount];
+        int[] routeDurations = new int[edgeCount];
+        int edge = 0;
+
+        for (BasicRoute basicRoute : basicRoutes) {
+            int from = getStationIndex(basicRoute.getDepartingStationId());
+            int to = getStationIndex(basicRoute.getDestinationStationId());
+
+            if (from != -1 && to != -1) {
+                targets[edge] = to;
+                routeDurations[edge++] = basicRoute.getDuration();
+            }
+        }
+
+        for (int i = 0; i < edgeCount; i++) {
+            edgeTargets[i] = targets[grouped[i]];
+            edgeDurations[i] = routeDurations[grouped[i]];
+        }
+    }
+
+    /**
+     * Runs the Dijkstra searches from a range of departing stations into <code>durations</code>, splitting the range
+     * in two until it is small enough
+     */
+    private class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] durations; // not yet published
+        private final int[] sources;
+        private final int from;
+        private final int to;
+
+        SearchTask(final int[] durations, final int[] sources, final int from, final int to) {
+            this.durations = durations;
+            this.sources = sources;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SOURCES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+
+                invokeAll(new SearchTask(durations, sources, from, middle), new SearchTask(durations, sources, middle, to));
+
+                return;
+            }
+
+            int stationCount = stationIds.length;
+            int[] heap = new int[stationCount]; // stations ordered by tentative duration
+            int[] heapPositions = new int[stationCount]; // the position of each station in the heap, or -1
+
+            for (int i = from; i < to; i++) {
+                searchFrom(sources[i], heap, heapPositions);
+            }
+        }
+
+        /**
+         * Fills the row of <code>source</code> with a Dijkstra search, using a binary heap indexed by station
+         *
+         * @param source        the index of the station to search from
+         * @param heap          scratch space for the heap
+         * @param heapPositions scratch space for the heap positions
+         */
+        private void searchFrom(final int source, final int[] heap, final int[] heapPositions) {
+            int stationCount = stationIds.length;
+            int row = source * stationCount;
+            int heapSize = 0;
+
+            Arrays.fill(durations, row, row + stationCount, UNREACHABLE);
+            Arrays.fill(heapPositions, -1);
+
+            durations[row + source] = 0;
+            heap[heapSize] = source;
+            heapPositions[source] = heapSize++;
+
+            while (heapSize > 0) {
+                int station = heap[0];
+
+                heapPositions[station] = -1;
+                heapSize--;
+
+                if (heapSize > 0) {
+                    heap[0] = heap[heapSize];
+                    heapPositions[heap[0]] = 0;
+                    siftDown(heap, heapPositions, heapSize, row, 0);
+                }
+
+                long duration = durations[row + station];
+
+                for (int edge = edgeOffsets[station]; edge < edgeOffsets[station + 1]; edge++) {
+                    int target = edgeTargets[edge];
+                    long targetDuration = duration + edgeDurations[edge];
+
+                    if (targetDuration >= durations[row + target]) {
+                        continue;
+                    }
+
+                    durations[row + target] = (int) targetDuration;
+
+                    if (heapPositions[target] == -1) {
+                        heap[heapSize] = target;
+                        heapPositions[target] = heapSize++;
+                    }
+
+                    siftUp(heap, heapPositions, row, heapPositions[target]);
+                }
+            }
+        }
+
+        private void siftUp(final int[] heap, final int[] heapPositions, final int row, final int position) {
+            int current = position;
+
+            while (current > 0) {
+                int parent = (current - 1) >>> 1;
+
+                if (durations[row + heap[parent]] <= durations[row + heap[current]]) {
+                    return;
+                }
+
+                swap(heap, heapPositions, current, parent);
+                current = parent;
+            }
+        }
+
+        private void siftDown(final int[] heap, final int[] heapPositions, final int heapSize, final int row, final int position) {
+            int current = position;
+
+            while (true) {
+                int smallest = current;
+                int left = 2 * current + 1;
+                int right = left + 1;
+
+                if (left < heapSize && durations[row + heap[left]] < durations[row + heap[smallest]]) {
+                    smallest = left;
+                }
+
+                if (right < heapSize && durations[row + heap[right]] < durations[row + heap[smallest]]) {
+                    smallest = right;
+                }
+
+                if (smallest == current) {
+                    return;
+                }
+
+                swap(heap, heapPositions, current, smallest);
+                current = smallest;
+            }
+        }
+
+        private void swap(final int[] heap, final int[] heapPositions, final int i, final int j) {
+            int station = heap[i];
+
+            heap[i] = heap[j];
+            heap[j] = station;
+            heapPositions[heap[i]] = i;
+            heapPositions[heap[j]] = j;
+        }
+    }
+}
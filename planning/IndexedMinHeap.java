@@ -0,0 +1,130 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of node numbers keyed by <code>long</code>s, indexed by node so a node's key can be lowered in place
+ *
+ * Used by the graph searches in place of a <code>PriorityQueue</code> of boxed entries. <code>clear()</code> only resets
+ * the nodes still in the heap, so one heap can be reused for many searches over a large graph.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/12 09:40:00 $
+ */
+
+class IndexedMinHeap {
+    private final int[] heap;
+    private final long[] keys; // by node
+    private final int[] positions; // the position of each node in the heap, or -1
+    private int size;
+
+    IndexedMinHeap(final int nodeCount) {
+        heap = new int[nodeCount];
+        keys = new long[nodeCount];
+        positions = new int[nodeCount];
+
+        Arrays.fill(positions, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Adds <code>node</code> with <code>key</code>, or lowers its key if it is already in the heap
+     *
+     * @param node the node
+     * @param key  its key, which must not be higher than its current key
+     */
+    void push(final int node, final long key) {
+        if (positions[node] == -1) {
+            heap[size] = node;
+            positions[node] = size++;
+        }
+
+        keys[node] = key;
+        siftUp(positions[node]);
+    }
+
+    /**
+     * Removes and returns the node with the lowest key
+     *
+     * @return int
+     */
+    int pop() {
+        int node = heap[0];
+
+        positions[node] = -1;
+        size--;
+
+        if (size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+
+        return node;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+
+        size = 0;
+    }
+
+    private void siftUp(final int position) {
+        int current = position;
+
+        while (current > 0) {
+            int parent = (current - 1) >>> 1;
+
+            if (keys[heap[parent]] <= keys[heap[current]]) {
+                return;
+            }
+
+            swap(current, parent);
+            current = parent;
+        }
+    }
+
+    private void siftDown(final int position) {
+        int current = position;
+
+        while (true) {
+            int smallest = current;
+            int left = 2 * current + 1;
+            int right = left + 1;
+
+            if (left < size && keys[heap[left]] < keys[heap[smallest]]) {
+                smallest = left;
+            }
+
+            if (right < size && keys[heap[right]] < keys[heap[smallest]]) {
+                smallest = right;
+            }
+
+            if (smallest == current) {
+                return;
+            }
+
+            swap(current, smallest);
+            current = smallest;
+        }
+    }
+
+    private void swap(final int i, final int j) {
+        int node = heap[i];
+
+        heap[i] = heap[j];
+        heap[j] = node;
+        positions[heap[i]] = i;
+        positions[heap[j]] = j;
+    }
+}
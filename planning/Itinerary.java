@@ -0,0 +1,72 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A trip between two stations made up of one or more <code>Leg</code>s, changing trains between each of them
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/09 13:20:00 $
+ */
+
+public class Itinerary {
+    private final List<Leg> legs;
+
+    public Itinerary(final List<Leg> legs) {
+        this.legs = Collections.unmodifiableList(new ArrayList<Leg>(legs));
+    }
+
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    public long getDepartureTime() {
+        return legs.get(0).getDepartureTime();
+    }
+
+    public long getArrivalTime() {
+        return legs.get(legs.size() - 1).getArrivalTime();
+    }
+
+    /**
+     * The number of times the passenger has to change trains
+     *
+     * @return int
+     */
+    public int getTransferCount() {
+        return legs.size() - 1;
+    }
+
+    /**
+     * The total fare of the legs in pence
+     *
+     * @return int
+     */
+    public int getFare() {
+        int fare = 0;
+
+        for (Leg leg : legs) {
+            fare += leg.getFare();
+        }
+
+        return fare;
+    }
+
+    /**
+     * Retrieves the IDs of the stations where the passenger changes trains, in the order they change at them
+     *
+     * @return List<String>
+     */
+    public List<String> getChangeStationIds() {
+        List<String> changeStationIds = new ArrayList<String>();
+
+        for (int i = 0; i < legs.size() - 1; i++) {
+            changeStationIds.add(legs.get(i).getArrivingStationId());
+        }
+
+        return changeStationIds;
+    }
+}
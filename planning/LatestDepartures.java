@@ -0,0 +1,92 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The latest time the passenger can leave every station and still reach one destination by a deadline,
+ * found by <code>ConnectionScanPlanner.findLatestDepartures()</code>
+ *
+ * Answers "when must I leave?" for any number of departing stations from the one backward scan,
+ * and builds the <code>Itinerary</code> to take from each of them.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/10 16:30:00 $
+ */
+
+public class LatestDepartures {
+    public static final long UNREACHABLE = Long.MIN_VALUE;
+
+    private final Timetable timetable;
+    private final int destinationStation;
+    private final long[] latestDepartures;
+    private final int[] departureConnections;
+    private final int[] alightConnections;
+
+    /**
+     * @param timetable            the <code>Timetable</code> that was searched
+     * @param destinationStation   the ordinal of the station arrived at
+     * @param latestDepartures     the latest time each station can be left, or <code>UNREACHABLE</code>
+     * @param departureConnections the connection each station is left on at that time, or -1
+     * @param alightConnections    the connection each trip is left after, or -1 if it isn't taken
+     */
+    LatestDepartures(final Timetable timetable, final int destinationStation, final long[] latestDepartures, final int[] departureConnections, final int[] alightConnections) {
+        this.timetable = timetable;
+        this.destinationStation = destinationStation;
+        this.latestDepartures = latestDepartures;
+        this.departureConnections = departureConnections;
+        this.alightConnections = alightConnections;
+    }
+
+    public String getDestinationStationId() {
+        return timetable.getStationId(destinationStation);
+    }
+
+    /**
+     * Returns the latest time the passenger can leave the <code>departingStationId</code> and still arrive by the deadline,
+     * or <code>UNREACHABLE</code> if the station is unknown or the destination can't be reached from it in time
+     *
+     * @param departingStationId the ID of the station to depart from
+     *
+     * @return long
+     */
+    public long getLatestDeparture(final String departingStationId) {
+        int departingStation = timetable.getStationOrdinal(departingStationId);
+
+        if (departingStation == -1 || departingStation == destinationStation) {
+            return UNREACHABLE;
+        }
+
+        return latestDepartures[departingStation];
+    }
+
+    /**
+     * Walks forward from the <code>departingStationId</code> through the connections each station is left on,
+     * building the <code>Itinerary</code> that leaves latest
+     *
+     * Returns null if the destination can't be reached from the station in time
+     *
+     * @param departingStationId the ID of the station to depart from
+     *
+     * @return Itinerary
+     */
+    public Itinerary getItinerary(final String departingStationId) {
+        if (getLatestDeparture(departingStationId) == UNREACHABLE) {
+            return null;
+        }
+
+        List<Leg> legs = new ArrayList<Leg>();
+        int station = timetable.getStationOrdinal(departingStationId);
+
+        while (station != destinationStation) {
+            int boardConnection = departureConnections[station];
+            int alightConnection = alightConnections[timetable.connectionTrips[boardConnection]];
+
+            legs.add(timetable.createLeg(boardConnection, alightConnection));
+            station = timetable.connectionArrivalStations[alightConnection];
+        }
+
+        return new Itinerary(legs);
+    }
+}
@@ -0,0 +1,64 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+
+/**
+ * One part of an <code>Itinerary</code>, spent on a single <code>Journey</code> between two stations
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/09 13:20:00 $
+ */
+
+public class Leg {
+    private final String journeyId;
+    private final BasicRoute basicRoute;
+    private final String departingStationId;
+    private final String arrivingStationId;
+    private final long departureTime;
+    private final long arrivalTime;
+    private final int fare; // pence
+
+    public Leg(final String journeyId, final BasicRoute basicRoute, final String departingStationId, final String arrivingStationId, final long departureTime, final long arrivalTime, final int fare) {
+        this.journeyId = journeyId;
+        this.basicRoute = basicRoute;
+        this.departingStationId = departingStationId;
+        this.arrivingStationId = arrivingStationId;
+        this.departureTime = departureTime;
+        this.arrivalTime = arrivalTime;
+        this.fare = fare;
+    }
+
+    public String getJourneyId() {
+        return journeyId;
+    }
+
+    public BasicRoute getBasicRoute() {
+        return basicRoute;
+    }
+
+    public String getDepartingStationId() {
+        return departingStationId;
+    }
+
+    public String getArrivingStationId() {
+        return arrivingStationId;
+    }
+
+    public long getDepartureTime() {
+        return departureTime;
+    }
+
+    public long getArrivalTime() {
+        return arrivalTime;
+    }
+
+    /**
+     * The single fare of the leg in pence, including the end of month discount
+     *
+     * @return int
+     */
+    public int getFare() {
+        return fare;
+    }
+}
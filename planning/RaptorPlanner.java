@@ -0,0 +1,631 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Plans the <code>Itinerary</code>s between two stations that are Pareto-optimal on arrival time, number of changes
+ * and fare, using a round-based (McRAPTOR) search over the <code>Timetable</code>'s patterns
+ *
+ * Round <code>k</code> finds the stations that can be reached on <code>k</code> trains. Each station holds a bag of
+ * labels (arrival time and fare) that no other label reached in the same or an earlier round beats on both, and only
+ * the patterns calling at a station that gained a label in the previous round are scanned. A pattern is scanned once
+ * per round from the first such station, carrying a bag of the trips that have been boarded so far, so a trip boarded
+ * earlier on with a lower fare doesn't hide a later one. The earliest trip that can be boarded and the earliest
+ * discounted trip after it are both carried, as either could be worth taking.
+ *
+ * Labels are also pruned against the labels at the destination, since changing trains never makes a trip arrive
+ * earlier or cost less. Given a <code>DurationMatrix</code>, the least time left to reach the destination is added first.
+ *
+ * Labels, bags and the patterns queued for a round are held in primitive arrays that are kept between queries, so a
+ * query only allocates the <code>Itinerary</code>s it returns. Queries on the same planner are therefore run one at a time.
+ *
+ * Within a round every pattern is scanned against the labels of the previous round, so the scans are independent of
+ * each other and can be run in parallel when there are enough patterns; their results are merged into the bags afterwards.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 18:55:00 $
+ */
+
+public class RaptorPlanner {
+    public static final int DEFAULT_MAX_TRANSFERS = 3;
+
+    private static final int PARALLEL_PATTERN_THRESHOLD = 64; // the fewest patterns worth giving to another thread
+
+    private final Timetable timetable;
+    private final DurationMatrix durationMatrix;
+    private final boolean isParallel;
+
+    private long[] labelArrivals = new long[64];
+    private int[] labelFares = new int[64];
+    private int[] labelRounds = new int[64];
+    private int[] labelParents = new int[64]; // the label the trip was boarded from, or -1 for the departing station
+    private int[] labelTrips = new int[64];
+    private int[] labelBoardStopIndexes = new int[64];
+    private int[] labelAlightStopIndexes = new int[64];
+    private int[] labelNextInRound = new int[64]; // the next label reached at the same station in the same round, or -1
+    private boolean[] labelDominated = new boolean[64];
+    private int labelCount;
+
+    private final int[][] stationBags;
+    private final int[] stationBagSizes;
+    private final int[] stationRoundHeads; // the first label each station gained in the previous round, or -1
+    private final int[] markedStations;
+    private final boolean[] isMarked;
+    private int markedStationCount;
+
+    private final int[] touchedStations; // the stations with a bag to clear before the next query
+    private int touchedStationCount;
+
+    private final int[] patternFirstStopIndexes; // the stop each queued pattern is scanned from, or -1
+    private final int[] queuedPatterns;
+    private int queuedPatternCount;
+
+    private int[] destinationLabels = new int[16];
+    private int destinationLabelCount;
+
+    private final RouteScan[] routeScans;
+
+    private final long[] lowerBounds; // the least time left to the destination from each station
+
+    public RaptorPlanner(final Timetable timetable) {
+        this(timetable, null, false);
+    }
+
+    public RaptorPlanner(final Timetable timetable, final boolean isParallel) {
+        this(timetable, null, isParallel);
+    }
+
+    /**
+     * @param timetable      the <code>Timetable</code> to search
+     * @param durationMatrix the minimum durations between stations, used to prune labels that can't beat the labels
+     *                       at the destination, or null to prune on arrival alone
+     * @param isParallel     whether to scan the patterns of a round on the <code>ForkJoinPool.commonPool()</code>
+     */
+    public RaptorPlanner(final Timetable timetable, final DurationMatrix durationMatrix, final boolean isParallel) {
+        this.timetable = timetable;
+        this.durationMatrix = durationMatrix;
+        this.isParallel = isParallel;
+
+        int stationCount = timetable.getStationCount();
+        int patternCount = timetable.patternBasicRoutes.length;
+
+        stationBags = new int[stationCount][];
+        stationBagSizes = new int[stationCount];
+        stationRoundHeads = new int[stationCount];
+        markedStations = new int[stationCount];
+        isMarked = new boolean[stationCount];
+        touchedStations = new int[stationCount];
+        lowerBounds = new long[stationCount];
+
+        for (int station = 0; station < stationCount; station++) {
+            stationBags[station] = new int[4];
+        }
+
+        Arrays.fill(stationRoundHeads, -1);
+
+        patternFirstStopIndexes = new int[patternCount];
+        queuedPatterns = new int[patternCount];
+
+        Arrays.fill(patternFirstStopIndexes, -1);
+
+        routeScans = new RouteScan[isParallel ? Math.max(1, ForkJoinPool.getCommonPoolParallelism()) : 1];
+
+        for (int i = 0; i < routeScans.length; i++) {
+            routeScans[i] = new RouteScan();
+        }
+    }
+
+    public List<Itinerary> findParetoOptimal(final String departingStationId, final String destinationStationId, final long departingAfter) {
+        return findParetoOptimal(departingStationId, destinationStationId, departingAfter, DEFAULT_MAX_TRANSFERS);
+    }
+
+    /**
+     * Finds the <code>Itinerary</code>s from the <code>departingStationId</code> to the <code>destinationStationId</code>,
+     * leaving strictly after <code>departingAfter</code>, that no other itinerary beats on arrival time, number of
+     * changes and fare all at once. They are sorted by arrival time, then changes, then fare.
+     *
+     * Returns an empty list if either station is unknown, or the destination can't be reached
+     *
+     * @param departingStationId   the ID of the station to depart from
+     * @param destinationStationId the ID of the station to arrive at
+     * @param departingAfter       the time to leave after
+     * @param maxTransfers         the most times the passenger will change trains
+     *
+     * @return List<Itinerary>
+     */
+    public synchronized List<Itinerary> findParetoOptimal(final String departingStationId, final String destinationStationId, final long departingAfter, final int maxTransfers) {
+        int departingStation = timetable.getStationOrdinal(departingStationId);
+        int destinationStation = timetable.getStationOrdinal(destinationStationId);
+
+        if (departingStation == -1 || destinationStation == -1 || departingStation == destinationStation) {
+            return new ArrayList<Itinerary>();
+        }
+
+        reset();
+
+        if (durationMatrix != null) {
+            durationMatrix.fillLowerBounds(timetable, destinationStation, lowerBounds);
+        }
+
+        // boarding needs a departure at or after the arrival, so arriving just after departingAfter leaves strictly after it
+        int departingLabel = addLabel(departingAfter + 1, 0, 0, -1, -1, -1, -1);
+
+        addToBag(departingStation, departingLabel);
+        markStation(departingStation, departingLabel);
+
+        for (int round = 1; round <= maxTransfers + 1 && markedStationCount > 0; round++) {
+            queuePatterns();
+            scanPatterns(destinationStation);
+
+            for (int i = 0; i < queuedPatternCount; i++) {
+                patternFirstStopIndexes[queuedPatterns[i]] = -1;
+            }
+
+            for (int i = 0; i < markedStationCount; i++) {
+                stationRoundHeads[markedStations[i]] = -1;
+                isMarked[markedStations[i]] = false;
+            }
+
+            markedStationCount = 0;
+
+            for (RouteScan routeScan : routeScans) {
+                routeScan.mergeCandidates(round, destinationStation);
+            }
+        }
+
+        return buildItineraries();
+    }
+
+    /**
+     * Queues every pattern calling at a station marked in the previous round, to be scanned from the first marked stop
+     */
+    private void queuePatterns() {
+        queuedPatternCount = 0;
+
+        for (int i = 0; i < markedStationCount; i++) {
+            int station = markedStations[i];
+
+            for (int j = timetable.stationPatternOffsets[station]; j < timetable.stationPatternOffsets[station + 1]; j++) {
+                int pattern = timetable.stationPatterns[j];
+                int stopIndex = timetable.stationPatternStopIndexes[j];
+
+                if (stopIndex == timetable.getStopCount(pattern) - 1) {
+                    continue; // no trip can be boarded at the last stop
+                }
+
+                if (patternFirstStopIndexes[pattern] == -1) {
+                    queuedPatterns[queuedPatternCount++] = pattern;
+                    patternFirstStopIndexes[pattern] = stopIndex;
+                } else if (stopIndex < patternFirstStopIndexes[pattern]) {
+                    patternFirstStopIndexes[pattern] = stopIndex;
+                }
+            }
+        }
+    }
+
+    private void scanPatterns(final int destinationStation) {
+        int chunkCount = Math.min(routeScans.length, queuedPatternCount / PARALLEL_PATTERN_THRESHOLD);
+
+        for (RouteScan routeScan : routeScans) {
+            routeScan.candidateCount = 0;
+        }
+
+        if (chunkCount <= 1) {
+            routeScans[0].scan(0, queuedPatternCount, destinationStation);
+
+            return;
+        }
+
+        List<RouteScanTask> tasks = new ArrayList<RouteScanTask>(chunkCount);
+
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            tasks.add(new RouteScanTask(
+                    routeScans[chunk],
+                    (int) ((long) queuedPatternCount * chunk / chunkCount),
+                    (int) ((long) queuedPatternCount * (chunk + 1) / chunkCount),
+                    destinationStation
+            ));
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Checks if a label at <code>station</code> arriving at <code>arrival</code> for <code>fare</code> is beaten by
+     * a label already at the station, or at the destination once the least time left to get there is added
+     *
+     * @param station            the station reached
+     * @param destinationStation the station being planned to
+     * @param arrival            the time the station is reached
+     * @param fare               the fare paid to reach it
+     *
+     * @return boolean
+     */
+    private boolean isDominated(final int station, final int destinationStation, final long arrival, final int fare) {
+        if (isDominatedInBag(station, arrival, fare)) {
+            return true;
+        }
+
+        if (station == destinationStation) {
+            return false;
+        }
+
+        long lowerBound = lowerBounds[station];
+
+        return lowerBound == Long.MAX_VALUE || isDominatedInBag(destinationStation, arrival + lowerBound, fare);
+    }
+
+    private boolean isDominatedInBag(final int station, final long arrival, final int fare) {
+        int[] bag = stationBags[station];
+
+        for (int i = 0; i < stationBagSizes[station]; i++) {
+            if (labelArrivals[bag[i]] <= arrival && labelFares[bag[i]] <= fare) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds <code>label</code> to the bag of <code>station</code>, removing the labels it beats
+     *
+     * The removed labels are kept in the pool, as later labels may have been reached from them
+     *
+     * @param station the station reached
+     * @param label   the label that isn't dominated by any in the bag
+     */
+    private void addToBag(final int station, final int label) {
+        int[] bag = stationBags[station];
+        int size = 0;
+
+        if (stationBagSizes[station] == 0) {
+            touchedStations[touchedStationCount++] = station;
+        }
+
+        for (int i = 0; i < stationBagSizes[station]; i++) {
+            if (labelArrivals[label] <= labelArrivals[bag[i]] && labelFares[label] <= labelFares[bag[i]]) {
+                labelDominated[bag[i]] = true;
+            } else {
+                bag[size++] = bag[i];
+            }
+        }
+
+        if (size == bag.length) {
+            bag = stationBags[station] = Arrays.copyOf(bag, bag.length * 2);
+        }
+
+        bag[size++] = label;
+        stationBagSizes[station] = size;
+    }
+
+    private void markStation(final int station, final int label) {
+        labelNextInRound[label] = stationRoundHeads[station];
+        stationRoundHeads[station] = label;
+
+        if (!isMarked[station]) {
+            isMarked[station] = true;
+            markedStations[markedStationCount++] = station;
+        }
+    }
+
+    private int addLabel(final long arrival, final int fare, final int round, final int parent, final int trip, final int boardStopIndex, final int alightStopIndex) {
+        if (labelCount == labelArrivals.length) {
+            int capacity = labelCount * 2;
+
+            labelArrivals = Arrays.copyOf(labelArrivals, capacity);
+            labelFares = Arrays.copyOf(labelFares, capacity);
+            labelRounds = Arrays.copyOf(labelRounds, capacity);
+            labelParents = Arrays.copyOf(labelParents, capacity);
+            labelTrips = Arrays.copyOf(labelTrips, capacity);
+            labelBoardStopIndexes = Arrays.copyOf(labelBoardStopIndexes, capacity);
+            labelAlightStopIndexes = Arrays.copyOf(labelAlightStopIndexes, capacity);
+            labelNextInRound = Arrays.copyOf(labelNextInRound, capacity);
+            labelDominated = Arrays.copyOf(labelDominated, capacity);
+        }
+
+        int label = labelCount++;
+
+        labelArrivals[label] = arrival;
+        labelFares[label] = fare;
+        labelRounds[label] = round;
+        labelParents[label] = parent;
+        labelTrips[label] = trip;
+        labelBoardStopIndexes[label] = boardStopIndex;
+        labelAlightStopIndexes[label] = alightStopIndex;
+        labelNextInRound[label] = -1;
+        labelDominated[label] = false;
+
+        return label;
+    }
+
+    private void reset() {
+        for (int i = 0; i < touchedStationCount; i++) {
+            stationBagSizes[touchedStations[i]] = 0;
+        }
+
+        for (int i = 0; i < markedStationCount; i++) {
+            stationRoundHeads[markedStations[i]] = -1;
+            isMarked[markedStations[i]] = false;
+        }
+
+        touchedStationCount = 0;
+        markedStationCount = 0;
+        labelCount = 0;
+        destinationLabelCount = 0;
+    }
+
+    /**
+     * Builds an <code>Itinerary</code> for each label that reached the destination and isn't beaten on arrival time,
+     * changes and fare by another
+     *
+     * @return List<Itinerary>
+     */
+    private List<Itinerary> buildItineraries() {
+        List<Itinerary> itineraries = new ArrayList<Itinerary>();
+
+        for (int i = 0; i < destinationLabelCount; i++) {
+            int label = destinationLabels[i];
+
+            if (!isParetoOptimal(i)) {
+                continue;
+            }
+
+            List<Leg> legs = new ArrayList<Leg>();
+
+            for (int current = label; labelParents[current] != -1; current = labelParents[current]) {
+                legs.add(timetable.createLeg(labelTrips[current], labelBoardStopIndexes[current], labelAlightStopIndexes[current]));
+            }
+
+            Collections.reverse(legs);
+            itineraries.add(new Itinerary(legs));
+        }
+
+        Collections.sort(itineraries, new Comparator<Itinerary>() {
+            @Override
+            public int compare(final Itinerary itinerary1, final Itinerary itinerary2) {
+                if (itinerary1.getArrivalTime() != itinerary2.getArrivalTime()) {
+                    return itinerary1.getArrivalTime() < itinerary2.getArrivalTime() ? -1 : 1;
+                }
+
+                if (itinerary1.getTransferCount() != itinerary2.getTransferCount()) {
+                    return itinerary1.getTransferCount() - itinerary2.getTransferCount();
+                }
+
+                return itinerary1.getFare() - itinerary2.getFare();
+            }
+        });
+
+        return itineraries;
+    }
+
+    /**
+     * Checks that no other label at the destination is at least as good on every criterion, keeping only the first of equal labels
+     *
+     * @param index the index of the label within <code>destinationLabels</code>
+     *
+     * @return boolean
+     */
+    private boolean isParetoOptimal(final int index) {
+        int label = destinationLabels[index];
+
+        for (int i = 0; i < destinationLabelCount; i++) {
+            int other = destinationLabels[i];
+
+            if (i == index || labelArrivals[other] > labelArrivals[label] || labelRounds[other] > labelRounds[label] || labelFares[other] > labelFares[label]) {
+                continue;
+            }
+
+            boolean isEqual = labelArrivals[other] == labelArrivals[label] && labelRounds[other] == labelRounds[label] && labelFares[other] == labelFares[label];
+
+            if (!isEqual || i < index) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The scratch space for scanning a share of a round's patterns, collecting the labels they reach
+     * to be merged into the bags once every pattern has been scanned
+     */
+    private class RouteScan {
+        private int[] routeBagTripIndexes = new int[8]; // indexes into Timetable.patternTrips
+        private int[] routeBagFares = new int[8];
+        private int[] routeBagParents = new int[8];
+        private int[] routeBagBoardStopIndexes = new int[8];
+        private int routeBagSize;
+
+        private long[] candidateArrivals = new long[64];
+        private int[] candidateFares = new int[64];
+        private int[] candidateParents = new int[64];
+        private int[] candidateTrips = new int[64];
+        private int[] candidateBoardStopIndexes = new int[64];
+        private int[] candidateAlightStopIndexes = new int[64];
+        private int[] candidateStations = new int[64];
+        private int candidateCount;
+
+        void scan(final int from, final int to, final int destinationStation) {
+            for (int i = from; i < to; i++) {
+                scanPattern(queuedPatterns[i], destinationStation);
+            }
+        }
+
+        /**
+         * Travels along <code>pattern</code> from its first marked stop, leaving the boarded trips at each stop
+         * before boarding trips from the labels gained at it in the previous round
+         *
+         * @param pattern            the pattern to scan
+         * @param destinationStation the station being planned to
+         */
+        private void scanPattern(final int pattern, final int destinationStation) {
+            int stopCount = timetable.getStopCount(pattern);
+            int[] patternTrips = timetable.patternTrips;
+
+            routeBagSize = 0;
+
+            for (int stopIndex = patternFirstStopIndexes[pattern]; stopIndex < stopCount; stopIndex++) {
+                int station = timetable.getStop(pattern, stopIndex);
+
+                for (int i = 0; i < routeBagSize; i++) {
+                    int trip = patternTrips[routeBagTripIndexes[i]];
+                    long arrival = timetable.getArrivalTime(trip, stopIndex);
+
+                    if (!isDominated(station, destinationStation, arrival, routeBagFares[i])) {
+                        addCandidate(arrival, routeBagFares[i], routeBagParents[i], trip, routeBagBoardStopIndexes[i], stopIndex, station);
+                    }
+                }
+
+                if (stopIndex == stopCount - 1) {
+                    break;
+                }
+
+                for (int label = stationRoundHeads[station]; label != -1; label = labelNextInRound[label]) {
+                    if (labelDominated[label]) {
+                        continue;
+                    }
+
+                    int tripIndex = timetable.indexOfFirstTripDeparting(pattern, stopIndex, labelArrivals[label]);
+
+                    if (tripIndex == -1) {
+                        continue;
+                    }
+
+                    addToRouteBag(tripIndex, labelFares[label] + timetable.tripFares[patternTrips[tripIndex]], label, stopIndex);
+
+                    int discountedTripIndex = timetable.patternNextDiscountedTrips[tripIndex];
+
+                    if (discountedTripIndex != -1 && discountedTripIndex != tripIndex) {
+                        addToRouteBag(discountedTripIndex, labelFares[label] + timetable.tripFares[patternTrips[discountedTripIndex]], label, stopIndex);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Carries a boarded trip along the pattern, unless an earlier or same trip has been boarded for no more
+         *
+         * The trips of a pattern keep their order at every stop, so an earlier trip arrives earlier everywhere after
+         *
+         * @param tripIndex      the index of the trip within <code>Timetable.patternTrips</code>
+         * @param fare           the fare paid once the trip is boarded
+         * @param parent         the label the trip is boarded from
+         * @param boardStopIndex the stop the trip is boarded at
+         */
+        private void addToRouteBag(final int tripIndex, final int fare, final int parent, final int boardStopIndex) {
+            int size = 0;
+
+            for (int i = 0; i < routeBagSize; i++) {
+                if (routeBagTripIndexes[i] <= tripIndex && routeBagFares[i] <= fare) {
+                    return;
+                }
+            }
+
+            for (int i = 0; i < routeBagSize; i++) {
+                if (tripIndex > routeBagTripIndexes[i] || fare > routeBagFares[i]) {
+                    routeBagTripIndexes[size] = routeBagTripIndexes[i];
+                    routeBagFares[size] = routeBagFares[i];
+                    routeBagParents[size] = routeBagParents[i];
+                    routeBagBoardStopIndexes[size++] = routeBagBoardStopIndexes[i];
+                }
+            }
+
+            if (size == routeBagTripIndexes.length) {
+                routeBagTripIndexes = Arrays.copyOf(routeBagTripIndexes, size * 2);
+                routeBagFares = Arrays.copyOf(routeBagFares, size * 2);
+                routeBagParents = Arrays.copyOf(routeBagParents, size * 2);
+                routeBagBoardStopIndexes = Arrays.copyOf(routeBagBoardStopIndexes, size * 2);
+            }
+
+            routeBagTripIndexes[size] = tripIndex;
+            routeBagFares[size] = fare;
+            routeBagParents[size] = parent;
+            routeBagBoardStopIndexes[size++] = boardStopIndex;
+            routeBagSize = size;
+        }
+
+        private void addCandidate(final long arrival, final int fare, final int parent, final int trip, final int boardStopIndex, final int alightStopIndex, final int station) {
+            if (candidateCount == candidateArrivals.length) {
+                int capacity = candidateCount * 2;
+
+                candidateArrivals = Arrays.copyOf(candidateArrivals, capacity);
+                candidateFares = Arrays.copyOf(candidateFares, capacity);
+                candidateParents = Arrays.copyOf(candidateParents, capacity);
+                candidateTrips = Arrays.copyOf(candidateTrips, capacity);
+                candidateBoardStopIndexes = Arrays.copyOf(candidateBoardStopIndexes, capacity);
+                candidateAlightStopIndexes = Arrays.copyOf(candidateAlightStopIndexes, capacity);
+                candidateStations = Arrays.copyOf(candidateStations, capacity);
+            }
+
+            candidateArrivals[candidateCount] = arrival;
+            candidateFares[candidateCount] = fare;
+            candidateParents[candidateCount] = parent;
+            candidateTrips[candidateCount] = trip;
+            candidateBoardStopIndexes[candidateCount] = boardStopIndex;
+            candidateAlightStopIndexes[candidateCount] = alightStopIndex;
+            candidateStations[candidateCount++] = station;
+        }
+
+        /**
+         * Adds the candidates that still aren't beaten to the bags, marking their stations for the next round
+         *
+         * @param round              the round the candidates were reached in
+         * @param destinationStation the station being planned to
+         */
+        void mergeCandidates(final int round, final int destinationStation) {
+            for (int i = 0; i < candidateCount; i++) {
+                int station = candidateStations[i];
+
+                if (isDominated(station, destinationStation, candidateArrivals[i], candidateFares[i])) {
+                    continue;
+                }
+
+                int label = addLabel(candidateArrivals[i], candidateFares[i], round, candidateParents[i], candidateTrips[i], candidateBoardStopIndexes[i], candidateAlightStopIndexes[i]);
+
+                addToBag(station, label);
+
+                if (station == destinationStation) {
+                    if (destinationLabelCount == destinationLabels.length) {
+                        destinationLabels = Arrays.copyOf(destinationLabels, destinationLabelCount * 2);
+                    }
+
+                    destinationLabels[destinationLabelCount++] = label;
+                } else {
+                    markStation(station, label);
+                }
+            }
+
+            candidateCount = 0;
+        }
+    }
+
+    private class RouteScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RouteScan routeScan;
+        private final int from;
+        private final int to;
+        private final int destinationStation;
+
+        RouteScanTask(final RouteScan routeScan, final int from, final int to, final int destinationStation) {
+            this.routeScan = routeScan;
+            this.from = from;
+            this.to = to;
+            this.destinationStation = destinationStation;
+        }
+
+        @Override
+        protected void compute() {
+            routeScan.scan(from, to, destinationStation);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the direct rides between any two stops of a trip, boarding and alighting at intermediate stations as well as
+ * at the ends of a <code>BasicRoute</code>
+ *
+ * The <code>Timetable</code> indexes every station by the calling patterns that call at it, and the position it is
+ * called at. Each calling pattern that calls at the boarding station, and at the alighting station after it, is a
+ * range of trips in departure order, so the rides of each pattern are found by binary search without visiting any
+ * other trip.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/13 10:15:00 $
+ */
+
+public class SegmentPlanner {
+    private final Timetable timetable;
+
+    public SegmentPlanner(final Timetable timetable) {
+        this.timetable = timetable;
+    }
+
+    /**
+     * Finds up to <code>count</code> rides from the <code>boardingStationId</code> to the <code>alightingStationId</code>
+     * on a single trip, leaving strictly after <code>departingAfter</code>, sorted by departure
+     *
+     * Returns an empty list if either station is unknown
+     *
+     * @param boardingStationId  the ID of the station to board at
+     * @param alightingStationId the ID of the station to alight at
+     * @param departingAfter     the time to leave after
+     * @param count              the most rides to return
+     *
+     * @return List<Leg>
+     */
+    public List<Leg> findSegments(final String boardingStationId, final String alightingStationId, final long departingAfter, final int count) {
+        List<Leg> segments = new ArrayList<Leg>();
+
+        for (int[] callingPatternStops : findCallingPatterns(boardingStationId, alightingStationId)) {
+            int callingPattern = callingPatternStops[0];
+            int fromIndex = timetable.indexOfFirstCallingTripDepartingAfter(callingPattern, callingPatternStops[1], departingAfter);
+            int toIndex = (int) Math.min((long) fromIndex + count, timetable.callingPatternTripOffsets[callingPattern + 1]);
+
+            for (int i = fromIndex; i < toIndex; i++) {
+                segments.add(timetable.createCallingLeg(timetable.callingPatternTrips[i], callingPatternStops[1], callingPatternStops[2]));
+            }
+        }
+
+        sortByDeparture(segments);
+
+        return segments.size() > count ? new ArrayList<Leg>(segments.subList(0, count)) : segments;
+    }
+
+    /**
+     * Finds up to <code>count</code> rides from the <code>boardingStationId</code> to the <code>alightingStationId</code>
+     * on a single trip, arriving at or before <code>arrivingBy</code> and leaving strictly after <code>departingAfter</code>,
+     * keeping those arriving latest and sorting them by departure
+     *
+     * Returns an empty list if either station is unknown
+     *
+     * @param boardingStationId  the ID of the station to board at
+     * @param alightingStationId the ID of the station to alight at
+     * @param arrivingBy         the time to arrive by
+     * @param departingAfter     the time to leave after
+     * @param count              the most rides to return
+     *
+     * @return List<Leg>
+     */
+    public List<Leg> findSegmentsArrivingBy(final String boardingStationId, final String alightingStationId, final long arrivingBy, final long departingAfter, final int count) {
+        List<Leg> segments = new ArrayList<Leg>();
+
+        for (int[] callingPatternStops : findCallingPatterns(boardingStationId, alightingStationId)) {
+            int callingPattern = callingPatternStops[0];
+            int firstIndex = timetable.callingPatternTripOffsets[callingPattern];
+            int toIndex = timetable.indexOfFirstCallingTripArrivingAfter(callingPattern, callingPatternStops[2], arrivingBy);
+
+            for (int i = toIndex - 1; i >= firstIndex && toIndex - i <= count; i--) {
+                int trip = timetable.callingPatternTrips[i];
+
+                if (timetable.getCallingDepartureTime(trip, callingPatternStops[1]) <= departingAfter) {
+                    break; // every earlier trip leaves earlier too
+                }
+
+                segments.add(timetable.createCallingLeg(trip, callingPatternStops[1], callingPatternStops[2]));
+            }
+        }
+
+        Collections.sort(segments, new Comparator<Leg>() {
+            @Override
+            public int compare(final Leg leg, final Leg otherLeg) {
+                return Long.compare(otherLeg.getArrivalTime(), leg.getArrivalTime());
+            }
+        });
+
+        List<Leg> latestSegments = segments.size() > count ? new ArrayList<Leg>(segments.subList(0, count)) : segments;
+
+        sortByDeparture(latestSegments);
+
+        return latestSegments;
+    }
+
+    /**
+     * Lists the calling patterns that call at the boarding station and later at the alighting station, each as its
+     * calling pattern, the position of the boarding station and the position of the alighting station
+     *
+     * @param boardingStationId  the ID of the station to board at
+     * @param alightingStationId the ID of the station to alight at
+     *
+     * @return List<int[]>
+     */
+    private List<int[]> findCallingPatterns(final String boardingStationId, final String alightingStationId) {
+        int boardingStation = timetable.getStationOrdinal(boardingStationId);
+        int alightingStation = timetable.getStationOrdinal(alightingStationId);
+        List<int[]> callingPatterns = new ArrayList<int[]>();
+
+        if (boardingStation == -1 || alightingStation == -1 || boardingStation == alightingStation) {
+            return callingPatterns;
+        }
+
+        for (int i = timetable.stationCallingPatternOffsets[boardingStation]; i < timetable.stationCallingPatternOffsets[boardingStation + 1]; i++) {
+            int callingPattern = timetable.stationCallingPatterns[i];
+            int boardStopIndex = timetable.stationCallingPatternStopIndexes[i];
+
+            for (int alightStopIndex = boardStopIndex + 1; alightStopIndex < timetable.getCallingStopCount(callingPattern); alightStopIndex++) {
+                if (timetable.getCallingStop(callingPattern, alightStopIndex) == alightingStation) {
+                    callingPatterns.add(new int[] {callingPattern, boardStopIndex, alightStopIndex});
+
+                    break;
+                }
+            }
+        }
+
+        return callingPatterns;
+    }
+
+    /**
+     * Sorts <code>segments</code> by departure, then by arrival
+     *
+     * @param segments the rides to sort
+     */
+    private static void sortByDeparture(final List<Leg> segments) {
+        Collections.sort(segments, new Comparator<Leg>() {
+            @Override
+            public int compare(final Leg leg, final Leg otherLeg) {
+                int comparison = Long.compare(leg.getDepartureTime(), otherLeg.getDepartureTime());
+
+                return comparison != 0 ? comparison : Long.compare(leg.getArrivalTime(), otherLeg.getArrivalTime());
+            }
+        });
+    }
+}
@@ -0,0 +1,482 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyListener;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyTable;
+import com.TobyMellor.TrainRouteFinder.journeys.StopTimes;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteListener;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The departure board and arrival board of every station, listing every <code>Journey</code> calling at it across all
+ * of the <code>BasicRoute</code>s, intermediate stations included
+ *
+ * Each board is a set of parallel arrays sorted by time, holding the time, the journey's slot in the <code>JourneyTable</code>
+ * and the position of the station among the journey's stops. The next departures or arrivals after a time are found with a
+ * binary search and read off in order, so a query takes O(log n + N) and allocates nothing but its result.
+ *
+ * The boards listen to the <code>JourneyManager</code> and the <code>BasicRouteManager</code>, and are kept up to date as they change:
+ *     - a new <code>Journey</code> is inserted into its place on the board of each station it calls at
+ *     - a deleted <code>Journey</code> is removed from them
+ *     - anything changing many journeys at once, such as renumbering the slots or changing a route's duration, rebuilds every board
+ * Replacing either manager makes them stale instead (see <code>isCurrent()</code>).
+ *
+ * The boards are published together with the <code>JourneyTable</code> their slots refer to, as an immutable
+ * <code>Boards</code>. Each change copies the boards it touches and publishes the result, so a query on another thread
+ * reads one consistent version without taking a lock.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 18:10:00 $
+ */
+
+public class StationBoards implements JourneyListener, BasicRouteListener {
+    private static final int APPEND = 0; // how updateBoards() changes the boards
+    private static final int INSERT = 1;
+    private static final int REMOVE = 2;
+
+    private final BasicRouteManager basicRouteManager;
+    private final JourneyManager journeyManager;
+
+    private final AtomicReference<Boards> boards = new AtomicReference<Boards>();
+
+    /**
+     * Builds every station's boards and starts listening for changes to the <code>Journey</code>s and <code>BasicRoute</code>s
+     *
+     * Both managers are locked meanwhile, so that no change is made between building and listening.
+     *
+     * @param basicRouteManager the <code>BasicRouteManager</code> holding the <code>BasicRoute</code>s
+     * @param journeyManager    the <code>JourneyManager</code> holding the <code>Journey</code>s
+     */
+    public StationBoards(final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        this.basicRouteManager = basicRouteManager;
+        this.journeyManager = journeyManager;
+
+        synchronized (basicRouteManager) {
+            synchronized (journeyManager) {
+                rebuild();
+
+                basicRouteManager.addBasicRouteListener(this);
+                journeyManager.addJourneyListener(this);
+            }
+        }
+    }
+
+    /**
+     * Checks if the boards were built from these managers, and so are still up to date with them
+     *
+     * @param basicRouteManager the current <code>BasicRouteManager</code>
+     * @param journeyManager    the current <code>JourneyManager</code>
+     *
+     * @return boolean
+     */
+    public boolean isCurrent(final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        return this.basicRouteManager == basicRouteManager && this.journeyManager == journeyManager;
+    }
+
+    /**
+     * Stops listening for changes to the <code>Journey</code>s and <code>BasicRoute</code>s, once the boards have been replaced
+     */
+    public void detach() {
+        basicRouteManager.removeBasicRouteListener(this);
+        journeyManager.removeJourneyListener(this);
+    }
+
+    /**
+     * Retrieves up to <code>count</code> of the <code>Journey</code>s leaving the station with the <code>stationId</code>
+     * strictly after <code>after</code>, in the order they leave
+     *
+     * @param stationId the ID of a DestinationStation or IntermediateStation
+     * @param after     the time to list departures after
+     * @param count     the most departures to list
+     *
+     * @return List<BoardEntry>
+     */
+    public List<BoardEntry> getDepartures(final String stationId, final long after, final int count) {
+        return getDepartures(stationId, after, Long.MAX_VALUE, count);
+    }
+
+    /**
+     * Retrieves up to <code>count</code> of the <code>Journey</code>s leaving the station with the <code>stationId</code>
+     * strictly after <code>after</code> and at or before <code>until</code>, in the order they leave
+     *
+     * @param stationId the ID of a DestinationStation or IntermediateStation
+     * @param after     the start of the window
+     * @param until     the end of the window
+     * @param count     the most departures to list
+     *
+     * @return List<BoardEntry>
+     */
+    public List<BoardEntry> getDepartures(final String stationId, final long after, final long until, final int count) {
+        Boards currentBoards = boards.get();
+
+        return getEntries(currentBoards, currentBoards.departureBoards.get(stationId), stationId, after, until, count);
+    }
+
+    /**
+     * Retrieves up to <code>count</code> of the <code>Journey</code>s reaching the station with the <code>stationId</code>
+     * strictly after <code>after</code>, in the order they arrive
+     *
+     * @param stationId the ID of a DestinationStation or IntermediateStation
+     * @param after     the time to list arrivals after
+     * @param count     the most arrivals to list
+     *
+     * @return List<BoardEntry>
+     */
+    public List<BoardEntry> getArrivals(final String stationId, final long after, final int count) {
+        return getArrivals(stationId, after, Long.MAX_VALUE, count);
+    }
+
+    /**
+     * Retrieves up to <code>count</code> of the <code>Journey</code>s reaching the station with the <code>stationId</code>
+     * strictly after <code>after</code> and at or before <code>until</code>, in the order they arrive
+     *
+     * @param stationId the ID of a DestinationStation or IntermediateStation
+     * @param after     the start of the window
+     * @param until     the end of the window
+     * @param count     the most arrivals to list
+     *
+     * @return List<BoardEntry>
+     */
+    public List<BoardEntry> getArrivals(final String stationId, final long after, final long until, final int count) {
+        Boards currentBoards = boards.get();
+
+        return getEntries(currentBoards, currentBoards.arrivalBoards.get(stationId), stationId, after, until, count);
+    }
+
+    @Override
+    public synchronized void journeyAdded(final int slot) {
+        update(slot, INSERT);
+    }
+
+    @Override
+    public synchronized void journeyDeleted(final int slot) {
+        update(slot, REMOVE);
+    }
+
+    @Override
+    public synchronized void journeysReset() {
+        rebuild();
+    }
+
+    @Override
+    public void basicRouteAdded(final BasicRoute basicRoute) {
+        // a new route has no journeys yet
+    }
+
+    @Override
+    public synchronized void basicRouteDurationChanged(final BasicRoute basicRoute, final int previousDuration) {
+        rebuild(); // every journey on the route now arrives at different times
+    }
+
+    @Override
+    public synchronized void basicRoutesReset() {
+        rebuild();
+    }
+
+    /**
+     * Materialises the entries of <code>board</code> in the window, reading them straight off the board in order
+     *
+     * @param boards    the published boards <code>board</code> was taken from
+     * @param board     the board, or null if nothing calls at the station
+     * @param stationId the ID of the station the board is for
+     * @param after     the start of the window
+     * @param until     the end of the window
+     * @param count     the most entries to list
+     *
+     * @return List<BoardEntry>
+     */
+    private List<BoardEntry> getEntries(final Boards boards, final Board board, final String stationId, final long after, final long until, final int count) {
+        if (board == null || until <= after) {
+            return new ArrayList<BoardEntry>();
+        }
+
+        JourneyTable journeyTable = boards.journeyTable; // the table the board's slots refer to
+        int fromIndex = board.indexOfFirstAfter(after);
+        int toIndex = (int) Math.min(board.indexOfFirstAfter(until), (long) fromIndex + Math.max(count, 0));
+        List<BoardEntry> entries = new ArrayList<BoardEntry>(toIndex - fromIndex);
+
+        for (int i = fromIndex; i < toIndex; i++) {
+            int slot = board.slots[i];
+
+            entries.add(new BoardEntry(
+                    journeyTable.getId(slot),
+                    basicRouteManager.getBasicRoute(journeyTable.getBasicRouteId(slot)),
+                    stationId,
+                    board.stopIndexes[i],
+                    board.times[i]
+            ));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Rebuilds every board from the <code>JourneyTable</code>, sorting each one once, and publishes them
+     */
+    private void rebuild() {
+        Boards rebuiltBoards = new Boards(new HashMap<String, Board>(), new HashMap<String, Board>(), journeyManager.getJourneyTable());
+
+        for (int slot = 0; slot < rebuiltBoards.journeyTable.size(); slot++) {
+            if (!rebuiltBoards.journeyTable.isDeleted(slot)) {
+                updateBoards(rebuiltBoards, slot, APPEND);
+            }
+        }
+
+        for (Board board : rebuiltBoards.departureBoards.values()) {
+            board.sort();
+        }
+
+        for (Board board : rebuiltBoards.arrivalBoards.values()) {
+            board.sort();
+        }
+
+        boards.set(rebuiltBoards);
+    }
+
+    /**
+     * Publishes a copy of the boards with the journey in <code>slot</code> inserted or removed
+     *
+     * @param slot   the slot of the journey in the manager's current <code>JourneyTable</code>
+     * @param change <code>INSERT</code> or <code>REMOVE</code>
+     */
+    private void update(final int slot, final int change) {
+        Boards currentBoards = boards.get();
+        Boards updatedBoards = new Boards(
+                new HashMap<String, Board>(currentBoards.departureBoards),
+                new HashMap<String, Board>(currentBoards.arrivalBoards),
+                journeyManager.getJourneyTable() // the slots of the current table carry on in the new one until it is reset
+        );
+
+        updateBoards(updatedBoards, slot, change);
+
+        boards.set(updatedBoards);
+    }
+
+    /**
+     * Adds or removes the journey in <code>slot</code> on the board of every station it calls at, in boards not yet published
+     *
+     * An intermediate station without <code>StopTimes</code> is reached at a time spread evenly over the route's duration,
+     * in the same way as a <code>Timetable</code>
+     *
+     * @param boards the boards to change, holding the journey's <code>JourneyTable</code>
+     * @param slot   the slot of the journey
+     * @param change <code>APPEND</code> to add it to the end of the boards, before they are sorted,
+     *               <code>INSERT</code> to add it into its place, or <code>REMOVE</code>
+     */
+    private void updateBoards(final Boards boards, final int slot, final int change) {
+        JourneyTable journeyTable = boards.journeyTable;
+        BasicRoute basicRoute = basicRouteManager.getBasicRoute(journeyTable.getBasicRouteId(slot));
+
+        if (basicRoute == null) {
+            return;
+        }
+
+        List<String> intermediateStationIds = journeyTable.getIntermediateStationIds(slot);
+        StopTimes stopTimes = journeyTable.getStopTimes(slot);
+        long departure = journeyTable.getTimestamp(slot);
+        long duration = basicRoute.getDuration() * 60000L;
+
+        updateBoard(boards.departureBoards, basicRoute.getDepartingStationId(), departure, slot, 0, change);
+
+        for (int i = 0; i < intermediateStationIds.size(); i++) {
+            long arrivalOffset = stopTimes == null ? duration * (i + 1) / (intermediateStationIds.size() + 1) : stopTimes.getArrivalOffset(i) * 60000L;
+            long departureOffset = stopTimes == null ? arrivalOffset : stopTimes.getDepartureOffset(i) * 60000L;
+
+            updateBoard(boards.arrivalBoards, intermediateStationIds.get(i), departure + arrivalOffset, slot, i + 1, change);
+            updateBoard(boards.departureBoards, intermediateStationIds.get(i), departure + departureOffset, slot, i + 1, change);
+        }
+
+        updateBoard(boards.arrivalBoards, basicRoute.getDestinationStationId(), departure + duration, slot, intermediateStationIds.size() + 1, change);
+    }
+
+    private static void updateBoard(final Map<String, Board> boards, final String stationId, final long time, final int slot, final int stopIndex, final int change) {
+        Board board = boards.get(stationId);
+
+        if (board == null) {
+            if (change == REMOVE) {
+                return;
+            }
+
+            board = new Board();
+            boards.put(stationId, board);
+        }
+
+        if (change == APPEND) {
+            board.append(time, slot, stopIndex); // only while rebuilding, before the board is published
+        } else if (change == INSERT) {
+            boards.put(stationId, board.withEntry(time, slot, stopIndex));
+        } else {
+            boards.put(stationId, board.withoutEntry(time, slot, stopIndex));
+        }
+    }
+
+    /**
+     * Every station's departure and arrival board, and the <code>JourneyTable</code> their slots refer to,
+     * never changed once they have been published
+     */
+    private static class Boards {
+        private final Map<String, Board> departureBoards;
+        private final Map<String, Board> arrivalBoards;
+        private final JourneyTable journeyTable;
+
+        private Boards(final Map<String, Board> departureBoards, final Map<String, Board> arrivalBoards, final JourneyTable journeyTable) {
+            this.departureBoards = departureBoards;
+            this.arrivalBoards = arrivalBoards;
+            this.journeyTable = journeyTable;
+        }
+    }
+
+    /**
+     * The entries of one board, as parallel arrays sorted by time, where entries at the same time stay in the order they were added
+     *
+     * A board is only appended to and sorted while it is being built. Once published, a change returns a copy instead.
+     */
+    private static class Board {
+        private long[] times;
+        private int[] slots;
+        private int[] stopIndexes;
+        private int size;
+
+        private Board() {
+            this(8);
+        }
+
+        private Board(final int capacity) {
+            times = new long[capacity];
+            slots = new int[capacity];
+            stopIndexes = new int[capacity];
+        }
+
+        private void append(final long time, final int slot, final int stopIndex) {
+            ensureCapacity(size + 1);
+
+            times[size] = time;
+            slots[size] = slot;
+            stopIndexes[size++] = stopIndex;
+        }
+
+        /**
+         * Returns a copy of the board with the entry inserted into its place, after any others at the same time
+         *
+         * @param time      the time of the entry
+         * @param slot      the slot of the journey
+         * @param stopIndex the position of the station among the journey's stops
+         *
+         * @return Board
+         */
+        private Board withEntry(final long time, final int slot, final int stopIndex) {
+            int index = indexOfFirstAfter(time);
+            Board board = new Board(size + 1);
+
+            System.arraycopy(times, 0, board.times, 0, index);
+            System.arraycopy(slots, 0, board.slots, 0, index);
+            System.arraycopy(stopIndexes, 0, board.stopIndexes, 0, index);
+
+            board.times[index] = time;
+            board.slots[index] = slot;
+            board.stopIndexes[index] = stopIndex;
+
+            System.arraycopy(times, index, board.times, index + 1, size - index);
+            System.arraycopy(slots, index, board.slots, index + 1, size - index);
+            System.arraycopy(stopIndexes, index, board.stopIndexes, index + 1, size - index);
+
+            board.size = size + 1;
+
+            return board;
+        }
+
+        /**
+         * Returns a copy of the board without the entry, or the board itself if it doesn't hold it
+         *
+         * @param time      the time of the entry
+         * @param slot      the slot of the journey
+         * @param stopIndex the position of the station among the journey's stops
+         *
+         * @return Board
+         */
+        private Board withoutEntry(final long time, final int slot, final int stopIndex) {
+            for (int index = indexOfFirstAfter(time - 1); index < size && times[index] == time; index++) {
+                if (slots[index] == slot && stopIndexes[index] == stopIndex) {
+                    Board board = new Board(Math.max(size - 1, 1));
+
+                    System.arraycopy(times, 0, board.times, 0, index);
+                    System.arraycopy(slots, 0, board.slots, 0, index);
+                    System.arraycopy(stopIndexes, 0, board.stopIndexes, 0, index);
+                    System.arraycopy(times, index + 1, board.times, index, size - index - 1);
+                    System.arraycopy(slots, index + 1, board.slots, index, size - index - 1);
+                    System.arraycopy(stopIndexes, index + 1, board.stopIndexes, index, size - index - 1);
+
+                    board.size = size - 1;
+
+                    return board;
+                }
+            }
+
+            return this;
+        }
+
+        /**
+         * Sorts the appended entries by time with a stable sort
+         */
+        private void sort() {
+            int[] order = Timetable.sortByKey(times, size);
+            long[] sortedTimes = new long[times.length];
+            int[] sortedSlots = new int[slots.length];
+            int[] sortedStopIndexes = new int[stopIndexes.length];
+
+            for (int i = 0; i < size; i++) {
+                sortedTimes[i] = times[order[i]];
+                sortedSlots[i] = slots[order[i]];
+                sortedStopIndexes[i] = stopIndexes[order[i]];
+            }
+
+            times = sortedTimes;
+            slots = sortedSlots;
+            stopIndexes = sortedStopIndexes;
+        }
+
+        /**
+         * Binary searches the board for the index of the first entry strictly after <code>time</code>,
+         * or the size of the board if there isn't one
+         *
+         * @param time the time to search from
+         *
+         * @return int
+         */
+        private int indexOfFirstAfter(final long time) {
+            int low = 0;
+            int high = size;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (times[middle] <= time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (capacity > times.length) {
+                int newCapacity = Math.max(capacity, times.length + (times.length >> 1));
+
+                times = Arrays.copyOf(times, newCapacity);
+                slots = Arrays.copyOf(slots, newCapacity);
+                stopIndexes = Arrays.copyOf(stopIndexes, newCapacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyTable;
+import com.TobyMellor.TrainRouteFinder.journeys.StopPatternRegistry;
+import com.TobyMellor.TrainRouteFinder.journeys.StopTimes;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The network as a directed graph of every station, weighted by travel time in seconds
+ *
+ * Stations are numbered like a <code>Timetable</code>'s: <code>DestinationStation</code>s first, then
+ * <code>IntermediateStation</code>s. Each <code>BasicRoute</code> adds an edge between consecutive stops for every
+ * stop pattern its <code>Journey</code>s use, or a single edge between its two stations if it has no journeys.
+ * Each edge takes from arriving at one stop to arriving at the next, by the journeys' <code>StopTimes</code>, or with the
+ * route's duration split evenly over its stops if they have none.
+ *
+ * The edges are held in compressed rows, <code>edgeTargets[edgeOffsets[station]]</code> up to
+ * <code>edgeTargets[edgeOffsets[station + 1]]</code>, and may repeat between the same stations.
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/12 09:40:00 $
+ */
+
+public class StationGraph {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    final BasicRouteManager basicRouteManager; // the managers the graph was built from, or null
+    final JourneyManager journeyManager;
+    final int basicRouteManagerVersion;
+    final int journeyManagerVersion;
+
+    final String[] stationIds;
+    private final Map<String, Integer> stationOrdinalsById = new HashMap<String, Integer>();
+
+    final int[] edgeOffsets;
+    final int[] edgeTargets;
+    final int[] edgeDurations; // seconds
+
+    private long[] searchDurations; // scratch space for findDuration(), only valid where searchStamps matches searchStamp
+    private int[] searchStamps;
+    private int searchStamp;
+    private IndexedMinHeap searchHeap;
+    private int lastSettledCount;
+
+    public StationGraph(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        this(getStationIds(stationManager), basicRouteManager, journeyManager);
+    }
+
+    private StationGraph(final String[] stationIds, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        this(stationIds, createEdgeList(stationIds, basicRouteManager, journeyManager), basicRouteManager, journeyManager);
+    }
+
+    /**
+     * Builds the graph from a list of edges, for networks that don't come from the managers
+     *
+     * @param stationIds the ID of each station
+     * @param edgeList   the edges between them
+     */
+    StationGraph(final String[] stationIds, final EdgeList edgeList) {
+        this(stationIds, edgeList, null, null);
+    }
+
+    private StationGraph(final String[] stationIds, final EdgeList edgeList, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        this.basicRouteManager = basicRouteManager;
+        this.journeyManager = journeyManager;
+        this.basicRouteManagerVersion = basicRouteManager == null ? 0 : basicRouteManager.getVersion();
+        this.journeyManagerVersion = journeyManager == null ? 0 : journeyManager.getVersion();
+        this.stationIds = stationIds;
+
+        for (int i = 0; i < stationIds.length; i++) {
+            stationOrdinalsById.put(stationIds[i], i);
+        }
+
+        edgeOffsets = new int[stationIds.length + 1];
+        edgeTargets = new int[edgeList.size];
+        edgeDurations = new int[edgeList.size];
+
+        int[] order = new int[edgeList.size];
+        Timetable.groupByKey(Arrays.copyOf(edgeList.sources, edgeList.size), stationIds.length, edgeOffsets, order);
+
+        for (int i = 0; i < order.length; i++) {
+            edgeTargets[i] = edgeList.targets[order[i]];
+            edgeDurations[i] = edgeList.durations[order[i]];
+        }
+    }
+
+    public int getStationCount() {
+        return stationIds.length;
+    }
+
+    public int getEdgeCount() {
+        return edgeTargets.length;
+    }
+
+    /**
+     * Returns the ordinal of the station with the <code>stationId</code>, or -1 if there isn't one
+     *
+     * @param stationId the ID of a DestinationStation or IntermediateStation
+     *
+     * @return int
+     */
+    public int getStationOrdinal(final String stationId) {
+        Integer ordinal = stationOrdinalsById.get(stationId);
+
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public String getStationId(final int ordinal) {
+        return stationIds[ordinal];
+    }
+
+    /**
+     * Finds the shortest travel time in seconds from <code>from</code> to <code>to</code> with a plain Dijkstra search,
+     * or <code>UNREACHABLE</code>, stopping once <code>to</code> is settled
+     *
+     * @param from the ordinal of the station to depart from
+     * @param to   the ordinal of the station to arrive at
+     *
+     * @return int
+     */
+    public synchronized int findDuration(final int from, final int to) {
+        if (searchHeap == null) {
+            searchDurations = new long[stationIds.length];
+            searchStamps = new int[stationIds.length];
+            searchHeap = new IndexedMinHeap(stationIds.length);
+        }
+
+        searchStamp++;
+        searchHeap.clear();
+
+        searchDurations[from] = 0;
+        searchStamps[from] = searchStamp;
+        searchHeap.push(from, 0);
+        lastSettledCount = 0;
+
+        while (!searchHeap.isEmpty()) {
+            int station = searchHeap.pop();
+
+            lastSettledCount++;
+
+            if (station == to) {
+                return (int) searchDurations[station];
+            }
+
+            for (int edge = edgeOffsets[station]; edge < edgeOffsets[station + 1]; edge++) {
+                int target = edgeTargets[edge];
+                long duration = searchDurations[station] + edgeDurations[edge];
+
+                if (searchStamps[target] != searchStamp || duration < searchDurations[target]) {
+                    searchDurations[target] = duration;
+                    searchStamps[target] = searchStamp;
+                    searchHeap.push(target, duration);
+                }
+            }
+        }
+
+        return UNREACHABLE;
+    }
+
+    /**
+     * The number of stations the last <code>findDuration()</code> settled, for comparing searches
+     *
+     * @return int
+     */
+    public int getLastSettledCount() {
+        return lastSettledCount;
+    }
+
+    /**
+     * Lists an edge between each consecutive stop of every <code>BasicRoute</code>, for each stop pattern its journeys use
+     *
+     * @param stationIds        the ID of each station
+     * @param basicRouteManager the <code>BasicRouteManager</code> holding the routes
+     * @param journeyManager    the <code>JourneyManager</code> holding the journeys
+     *
+     * @return EdgeList
+     */
+    private static EdgeList createEdgeList(final String[] stationIds, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        Map<String, Integer> stationOrdinalsById = new HashMap<String, Integer>();
+
+        for (int i = 0; i < stationIds.length; i++) {
+            stationOrdinalsById.put(stationIds[i], i);
+        }
+
+        JourneyTable journeyTable = journeyManager.getJourneyTable();
+        StopPatternRegistry stopPatternRegistry = journeyTable.getStopPatternRegistry();
+        Set<Long> routePatterns = new HashSet<Long>(); // basic route ordinal << 32 | stop pattern ID
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot)) {
+                long patternId = stopPatternRegistry.getCanonicalPatternId(journeyTable.getStopPatternId(slot));
+
+                routePatterns.add((long) journeyTable.getBasicRouteOrdinal(slot) << 32 | patternId);
+            }
+        }
+
+        EdgeList edgeList = new EdgeList();
+        Set<String> basicRouteIdsWithJourneys = new HashSet<String>();
+
+        for (long routePattern : routePatterns) {
+            BasicRoute basicRoute = basicRouteManager.getBasicRoute(journeyTable.getBasicRouteIdByOrdinal((int) (routePattern >>> 32)));
+
+            if (basicRoute != null) {
+                basicRouteIdsWithJourneys.add(basicRoute.getId());
+                addRoute(edgeList, stationOrdinalsById, basicRoute, stopPatternRegistry.getIntermediateStationIds((int) routePattern), stopPatternRegistry.getStopTimes((int) routePattern));
+            }
+        }
+
+        for (BasicRoute basicRoute : basicRouteManager.getBasicRoutes()) {
+            if (!basicRouteIdsWithJourneys.contains(basicRoute.getId())) {
+                addRoute(edgeList, stationOrdinalsById, basicRoute, Collections.<String>emptyList(), null);
+            }
+        }
+
+        return edgeList;
+    }
+
+    /**
+     * Adds an edge between each consecutive stop of <code>basicRoute</code> calling at <code>intermediateStationIds</code>
+     * at the <code>stopTimes</code>, or splitting its duration evenly between them if there are none, so that the edges
+     * add up to the whole duration
+     *
+     * @param edgeList               the edges to add to
+     * @param stationOrdinalsById    the ordinal of each station
+     * @param basicRoute             the <code>BasicRoute</code>
+     * @param intermediateStationIds the stations called at between its two ends
+     * @param stopTimes              the times they are called at, or null
+     */
+    private static void addRoute(final EdgeList edgeList, final Map<String, Integer> stationOrdinalsById, final BasicRoute basicRoute, final List<String> intermediateStationIds, final StopTimes stopTimes) {
+        int[] stops = new int[intermediateStationIds.size() + 2];
+        long[] arrivalOffsets = new long[stops.length]; // seconds after departing
+        int stopCount = 0;
+
+        Integer departingStation = stationOrdinalsById.get(basicRoute.getDepartingStationId());
+        Integer destinationStation = stationOrdinalsById.get(basicRoute.getDestinationStationId());
+
+        if (departingStation == null || destinationStation == null) {
+            return;
+        }
+
+        stops[stopCount++] = departingStation;
+
+        for (int i = 0; i < intermediateStationIds.size(); i++) {
+            Integer ordinal = stationOrdinalsById.get(intermediateStationIds.get(i));
+
+            if (ordinal != null) {
+                arrivalOffsets[stopCount] = stopTimes == null ? 0 : stopTimes.getArrivalOffset(i) * 60L;
+                stops[stopCount++] = ordinal;
+            }
+        }
+
+        long duration = basicRoute.getDuration() * 60L;
+        int segmentCount = stopCount;
+
+        arrivalOffsets[stopCount] = duration;
+        stops[stopCount++] = destinationStation;
+
+        for (int i = 0; i < segmentCount; i++) {
+            if (stopTimes == null) {
+                edgeList.add(stops[i], stops[i + 1], (int) (duration * (i + 1) / segmentCount - duration * i / segmentCount));
+            } else {
+                edgeList.add(stops[i], stops[i + 1], (int) (arrivalOffsets[i + 1] - arrivalOffsets[i]));
+            }
+        }
+    }
+
+    static String[] getStationIds(final StationManager stationManager) {
+        List<DestinationStation> destinationStations = stationManager.getDestinationStations();
+        List<IntermediateStation> intermediateStations = stationManager.getIntermediateStations();
+        String[] stationIds = new String[destinationStations.size() + intermediateStations.size()];
+        int ordinal = 0;
+
+        for (DestinationStation destinationStation : destinationStations) {
+            stationIds[ordinal++] = destinationStation.getId();
+        }
+
+        for (IntermediateStation intermediateStation : intermediateStations) {
+            stationIds[ordinal++] = intermediateStation.getId();
+        }
+
+        return stationIds;
+    }
+
+    /**
+     * A growable list of edges, grouped into the graph's rows by its constructor
+     */
+    static class EdgeList {
+        private int[] sources = new int[64];
+        private int[] targets = new int[64];
+        private int[] durations = new int[64];
+        private int size;
+
+        void add(final int source, final int target, final int duration) {
+            if (size == sources.length) {
+                sources = Arrays.copyOf(sources, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+                durations = Arrays.copyOf(durations, size * 2);
+            }
+
+            sources[size] = source;
+            targets[size] = target;
+            durations[size++] = duration;
+        }
+    }
+}
@@ -0,0 +1,841 @@
+package com.TobyMellor.TrainRouteFinder.planning;
+
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyTable;
+import com.TobyMellor.TrainRouteFinder.journeys.StopPatternRegistry;
+import com.TobyMellor.TrainRouteFinder.journeys.StopTimes;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
+import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A flattened, read-only copy of the network that the journey planners search
+ *
+ * Everything is numbered and held in primitive arrays:
+ *     - stations are numbered with <code>DestinationStation</code>s first, then <code>IntermediateStation</code>s
+ *     - routes are the <code>BasicRoute</code>s, in the order the <code>BasicRouteManager</code> holds them
+ *     - trips are the <code>Journey</code>s, sorted by departure, each with its single fare in pence
+ *     - patterns group the trips calling at the same stations in the same order, each with the times its stops are
+ *       reached after the trip departs; every station knows which patterns call at it, and where
+ *     - connections are single hops of a trip from one stop of its pattern to the next, sorted by departure,
+ *       with a second ordering by arrival
+ *
+ * Each <code>BasicRoute</code> is a pattern of its departing and destination stations, which are the only stations the
+ * planners change trains at. Every stop a trip calls at is kept separately in calling patterns, which group the trips of a
+ * route calling at the same stations at the same times, intermediate stations included. Their times are the journey's
+ * <code>StopTimes</code>, or spread evenly over its route's duration like a <code>StationGraph</code>'s edges if it has none.
+ * Every station knows which calling patterns call at it, and where, so the trips calling at a station are found without
+ * visiting any other trip (see <code>SegmentPlanner</code>).
+ *
+ * The arrays are package-private so that the planners' inner loops read them directly.
+ *
+ * A <code>Timetable</code> is a copy of the managers when it was built, so <code>isCurrent()</code> should be
+ * checked before it is used again (see <code>App.getTimetable()</code>).
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 18:55:00 $
+ */
+
+public class Timetable {
+    private static final BigDecimal END_OF_MONTH_DISCOUNT = new BigDecimal(0.9); // the same 10% off as TableManager.formatCurrency()
+
+    private final BasicRouteManager basicRouteManager;
+    private final JourneyManager journeyManager;
+    private final JourneyTable journeyTable;
+    private final int basicRouteManagerVersion;
+    private final int journeyManagerVersion;
+
+    final String[] stationIds;
+    final int destinationStationCount;
+    private final Map<String, Integer> stationOrdinalsById = new HashMap<String, Integer>();
+
+    final BasicRoute[] basicRoutes;
+
+    final int[] tripSlots; // the trip's slot in the JourneyTable
+    final int[] tripBasicRoutes;
+    final int[] tripPatterns;
+    final long[] tripDepartures;
+    final int[] tripFares; // pence, with the end of month discount applied
+    final int[] tripCallingPatterns;
+
+    final int[] patternBasicRoutes;
+    final int[] patternStopOffsets; // the pattern's stops are patternStops[patternStopOffsets[pattern]] up to patternStops[patternStopOffsets[pattern + 1]]
+    final int[] patternStops;
+    final long[] patternStopArrivalOffsets; // millis after the trip departs
+    final long[] patternStopDepartureOffsets;
+    final int[] patternTripOffsets; // the pattern's trips, in departure order, in the same layout as its stops
+    final int[] patternTrips;
+    final int[] patternNextDiscountedTrips; // for each of patternTrips, the index in patternTrips of the first discounted trip at or after it, or -1
+
+    final int[] stationPatternOffsets; // the patterns calling at each station, in the same layout as the pattern stops
+    final int[] stationPatterns;
+    final int[] stationPatternStopIndexes; // the position of the station within each of those patterns
+
+    final int[] callingPatternStopOffsets; // every stop the pattern's trips call at, ends included, in the same layout as the pattern stops
+    final int[] callingPatternStops;
+    final long[] callingPatternStopArrivalOffsets; // millis after the trip departs
+    final long[] callingPatternStopDepartureOffsets;
+    final int[] callingPatternTripOffsets; // the calling pattern's trips, in departure order, in the same layout as its stops
+    final int[] callingPatternTrips;
+
+    final int[] stationCallingPatternOffsets; // the calling patterns calling at each station, in the same layout as the pattern stops
+    final int[] stationCallingPatterns;
+    final int[] stationCallingPatternStopIndexes; // the position of the station within each of those calling patterns
+
+    final int[] connectionTrips;
+    final int[] connectionStopIndexes; // the position of the connection's departure stop within its trip's pattern
+    final int[] connectionDepartureStations;
+    final int[] connectionArrivalStations;
+    final long[] connectionDepartures;
+    final long[] connectionArrivals;
+    final int[] connectionsByArrival; // the connections sorted by arrival, for searching backwards from a deadline
+
+    public Timetable(final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        this.basicRouteManager = basicRouteManager;
+        this.journeyManager = journeyManager;
+        this.basicRouteManagerVersion = basicRouteManager.getVersion(); // before reading them, so a change made meanwhile makes it stale
+        this.journeyManagerVersion = journeyManager.getVersion();
+        this.journeyTable = journeyManager.getJourneyTable();
+
+        List<DestinationStation> destinationStations = stationManager.getDestinationStations();
+        List<IntermediateStation> intermediateStations = stationManager.getIntermediateStations();
+
+        destinationStationCount = destinationStations.size();
+        stationIds = new String[destinationStations.size() + intermediateStations.size()];
+
+        for (DestinationStation destinationStation : destinationStations) {
+            addStation(destinationStation.getId());
+        }
+
+        for (IntermediateStation intermediateStation : intermediateStations) {
+            addStation(intermediateStation.getId());
+        }
+
+        List<BasicRoute> basicRouteList = basicRouteManager.getBasicRoutes();
+        Map<String, Integer> basicRouteIndexesById = new HashMap<String, Integer>();
+
+        basicRoutes = basicRouteList.toArray(new BasicRoute[basicRouteList.size()]);
+
+        int[] singleFares = new int[basicRoutes.length];
+        int[] discountedSingleFares = new int[basicRoutes.length];
+
+        for (int i = 0; i < basicRoutes.length; i++) {
+            basicRouteIndexesById.put(basicRoutes[i].getId(), i);
+            singleFares[i] = toPence(basicRoutes[i].getSinglePrice());
+            discountedSingleFares[i] = toPence(basicRoutes[i].getSinglePrice().multiply(END_OF_MONTH_DISCOUNT));
+        }
+
+        int[] basicRouteIndexesByOrdinal = new int[journeyTable.getBasicRouteOrdinalCount()]; // the JourneyTable interns route IDs itself
+
+        for (int ordinal = 0; ordinal < basicRouteIndexesByOrdinal.length; ordinal++) {
+            Integer basicRouteIndex = basicRouteIndexesById.get(journeyTable.getBasicRouteIdByOrdinal(ordinal));
+
+            basicRouteIndexesByOrdinal[ordinal] = basicRouteIndex == null ? -1 : basicRouteIndex;
+        }
+
+        int tripCount = 0;
+        int[] slots = new int[journeyTable.getJourneyCount()];
+        long[] departures = new long[slots.length];
+
+        for (int slot = 0; slot < journeyTable.size(); slot++) {
+            if (!journeyTable.isDeleted(slot) && basicRouteIndexesByOrdinal[journeyTable.getBasicRouteOrdinal(slot)] != -1) {
+                slots[tripCount] = slot;
+                departures[tripCount++] = journeyTable.getTimestamp(slot);
+            }
+        }
+
+        int[] order = sortByKey(departures, tripCount);
+        Calendar calendar = Calendar.getInstance();
+
+        tripSlots = new int[tripCount];
+        tripBasicRoutes = new int[tripCount];
+        tripPatterns = new int[tripCount];
+        tripDepartures = new long[tripCount];
+        tripFares = new int[tripCount];
+
+        for (int trip = 0; trip < tripCount; trip++) {
+            int slot = slots[order[trip]];
+            int basicRoute = basicRouteIndexesByOrdinal[journeyTable.getBasicRouteOrdinal(slot)];
+
+            tripSlots[trip] = slot;
+            tripBasicRoutes[trip] = basicRoute;
+            tripPatterns[trip] = basicRoute; // one pattern per BasicRoute
+            tripDepartures[trip] = journeyTable.getTimestamp(slot);
+            tripFares[trip] = isLastDayOfMonth(calendar, tripDepartures[trip]) ? discountedSingleFares[basicRoute] : singleFares[basicRoute];
+        }
+
+        StopPatternRegistry stopPatternRegistry = journeyTable.getStopPatternRegistry();
+        Map<Long, Integer> callingPatternsByRouteStopPattern = new HashMap<Long, Integer>(); // basic route << 32 | canonical stop pattern ID
+        List<int[]> callingPatternStopLists = new ArrayList<int[]>();
+        List<long[][]> callingPatternTimeLists = new ArrayList<long[][]>();
+
+        tripCallingPatterns = new int[tripCount];
+
+        for (int trip = 0; trip < tripCount; trip++) {
+            int stopPatternId = stopPatternRegistry.getCanonicalPatternId(journeyTable.getStopPatternId(tripSlots[trip]));
+            long routeStopPattern = (long) tripBasicRoutes[trip] << 32 | stopPatternId;
+            Integer callingPattern = callingPatternsByRouteStopPattern.get(routeStopPattern);
+
+            if (callingPattern == null) {
+                callingPattern = callingPatternStopLists.size();
+                callingPatternsByRouteStopPattern.put(routeStopPattern, callingPattern);
+
+                long[][] times = new long[2][];
+
+                callingPatternStopLists.add(getCallingStops(basicRoutes[tripBasicRoutes[trip]], stopPatternRegistry.getIntermediateStationIds(stopPatternId), stopPatternRegistry.getStopTimes(stopPatternId), times));
+                callingPatternTimeLists.add(times);
+            }
+
+            tripCallingPatterns[trip] = callingPattern;
+        }
+
+        int callingPatternCount = callingPatternStopLists.size();
+
+        callingPatternStopOffsets = new int[callingPatternCount + 1];
+
+        for (int callingPattern = 0; callingPattern < callingPatternCount; callingPattern++) {
+            callingPatternStopOffsets[callingPattern + 1] = callingPatternStopOffsets[callingPattern] + callingPatternStopLists.get(callingPattern).length;
+        }
+
+        callingPatternStops = new int[callingPatternStopOffsets[callingPatternCount]];
+        callingPatternStopArrivalOffsets = new long[callingPatternStops.length];
+        callingPatternStopDepartureOffsets = new long[callingPatternStops.length];
+
+        for (int callingPattern = 0; callingPattern < callingPatternCount; callingPattern++) {
+            int offset = callingPatternStopOffsets[callingPattern];
+            int[] callingStops = callingPatternStopLists.get(callingPattern);
+            long[][] times = callingPatternTimeLists.get(callingPattern);
+
+            System.arraycopy(callingStops, 0, callingPatternStops, offset, callingStops.length);
+            System.arraycopy(times[0], 0, callingPatternStopArrivalOffsets, offset, callingStops.length);
+            System.arraycopy(times[1], 0, callingPatternStopDepartureOffsets, offset, callingStops.length);
+        }
+
+        callingPatternTripOffsets = new int[callingPatternCount + 1];
+        callingPatternTrips = new int[tripCount];
+
+        groupByKey(tripCallingPatterns, callingPatternCount, callingPatternTripOffsets, callingPatternTrips); // keeps departure order, like the patterns
+
+        stationCallingPatternOffsets = new int[stationIds.length + 1];
+        stationCallingPatterns = new int[callingPatternStops.length];
+        stationCallingPatternStopIndexes = new int[callingPatternStops.length];
+
+        groupStopsByStation(callingPatternStopOffsets, callingPatternStops, stationCallingPatternOffsets, stationCallingPatterns, stationCallingPatternStopIndexes);
+
+        int patternCount = basicRoutes.length;
+
+        patternBasicRoutes = new int[patternCount];
+        patternStopOffsets = new int[patternCount + 1];
+        patternStops = new int[patternCount * 2];
+        patternStopArrivalOffsets = new long[patternStops.length];
+        patternStopDepartureOffsets = new long[patternStops.length];
+
+        for (int pattern = 0; pattern < patternCount; pattern++) {
+            int offset = pattern * 2;
+
+            patternBasicRoutes[pattern] = pattern;
+            patternStopOffsets[pattern] = offset;
+            patternStops[offset] = getStationOrdinal(basicRoutes[pattern].getDepartingStationId());
+            patternStops[offset + 1] = getStationOrdinal(basicRoutes[pattern].getDestinationStationId());
+            patternStopArrivalOffsets[offset + 1] = basicRoutes[pattern].getDuration() * 60000L;
+            patternStopDepartureOffsets[offset + 1] = patternStopArrivalOffsets[offset + 1];
+        }
+
+        patternStopOffsets[patternCount] = patternStops.length;
+
+        patternTripOffsets = new int[patternCount + 1];
+        patternTrips = new int[tripCount];
+        patternNextDiscountedTrips = new int[tripCount];
+
+        groupByKey(tripPatterns, patternCount, patternTripOffsets, patternTrips); // trips are already in departure order, which grouping keeps
+
+        for (int pattern = 0; pattern < patternCount; pattern++) {
+            int nextDiscountedTrip = -1;
+
+            for (int i = patternTripOffsets[pattern + 1] - 1; i >= patternTripOffsets[pattern]; i--) {
+                if (tripFares[patternTrips[i]] < singleFares[patternBasicRoutes[pattern]]) {
+                    nextDiscountedTrip = i;
+                }
+
+                patternNextDiscountedTrips[i] = nextDiscountedTrip;
+            }
+        }
+
+        stationPatternOffsets = new int[stationIds.length + 1];
+        stationPatterns = new int[patternStops.length];
+        stationPatternStopIndexes = new int[patternStops.length];
+
+        groupStopsByStation(patternStopOffsets, patternStops, stationPatternOffsets, stationPatterns, stationPatternStopIndexes);
+
+        int connectionCount = 0;
+
+        for (int trip = 0; trip < tripCount; trip++) {
+            connectionCount += getStopCount(tripPatterns[trip]) - 1;
+        }
+
+        int[] unsortedConnectionTrips = new int[connectionCount];
+        int[] unsortedConnectionStopIndexes = new int[connectionCount];
+        long[] unsortedConnectionDepartures = new long[connectionCount];
+        int connection = 0;
+
+        for (int trip = 0; trip < tripCount; trip++) {
+            for (int i = 0; i < getStopCount(tripPatterns[trip]) - 1; i++) {
+                unsortedConnectionTrips[connection] = trip;
+                unsortedConnectionStopIndexes[connection] = i;
+                unsortedConnectionDepartures[connection++] = getDepartureTime(trip, i);
+            }
+        }
+
+        int[] connectionOrder = sortByKey(unsortedConnectionDepartures, connectionCount);
+
+        connectionTrips = new int[connectionCount];
+        connectionStopIndexes = new int[connectionCount];
+        connectionDepartureStations = new int[connectionCount];
+        connectionArrivalStations = new int[connectionCount];
+        connectionDepartures = new long[connectionCount];
+        connectionArrivals = new long[connectionCount];
+
+        for (int i = 0; i < connectionCount; i++) {
+            int trip = unsortedConnectionTrips[connectionOrder[i]];
+            int stopIndex = unsortedConnectionStopIndexes[connectionOrder[i]];
+
+            connectionTrips[i] = trip;
+            connectionStopIndexes[i] = stopIndex;
+            connectionDepartureStations[i] = getStop(tripPatterns[trip], stopIndex);
+            connectionArrivalStations[i] = getStop(tripPatterns[trip], stopIndex + 1);
+            connectionDepartures[i] = getDepartureTime(trip, stopIndex);
+            connectionArrivals[i] = getArrivalTime(trip, stopIndex + 1);
+        }
+
+        connectionsByArrival = sortByKey(connectionArrivals, connectionCount);
+    }
+
+    /**
+     * Checks if the <code>Timetable</code> was built from these managers, and the <code>BasicRoute</code>s and
+     * <code>Journey</code>s haven't changed since
+     *
+     * @param basicRouteManager the current <code>BasicRouteManager</code>
+     * @param journeyManager    the current <code>JourneyManager</code>
+     *
+     * @return boolean
+     */
+    public boolean isCurrent(final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
+        return this.basicRouteManager == basicRouteManager && basicRouteManager.getVersion() == basicRouteManagerVersion
+                && this.journeyManager == journeyManager && journeyManager.getVersion() == journeyManagerVersion;
+    }
+
+    /**
+     * Returns the ordinal of the station with the <code>stationId</code>, or -1 if there isn't one
+     *
+     * @param stationId the ID of a DestinationStation or IntermediateStation
+     *
+     * @return int
+     */
+    public int getStationOrdinal(final String stationId) {
+        Integer ordinal = stationOrdinalsById.get(stationId);
+
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public String getStationId(final int ordinal) {
+        return stationIds[ordinal];
+    }
+
+    /**
+     * Returns the set of ordinals of the stations with the <code>stationIds</code>, for the planners' station filters,
+     * leaving out any that aren't in the timetable
+     *
+     * @param stationIds the IDs of DestinationStations or IntermediateStations
+     *
+     * @return BitSet
+     */
+    public BitSet getStationSet(final Collection<String> stationIds) {
+        BitSet stations = new BitSet(this.stationIds.length);
+
+        for (String stationId : stationIds) {
+            int ordinal = getStationOrdinal(stationId);
+
+            if (ordinal != -1) {
+                stations.set(ordinal);
+            }
+        }
+
+        return stations;
+    }
+
+    public int getStationCount() {
+        return stationIds.length;
+    }
+
+    public int getTripCount() {
+        return tripSlots.length;
+    }
+
+    public int getConnectionCount() {
+        return connectionTrips.length;
+    }
+
+    /**
+     * Returns the ID of the <code>Journey</code> running <code>trip</code>
+     *
+     * @param trip the trip
+     *
+     * @return String
+     */
+    public String getJourneyId(final int trip) {
+        return journeyTable.getId(tripSlots[trip]);
+    }
+
+    /**
+     * Returns the single fare of <code>trip</code> in pence, discounted if it departs on the last day of the month
+     *
+     * @param trip the trip
+     *
+     * @return int
+     */
+    public int getFare(final int trip) {
+        return tripFares[trip];
+    }
+
+    public BasicRoute getBasicRoute(final int trip) {
+        return basicRoutes[tripBasicRoutes[trip]];
+    }
+
+    /**
+     * Binary searches the connections for the index of the first connection departing strictly after <code>timestamp</code>
+     *
+     * @param timestamp the time to search from
+     *
+     * @return int
+     */
+    int indexOfFirstConnectionAfter(final long timestamp) {
+        int low = 0;
+        int high = connectionDepartures.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (connectionDepartures[middle] <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Binary searches <code>connectionsByArrival</code> for the number of connections arriving at or before <code>timestamp</code>,
+     * which is the index after the last of them
+     *
+     * @param timestamp the time to search from
+     *
+     * @return int
+     */
+    int countConnectionsArrivingBy(final long timestamp) {
+        int low = 0;
+        int high = connectionsByArrival.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (connectionArrivals[connectionsByArrival[middle]] <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    int getStopCount(final int pattern) {
+        return patternStopOffsets[pattern + 1] - patternStopOffsets[pattern];
+    }
+
+    /**
+     * Returns the station at position <code>stopIndex</code> of <code>pattern</code>
+     *
+     * @param pattern   the pattern
+     * @param stopIndex the position within the pattern
+     *
+     * @return int
+     */
+    int getStop(final int pattern, final int stopIndex) {
+        return patternStops[patternStopOffsets[pattern] + stopIndex];
+    }
+
+    long getArrivalTime(final int trip, final int stopIndex) {
+        return tripDepartures[trip] + patternStopArrivalOffsets[patternStopOffsets[tripPatterns[trip]] + stopIndex];
+    }
+
+    long getDepartureTime(final int trip, final int stopIndex) {
+        return tripDepartures[trip] + patternStopDepartureOffsets[patternStopOffsets[tripPatterns[trip]] + stopIndex];
+    }
+
+    /**
+     * Checks if <code>trip</code> passes through any of the <code>stations</code> between the stop at <code>stopIndex</code>
+     * of its pattern and the next, without stopping there
+     *
+     * @param trip      the trip
+     * @param stopIndex the position of the stop within the trip's pattern
+     * @param stations  the ordinals of the stations to look for
+     *
+     * @return boolean
+     */
+    boolean passesThrough(final int trip, final int stopIndex, final BitSet stations) {
+        int stop = patternStopOffsets[tripPatterns[trip]] + stopIndex;
+        int callingPattern = tripCallingPatterns[trip];
+
+        for (int i = callingPatternStopOffsets[callingPattern] + 1; i < callingPatternStopOffsets[callingPattern + 1] - 1; i++) { // the ends are stops of the pattern
+            if (callingPatternStopArrivalOffsets[i] >= patternStopDepartureOffsets[stop] && callingPatternStopArrivalOffsets[i] <= patternStopArrivalOffsets[stop + 1]
+                    && stations.get(callingPatternStops[i])) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    int getCallingStopCount(final int callingPattern) {
+        return callingPatternStopOffsets[callingPattern + 1] - callingPatternStopOffsets[callingPattern];
+    }
+
+    int getCallingStop(final int callingPattern, final int stopIndex) {
+        return callingPatternStops[callingPatternStopOffsets[callingPattern] + stopIndex];
+    }
+
+    long getCallingArrivalTime(final int trip, final int stopIndex) {
+        return tripDepartures[trip] + callingPatternStopArrivalOffsets[callingPatternStopOffsets[tripCallingPatterns[trip]] + stopIndex];
+    }
+
+    long getCallingDepartureTime(final int trip, final int stopIndex) {
+        return tripDepartures[trip] + callingPatternStopDepartureOffsets[callingPatternStopOffsets[tripCallingPatterns[trip]] + stopIndex];
+    }
+
+    /**
+     * Binary searches the trips of <code>callingPattern</code> for the index (within <code>callingPatternTrips</code>) of the
+     * first trip to leave the stop at <code>stopIndex</code> strictly after <code>timestamp</code>, or the index after its last trip
+     *
+     * @param callingPattern the calling pattern
+     * @param stopIndex      the position within the calling pattern
+     * @param timestamp      the time to search from
+     *
+     * @return int
+     */
+    int indexOfFirstCallingTripDepartingAfter(final int callingPattern, final int stopIndex, final long timestamp) {
+        return indexOfFirstCallingTripAfter(callingPattern, callingPatternStopDepartureOffsets[callingPatternStopOffsets[callingPattern] + stopIndex], timestamp);
+    }
+
+    /**
+     * Binary searches the trips of <code>callingPattern</code> for the index (within <code>callingPatternTrips</code>) of the
+     * first trip to reach the stop at <code>stopIndex</code> strictly after <code>timestamp</code>, or the index after its last trip
+     *
+     * @param callingPattern the calling pattern
+     * @param stopIndex      the position within the calling pattern
+     * @param timestamp      the time to search from
+     *
+     * @return int
+     */
+    int indexOfFirstCallingTripArrivingAfter(final int callingPattern, final int stopIndex, final long timestamp) {
+        return indexOfFirstCallingTripAfter(callingPattern, callingPatternStopArrivalOffsets[callingPatternStopOffsets[callingPattern] + stopIndex], timestamp);
+    }
+
+    /**
+     * The trips of a calling pattern all take the same time between stops, so they stay in departure order at every stop
+     */
+    private int indexOfFirstCallingTripAfter(final int callingPattern, final long offset, final long timestamp) {
+        int low = callingPatternTripOffsets[callingPattern];
+        int high = callingPatternTripOffsets[callingPattern + 1];
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (tripDepartures[callingPatternTrips[middle]] + offset <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Binary searches the trips of <code>pattern</code> for the index (within <code>patternTrips</code>) of the first
+     * trip departing from the stop at <code>stopIndex</code> at or after <code>timestamp</code>, or -1 if there isn't one
+     *
+     * The trips of a pattern all take the same time between stops, so they stay in departure order at every stop
+     *
+     * @param pattern   the pattern
+     * @param stopIndex the position within the pattern
+     * @param timestamp the earliest time to depart
+     *
+     * @return int
+     */
+    int indexOfFirstTripDeparting(final int pattern, final int stopIndex, final long timestamp) {
+        long departureOffset = patternStopDepartureOffsets[patternStopOffsets[pattern] + stopIndex];
+        int low = patternTripOffsets[pattern];
+        int high = patternTripOffsets[pattern + 1];
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (tripDepartures[patternTrips[middle]] + departureOffset < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low == patternTripOffsets[pattern + 1] ? -1 : low;
+    }
+
+    /**
+     * Builds a <code>Leg</code> travelling on the trip of <code>boardConnection</code> from that connection
+     * to the end of its connection <code>alightConnection</code>
+     *
+     * @param boardConnection  the connection the trip is boarded on
+     * @param alightConnection the connection the trip is left after
+     *
+     * @return Leg
+     */
+    Leg createLeg(final int boardConnection, final int alightConnection) {
+        return createLeg(connectionTrips[boardConnection], connectionStopIndexes[boardConnection], connectionStopIndexes[alightConnection] + 1);
+    }
+
+    /**
+     * Builds a <code>Leg</code> travelling on <code>trip</code> from the stop at <code>boardStopIndex</code>
+     * of its pattern to the stop at <code>alightStopIndex</code>
+     *
+     * @param trip            the trip
+     * @param boardStopIndex  the position of the stop the trip is boarded at
+     * @param alightStopIndex the position of the stop the trip is left at
+     *
+     * @return Leg
+     */
+    Leg createLeg(final int trip, final int boardStopIndex, final int alightStopIndex) {
+        return new Leg(
+                getJourneyId(trip),
+                getBasicRoute(trip),
+                stationIds[getStop(tripPatterns[trip], boardStopIndex)],
+                stationIds[getStop(tripPatterns[trip], alightStopIndex)],
+                getDepartureTime(trip, boardStopIndex),
+                getArrivalTime(trip, alightStopIndex),
+                tripFares[trip]
+        );
+    }
+
+    /**
+     * Builds a <code>Leg</code> travelling on <code>trip</code> from the stop at <code>boardStopIndex</code>
+     * of its calling pattern to the stop at <code>alightStopIndex</code>, either of which may be an intermediate station
+     *
+     * Intermediate stations have no fares of their own, so the trip's whole single fare is charged
+     *
+     * @param trip            the trip
+     * @param boardStopIndex  the position of the stop the trip is boarded at
+     * @param alightStopIndex the position of the stop the trip is left at
+     *
+     * @return Leg
+     */
+    Leg createCallingLeg(final int trip, final int boardStopIndex, final int alightStopIndex) {
+        return new Leg(
+                getJourneyId(trip),
+                getBasicRoute(trip),
+                stationIds[getCallingStop(tripCallingPatterns[trip], boardStopIndex)],
+                stationIds[getCallingStop(tripCallingPatterns[trip], alightStopIndex)],
+                getCallingDepartureTime(trip, boardStopIndex),
+                getCallingArrivalTime(trip, alightStopIndex),
+                tripFares[trip]
+        );
+    }
+
+    /**
+     * Returns the ordinal of every station <code>basicRoute</code> calls at, in order, through the <code>intermediateStationIds</code>,
+     * leaving out any that aren't in the timetable, and fills <code>times</code> with the arrival and departure offset of each in millis
+     *
+     * @param basicRoute             the <code>BasicRoute</code>
+     * @param intermediateStationIds the stations called at between its two ends
+     * @param stopTimes              the times they are called at, or null to spread them evenly over the route's duration
+     * @param times                  filled with the arrival offsets, then the departure offsets
+     *
+     * @return int[]
+     */
+    private int[] getCallingStops(final BasicRoute basicRoute, final List<String> intermediateStationIds, final StopTimes stopTimes, final long[][] times) {
+        int[] stops = new int[intermediateStationIds.size() + 2];
+        long[] arrivalOffsets = new long[stops.length];
+        long[] departureOffsets = new long[stops.length];
+        long duration = basicRoute.getDuration() * 60000L;
+        int stopCount = 1;
+
+        stops[0] = getStationOrdinal(basicRoute.getDepartingStationId());
+
+        for (int i = 0; i < intermediateStationIds.size(); i++) {
+            int ordinal = getStationOrdinal(intermediateStationIds.get(i));
+
+            if (ordinal != -1) {
+                stops[stopCount] = ordinal;
+
+                if (stopTimes != null) {
+                    arrivalOffsets[stopCount] = stopTimes.getArrivalOffset(i) * 60000L;
+                    departureOffsets[stopCount] = stopTimes.getDepartureOffset(i) * 60000L;
+                }
+
+                stopCount++;
+            }
+        }
+
+        if (stopTimes == null) {
+            for (int i = 1; i < stopCount; i++) {
+                arrivalOffsets[i] = duration * i / stopCount;
+                departureOffsets[i] = arrivalOffsets[i];
+            }
+        }
+
+        stops[stopCount] = getStationOrdinal(basicRoute.getDestinationStationId());
+        arrivalOffsets[stopCount] = duration;
+        departureOffsets[stopCount] = duration;
+        stopCount++;
+
+        times[0] = Arrays.copyOf(arrivalOffsets, stopCount);
+        times[1] = Arrays.copyOf(departureOffsets, stopCount);
+
+        return Arrays.copyOf(stops, stopCount);
+    }
+
+    private void addStation(final String stationId) {
+        int ordinal = stationOrdinalsById.size();
+
+        stationIds[ordinal] = stationId;
+        stationOrdinalsById.put(stationId, ordinal);
+    }
+
+    /**
+     * Groups the stops of every pattern by station, so that the patterns calling at station <code>s</code> are
+     * <code>stationPatterns[stationPatternOffsets[s]]</code> up to <code>stationPatterns[stationPatternOffsets[s + 1]]</code>
+     *
+     * @param patternStopOffsets        the start of each pattern's stops, with one extra element
+     * @param patternStops              the stations each pattern calls at
+     * @param stationPatternOffsets     filled with the start of each station's patterns, with one extra element
+     * @param stationPatterns           filled with the patterns calling at each station
+     * @param stationPatternStopIndexes filled with the position of the station within each of those patterns
+     */
+    private void groupStopsByStation(final int[] patternStopOffsets, final int[] patternStops, final int[] stationPatternOffsets, final int[] stationPatterns, final int[] stationPatternStopIndexes) {
+        int[] stopPatterns = new int[patternStops.length];
+
+        for (int pattern = 0; pattern < patternStopOffsets.length - 1; pattern++) {
+            for (int i = patternStopOffsets[pattern]; i < patternStopOffsets[pattern + 1]; i++) {
+                stopPatterns[i] = pattern;
+            }
+        }
+
+        int[] stops = new int[patternStops.length];
+        groupByKey(patternStops, stationIds.length, stationPatternOffsets, stops);
+
+        for (int i = 0; i < stops.length; i++) {
+            stationPatterns[i] = stopPatterns[stops[i]];
+            stationPatternStopIndexes[i] = stops[i] - patternStopOffsets[stationPatterns[i]];
+        }
+    }
+
+    /**
+     * Groups the indexes of <code>keys</code> by key with a counting sort, so that the indexes with key <code>k</code>
+     * are <code>groupedIndexes[offsets[k]]</code> up to <code>groupedIndexes[offsets[k + 1]]</code>, in ascending order
+     *
+     * @param keys           the keys to group by, each from 0 up to <code>keyCount</code>
+     * @param keyCount       the number of distinct keys
+     * @param offsets        filled with the start of each key's group, with one extra element
+     * @param groupedIndexes filled with the indexes, grouped by key
+     */
+    static void groupByKey(final int[] keys, final int keyCount, final int[] offsets, final int[] groupedIndexes) {
+        int[] positions = new int[keyCount + 1];
+
+        for (int key : keys) {
+            positions[key + 1]++;
+        }
+
+        for (int key = 0; key < keyCount; key++) {
+            positions[key + 1] += positions[key];
+        }
+
+        System.arraycopy(positions, 0, offsets, 0, keyCount + 1);
+
+        for (int i = 0; i < keys.length; i++) {
+            groupedIndexes[positions[keys[i]]++] = i;
+        }
+    }
+
+    private static int toPence(final BigDecimal price) {
+        return price.setScale(2, RoundingMode.HALF_UP).movePointRight(2).intValue();
+    }
+
+    /**
+     * Checks if <code>timestamp</code> is on the last day of its month, when fares are discounted
+     * (see <code>TableManager.formatCurrency()</code>)
+     *
+     * @param calendar  a <code>Calendar</code> to reuse
+     * @param timestamp the time to check
+     *
+     * @return boolean
+     */
+    private static boolean isLastDayOfMonth(final Calendar calendar, final long timestamp) {
+        calendar.setTimeInMillis(timestamp);
+
+        return calendar.getActualMaximum(Calendar.DAY_OF_MONTH) == calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Returns the indexes of the first <code>count</code> <code>keys</code>, sorted by key with a stable merge sort
+     *
+     * @param keys  the keys to sort by
+     * @param count the number of keys to sort
+     *
+     * @return int[]
+     */
+    static int[] sortByKey(final long[] keys, final int count) {
+        int[] source = new int[count];
+        int[] target = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            source[i] = i;
+        }
+
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int middle = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int left = low;
+                int right = middle;
+
+                for (int i = low; i < high; i++) {
+                    if (left < middle && (right >= high || keys[source[left]] <= keys[source[right]])) {
+                        target[i] = source[left++];
+                    } else {
+                        target[i] = source[right++];
+                    }
+                }
+            }
+
+            int[] sorted = target;
+            target = source;
+            source = sorted;
+        }
+
+        return source;
+    }
+}
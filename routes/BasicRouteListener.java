@@ -0,0 +1,32 @@
+package com.TobyMellor.TrainRouteFinder.routes;
+
+/**
+ * Implemented by classes that keep something derived from the <code>BasicRoute</code>s up to date as they change,
+ * registered with <code>BasicRouteManager.addBasicRouteListener()</code>
+ *
+ * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
+ *
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/11 10:15:00 $
+ */
+
+public interface BasicRouteListener {
+    /**
+     * Called after <code>basicRoute</code> has been added
+     *
+     * @param basicRoute the <code>BasicRoute</code> that was added
+     */
+    void basicRouteAdded(BasicRoute basicRoute);
+
+    /**
+     * Called after the <code>duration</code> of <code>basicRoute</code> has been changed
+     *
+     * @param basicRoute       the <code>BasicRoute</code> that was changed
+     * @param previousDuration the duration before it was changed
+     */
+    void basicRouteDurationChanged(BasicRoute basicRoute, int previousDuration);
+
+    /**
+     * Called after the whole collection of <code>BasicRoute</code>s has been replaced
+     */
+    void basicRoutesReset();
+}
@@ -2,50 +2,205 @@ package com.TobyMellor.TrainRouteFinder.routes;
 
 import com.TobyMellor.TrainRouteFinder.App;
 import com.TobyMellor.TrainRouteFinder.Manager;
+import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
 import com.TobyMellor.TrainRouteFinder.stations.StationManager;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manager containing Lists containing the <code>basicRoutes</code>
  * Used to perform operations on the whole collection of objects
  *
+ * <code>BasicRoute</code>s are also indexed by <code>id</code> and by their pair of
+ * <code>departingStationId</code> and <code>destinationStationId</code>, so resolving a route takes constant time
+ *
+ * Every change bumps the <code>version</code> and is passed on to the registered <code>BasicRouteListener</code>s,
+ * so anything derived from the routes can tell it is stale or update itself
+ *
+ * The routes, their indexes and the <code>version</code> are published together as an immutable <code>Snapshot</code>,
+ * so reading never takes a lock. Changes are serialized on the manager, and each one publishes a changed copy of the
+ * current snapshot before telling the listeners.
+ *
  * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
  *
- * @version $Revision: 1.0.0 $, $Date: 2017/03/27 21:43:00 $
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:45:00 $
  */
 
 public class BasicRouteManager extends Manager {
-    private List<BasicRoute> basicRoutes;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(new Snapshot());
+
+    private final List<BasicRouteListener> basicRouteListeners = new CopyOnWriteArrayList<BasicRouteListener>();
 
     public BasicRouteManager(List<BasicRoute> basicRoutes) {
         setBasicRoutes(basicRoutes);
     }
 
+    private BasicRouteManager(final Snapshot snapshot) {
+        this.snapshot.set(snapshot);
+    }
+
+    /**
+     * Returns a manager holding the <code>BasicRoute</code>s as they are now, sharing the current snapshot rather than copying it
+     * Changes made to either manager afterwards aren't seen by the other, and the listeners aren't carried over
+     *
+     * @return BasicRouteManager
+     */
+    public BasicRouteManager snapshot() {
+        return new BasicRouteManager(snapshot.get());
+    }
+
     /**
      * Retrieves the whole collection of loaded <code>BasicRoute</code>s
+     * The list cannot be modified, use <code>addBasicRoute()</code> instead
      *
      * @return List<BasicRoute>
      */
     public List<BasicRoute> getBasicRoutes() {
-        return basicRoutes;
+        return Collections.unmodifiableList(snapshot.get().basicRoutes);
     }
 
     /**
-     * Sets the whole collection of <code>BasicRoute</code>s
+     * Sets the whole collection of <code>BasicRoute</code>s and rebuilds their indexes
      *
      * @param basicRoutes the collection of <code>BasicRoute</code>s
+     */
+    public synchronized void setBasicRoutes(final List<BasicRoute> basicRoutes) {
+        Snapshot snapshot = new Snapshot();
+
+        for (BasicRoute basicRoute : basicRoutes) {
+            snapshot.indexBasicRoute(basicRoute);
+        }
+
+        snapshot.version = this.snapshot.get().version + 1;
+        this.snapshot.set(snapshot);
+
+        for (BasicRouteListener basicRouteListener : basicRouteListeners) {
+            basicRouteListener.basicRoutesReset();
+        }
+    }
+
+    /**
+     * Starts replacing the whole collection of <code>BasicRoute</code>s with ones added through the returned <code>Loader</code>
      *
-     * @return List<BasicRoute>
+     * Each <code>BasicRoute</code> is indexed as it is added, rather than copying every route added before it, and
+     * nothing is published until <code>finish()</code> is called
+     *
+     * @return Loader
+     */
+    public Loader startLoading() {
+        return new Loader();
+    }
+
+    /**
+     * Adds an already validated <code>BasicRoute</code> to the collection and its indexes
+     *
+     * If another <code>BasicRoute</code> already joins the same pair of stations, that one
+     * is still returned when searching by station
+     *
+     * Every change copies the current snapshot, so <code>setBasicRoutes()</code> should be preferred when adding many at once
+     *
+     * @param basicRoute the <code>BasicRoute</code> to add
+     */
+    public synchronized void addBasicRoute(final BasicRoute basicRoute) {
+        Snapshot snapshot = new Snapshot(this.snapshot.get());
+        snapshot.indexBasicRoute(basicRoute);
+
+        this.snapshot.set(snapshot);
+
+        for (BasicRouteListener basicRouteListener : basicRouteListeners) {
+            basicRouteListener.basicRouteAdded(basicRoute);
+        }
+    }
+
+    /**
+     * Changes the <code>duration</code> of the <code>BasicRoute</code> with the <code>basicRouteId</code>, recording it
+     * in the <code>MutationLog</code>
+     *
+     * The duration should be changed through this method rather than <code>BasicRoute.setDuration()</code>,
+     * so that the <code>BasicRouteListener</code>s are told about it and the change survives a restart.
+     *
+     * @param basicRouteId the ID of the BasicRoute to change
+     * @param duration     the new duration in minutes
+     *
+     * @see #changeBasicRouteDuration(String, int)
+     */
+    public synchronized void setBasicRouteDuration(final String basicRouteId, final int duration) {
+        BasicRoute basicRoute = snapshot.get().basicRoutesById.get(basicRouteId);
+
+        if (basicRoute == null || basicRoute.getDuration() == duration) {
+            return;
+        }
+
+        if (App.getMutationLog() != null) {
+            App.getMutationLog().basicRouteDurationChanged(basicRouteId, duration);
+        }
+
+        changeBasicRouteDuration(basicRouteId, duration);
+    }
+
+    /**
+     * Changes the <code>duration</code> of the <code>BasicRoute</code> with the <code>basicRouteId</code>, without
+     * recording it in the <code>MutationLog</code>, for when the change is already logged
+     *
+     * The <code>BasicRoute</code> is replaced by a copy with the new duration rather than changed in place, since older
+     * snapshots may still be reading it; the listeners are passed the copy.
+     *
+     * @param basicRouteId the ID of the BasicRoute to change
+     * @param duration     the new duration in minutes
+     */
+    public synchronized void changeBasicRouteDuration(final String basicRouteId, final int duration) {
+        Snapshot snapshot = new Snapshot(this.snapshot.get());
+        BasicRoute previousBasicRoute = snapshot.basicRoutesById.get(basicRouteId);
+
+        if (previousBasicRoute == null || previousBasicRoute.getDuration() == duration) {
+            return;
+        }
+
+        int previousDuration = previousBasicRoute.getDuration();
+        BasicRoute basicRoute = new BasicRoute(previousBasicRoute.getId(), previousBasicRoute.getDepartingStationId(), previousBasicRoute.getDestinationStationId(),
+                previousBasicRoute.getSinglePrice(), previousBasicRoute.getReturnPrice(), duration);
+
+        snapshot.basicRoutes.set(snapshot.basicRoutes.indexOf(previousBasicRoute), basicRoute);
+        snapshot.basicRoutesById.put(basicRouteId, basicRoute);
+
+        Map<String, BasicRoute> basicRoutesByDestinationStationId = snapshot.basicRoutesByStationIds.get(basicRoute.getDepartingStationId());
+
+        if (basicRoutesByDestinationStationId.get(basicRoute.getDestinationStationId()) == previousBasicRoute) {
+            basicRoutesByDestinationStationId.put(basicRoute.getDestinationStationId(), basicRoute);
+        }
+
+        this.snapshot.set(snapshot);
+
+        for (BasicRouteListener basicRouteListener : basicRouteListeners) {
+            basicRouteListener.basicRouteDurationChanged(basicRoute, previousDuration);
+        }
+    }
+
+    public void addBasicRouteListener(final BasicRouteListener basicRouteListener) {
+        basicRouteListeners.add(basicRouteListener);
+    }
+
+    public void removeBasicRouteListener(final BasicRouteListener basicRouteListener) {
+        basicRouteListeners.remove(basicRouteListener);
+    }
+
+    /**
+     * The number of times the <code>BasicRoute</code>s have changed, used to tell if something built from them is stale
+     *
+     * @return int
      */
-    public void setBasicRoutes(final List<BasicRoute> basicRoutes) {
-        this.basicRoutes = basicRoutes;
+    public int getVersion() {
+        return snapshot.get().version;
     }
 
     /**
@@ -62,69 +217,165 @@ public class BasicRouteManager extends Manager {
     public BasicRoute getBasicRoute(final String departingStationName, final String destinationStationName) {
         final StationManager stationManager = App.getStationManager();
 
-        for (BasicRoute basicRoute : getBasicRoutes()) {
-            if (stationManager.getDestinationStation(basicRoute.getDepartingStationId()).getName().equals(departingStationName) && stationManager.getDestinationStation(basicRoute.getDestinationStationId()).getName().equals(destinationStationName)) {
-                return basicRoute;
-            }
+        DestinationStation departingStation = stationManager.getDestinationStationByName(departingStationName);
+        DestinationStation destinationStation = stationManager.getDestinationStationByName(destinationStationName);
+
+        if (departingStation == null || destinationStation == null) {
+            return null;
         }
 
-        return null;
+        return getBasicRouteBetween(departingStation.getId(), destinationStation.getId());
     }
 
     /**
-     * Retrieves the <code>BasicRoute</code> where the <code>id</code> is <code>basicRouteId</code>
+     * Retrieves the <code>BasicRoute</code> from the <code>DestinationStation</code> with the <code>id</code> <code>departingStationId</code>
+     * to the <code>DestinationStation</code> with the <code>id</code> <code>destinationStationId</code>
      *
      * Returns null if the <code>BasicRoute</code> cannot be found
      *
-     * @param basicRouteId the ID of the BasicRoute to return
+     * @param departingStationId the ID of the station the train departs from
+     * @param destinationStationId the ID of the station the train arrives at
      *
-     * @return List<BasicRoute>
+     * @return BasicRoute
      */
-    public BasicRoute getBasicRoute(final String basicRouteId) {
-        final List<BasicRoute> basicRoutes = getBasicRoutes();
+    public BasicRoute getBasicRouteBetween(final String departingStationId, final String destinationStationId) {
+        Map<String, BasicRoute> basicRoutesByDestinationStationId = snapshot.get().basicRoutesByStationIds.get(departingStationId);
 
-        for (BasicRoute basicRoute : basicRoutes) {
-            if (basicRoute.getId().equals(basicRouteId)) {
-                return basicRoute;
-            }
+        if (basicRoutesByDestinationStationId == null) {
+            return null;
         }
 
-        return null;
+        return basicRoutesByDestinationStationId.get(destinationStationId);
+    }
+
+    /**
+     * Retrieves the <code>BasicRoute</code> where the <code>id</code> is <code>basicRouteId</code>
+     *
+     * Returns null if the <code>BasicRoute</code> cannot be found
+     *
+     * @param basicRouteId the ID of the BasicRoute to return
+     *
+     * @return BasicRoute
+     */
+    public BasicRoute getBasicRoute(final String basicRouteId) {
+        return snapshot.get().basicRoutesById.get(basicRouteId);
     }
 
     /**
      * Converts the collection of <code>BasicRoute</code>s
      * into XML and writes it to the corresponding XML file
      *
-     * Any errors are thrown and caught at the lower level
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        writeXML(new File("resources/xml/basic_routes.xml"));
+    }
+
+    @Override
+    protected void writeRecords(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("basicRoutes");
+
+        for (BasicRoute basicRoute : snapshot.get().basicRoutes) {
+            writer.writeStartElement("basicRoute");
+            writer.writeAttribute("id", basicRoute.getId());
+
+            writeXMLElement(writer, "departingStationId", basicRoute.getDepartingStationId());
+            writeXMLElement(writer, "destinationStationId", basicRoute.getDestinationStationId());
+            writeXMLElement(writer, "singlePrice", String.valueOf(basicRoute.getSinglePrice()));
+            writeXMLElement(writer, "returnPrice", String.valueOf(basicRoute.getReturnPrice()));
+            writeXMLElement(writer, "duration", String.valueOf(basicRoute.getDuration()));
+
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+    }
+
+    /**
+     * Builds the <code>BasicRoute</code>s that replace every route in the manager, from one thread, without publishing
+     * anything until it is finished
+     */
+    public class Loader {
+        private final Snapshot loadedSnapshot = new Snapshot(); // changed in place, since only this loader can see it
+        private final BasicRouteManager loadedBasicRouteManager = new BasicRouteManager(loadedSnapshot);
+
+        private Loader() {
+        }
+
+        /**
+         * Returns a manager holding the <code>BasicRoute</code>s added so far, for validating the next ones against
+         *
+         * @return BasicRouteManager
+         */
+        public BasicRouteManager getBasicRouteManager() {
+            return loadedBasicRouteManager;
+        }
+
+        /**
+         * Adds an already validated <code>BasicRoute</code>
+         *
+         * @param basicRoute the <code>BasicRoute</code> to add
+         */
+        public void addBasicRoute(final BasicRoute basicRoute) {
+            loadedSnapshot.indexBasicRoute(basicRoute);
+        }
+
+        /**
+         * Replaces the manager's <code>BasicRoute</code>s with the ones added
+         */
+        public void finish() {
+            setBasicRoutes(loadedSnapshot.basicRoutes);
+        }
+    }
+
+    /**
+     * The <code>BasicRoute</code>s and their indexes, as they were at one <code>version</code>
+     * A snapshot is only changed while it is being built, before it is published
      */
-    public void save() {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    private static final class Snapshot {
+        private final List<BasicRoute> basicRoutes;
 
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.newDocument();
+        private final Map<String, BasicRoute> basicRoutesById;
+        private final Map<String, Map<String, BasicRoute>> basicRoutesByStationIds; // departingStationId -> destinationStationId -> BasicRoute
 
-            Element rootElement = document.createElement("basicRoutes");
+        private int version = 0; // incremented whenever the routes change, so that anything derived from them knows to rebuild
 
-            for (BasicRoute basicRoute : getBasicRoutes()) {
-                Element basicRouteElement = document.createElement("basicRoute");
-                basicRouteElement.setAttribute("id", basicRoute.getId());
+        private Snapshot() {
+            basicRoutes = new ArrayList<BasicRoute>();
+            basicRoutesById = new HashMap<String, BasicRoute>();
+            basicRoutesByStationIds = new HashMap<String, Map<String, BasicRoute>>();
+        }
 
-                basicRouteElement.appendChild(createXMLElement(document, "departingStationId", basicRoute.getDepartingStationId()));
-                basicRouteElement.appendChild(createXMLElement(document, "destinationStationId", basicRoute.getDestinationStationId()));
-                basicRouteElement.appendChild(createXMLElement(document, "singlePrice", String.valueOf(basicRoute.getSinglePrice())));
-                basicRouteElement.appendChild(createXMLElement(document, "returnPrice", String.valueOf(basicRoute.getReturnPrice())));
-                basicRouteElement.appendChild(createXMLElement(document, "duration", String.valueOf(basicRoute.getDuration())));
+        /**
+         * Copies <code>snapshot</code> with the next <code>version</code>, ready to be changed
+         *
+         * @param snapshot the snapshot to copy
+         */
+        private Snapshot(final Snapshot snapshot) {
+            basicRoutes = new ArrayList<BasicRoute>(snapshot.basicRoutes);
+            basicRoutesById = new HashMap<String, BasicRoute>(snapshot.basicRoutesById);
+            basicRoutesByStationIds = new HashMap<String, Map<String, BasicRoute>>();
+            version = snapshot.version + 1;
 
-                rootElement.appendChild(basicRouteElement);
+            for (Map.Entry<String, Map<String, BasicRoute>> basicRoutesByDestinationStationId : snapshot.basicRoutesByStationIds.entrySet()) {
+                basicRoutesByStationIds.put(basicRoutesByDestinationStationId.getKey(), new HashMap<String, BasicRoute>(basicRoutesByDestinationStationId.getValue()));
             }
+        }
+
+        private void indexBasicRoute(final BasicRoute basicRoute) {
+            basicRoutes.add(basicRoute);
+            basicRoutesById.put(basicRoute.getId(), basicRoute);
 
-            document.appendChild(rootElement);
+            Map<String, BasicRoute> basicRoutesByDestinationStationId = basicRoutesByStationIds.get(basicRoute.getDepartingStationId());
 
-            writeXML(document, new File("resources/xml/basic_routes.xml"));
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
+            if (basicRoutesByDestinationStationId == null) {
+                basicRoutesByDestinationStationId = new HashMap<String, BasicRoute>();
+                basicRoutesByStationIds.put(basicRoute.getDepartingStationId(), basicRoutesByDestinationStationId);
+            }
+
+            if (!basicRoutesByDestinationStationId.containsKey(basicRoute.getDestinationStationId())) {
+                basicRoutesByDestinationStationId.put(basicRoute.getDestinationStationId(), basicRoute);
+            }
         }
     }
 }
@@ -4,52 +4,97 @@ import com.TobyMellor.TrainRouteFinder.App;
 import com.TobyMellor.TrainRouteFinder.Manager;
 import com.TobyMellor.TrainRouteFinder.validation.exceptions.ValidationException;
 import com.TobyMellor.TrainRouteFinder.validation.validators.IntermediateStationValidator;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manager containing Lists containing the <code>destinationStations</code> and <code>intermediateStations</code>
  * Used to perform operations on the whole collection of objects
  *
+ * Each type of station is also indexed by <code>id</code> and by lowercase <code>name</code>, so that looking up a
+ * station doesn't scan the whole list. Stations should only be added or removed through this class so the indexes stay in sync.
+ *
+ * The lists and indexes are published together as an immutable <code>Snapshot</code>, so reading never takes a lock.
+ * Changes are serialized on the manager, and each one publishes a changed copy of the current snapshot.
+ *
  * @author <a href="mailto:T.Mellor-16@student.lboro.ac.uk">Toby Mellor (B619693)</a>
  *
- * @version $Revision: 1.0.0 $, $Date: 2017/03/27 21:43:00 $
+ * @version $Revision: 1.0.0 $, $Date: 2017/04/15 20:10:00 $
  */
 
 public class StationManager extends Manager {
-    private List<DestinationStation> destinationStations;
-    private List<IntermediateStation> intermediateStations;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(new Snapshot());
 
     public StationManager(List<DestinationStation> destinationStations, List<IntermediateStation> intermediateStations) {
         setDestinationStations(destinationStations);
         setIntermediateStations(intermediateStations);
     }
 
+    private StationManager(final Snapshot snapshot) {
+        this.snapshot.set(snapshot);
+    }
+
+    /**
+     * Returns a manager holding the stations as they are now, sharing the current snapshot rather than copying it
+     * Changes made to either manager afterwards aren't seen by the other
+     *
+     * @return StationManager
+     */
+    public StationManager snapshot() {
+        return new StationManager(snapshot.get());
+    }
+
     /**
      * Retrieves the whole collection of loaded <code>DestinationStation</code>s.
+     * The list cannot be modified, use <code>addDestinationStation()</code> instead.
      *
      * @return List<DestinationStation>
      */
     public List<DestinationStation> getDestinationStations() {
-        return destinationStations;
+        return Collections.unmodifiableList(snapshot.get().destinationStations);
     }
 
     /**
-     * Sets the whole collection of <code>DestinationStation</code>s.
+     * Sets the whole collection of <code>DestinationStation</code>s and rebuilds their indexes.
      *
      * @param destinationStations the collection of <code>DestinationStation</code>s
+     */
+    public synchronized void setDestinationStations(final List<DestinationStation> destinationStations) {
+        Snapshot snapshot = new Snapshot(this.snapshot.get());
+
+        snapshot.destinationStations.clear();
+        snapshot.destinationStationsById.clear();
+        snapshot.destinationStationsByName.clear();
+
+        for (DestinationStation destinationStation : destinationStations) {
+            snapshot.addDestinationStation(destinationStation);
+        }
+
+        this.snapshot.set(snapshot);
+    }
+
+    /**
+     * Adds an already validated <code>DestinationStation</code> to the collection and its indexes.
+     * Every change copies the current snapshot, so <code>setDestinationStations()</code> should be preferred when adding many at once.
      *
-     * @return List<DestinationStation>
+     * @param destinationStation the <code>DestinationStation</code> to add
      */
-    public void setDestinationStations(final List<DestinationStation> destinationStations) {
-        this.destinationStations = destinationStations;
+    public synchronized void addDestinationStation(final DestinationStation destinationStation) {
+        Snapshot snapshot = new Snapshot(this.snapshot.get());
+        snapshot.addDestinationStation(destinationStation);
+
+        this.snapshot.set(snapshot);
     }
 
     /**
@@ -61,35 +106,73 @@ public class StationManager extends Manager {
      * @return DestinationStation
      */
     public DestinationStation getDestinationStation(final String destinationStationId) {
-        final List<DestinationStation> destinationStations = getDestinationStations();
+        return snapshot.get().destinationStationsById.get(destinationStationId);
+    }
 
-        for (DestinationStation destinationStation : destinationStations) {
-            if (destinationStationId.equals(destinationStation.getId())) {
-                return destinationStation;
-            }
-        }
+    /**
+     * Retrieves the <code>DestinationStation</code> where the <code>name</code> matches <code>stationName</code>, ignoring case.
+     * Returns null if a <code>DestinationStation</code> with that <code>name</code> is not found.
+     *
+     * @param stationName the name of the DestinationStation to return
+     *
+     * @return DestinationStation
+     */
+    public DestinationStation getDestinationStationByName(final String stationName) {
+        return snapshot.get().destinationStationsByName.get(getNameKey(stationName));
+    }
 
-        return null;
+    /**
+     * Starts replacing the whole collection of stations with ones added through the returned <code>Loader</code>
+     *
+     * Each station is indexed as it is added, rather than copying every station added before it, and nothing is
+     * published until <code>finish()</code> is called
+     *
+     * @return Loader
+     */
+    public Loader startLoading() {
+        return new Loader();
     }
 
     /**
      * Retrieves the whole collection of loaded <code>IntermediateStation</code>s.
+     * The list cannot be modified, use <code>addIntermediateStation()</code> or <code>createIntermediateStation()</code> instead.
      *
      * @return List<IntermediateStation>
      */
     public List<IntermediateStation> getIntermediateStations() {
-        return intermediateStations;
+        return Collections.unmodifiableList(snapshot.get().intermediateStations);
     }
 
     /**
-     * Sets the whole collection of <code>IntermediateStation</code>s.
+     * Sets the whole collection of <code>IntermediateStation</code>s and rebuilds their indexes.
      *
      * @param intermediateStations the collection of <code>IntermediateStation</code>s
+     */
+    public synchronized void setIntermediateStations(final List<IntermediateStation> intermediateStations) {
+        Snapshot snapshot = new Snapshot(this.snapshot.get());
+
+        snapshot.intermediateStations.clear();
+        snapshot.intermediateStationsById.clear();
+        snapshot.intermediateStationsByName.clear();
+
+        for (IntermediateStation intermediateStation : intermediateStations) {
+            snapshot.addIntermediateStation(intermediateStation);
+        }
+
+        this.snapshot.set(snapshot);
+    }
+
+    /**
+     * Adds an already validated <code>IntermediateStation</code> to the collection and its indexes.
+     * Every change copies the current snapshot, so <code>setIntermediateStations()</code> should be preferred when adding many at once.
      *
-     * @return List<IntermediateStation>
+     * @param intermediateStation the <code>IntermediateStation</code> to add
      */
-    public void setIntermediateStations(final List<IntermediateStation> intermediateStations) {
-        this.intermediateStations = intermediateStations;
+    public synchronized void addIntermediateStation(final IntermediateStation intermediateStation) {
+        Snapshot snapshot = new Snapshot(this.snapshot.get());
+        snapshot.addIntermediateStation(intermediateStation);
+
+        this.snapshot.set(snapshot);
     }
 
     /**
@@ -101,15 +184,19 @@ public class StationManager extends Manager {
      * @return IntermediateStation
      */
     public IntermediateStation getIntermediateStation(final String intermediateStationId) {
-        final List<IntermediateStation> intermediateStations = getIntermediateStations();
-
-        for (IntermediateStation intermediateStation : intermediateStations) {
-            if (intermediateStationId.equals(intermediateStation.getId())) {
-                return intermediateStation;
-            }
-        }
+        return snapshot.get().intermediateStationsById.get(intermediateStationId);
+    }
 
-        return null;
+    /**
+     * Retrieves the <code>IntermediateStation</code> where the <code>name</code> matches <code>stationName</code>, ignoring case.
+     * Returns null if a <code>IntermediateStation</code> with that <code>name</code> is not found.
+     *
+     * @param stationName the name of the IntermediateStation to return
+     *
+     * @return IntermediateStation
+     */
+    public IntermediateStation getIntermediateStationByName(final String stationName) {
+        return snapshot.get().intermediateStationsByName.get(getNameKey(stationName));
     }
 
     /**
@@ -122,78 +209,197 @@ public class StationManager extends Manager {
      *
      * @throws ValidationException if the stationName is not valid
      */
-    public IntermediateStation createIntermediateStation(final String stationName) throws ValidationException {
+    public synchronized IntermediateStation createIntermediateStation(final String stationName) throws ValidationException {
         final String intermediateStationId = UUID.randomUUID().toString();
         final IntermediateStation intermediateStation = new IntermediateStation(intermediateStationId, stationName);
 
         intermediateStation.validate(new IntermediateStationValidator()); // throws ValiationException up the calling chain
 
-        intermediateStations.add(intermediateStation);
+        if (App.getMutationLog() != null) {
+            App.getMutationLog().intermediateStationCreated(intermediateStation);
+        }
+
+        addIntermediateStation(intermediateStation);
         return intermediateStation;
     }
 
     /**
-     * Deletes the <code>IntermediateStation</code> where the <code>id</code> is <code>intermediateStationId</code>
+     * Deletes the <code>IntermediateStation</code> where the <code>id</code> is <code>intermediateStationId</code>,
+     * recording it in the <code>MutationLog</code> and removing it from the installed <code>JourneyManager</code>'s journeys
      *
      * @param intermediateStationId id of the <code>IntermediateStation</code>
      */
-    public void deleteIntermediateStation(final String intermediateStationId) {
-        final List<IntermediateStation> intermediateStations = getIntermediateStations();
+    public synchronized void deleteIntermediateStation(final String intermediateStationId) {
+        if (App.getMutationLog() != null) {
+            App.getMutationLog().intermediateStationDeleted(intermediateStationId);
+        }
 
-        for (IntermediateStation intermediateStation : intermediateStations) {
-            if (intermediateStationId.equals(intermediateStation.getId())) {
-                intermediateStations.remove(intermediateStation);
+        removeIntermediateStation(intermediateStationId);
 
-                break;
-            }
+        App.getJourneyManager().removeIntermediateStationIdFromJourneys(intermediateStationId);
+    }
+
+    /**
+     * Removes the <code>IntermediateStation</code> where the <code>id</code> is <code>intermediateStationId</code>, without
+     * recording it in the <code>MutationLog</code> or touching any journeys, for when the change is already logged
+     *
+     * @param intermediateStationId id of the <code>IntermediateStation</code>
+     */
+    public synchronized void removeIntermediateStation(final String intermediateStationId) {
+        final Snapshot snapshot = new Snapshot(this.snapshot.get());
+        final IntermediateStation intermediateStation = snapshot.intermediateStationsById.remove(intermediateStationId);
+
+        if (intermediateStation != null) {
+            snapshot.intermediateStations.remove(intermediateStation);
+            snapshot.intermediateStationsByName.remove(getNameKey(intermediateStation.getName()));
+
+            this.snapshot.set(snapshot);
         }
+    }
 
-        App.getJourneyManager().removeIntermediateStationIdFromJourneys(intermediateStationId);
+    /**
+     * Returns the key a station <code>name</code> is indexed by, so that lookups ignore case
+     *
+     * @param stationName the name of the station
+     *
+     * @return String
+     */
+    private static String getNameKey(final String stationName) {
+        return stationName.toLowerCase(Locale.ENGLISH);
     }
 
     /**
      * Converts the collection of <code>DestinationStation</code>s and <code>IntermediateStation</code>s
      * into XML and writes it to the corresponding XML file
      *
-     * Any errors are thrown and caught at the lower level
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        writeXML(new File("resources/xml/stations.xml"));
+    }
+
+    @Override
+    protected void writeRecords(final XMLStreamWriter writer) throws XMLStreamException {
+        Snapshot snapshot = this.snapshot.get();
+
+        writer.writeStartElement("stations");
+        writer.writeStartElement("intermediateStations");
+
+        for (IntermediateStation intermediateStation : snapshot.intermediateStations) {
+            writer.writeStartElement("intermediateStation");
+            writer.writeAttribute("id", intermediateStation.getId());
+
+            writeXMLElement(writer, "name", intermediateStation.getName());
+
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+        writer.writeStartElement("destinationStations");
+
+        for (DestinationStation destinationStation : snapshot.destinationStations) {
+            writer.writeStartElement("destinationStation");
+            writer.writeAttribute("id", destinationStation.getId());
+
+            writeXMLElement(writer, "name", destinationStation.getName());
+
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    /**
+     * Builds the stations that replace every station in the manager, from one thread, without publishing anything
+     * until it is finished
      */
-    public void save() {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    public class Loader {
+        private final Snapshot loadedSnapshot = new Snapshot(); // changed in place, since only this loader can see it
+        private final StationManager loadedStationManager = new StationManager(loadedSnapshot);
 
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.newDocument();
+        private Loader() {
+        }
 
-            Element rootElement = document.createElement("stations");
-            Element intermediateStationsElement = document.createElement("intermediateStations");
-            Element destinationStationsElement = document.createElement("destinationStations");
+        /**
+         * Returns a manager holding the stations added so far, for validating the next ones against
+         *
+         * @return StationManager
+         */
+        public StationManager getStationManager() {
+            return loadedStationManager;
+        }
 
-            for (IntermediateStation intermediateStation : getIntermediateStations()) {
-                Element intermediateStationElement = document.createElement("intermediateStation");
-                intermediateStationElement.setAttribute("id", intermediateStation.getId());
+        /**
+         * Adds an already validated <code>DestinationStation</code>
+         *
+         * @param destinationStation the <code>DestinationStation</code> to add
+         */
+        public void addDestinationStation(final DestinationStation destinationStation) {
+            loadedSnapshot.addDestinationStation(destinationStation);
+        }
 
-                intermediateStationElement.appendChild(createXMLElement(document, "name", intermediateStation.getName()));
+        /**
+         * Adds an already validated <code>IntermediateStation</code>
+         *
+         * @param intermediateStation the <code>IntermediateStation</code> to add
+         */
+        public void addIntermediateStation(final IntermediateStation intermediateStation) {
+            loadedSnapshot.addIntermediateStation(intermediateStation);
+        }
 
-                intermediateStationsElement.appendChild(intermediateStationElement);
-            }
+        /**
+         * Replaces the manager's stations with the ones added
+         */
+        public void finish() {
+            setDestinationStations(loadedSnapshot.destinationStations);
+            setIntermediateStations(loadedSnapshot.intermediateStations);
+        }
+    }
 
-            for (DestinationStation destinationStation : getDestinationStations()) {
-                Element destinationStationElement = document.createElement("destinationStation");
-                destinationStationElement.setAttribute("id", destinationStation.getId());
+    /**
+     * The stations and their indexes, as they were between two changes
+     * A snapshot is only changed while it is being built, before it is published
+     */
+    private static final class Snapshot {
+        private final List<DestinationStation> destinationStations;
+        private final List<IntermediateStation> intermediateStations;
+
+        private final Map<String, DestinationStation> destinationStationsById;
+        private final Map<String, DestinationStation> destinationStationsByName;
+        private final Map<String, IntermediateStation> intermediateStationsById;
+        private final Map<String, IntermediateStation> intermediateStationsByName;
+
+        private Snapshot() {
+            destinationStations = new ArrayList<DestinationStation>();
+            intermediateStations = new ArrayList<IntermediateStation>();
+            destinationStationsById = new HashMap<String, DestinationStation>();
+            destinationStationsByName = new HashMap<String, DestinationStation>();
+            intermediateStationsById = new HashMap<String, IntermediateStation>();
+            intermediateStationsByName = new HashMap<String, IntermediateStation>();
+        }
 
-                destinationStationElement.appendChild(createXMLElement(document, "name", destinationStation.getName()));
+        private Snapshot(final Snapshot snapshot) {
+            destinationStations = new ArrayList<DestinationStation>(snapshot.destinationStations);
+            intermediateStations = new ArrayList<IntermediateStation>(snapshot.intermediateStations);
+            destinationStationsById = new HashMap<String, DestinationStation>(snapshot.destinationStationsById);
+            destinationStationsByName = new HashMap<String, DestinationStation>(snapshot.destinationStationsByName);
+            intermediateStationsById = new HashMap<String, IntermediateStation>(snapshot.intermediateStationsById);
+            intermediateStationsByName = new HashMap<String, IntermediateStation>(snapshot.intermediateStationsByName);
+        }
 
-                destinationStationsElement.appendChild(destinationStationElement);
-            }
+        private void addDestinationStation(final DestinationStation destinationStation) {
+            destinationStations.add(destinationStation);
 
-            rootElement.appendChild(intermediateStationsElement);
-            rootElement.appendChild(destinationStationsElement);
+            destinationStationsById.put(destinationStation.getId(), destinationStation);
+            destinationStationsByName.put(getNameKey(destinationStation.getName()), destinationStation);
+        }
 
-            document.appendChild(rootElement);
+        private void addIntermediateStation(final IntermediateStation intermediateStation) {
+            intermediateStations.add(intermediateStation);
 
-            writeXML(document, new File("resources/xml/stations.xml"));
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
+            intermediateStationsById.put(intermediateStation.getId(), intermediateStation);
+            intermediateStationsByName.put(getNameKey(intermediateStation.getName()), intermediateStation);
         }
     }
 }
@@ -2,6 +2,8 @@ package com.TobyMellor.TrainRouteFinder.validation.validators;
 
 import com.TobyMellor.TrainRouteFinder.App;
 import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
 import com.TobyMellor.TrainRouteFinder.validation.ValidationUtils;
 import com.TobyMellor.TrainRouteFinder.validation.Validator;
 
@@ -19,6 +21,21 @@ import java.util.List;
 
 public class BasicRouteValidator extends ValidationUtils implements Validator<BasicRoute> {
     private List<String> messages = new ArrayList<String>();
+    private final StationManager stationManager;
+    private final BasicRouteManager basicRouteManager;
+
+    public BasicRouteValidator() {
+        this(App.getStationManager(), App.getBasicRouteManager());
+    }
+
+    /**
+     * @param stationManager    the <code>StationManager</code> the stations are checked against, if it isn't the installed one
+     * @param basicRouteManager the <code>BasicRouteManager</code> the route is checked against, if it isn't the installed one
+     */
+    public BasicRouteValidator(final StationManager stationManager, final BasicRouteManager basicRouteManager) {
+        this.stationManager = stationManager;
+        this.basicRouteManager = basicRouteManager;
+    }
 
     /**
      * When a <code>BasicRoute</code> is validated, this method checks if the
@@ -35,15 +52,15 @@ public class BasicRouteValidator extends ValidationUtils implements Validator<Ba
      */
     @Override
     public boolean validate(final BasicRoute basicRoute) {
-        if (App.getBasicRouteManager().getBasicRoute(basicRoute.getId()) != null) {
+        if (basicRouteManager.getBasicRoute(basicRoute.getId()) != null) {
             messages.add("A Basic Route with that ID already exists!");
         }
 
-        if (App.getStationManager().getDestinationStation(basicRoute.getDepartingStationId()) == null) {
+        if (stationManager.getDestinationStation(basicRoute.getDepartingStationId()) == null) {
             messages.add("The Departing Station does not exist!");
         }
 
-        if (App.getStationManager().getDestinationStation(basicRoute.getDestinationStationId()) == null) {
+        if (stationManager.getDestinationStation(basicRoute.getDestinationStationId()) == null) {
             messages.add("The Destination Station does not exist!");
         }
 
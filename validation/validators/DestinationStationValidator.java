@@ -3,6 +3,7 @@ package com.TobyMellor.TrainRouteFinder.validation.validators;
 import com.TobyMellor.TrainRouteFinder.App;
 import com.TobyMellor.TrainRouteFinder.stations.DestinationStation;
 import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
 import com.TobyMellor.TrainRouteFinder.validation.ValidationUtils;
 import com.TobyMellor.TrainRouteFinder.validation.Validator;
 
@@ -20,6 +21,18 @@ import java.util.List;
 
 public class DestinationStationValidator extends ValidationUtils implements Validator<DestinationStation> {
     private List<String> messages = new ArrayList<String>();
+    private final StationManager stationManager;
+
+    public DestinationStationValidator() {
+        this(App.getStationManager());
+    }
+
+    /**
+     * @param stationManager the <code>StationManager</code> the station is checked against, if it isn't the installed one
+     */
+    public DestinationStationValidator(final StationManager stationManager) {
+        this.stationManager = stationManager;
+    }
 
     /**
      * When a <code>DestinationStation</code> is validated, this method checks if
@@ -34,7 +47,7 @@ public class DestinationStationValidator extends ValidationUtils implements Vali
      */
     @Override
     public boolean validate(final DestinationStation destinationStation) {
-        if (App.getStationManager().getDestinationStation(destinationStation.getId()) != null) {
+        if (stationManager.getDestinationStation(destinationStation.getId()) != null) {
             messages.add("A Destination Station with that ID already exists!");
         }
 
@@ -46,11 +59,8 @@ public class DestinationStationValidator extends ValidationUtils implements Vali
             messages.add("The Station Name can only contain alpha characters, spaces and hyphens!");
         }
 
-        for (DestinationStation ds : App.getStationManager().getDestinationStations()) {
-            if (ds.getName().equalsIgnoreCase(destinationStation.getName())) {
-                messages.add("The Station Name must be unique! A station called '" + destinationStation.getName() + "' already exists!");
-                break;
-            }
+        if (stationManager.getDestinationStationByName(destinationStation.getName()) != null) {
+            messages.add("The Station Name must be unique! A station called '" + destinationStation.getName() + "' already exists!");
         }
 
         return messages.size() == 0;
@@ -2,6 +2,7 @@ package com.TobyMellor.TrainRouteFinder.validation.validators;
 
 import com.TobyMellor.TrainRouteFinder.App;
 import com.TobyMellor.TrainRouteFinder.stations.IntermediateStation;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
 import com.TobyMellor.TrainRouteFinder.validation.ValidationUtils;
 import com.TobyMellor.TrainRouteFinder.validation.Validator;
 
@@ -19,6 +20,18 @@ import java.util.List;
 
 public class IntermediateStationValidator extends ValidationUtils implements Validator<IntermediateStation> {
     private List<String> messages = new ArrayList<String>();
+    private final StationManager stationManager;
+
+    public IntermediateStationValidator() {
+        this(App.getStationManager());
+    }
+
+    /**
+     * @param stationManager the <code>StationManager</code> the station is checked against, if it isn't the installed one
+     */
+    public IntermediateStationValidator(final StationManager stationManager) {
+        this.stationManager = stationManager;
+    }
 
     /**
      * When a <code>IntermediateStation</code> is validated, this method checks if
@@ -34,7 +47,7 @@ public class IntermediateStationValidator extends ValidationUtils implements Val
      */
     @Override
     public boolean validate(final IntermediateStation intermediateStation) {
-        if (App.getStationManager().getIntermediateStation(intermediateStation.getId()) != null) {
+        if (stationManager.getIntermediateStation(intermediateStation.getId()) != null) {
             messages.add("An Intermediate Station with that ID already exists!");
         }
 
@@ -50,11 +63,8 @@ public class IntermediateStationValidator extends ValidationUtils implements Val
             messages.add("The Station Name can only contain alphanumeric characters, spaces and hyphens!");
         }
 
-        for (IntermediateStation im : App.getStationManager().getIntermediateStations()) {
-            if (im.getName().equalsIgnoreCase(intermediateStation.getName())) {
-                messages.add("The Station Name must be unique! A station called '" + intermediateStation.getName() + "' already exists!");
-                break;
-            }
+        if (stationManager.getIntermediateStationByName(intermediateStation.getName()) != null) {
+            messages.add("The Station Name must be unique! A station called '" + intermediateStation.getName() + "' already exists!");
         }
 
         return messages.size() == 0;
@@ -2,6 +2,11 @@ package com.TobyMellor.TrainRouteFinder.validation.validators;
 
 import com.TobyMellor.TrainRouteFinder.App;
 import com.TobyMellor.TrainRouteFinder.journeys.Journey;
+import com.TobyMellor.TrainRouteFinder.journeys.JourneyManager;
+import com.TobyMellor.TrainRouteFinder.journeys.StopTimes;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRoute;
+import com.TobyMellor.TrainRouteFinder.routes.BasicRouteManager;
+import com.TobyMellor.TrainRouteFinder.stations.StationManager;
 import com.TobyMellor.TrainRouteFinder.validation.ValidationUtils;
 import com.TobyMellor.TrainRouteFinder.validation.Validator;
 
@@ -22,8 +27,25 @@ public class JourneyValidator extends ValidationUtils implements Validator<Journ
     private List<String> messages = new ArrayList<String>();
     public Boolean alreadyExists;
 
+    private final StationManager stationManager;
+    private final BasicRouteManager basicRouteManager;
+    private final JourneyManager journeyManager;
+
     public JourneyValidator(Boolean alreadyExists) {
+        this(alreadyExists, App.getStationManager(), App.getBasicRouteManager(), App.getJourneyManager());
+    }
+
+    /**
+     * @param alreadyExists     whether the <code>Journey</code> is being loaded rather than created, so may be in the past
+     * @param stationManager    the <code>StationManager</code> the stations are checked against, if it isn't the installed one
+     * @param basicRouteManager the <code>BasicRouteManager</code> the route is checked against, if it isn't the installed one
+     * @param journeyManager    the <code>JourneyManager</code> the ID is checked against, if it isn't the installed one
+     */
+    public JourneyValidator(final Boolean alreadyExists, final StationManager stationManager, final BasicRouteManager basicRouteManager, final JourneyManager journeyManager) {
         this.alreadyExists = alreadyExists;
+        this.stationManager = stationManager;
+        this.basicRouteManager = basicRouteManager;
+        this.journeyManager = journeyManager;
     }
 
     /**
@@ -32,6 +54,7 @@ public class JourneyValidator extends ValidationUtils implements Validator<Journ
      *     - <code>basicRouteId</code> exists
      *     - all of the <code>intermediateStationIds</code> exist
      *     - none of the <code>intermediateStationIds</code> are duplicated
+     *     - any <code>stopTimes</code> give a time for each intermediate station, in order, and within the <code>BasicRoute</code>'s duration
      *     - <code>timestamp</code> is not in the past (if validating a non-existant <code>journey</code>)
      *
      * @param journey the <code>Journey</code> object
@@ -40,11 +63,13 @@ public class JourneyValidator extends ValidationUtils implements Validator<Journ
      */
     @Override
     public boolean validate(final Journey journey) {
-        if (App.getJourneyManager().getJourney(journey.getId()) != null) {
+        if (journeyManager.getJourney(journey.getId()) != null) {
             messages.add("A Journey with that ID already exists!");
         }
 
-        if (App.getBasicRouteManager().getBasicRoute(journey.getBasicRouteId()) == null) {
+        BasicRoute basicRoute = basicRouteManager.getBasicRoute(journey.getBasicRouteId());
+
+        if (basicRoute == null) {
             messages.add("The Basic Route with that ID doesn't exist!");
         }
 
@@ -53,13 +78,35 @@ public class JourneyValidator extends ValidationUtils implements Validator<Journ
         for (String intermediateStationId : journey.getIntermediateStationIds()) {
             if (checkedIntermediateStationIds.indexOf(intermediateStationId) > -1) {
                 messages.add("There is already an Intermediate Station with the ID '" + intermediateStationId + "' in your list of Intermediate Stations");
-            } else if (App.getStationManager().getIntermediateStation(intermediateStationId) == null) {
+            } else if (stationManager.getIntermediateStation(intermediateStationId) == null) {
                 messages.add("The Intermediate Station with the ID '" + intermediateStationId + "' does not exist!");
             }
 
             checkedIntermediateStationIds.add(intermediateStationId);
         }
 
+        StopTimes stopTimes = journey.getStopTimes();
+
+        if (stopTimes != null) {
+            if (stopTimes.getStopCount() != journey.getIntermediateStationIds().size()) {
+                messages.add("Every Intermediate Station needs an arrival and departure time!");
+            } else {
+                int previousDepartureOffset = 0;
+
+                for (int i = 0; i < stopTimes.getStopCount(); i++) {
+                    if (stopTimes.getArrivalOffset(i) < previousDepartureOffset || stopTimes.getDepartureOffset(i) < stopTimes.getArrivalOffset(i)) {
+                        messages.add("The times at the Intermediate Station with the ID '" + journey.getIntermediateStationIds().get(i) + "' are out of order!");
+                    }
+
+                    previousDepartureOffset = Math.max(previousDepartureOffset, stopTimes.getDepartureOffset(i));
+                }
+
+                if (basicRoute != null && previousDepartureOffset > basicRoute.getDuration()) {
+                    messages.add("The Journey cannot call at an Intermediate Station after it has arrived!");
+                }
+            }
+        }
+
         if (!alreadyExists && !new Date().before(new Date(journey.getTimestamp()))) {
             messages.add("The Journey Date cannot be set in the past!");
         }